@@ -127,3 +127,11 @@ CREATE INDEX ocspresponsedata_idx1 ON OcspResponseData (cAId);
 CREATE INDEX ocspresponsedata_idx2 ON OcspResponseData (serialNumber);
 CREATE INDEX ocspresponsedata_idx3 ON OcspResponseData (producedAt);
 
+
+-- Index for reading the revocation events of a CA or CRL partition since the last full CRL
+CREATE INDEX revocationeventdata_idx1 ON RevocationEventData (issuerDN, crlPartitionIndex, eventTime);
+
+-- Indexes for substring searches of certificates and end entities with the search index (searchindex.enabled=true),
+-- and for replacing the index rows of a certificate or end entity
+CREATE INDEX searchindexdata_idx1 ON SearchIndexData (indexType, token, sourceKey);
+CREATE INDEX searchindexdata_idx2 ON SearchIndexData (sourceKey, indexType);
@@ -472,6 +472,33 @@ CREATE TABLE IncompleteIssuanceJournalData (
     PRIMARY KEY (serialNumberAndCaId)
 );
 
+CREATE TABLE RevocationEventData (
+    id VARCHAR(254) NOT NULL,
+    issuerDN VARCHAR(254) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime BIGINT NOT NULL,
+    fingerprint VARCHAR(254),
+    serialNumber VARCHAR(254),
+    status INTEGER NOT NULL,
+    revocationDate BIGINT NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    invalidityDate BIGINT,
+    expireDate BIGINT NOT NULL,
+    rowProtection CLOB(10K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(254) NOT NULL,
+    indexType INTEGER NOT NULL,
+    sourceKey VARCHAR(254) NOT NULL,
+    token VARCHAR(254) NOT NULL,
+    rowProtection CLOB(10K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
 alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminGroupData_accessRules) references AdminGroupData;
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
@@ -475,3 +475,30 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INTEGER NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255,0) NOT NULL,
+    issuerDN VARCHAR(255,0) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime DECIMAL(18,0) NOT NULL,
+    fingerprint VARCHAR(255,0),
+    serialNumber VARCHAR(255,0),
+    status INTEGER NOT NULL,
+    revocationDate DECIMAL(18,0) NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    invalidityDate DECIMAL(18,0),
+    expireDate DECIMAL(18,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(255,0) NOT NULL,
+    indexType INTEGER NOT NULL,
+    sourceKey VARCHAR(255,0) NOT NULL,
+    token VARCHAR(255,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -476,3 +476,30 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INT4 NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(256) NOT NULL,
+    issuerDN VARCHAR(256) NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    eventTime INT8 NOT NULL,
+    fingerprint VARCHAR(256),
+    serialNumber VARCHAR(256),
+    status INT4 NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    invalidityDate INT8,
+    expireDate INT8 NOT NULL,
+    rowProtection LONG VARCHAR,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(256) NOT NULL,
+    indexType INT4 NOT NULL,
+    sourceKey VARCHAR(256) NOT NULL,
+    token VARCHAR(256) NOT NULL,
+    rowProtection LONG VARCHAR,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -481,3 +481,30 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INT(11) NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 ) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(250) BINARY NOT NULL,
+    issuerDN VARCHAR(250) BINARY NOT NULL,
+    crlPartitionIndex INT(11) NOT NULL,
+    eventTime BIGINT(20) NOT NULL,
+    fingerprint VARCHAR(250) BINARY,
+    serialNumber VARCHAR(250) BINARY,
+    status INT(11) NOT NULL,
+    revocationDate BIGINT(20) NOT NULL,
+    revocationReason INT(11) NOT NULL,
+    invalidityDate BIGINT(20),
+    expireDate BIGINT(20) NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (id)
+) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(250) BINARY NOT NULL,
+    indexType INT(11) NOT NULL,
+    sourceKey VARCHAR(250) BINARY NOT NULL,
+    token VARCHAR(250) BINARY NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (id)
+) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
@@ -476,3 +476,30 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion NUMBER(10) NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255 byte) NOT NULL,
+    issuerDN VARCHAR(255 byte) NOT NULL,
+    crlPartitionIndex NUMBER(10) NOT NULL,
+    eventTime NUMBER(19) NOT NULL,
+    fingerprint VARCHAR(255 byte),
+    serialNumber VARCHAR(255 byte),
+    status NUMBER(10) NOT NULL,
+    revocationDate NUMBER(19) NOT NULL,
+    revocationReason NUMBER(10) NOT NULL,
+    invalidityDate NUMBER(19),
+    expireDate NUMBER(19) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(255 byte) NOT NULL,
+    indexType NUMBER(10) NOT NULL,
+    sourceKey VARCHAR(255 byte) NOT NULL,
+    token VARCHAR(255 byte) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    PRIMARY KEY (id)
+);
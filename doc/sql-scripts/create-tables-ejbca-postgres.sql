@@ -473,6 +473,33 @@ CREATE TABLE IncompleteIssuanceJournalData (
     PRIMARY KEY (serialNumberAndCaId)
 );
 
+CREATE TABLE RevocationEventData (
+    id TEXT NOT NULL,
+    issuerDN TEXT NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    eventTime INT8 NOT NULL,
+    fingerprint TEXT,
+    serialNumber TEXT,
+    status INT4 NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    invalidityDate INT8,
+    expireDate INT8 NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id TEXT NOT NULL,
+    indexType INT4 NOT NULL,
+    sourceKey TEXT NOT NULL,
+    token TEXT NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
+
 alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminGroupData_accessRules) references AdminGroupData;
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
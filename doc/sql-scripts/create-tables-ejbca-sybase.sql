@@ -476,3 +476,30 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INTEGER NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255) NOT NULL,
+    issuerDN VARCHAR(255) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime DECIMAL(20,0) NOT NULL,
+    fingerprint VARCHAR(255),
+    serialNumber VARCHAR(255),
+    status INTEGER NOT NULL,
+    revocationDate DECIMAL(20,0) NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    invalidityDate DECIMAL(20,0),
+    expireDate DECIMAL(20,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE SearchIndexData (
+    id VARCHAR(255) NOT NULL,
+    indexType INTEGER NOT NULL,
+    sourceKey VARCHAR(255) NOT NULL,
+    token VARCHAR(255) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -37,3 +37,5 @@ drop table AcmeOrderData if exists;
 drop table SctData if exists;
 drop table OcspResponseData if exists;
 drop table IncompleteIssuanceJournalData if exists;
+drop table RevocationEventData if exists;
+drop table SearchIndexData if exists;
@@ -37,3 +37,5 @@ drop table AcmeOrderData;
 drop table SctData;
 drop table OcspResponseData;
 drop table IncompleteIssuanceJournalData;
+drop table RevocationEventData;
+drop table SearchIndexData;
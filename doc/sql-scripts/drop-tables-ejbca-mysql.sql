@@ -37,3 +37,5 @@ drop table if exists AcmeOrderData;
 drop table if exists SctData;
 drop table if exists OcspResponseData;
 drop table if exists IncompleteIssuanceJournalData;
+drop table if exists RevocationEventData;
+drop table if exists SearchIndexData;
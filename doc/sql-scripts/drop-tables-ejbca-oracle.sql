@@ -35,3 +35,5 @@ drop table AcmeOrderData cascade constraints;
 drop table SctData cascade constraints;
 drop table OcspResponseData cascade constraints;
 drop table IncompleteIssuanceJournalData cascade constraints;
+drop table RevocationEventData cascade constraints;
+drop table SearchIndexData cascade constraints;
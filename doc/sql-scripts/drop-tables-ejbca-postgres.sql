@@ -37,3 +37,5 @@ drop table if exists AcmeOrderData cascade;
 drop table if exists SctData cascade;
 drop table if exists OcspResponseData cascade;
 drop table if exists IncompleteIssuanceJournalData;
+drop table if exists RevocationEventData;
+drop table if exists SearchIndexData;
@@ -62,3 +62,8 @@ DROP INDEX acmechallengedata_idx1 ON AcmeChallengeData;
 DROP INDEX ocspresponsedata_idx1 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx2 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx3 ON OcspResponseData;
+
+DROP INDEX revocationeventdata_idx1 ON RevocationEventData;
+
+DROP INDEX searchindexdata_idx1 ON SearchIndexData;
+DROP INDEX searchindexdata_idx2 ON SearchIndexData;
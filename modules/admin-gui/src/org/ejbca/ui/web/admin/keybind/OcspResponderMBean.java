@@ -368,8 +368,26 @@ public class OcspResponderMBean extends InternalKeyBindingMBeanBase {
     @Override
     /** Invoked when the user wants to disable an InternalKeyBinding */
     public void commandDisable() {
+        final int internalKeyBindingId = getInternalKeyBindingGuiList().getRowData().getInternalKeyBindingId();
         super.commandDisable();
-        ocspResponseGeneratorSession.reloadOcspSigningCache(); // Force a reload of OcspSigningCache to make disable take effect immediately.
+        // Force a reload of the key binding's OcspSigningCache entry to make disable take effect immediately.
+        ocspResponseGeneratorSession.reloadOcspSigningCacheEntryForKeyBinding(internalKeyBindingId);
+    }
+
+    @Override
+    /** Invoked when the user wants to enable an InternalKeyBinding */
+    public void commandEnable() {
+        final int internalKeyBindingId = getInternalKeyBindingGuiList().getRowData().getInternalKeyBindingId();
+        super.commandEnable();
+        ocspResponseGeneratorSession.reloadOcspSigningCacheEntryForKeyBinding(internalKeyBindingId);
+    }
+
+    @Override
+    /** Invoked when the user wants to remove an InternalKeyBinding */
+    public void commandDelete() {
+        final int internalKeyBindingId = getInternalKeyBindingGuiList().getRowData().getInternalKeyBindingId();
+        super.commandDelete();
+        ocspResponseGeneratorSession.reloadOcspSigningCacheEntryForKeyBinding(internalKeyBindingId);
     }
 
     public String commandTestOcspAuditLogging() {
@@ -47,10 +47,12 @@ import org.ejbca.core.model.services.workers.CRLUpdateWorker;
 import org.ejbca.core.model.services.workers.CertificateExpirationNotifierWorker;
 import org.ejbca.core.model.services.workers.DatabaseMaintenanceWorkerConstants;
 import org.ejbca.core.model.services.workers.HsmKeepAliveWorker;
+import org.ejbca.core.model.services.workers.OcspResponseExportWorker;
 import org.ejbca.core.model.services.workers.PreCertificateRevocationWorkerConstants;
 import org.ejbca.core.model.services.workers.PublishQueueProcessWorker;
 import org.ejbca.core.model.services.workers.RenewCAWorker;
 import org.ejbca.core.model.services.workers.RolloverWorker;
+import org.ejbca.core.model.services.workers.SearchIndexBackfillWorker;
 import org.ejbca.core.model.services.workers.UserPasswordExpireWorker;
 import org.ejbca.core.model.util.EjbLocalHelper;
 import org.ejbca.ui.web.admin.BaseManagedBean;
@@ -68,11 +70,13 @@ import org.ejbca.ui.web.admin.services.servicetypes.DatabaseMaintenanceWorkerTyp
 import org.ejbca.ui.web.admin.services.servicetypes.HsmKeepAliveWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.IntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.MailActionType;
+import org.ejbca.ui.web.admin.services.servicetypes.OcspResponseExportWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PeriodicalIntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.PreCertificateRevocationWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PublishQueueWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RenewCAWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RolloverWorkerType;
+import org.ejbca.ui.web.admin.services.servicetypes.SearchIndexBackfillWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.UserPasswordExpireWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.WorkerType;
 import org.ejbca.ui.web.jsf.configuration.EjbcaJSFHelper;
@@ -285,6 +289,12 @@ public class EditServiceManagedBean extends BaseManagedBean {
         if ((cp != null) && cp.equals(HsmKeepAliveWorker.class.getName())) {
             ret = HsmKeepAliveWorkerType.NAME;
         }
+        if ((cp != null) && cp.equals(SearchIndexBackfillWorker.class.getName())) {
+            ret = SearchIndexBackfillWorkerType.NAME;
+        }
+        if ((cp != null) && cp.equals(OcspResponseExportWorker.class.getName())) {
+            ret = OcspResponseExportWorkerType.NAME;
+        }
         if ((cp != null) && cp.equals(PreCertificateRevocationWorkerConstants.WORKER_CLASS)) {
             ret = PreCertificateRevocationWorkerType.NAME;
         }
@@ -314,6 +324,12 @@ public class EditServiceManagedBean extends BaseManagedBean {
         return (CRLDownloadWorkerType) serviceConfigurationView.getServiceTypeManager().getServiceTypeByName(name);
     }
 
+    /** Help method used to edit data in the OcspResponseExportWorkerType. */
+    public OcspResponseExportWorkerType getOcspResponseExportWorkerType() {
+        String name = OcspResponseExportWorkerType.NAME;
+        return (OcspResponseExportWorkerType) serviceConfigurationView.getServiceTypeManager().getServiceTypeByName(name);
+    }
+
     /** Help method used to edit data in the PreCertificateRevocationWorkerType. */
     public PreCertificateRevocationWorkerType getPreCertificateRevocationWorkerType() {
         String name = PreCertificateRevocationWorkerType.NAME;
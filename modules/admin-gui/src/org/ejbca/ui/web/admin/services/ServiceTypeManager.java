@@ -29,10 +29,12 @@ import org.ejbca.ui.web.admin.services.servicetypes.HsmKeepAliveWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PreCertificateRevocationWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.MailActionType;
 import org.ejbca.ui.web.admin.services.servicetypes.NoActionType;
+import org.ejbca.ui.web.admin.services.servicetypes.OcspResponseExportWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PeriodicalIntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.PublishQueueWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RenewCAWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RolloverWorkerType;
+import org.ejbca.ui.web.admin.services.servicetypes.SearchIndexBackfillWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.ServiceType;
 import org.ejbca.ui.web.admin.services.servicetypes.UserPasswordExpireWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.WorkerType;
@@ -73,6 +75,8 @@ public class ServiceTypeManager implements Serializable {
         registerServiceType(new RolloverWorkerType());
         registerServiceType(new PublishQueueWorkerType());
         registerServiceType(new HsmKeepAliveWorkerType());
+        registerServiceType(new SearchIndexBackfillWorkerType());
+        registerServiceType(new OcspResponseExportWorkerType());
         // Enterprise Edition workers that don't use the custom worker framework
         final ServiceType[] eeWorkerTypes = { new PreCertificateRevocationWorkerType(), new DatabaseMaintenanceWorkerType() };
         for (final ServiceType eeWorkerType : eeWorkerTypes) {
@@ -0,0 +1,104 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.admin.services.servicetypes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.ejbca.core.model.services.workers.OcspResponseExportWorker;
+
+/**
+ * Web UI backing object for configuration of the OcspResponseExportWorker.
+ */
+public class OcspResponseExportWorkerType extends BaseWorkerType {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String NAME = "OCSPRESPONSEEXPORTWORKER";
+
+    private static final String OCSPRESPONSEEXPORTWORKER_SUB_PAGE = "ocspresponseexportworker.xhtml";
+
+    private String exportDirectory = "";
+    private String refreshMargin = String.valueOf(OcspResponseExportWorker.DEFAULT_REFRESH_MARGIN);
+    private boolean preProduceAll = false;
+
+    public OcspResponseExportWorkerType() {
+        super(OCSPRESPONSEEXPORTWORKER_SUB_PAGE, NAME, true, OcspResponseExportWorker.class.getName());
+        // No action available for this worker
+        deleteAllCompatibleActionTypes();
+        addCompatibleActionTypeName(NoActionType.NAME);
+        // Only periodical interval available for this worker
+        addCompatibleIntervalTypeName(PeriodicalIntervalType.NAME);
+    }
+
+    /** @return the directory the responses are exported to */
+    public String getExportDirectory() {
+        return exportDirectory;
+    }
+
+    /** Set the directory the responses are exported to. */
+    public void setExportDirectory(final String exportDirectory) {
+        this.exportDirectory = exportDirectory;
+    }
+
+    /** @return the number of seconds before nextUpdate at which stored responses are produced again before they are exported */
+    public String getRefreshMargin() {
+        return refreshMargin;
+    }
+
+    /** Set the number of seconds before nextUpdate at which stored responses are produced again before they are exported. */
+    public void setRefreshMargin(final String refreshMargin) {
+        this.refreshMargin = refreshMargin;
+    }
+
+    /** @return true if responses for all certificates of the CAs should be pre-produced before they are exported */
+    public boolean isPreProduceAll() {
+        return preProduceAll;
+    }
+
+    /** Set to true if responses for all certificates of the CAs should be pre-produced before they are exported. */
+    public void setPreProduceAll(final boolean preProduceAll) {
+        this.preProduceAll = preProduceAll;
+    }
+
+    @Override
+    public Properties getProperties(final ArrayList<String> errorMessages) throws IOException {
+        final Properties ret = super.getProperties(errorMessages);
+        if (StringUtils.isBlank(exportDirectory)) {
+            errorMessages.add("OCSPEXPORT_DIRECTORYERROR");
+        } else {
+            ret.setProperty(OcspResponseExportWorker.PROP_EXPORT_DIRECTORY, exportDirectory.trim());
+        }
+        try {
+            if (Long.parseLong(refreshMargin.trim()) < 0) {
+                errorMessages.add("OCSPEXPORT_REFRESHMARGINERROR");
+            } else {
+                ret.setProperty(OcspResponseExportWorker.PROP_REFRESH_MARGIN, refreshMargin.trim());
+            }
+        } catch (NumberFormatException e) {
+            errorMessages.add("OCSPEXPORT_REFRESHMARGINERROR");
+        }
+        ret.setProperty(OcspResponseExportWorker.PROP_PRE_PRODUCE_ALL, Boolean.toString(preProduceAll));
+        return ret;
+    }
+
+    @Override
+    public void setProperties(final Properties properties) throws IOException {
+        super.setProperties(properties);
+        exportDirectory = properties.getProperty(OcspResponseExportWorker.PROP_EXPORT_DIRECTORY, exportDirectory);
+        refreshMargin = properties.getProperty(OcspResponseExportWorker.PROP_REFRESH_MARGIN, refreshMargin);
+        preProduceAll = Boolean.valueOf(properties.getProperty(OcspResponseExportWorker.PROP_PRE_PRODUCE_ALL, Boolean.toString(preProduceAll)));
+    }
+}
@@ -0,0 +1,35 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.admin.services.servicetypes;
+
+import org.ejbca.core.model.services.workers.SearchIndexBackfillWorker;
+
+/**
+ * Worker type that indexes existing certificates and end entities in the search index used for substring searches.
+ */
+public class SearchIndexBackfillWorkerType extends BaseWorkerType {
+
+    public static final String NAME = "SEARCHINDEXBACKFILLWORKER";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String SEARCHINDEXBACKFILLWORKER_SUB_PAGE = "searchindexbackfillworker.xhtml";
+
+    public SearchIndexBackfillWorkerType() {
+        super(SEARCHINDEXBACKFILLWORKER_SUB_PAGE, NAME, true, SearchIndexBackfillWorker.class.getName());
+        // No action available for this worker
+        deleteAllCompatibleActionTypes();
+        addCompatibleActionTypeName(NoActionType.NAME);
+        addCompatibleIntervalTypeName(PeriodicalIntervalType.NAME);
+    }
+}
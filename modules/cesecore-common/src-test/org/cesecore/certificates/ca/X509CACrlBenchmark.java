@@ -0,0 +1,188 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamingCrlReader;
+import org.cesecore.util.CompressedCollection;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.token.CryptoToken;
+
+/**
+ * Benchmark of CRL creation for a large CA, with synthetic revoked certificates and a soft crypto token instead of a database and HSM.
+ * Reports time, peak heap usage and allocated bytes of {@link X509CA#generateCRL} and {@link X509CA#generateDeltaCRL}, both in total and
+ * per million entries.
+ * <p>
+ * The class name does not end with Test, so it is not run with the unit tests. Run it with
+ * <pre>
+ * ant -f modules/cesecore-common/build.xml crl-benchmark -Dcrl.benchmark.entries=1000000
+ * </pre>
+ * The following system properties can be set:
+ * <ul>
+ * <li>crl.benchmark.entries: number of entries of the full CRL (default 1000000)</li>
+ * <li>crl.benchmark.deltaentries: number of entries of the delta CRL (default 1% of the entries)</li>
+ * <li>crl.benchmark.serialbytes: length of the serial numbers in bytes (default 20)</li>
+ * <li>crl.benchmark.reasons: comma separated revocation reasons, used in turn (default 0,1,4,5)</li>
+ * <li>crl.benchmark.invaliditypercent: percentage of entries with an invalidity date (default 10)</li>
+ * <li>crl.benchmark.sigalg: signature algorithm of the CA (default SHA256WithRSA)</li>
+ * <li>crl.benchmark.warmup: number of CRLs created before measuring (default 1)</li>
+ * <li>crl.benchmark.rounds: number of measured CRLs (default 3)</li>
+ * </ul>
+ * The peak heap usage is the sum of the peaks of the heap memory pools, so it is an upper bound. The input collection is created before
+ * the measurement, as it would have been read from the database, and is included in the heap usage.
+ */
+public class X509CACrlBenchmark extends X509CAUnitTestBase {
+
+    private static final Logger log = Logger.getLogger(X509CACrlBenchmark.class);
+
+    private static final int ENTRIES = Integer.getInteger("crl.benchmark.entries", 1000000);
+    private static final int DELTA_ENTRIES = Integer.getInteger("crl.benchmark.deltaentries", Math.max(1, ENTRIES / 100));
+    private static final int SERIAL_BYTES = Integer.getInteger("crl.benchmark.serialbytes", 20);
+    private static final String REASONS = System.getProperty("crl.benchmark.reasons", "0,1,4,5");
+    private static final int INVALIDITY_PERCENT = Integer.getInteger("crl.benchmark.invaliditypercent", 10);
+    private static final String SIGNATURE_ALGORITHM = System.getProperty("crl.benchmark.sigalg", AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+    private static final int WARMUP_ROUNDS = Integer.getInteger("crl.benchmark.warmup", 1);
+    private static final int ROUNDS = Integer.getInteger("crl.benchmark.rounds", 3);
+    /** Same seed in each run, so that the results of different code changes can be compared */
+    private static final long SEED = 4711;
+
+    private static CryptoToken cryptoToken;
+    private static X509CA ca;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        cryptoToken = getNewCryptoToken();
+        ca = createTestCA(cryptoToken, "CN=CRL Benchmark CA", SIGNATURE_ALGORITHM, null, null);
+    }
+
+    @Test
+    public void benchmarkFullCrl() throws Exception {
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = createRevokedCertInfos(ENTRIES);
+        run("Full CRL", revokedCertInfos, false);
+        revokedCertInfos.clear();
+    }
+
+    @Test
+    public void benchmarkDeltaCrl() throws Exception {
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = createRevokedCertInfos(DELTA_ENTRIES);
+        run("Delta CRL", revokedCertInfos, true);
+        revokedCertInfos.clear();
+    }
+
+    private void run(final String name, final CompressedCollection<RevokedCertInfo> revokedCertInfos, final boolean delta) throws Exception {
+        final int entries = revokedCertInfos.size();
+        log.info(name + ": " + entries + " entries, " + SERIAL_BYTES + " byte serial numbers, reasons " + REASONS + ", " + INVALIDITY_PERCENT
+                + "% with invalidity date, " + SIGNATURE_ALGORITHM + ".");
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            generateCrl(revokedCertInfos, delta, i + 1);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            System.gc();
+            resetPeakHeap();
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            final X509CRLHolder crl = generateCrl(revokedCertInfos, delta, WARMUP_ROUNDS + i + 1);
+            final long nanos = System.nanoTime() - start;
+            final long allocated = getAllocatedBytes() - allocatedBefore;
+            final long peakHeap = getPeakHeap();
+            final byte[] encoded = crl.getEncoded();
+            bestNanos = Math.min(bestNanos, nanos);
+            log.info(String.format("%s round %d: %d ms, peak heap %d MiB, allocated %d MiB, CRL size %d KiB. Per million entries: %.0f ms, allocated %.0f MiB.",
+                    name, i + 1, nanos / 1000000, peakHeap >> 20, allocated >> 20, encoded.length >> 10,
+                    perMillion(nanos / 1000000.0, entries), perMillion(allocated / 1048576.0, entries)));
+            if (i == 0) {
+                // Check the result outside of the measurement
+                assertEquals("CRL should contain all entries.", entries, new StreamingCrlReader(encoded).getSortedEntries().size());
+            }
+        }
+        log.info(String.format("%s best round: %d ms, %.0f ms per million entries.", name, bestNanos / 1000000, perMillion(bestNanos / 1000000.0, entries)));
+    }
+
+    private static X509CRLHolder generateCrl(final CompressedCollection<RevokedCertInfo> revokedCertInfos, final boolean delta, final int crlNumber)
+            throws Exception {
+        if (delta) {
+            return ca.generateDeltaCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION, revokedCertInfos, crlNumber, 1, null);
+        }
+        return ca.generateCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION, revokedCertInfos, crlNumber, null);
+    }
+
+    /** @return synthetic revoked certificates, stored the same way as when they are read from the database */
+    private static CompressedCollection<RevokedCertInfo> createRevokedCertInfos(final int count) {
+        final Random random = new Random(SEED);
+        final List<Integer> reasons = new ArrayList<>();
+        for (final String reason : REASONS.split(",")) {
+            reasons.add(Integer.valueOf(reason.trim()));
+        }
+        final long now = System.currentTimeMillis();
+        final CompressedCollection<RevokedCertInfo> ret = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
+        for (int i = 0; i < count; i++) {
+            final byte[] serialNumber = new byte[SERIAL_BYTES];
+            random.nextBytes(serialNumber);
+            // Positive serial numbers of full length, as issued by EJBCA
+            serialNumber[0] = (byte) ((serialNumber[0] & 0x7f) | 0x40);
+            final byte[] fingerprint = String.format("%040x", new BigInteger(1, serialNumber)).substring(0, 40).getBytes();
+            final long revocationDate = now - (random.nextInt(365 * 24 * 3600) * 1000L);
+            final Long invalidityDate = random.nextInt(100) < INVALIDITY_PERCENT ? revocationDate - 3600000L : null;
+            ret.add(new RevokedCertInfo(fingerprint, new BigInteger(serialNumber).toByteArray(), revocationDate, reasons.get(i % reasons.size()),
+                    now + 365L * 24 * 3600 * 1000, invalidityDate));
+        }
+        ret.closeForWrite();
+        return ret;
+    }
+
+    private static double perMillion(final double value, final int entries) {
+        return entries == 0 ? 0 : value * 1000000.0 / entries;
+    }
+
+    private static long getAllocatedBytes() {
+        // CRL generation runs in the calling thread
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void resetPeakHeap() {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long ret = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                ret += pool.getPeakUsage().getUsed();
+            }
+        }
+        return ret;
+    }
+}
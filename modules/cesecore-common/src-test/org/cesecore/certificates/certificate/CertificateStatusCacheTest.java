@@ -0,0 +1,141 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.cesecore.certificates.certificate.CertificateStatusCache.CachedStatus;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the cache that holds the status of certificates.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusCacheTest {
+
+    private static final String CACHE_TIME = "certificatestatus.cachetime";
+    private static final String CACHE_MAX_ENTRIES = "certificatestatus.cachemaxentries";
+    private static final String ISSUER_DN = "CN=Issuer,O=Test,C=SE";
+
+    private String defaultCacheTime = null;
+    private String defaultMaxEntries = null;
+
+    @Before
+    public void before() {
+        CertificateStatusCache.INSTANCE.flush();
+        defaultCacheTime = ConfigurationHolder.getString(CACHE_TIME);
+        defaultMaxEntries = ConfigurationHolder.getString(CACHE_MAX_ENTRIES);
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, "60000");
+        ConfigurationHolder.updateConfiguration(CACHE_MAX_ENTRIES, "10");
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, defaultCacheTime);
+        ConfigurationHolder.updateConfiguration(CACHE_MAX_ENTRIES, defaultMaxEntries);
+        CertificateStatusCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testDisabledCache() {
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, "0");
+        assertFalse("Cache should be disabled.", CertificateStatusCache.INSTANCE.isEnabled());
+        put(1, CertificateStatusCache.INSTANCE.getInvalidationCount());
+        assertNull("Disabled cache should not store statuses.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, null);
+        assertFalse("Cache should be disabled unless a cache time is configured.", CertificateStatusCache.INSTANCE.isEnabled());
+    }
+
+    @Test
+    public void testOwnCacheTime() {
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, "0");
+        CertificateStatusCache.INSTANCE.put(ISSUER_DN, BigInteger.valueOf(1), new CachedStatus(CertificateConstants.CERT_ACTIVE,
+                RevokedCertInfo.NOT_REVOKED, -1L, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, Long.MAX_VALUE, false),
+                CertificateStatusCache.INSTANCE.getInvalidationCount(), 60000L);
+        assertNotNull("Status cached with its own cache time should be returned.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+        assertNull("Status older than the max age should not be returned.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1), 0L));
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        final long hits = CertificateStatusCache.INSTANCE.getHitCount();
+        final long misses = CertificateStatusCache.INSTANCE.getMissCount();
+        assertNull(CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+        put(1, CertificateStatusCache.INSTANCE.getInvalidationCount());
+        final CachedStatus cachedStatus = CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1));
+        assertNotNull(cachedStatus);
+        assertEquals(CertificateConstants.CERT_ACTIVE, cachedStatus.getStatus());
+        assertNull("Other issuer should not match.", CertificateStatusCache.INSTANCE.get("CN=Other", BigInteger.valueOf(1)));
+        assertEquals(hits + 1, CertificateStatusCache.INSTANCE.getHitCount());
+        assertEquals(misses + 2, CertificateStatusCache.INSTANCE.getMissCount());
+    }
+
+    @Test
+    public void testInvalidation() {
+        final long count = CertificateStatusCache.INSTANCE.getInvalidationCount();
+        put(1, count);
+        put(2, count);
+        CertificateStatusCache.INSTANCE.invalidate(ISSUER_DN, BigInteger.valueOf(1));
+        assertNull(CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+        assertNotNull(CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(2)));
+        // A status read before the invalidation may be stale
+        put(1, count);
+        assertNull("Stale status should not have been cached.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+        CertificateStatusCache.INSTANCE.invalidateIssuer(ISSUER_DN);
+        assertEquals("All statuses of the issuer should have been removed.", 0, CertificateStatusCache.INSTANCE.size());
+    }
+
+    @Test
+    public void testExpiredStatus() {
+        ConfigurationHolder.updateConfiguration(CACHE_TIME, "1");
+        put(1, CertificateStatusCache.INSTANCE.getInvalidationCount());
+        final long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 10) {
+            Thread.yield();
+        }
+        assertNull("Expired status should not be returned.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(1)));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        final long evictions = CertificateStatusCache.INSTANCE.getEvictionCount();
+        for (int i = 0; i < 25; i++) {
+            put(i, CertificateStatusCache.INSTANCE.getInvalidationCount());
+            assertTrue("Cache should not grow beyond configured size.", CertificateStatusCache.INSTANCE.size() <= 10);
+        }
+        assertNotNull("Last status should be cached.", CertificateStatusCache.INSTANCE.get(ISSUER_DN, BigInteger.valueOf(24)));
+        assertTrue(CertificateStatusCache.INSTANCE.getEvictionCount() > evictions);
+    }
+
+    private void put(final int serialNumber, final long invalidationCount) {
+        CertificateStatusCache.INSTANCE.put(ISSUER_DN, BigInteger.valueOf(serialNumber), new CachedStatus(CertificateConstants.CERT_ACTIVE,
+                RevokedCertInfo.NOT_REVOKED, -1L, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, Long.MAX_VALUE, false),
+                invalidationCount);
+    }
+}
@@ -0,0 +1,181 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Unit tests for CrlEntryMerger
+ *
+ * @version $Id$
+ */
+public class CrlEntryMergerTest {
+
+    private static final Date PREVIOUS_REVOCATION_DATE = new Date(1700000000000L);
+    private static final Date INVALIDITY_DATE = new Date(1690000000000L);
+    private static final Date NEW_REVOCATION_DATE = new Date(1700086400000L);
+
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CrlEntryMergerTest"), PREVIOUS_REVOCATION_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(1), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        builder.addCRLEntry(BigInteger.valueOf(2), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, INVALIDITY_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(3), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED);
+        builder.addCRLEntry(BigInteger.valueOf(4), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        builder.addCRLEntry(BigInteger.valueOf(5), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_AFFILIATIONCHANGED);
+        final byte[] previousCrl = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+        final List<RevokedCertInfo> changed = Arrays.asList(
+                // Revoked again after it was put on hold after the previous CRL
+                createRevokedCertInfo(3, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD),
+                createRevokedCertInfo(4, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL),
+                createRevokedCertInfo(6, RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE),
+                createRevokedCertInfo(7, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL),
+                createRevokedCertInfo(8, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        final List<RevokedCertInfo> expired = Arrays.asList(
+                createRevokedCertInfo(5, RevokedCertInfo.REVOCATION_REASON_AFFILIATIONCHANGED),
+                createRevokedCertInfo(8, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE),
+                createRevokedCertInfo(9, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        final Collection<RevokedCertInfo> merged = CrlEntryMerger.merge(previousCrl, changed, expired);
+        final Map<BigInteger, RevokedCertInfo> entries = new HashMap<>();
+        final List<BigInteger> order = new ArrayList<>();
+        for (final RevokedCertInfo revokedCertInfo : merged) {
+            entries.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+            order.add(revokedCertInfo.getUserCertificate());
+        }
+        assertEquals("Unchanged entries should be kept in order, followed by new entries.",
+                Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(6)), order);
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, entries.get(BigInteger.valueOf(1)).getReason());
+        assertEquals(PREVIOUS_REVOCATION_DATE, entries.get(BigInteger.valueOf(1)).getRevocationDate());
+        assertNull(entries.get(BigInteger.valueOf(1)).getInvalidityDate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, entries.get(BigInteger.valueOf(2)).getReason());
+        assertEquals(INVALIDITY_DATE, entries.get(BigInteger.valueOf(2)).getInvalidityDate());
+        assertEquals("Changed entry should be replaced.", RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, entries.get(BigInteger.valueOf(3)).getReason());
+        assertEquals(NEW_REVOCATION_DATE, entries.get(BigInteger.valueOf(3)).getRevocationDate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE, entries.get(BigInteger.valueOf(6)).getReason());
+    }
+
+    @Test
+    public void testMergeWithCertificateOnHold() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CrlEntryMergerTest"), PREVIOUS_REVOCATION_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(1), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        builder.addCRLEntry(BigInteger.valueOf(2), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        final byte[] previousCrl = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+        final List<RevokedCertInfo> reactivated = Collections.singletonList(createRevokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL));
+        assertNull("Entry on hold without changes should require reading all revoked certificates.",
+                CrlEntryMerger.merge(previousCrl, reactivated, Collections.emptyList()));
+        final List<RevokedCertInfo> expired = Collections.singletonList(createRevokedCertInfo(2, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD));
+        assertEquals("Entries on hold with known status should not prevent merging.", 0,
+                CrlEntryMerger.merge(previousCrl, reactivated, expired).size());
+    }
+
+    @Test
+    public void testMergeBackdatedRevocation() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CrlEntryMergerTest"), NEW_REVOCATION_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(1), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        final byte[] previousCrl = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+        // Revoked after the previous CRL was issued, with a revocation date before it, and an unchanged entry read because of the overlap
+        final List<RevokedCertInfo> changed = Arrays.asList(
+                new RevokedCertInfo("fingerprint1".getBytes(), BigInteger.valueOf(1).toByteArray(), PREVIOUS_REVOCATION_DATE.getTime(),
+                        RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, NEW_REVOCATION_DATE.getTime() + 86400000L),
+                new RevokedCertInfo("fingerprint2".getBytes(), BigInteger.valueOf(2).toByteArray(), PREVIOUS_REVOCATION_DATE.getTime(),
+                        RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, NEW_REVOCATION_DATE.getTime() + 86400000L));
+        final Collection<RevokedCertInfo> merged = CrlEntryMerger.merge(previousCrl, changed, Collections.emptyList());
+        final Map<BigInteger, RevokedCertInfo> entries = new HashMap<>();
+        for (final RevokedCertInfo revokedCertInfo : merged) {
+            entries.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+        }
+        assertEquals("Each certificate should be listed once.", 2, merged.size());
+        assertEquals(PREVIOUS_REVOCATION_DATE, entries.get(BigInteger.valueOf(1)).getRevocationDate());
+        assertEquals("Backdated revocation should be added.", RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, entries.get(BigInteger.valueOf(2)).getReason());
+        assertEquals(PREVIOUS_REVOCATION_DATE, entries.get(BigInteger.valueOf(2)).getRevocationDate());
+    }
+
+    @Test
+    public void testRemoveUnchanged() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CrlEntryMergerTest"), PREVIOUS_REVOCATION_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(1), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        builder.addCRLEntry(BigInteger.valueOf(2), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, INVALIDITY_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(3), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        builder.addCRLEntry(BigInteger.valueOf(4), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        builder.addCRLEntry(BigInteger.valueOf(5), PREVIOUS_REVOCATION_DATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, INVALIDITY_DATE);
+        final byte[] baseCrl = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+        final long expireDate = NEW_REVOCATION_DATE.getTime() + 86400000L;
+        final List<RevokedCertInfo> changed = Arrays.asList(
+                // Committed before the base CRL was generated, read because of the overlap. CRL dates have a resolution of seconds.
+                new RevokedCertInfo("fingerprint1".getBytes(), BigInteger.valueOf(1).toByteArray(), PREVIOUS_REVOCATION_DATE.getTime() + 123,
+                        RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, expireDate),
+                // Invalidity date removed
+                new RevokedCertInfo("fingerprint2".getBytes(), BigInteger.valueOf(2).toByteArray(), PREVIOUS_REVOCATION_DATE.getTime(),
+                        RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, expireDate, null),
+                createRevokedCertInfo(3, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL),
+                createRevokedCertInfo(4, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE),
+                new RevokedCertInfo("fingerprint5".getBytes(), BigInteger.valueOf(5).toByteArray(), PREVIOUS_REVOCATION_DATE.getTime(),
+                        RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, expireDate, INVALIDITY_DATE.getTime()),
+                // Revoked and reactivated after the base CRL
+                createRevokedCertInfo(6, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL),
+                createRevokedCertInfo(7, RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE));
+        final List<BigInteger> order = new ArrayList<>();
+        for (final RevokedCertInfo revokedCertInfo : CrlEntryMerger.removeUnchanged(baseCrl, changed)) {
+            order.add(revokedCertInfo.getUserCertificate());
+        }
+        assertEquals("Only actual changes should be kept, in order.",
+                Arrays.asList(BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(4), BigInteger.valueOf(7)), order);
+    }
+
+    @Test
+    public void testMergeInvalidCrl() throws Exception {
+        try {
+            CrlEntryMerger.merge(new byte[] { 0x30, 0x03, 0x02, 0x01, 0x01 }, Collections.emptyList(), Collections.emptyList());
+            fail("Invalid CRL should be rejected.");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static RevokedCertInfo createRevokedCertInfo(final long serialNumber, final int reason) {
+        return new RevokedCertInfo(("fingerprint" + serialNumber).getBytes(), BigInteger.valueOf(serialNumber).toByteArray(), NEW_REVOCATION_DATE.getTime(),
+                reason, NEW_REVOCATION_DATE.getTime() + 86400000L);
+    }
+}
@@ -0,0 +1,142 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Tests that StreamingCrlBuilder produces the same CRLs as X509v2CRLBuilder.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlBuilderTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCrlBuilderTest,O=Test");
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testEmptyCrl() throws Exception {
+        assertSameAsBouncyCastle(0, StreamingCrlBuilder.MEMORY_THRESHOLD, true);
+        assertSameAsBouncyCastle(0, StreamingCrlBuilder.MEMORY_THRESHOLD, false);
+    }
+
+    @Test
+    public void testCrlInMemory() throws Exception {
+        assertSameAsBouncyCastle(1, StreamingCrlBuilder.MEMORY_THRESHOLD, true);
+        assertSameAsBouncyCastle(5000, StreamingCrlBuilder.MEMORY_THRESHOLD, true);
+    }
+
+    @Test
+    public void testCrlInTemporaryFile() throws Exception {
+        assertSameAsBouncyCastle(5000, 1000, true);
+        assertSameAsBouncyCastle(5000, 0, false);
+    }
+
+    @Test
+    public void testSignatureVerification() throws Exception {
+        final Date now = new Date();
+        final byte[] encoded;
+        try (final StreamingCrlBuilder builder = new StreamingCrlBuilder(ISSUER, now, 100)) {
+            for (int i = 0; i < 100; i++) {
+                builder.addCRLEntry(BigInteger.valueOf(i), now, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+            }
+            final X509CRLHolder crl = builder.build(createSigner());
+            assertTrue("Signature should be valid.", crl.isSignatureValid(new JcaContentVerifierProviderBuilder().build(keys.getPublic())));
+            encoded = crl.getEncoded();
+        }
+        final KeyPair otherKeys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        assertFalse("Signature should not be valid with another key.",
+                new X509CRLHolder(encoded).isSignatureValid(new JcaContentVerifierProviderBuilder().build(otherKeys.getPublic())));
+        // Flip a bit in a serial number
+        encoded[encoded.length / 2] ^= 1;
+        assertFalse("Signature of modified CRL should not be valid.",
+                new X509CRLHolder(encoded).isSignatureValid(new JcaContentVerifierProviderBuilder().build(keys.getPublic())));
+    }
+
+    private void assertSameAsBouncyCastle(final int entryCount, final int memoryThreshold, final boolean withExtensions) throws Exception {
+        final Date thisUpdate = new Date(1700000000000L);
+        final Date nextUpdate = new Date(thisUpdate.getTime() + 86400000L);
+        final X509v2CRLBuilder expectedBuilder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        expectedBuilder.setNextUpdate(nextUpdate);
+        try (final StreamingCrlBuilder builder = new StreamingCrlBuilder(ISSUER, thisUpdate, memoryThreshold)) {
+            builder.setNextUpdate(nextUpdate);
+            for (int i = 0; i < entryCount; i++) {
+                final BigInteger serialNumber = new BigInteger(1, BigInteger.valueOf(i * 7919L).toByteArray()).shiftLeft(i % 128);
+                final Date revocationDate = new Date(thisUpdate.getTime() - i * 1000L);
+                final int reason = i % 11 == 7 ? RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED : i % 11;
+                if (i % 3 == 0) {
+                    final Date invalidityDate = new Date(revocationDate.getTime() - 3600000L);
+                    expectedBuilder.addCRLEntry(serialNumber, revocationDate, reason, invalidityDate);
+                    builder.addCRLEntry(serialNumber, revocationDate, reason, invalidityDate);
+                } else {
+                    expectedBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+                    builder.addCRLEntry(serialNumber, revocationDate, reason);
+                }
+            }
+            if (withExtensions) {
+                final ExtensionsGenerator extensionsGenerator = new ExtensionsGenerator();
+                extensionsGenerator.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+                extensionsGenerator.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(4710));
+                final Extensions extensions = extensionsGenerator.generate();
+                for (final ASN1ObjectIdentifier oid : extensions.getExtensionOIDs()) {
+                    expectedBuilder.addExtension(extensions.getExtension(oid));
+                }
+                builder.setExtensions(extensions);
+            }
+            assertEquals(entryCount, builder.getEntryCount());
+            final byte[] expected = expectedBuilder.build(createSigner()).getEncoded();
+            final X509CRLHolder crl = builder.build(createSigner());
+            assertArrayEquals("CRL with " + entryCount + " entries should be encoded like by X509v2CRLBuilder.", expected, crl.getEncoded());
+            assertEquals(ISSUER, crl.getIssuer());
+            assertEquals(nextUpdate, crl.getNextUpdate());
+            assertEquals(entryCount, crl.getRevokedCertificates().size());
+        }
+    }
+
+    /** RSA PKCS#1 v1.5 signatures are deterministic, so the same content gives the same signature */
+    private static ContentSigner createSigner() throws Exception {
+        return new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate());
+    }
+}
@@ -0,0 +1,166 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Unit tests for StreamingCrlReader
+ *
+ * @version $Id$
+ */
+public class StreamingCrlReaderTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCrlReaderTest");
+    private static final Date THIS_UPDATE = new Date(1700000000000L);
+    private static final Date NEXT_UPDATE = new Date(1700086400000L);
+    private static final Date INVALIDITY_DATE = new Date(1690000000000L);
+
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testReadCrl() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.setNextUpdate(NEXT_UPDATE);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(42)));
+        builder.addCRLEntry(BigInteger.valueOf(300), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, INVALIDITY_DATE);
+        builder.addCRLEntry(BigInteger.valueOf(2), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        builder.addCRLEntry(new BigInteger("123456789012345678901234567890"), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        final StreamingCrlReader crl = new StreamingCrlReader(sign(builder));
+        assertEquals(ISSUER, crl.getIssuer());
+        assertEquals(THIS_UPDATE, crl.getThisUpdate());
+        assertEquals(NEXT_UPDATE, crl.getNextUpdate());
+        assertEquals(BigInteger.valueOf(42), crl.getCrlNumber());
+        assertEquals(BigInteger.valueOf(-1), crl.getDeltaCrlIndicator());
+        assertEquals("Extension value should be encoded like X509CRL.getExtensionValue.",
+                new DEROctetString(new CRLNumber(BigInteger.valueOf(42))), ASN1OctetString.getInstance(crl.getExtensionValue(Extension.cRLNumber)));
+        assertNull(crl.getExtensionValue(Extension.freshestCRL));
+        crl.verify(keys.getPublic());
+        final List<StreamingCrlReader.Entry> entries = crl.getSortedEntries();
+        assertEquals("Entries should be sorted by serial number.",
+                Arrays.asList(BigInteger.valueOf(2), BigInteger.valueOf(300), new BigInteger("123456789012345678901234567890")), getSerialNumbers(entries));
+        final RevokedCertInfo revokedCertInfo = entries.get(1).toRevokedCertInfo();
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revokedCertInfo.getReason());
+        assertEquals(THIS_UPDATE, revokedCertInfo.getRevocationDate());
+        assertEquals(INVALIDITY_DATE, revokedCertInfo.getInvalidityDate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, entries.get(0).toRevokedCertInfo().getReason());
+        assertNull(entries.get(0).getCertificateIssuer());
+    }
+
+    @Test
+    public void testReadDeltaCrlWithoutEntries() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(43)));
+        builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(BigInteger.valueOf(42)));
+        final StreamingCrlReader crl = new StreamingCrlReader(sign(builder));
+        assertNull(crl.getNextUpdate());
+        assertEquals(BigInteger.valueOf(42), crl.getDeltaCrlIndicator());
+        assertTrue(crl.getSortedEntries().isEmpty());
+    }
+
+    @Test
+    public void testVerifyWithWrongKey() throws Exception {
+        final StreamingCrlReader crl = new StreamingCrlReader(sign(new X509v2CRLBuilder(ISSUER, THIS_UPDATE)));
+        try {
+            crl.verify(KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA).getPublic());
+            fail("CRL signed with another key should not verify.");
+        } catch (SignatureException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testGetNewOrChangedEntries() throws Exception {
+        final X509v2CRLBuilder previousBuilder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        previousBuilder.addCRLEntry(BigInteger.valueOf(1), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        previousBuilder.addCRLEntry(BigInteger.valueOf(3), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        previousBuilder.addCRLEntry(BigInteger.valueOf(4), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        previousBuilder.addCRLEntry(BigInteger.valueOf(6), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED);
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, NEXT_UPDATE);
+        // Unchanged, but in another order
+        builder.addCRLEntry(BigInteger.valueOf(6), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED);
+        builder.addCRLEntry(BigInteger.valueOf(1), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        // Revoked permanently after being on hold
+        builder.addCRLEntry(BigInteger.valueOf(3), THIS_UPDATE, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        // New entries, while 4 has been removed
+        builder.addCRLEntry(BigInteger.valueOf(5), NEXT_UPDATE, RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE);
+        builder.addCRLEntry(BigInteger.valueOf(7), NEXT_UPDATE, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED);
+        final List<StreamingCrlReader.Entry> previousEntries = new StreamingCrlReader(sign(previousBuilder)).getSortedEntries();
+        final List<StreamingCrlReader.Entry> entries = new StreamingCrlReader(sign(builder)).getSortedEntries();
+        assertEquals(Arrays.asList(BigInteger.valueOf(3), BigInteger.valueOf(5), BigInteger.valueOf(7)),
+                getSerialNumbers(StreamingCrlReader.getNewOrChangedEntries(entries, previousEntries)));
+        assertEquals("All entries should be new when there is no previous CRL.", 5,
+                StreamingCrlReader.getNewOrChangedEntries(entries, new ArrayList<StreamingCrlReader.Entry>()).size());
+    }
+
+    @Test
+    public void testReadInvalidCrl() throws Exception {
+        try {
+            new StreamingCrlReader(new byte[] { 0x30, 0x03, 0x02, 0x01, 0x01 });
+            fail("Invalid CRL should be rejected.");
+        } catch (IOException e) {
+            // Expected
+        }
+        final byte[] truncated = Arrays.copyOf(sign(new X509v2CRLBuilder(ISSUER, THIS_UPDATE)), 40);
+        try {
+            new StreamingCrlReader(truncated);
+            fail("Truncated CRL should be rejected.");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] sign(final X509v2CRLBuilder builder) throws Exception {
+        return builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+    }
+
+    private static List<BigInteger> getSerialNumbers(final List<StreamingCrlReader.Entry> entries) {
+        final List<BigInteger> ret = new ArrayList<>();
+        for (final StreamingCrlReader.Entry entry : entries) {
+            ret.add(entry.getSerialNumber());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,173 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the in-memory certificate status index used by OCSP.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusIndexTest {
+
+    private static final String ISSUER_DN = "CN=CertificateStatusIndexTest";
+    private static final int PROFILE_A = 4711;
+    private static final int PROFILE_B = 4712;
+
+    private String defaultConfigurationValue = null;
+
+    @Before
+    public void before() {
+        CertificateStatusIndex.INSTANCE.flush();
+        defaultConfigurationValue = ConfigurationHolder.getString(OcspConfiguration.STATUS_INDEX_ENABLED);
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.STATUS_INDEX_ENABLED, "true");
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.STATUS_INDEX_ENABLED, defaultConfigurationValue);
+        CertificateStatusIndex.INSTANCE.flush();
+    }
+
+    @Test
+    public void testBloomFilter() {
+        final SerialNumberBloomFilter filter = new SerialNumberBloomFilter(10000, 1E-6);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(BigInteger.valueOf(i * 3));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue("Added serial number must always be found.", filter.mightContain(BigInteger.valueOf(i * 3)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(BigInteger.valueOf(i * 3 + 1))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives <= 1);
+        assertFalse(filter.isSaturated());
+        filter.put(BigInteger.valueOf(-1));
+        assertTrue("Filter should be saturated after more insertions than it was sized for.", filter.isSaturated());
+    }
+
+    @Test
+    public void testLookup() {
+        buildIndex();
+        final CertificateStatus good = CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(1));
+        assertEquals(CertificateStatus.OK, good);
+        assertEquals(PROFILE_A, good.certificateProfileId);
+        assertEquals(PROFILE_B, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)).certificateProfileId);
+        final CertificateStatus revoked = CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3));
+        assertEquals(CertificateStatus.REVOKED, revoked);
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revoked.revocationReason);
+        assertEquals(1000L, revoked.revocationDate.getTime());
+        assertNull("Unknown certificate must be looked up in the database.", CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(4)));
+        assertNull("Unknown issuer must be looked up in the database.", CertificateStatusIndex.INSTANCE.getStatus("CN=Other", BigInteger.valueOf(1)));
+    }
+
+    @Test
+    public void testUpdateAndLearn() {
+        buildIndex();
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(1), revoked(2000L, PROFILE_A));
+        assertEquals(CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(1)));
+        // A status read from the database before the revocation must not undo it
+        CertificateStatusIndex.INSTANCE.learnStatus(ISSUER_DN, BigInteger.valueOf(1), good(PROFILE_A));
+        assertEquals(CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(1)));
+        // Certificate issued by another node
+        CertificateStatusIndex.INSTANCE.learnStatus(ISSUER_DN, BigInteger.valueOf(4), good(PROFILE_B));
+        assertEquals(CertificateStatus.OK, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(4)));
+        CertificateStatusIndex.INSTANCE.learnStatus(ISSUER_DN, BigInteger.valueOf(5), CertificateStatus.NOT_AVAILABLE);
+        assertNull(CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(5)));
+        // Deleted entry
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(3), CertificateStatus.NOT_AVAILABLE);
+        assertNull("Deleted certificate must be looked up in the database.", CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testReplaceRevoked() {
+        buildIndex();
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(1), revoked(2000L, PROFILE_A));
+        // Database read that did not see the local revocation, and where certificate 3 was unrevoked and 2 revoked by another node
+        final long readTime = System.currentTimeMillis();
+        CertificateStatusIndex.INSTANCE.replaceRevoked(ISSUER_DN,
+                Collections.singletonList(new CertificateStatusIndex.RevokedEntry(BigInteger.valueOf(2), 3000L, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, PROFILE_B)),
+                readTime);
+        assertEquals("Local change should have been kept.", CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(1)));
+        assertEquals(CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        assertEquals(CertificateStatus.OK, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testManyRevocations() {
+        buildIndex();
+        for (int i = 100; i < 20100; i++) {
+            CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(i), revoked(i, PROFILE_A));
+        }
+        assertEquals(19999L, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(19999)).revocationDate.getTime());
+        // Revocation date changed, e.g. by a new revocation of a certificate on hold
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(5000), revoked(1L, PROFILE_A));
+        assertEquals(1L, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(5000)).revocationDate.getTime());
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(5001), good(PROFILE_A));
+        assertEquals(CertificateStatus.OK, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(5001)));
+        assertEquals(CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testRebuild() {
+        assertTrue("Missing index should be built.", CertificateStatusIndex.INSTANCE.needsRebuild(ISSUER_DN, 60000));
+        buildIndex();
+        assertFalse(CertificateStatusIndex.INSTANCE.needsRebuild(ISSUER_DN, 60000));
+        CertificateStatusIndex.INSTANCE.updateStatus(ISSUER_DN, BigInteger.valueOf(2), revoked(2000L, PROFILE_B));
+        // Changes made while the new index is built are carried over
+        buildIndex();
+        assertEquals(CertificateStatus.REVOKED, CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        CertificateStatusIndex.INSTANCE.retainIssuers(Collections.singletonList("CN=Other"));
+        assertNull(CertificateStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(1)));
+    }
+
+    private void buildIndex() {
+        final Map<Integer, Long> countPerProfile = new HashMap<>();
+        countPerProfile.put(PROFILE_A, 1L);
+        countPerProfile.put(PROFILE_B, 2L);
+        final CertificateStatusIndex.Builder builder = CertificateStatusIndex.INSTANCE.newBuilder(countPerProfile);
+        builder.add(BigInteger.valueOf(1), good(PROFILE_A));
+        builder.add(BigInteger.valueOf(2), good(PROFILE_B));
+        builder.add(BigInteger.valueOf(3), revoked(1000L, PROFILE_B));
+        CertificateStatusIndex.INSTANCE.putIndex(ISSUER_DN, builder);
+    }
+
+    private CertificateStatus good(final int certificateProfileId) {
+        return new CertificateStatus(CertificateStatus.OK.toString(), -1L, RevokedCertInfo.NOT_REVOKED, certificateProfileId);
+    }
+
+    private CertificateStatus revoked(final long revocationDate, final int certificateProfileId) {
+        return new CertificateStatus(CertificateStatus.REVOKED.toString(), revocationDate, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, certificateProfileId);
+    }
+}
@@ -0,0 +1,164 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache.CachedOcspResponse;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Test of the cache that holds signed OCSP responses.
+ *
+ * @version $Id$
+ */
+public class OcspResponseCacheTest {
+
+    private String defaultConfigurationValue = null;
+    private OCSPResp ocspResponse;
+
+    @Before
+    public void before() throws Exception {
+        OcspResponseCache.INSTANCE.flush();
+        defaultConfigurationValue = ConfigurationHolder.getString(OcspConfiguration.RESPONSE_CACHE_MAX_ENTRIES);
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_ENTRIES, "2");
+        ocspResponse = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, null);
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_ENTRIES, defaultConfigurationValue);
+        OcspResponseCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testCacheDisabled() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_ENTRIES, "0");
+        assertFalse("Cache should be disabled.", OcspResponseCache.INSTANCE.isEnabled());
+        final long now = System.currentTimeMillis();
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, 0, OcspResponseCache.INSTANCE.getInvalidationCount());
+        assertNull("Disabled cache should not store responses.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 1), 0));
+    }
+
+    @Test
+    public void testLookupAndExpiry() {
+        final long now = System.currentTimeMillis();
+        final long count = OcspResponseCache.INSTANCE.getInvalidationCount();
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, now + 30000, count);
+        final CachedOcspResponse cached = OcspResponseCache.INSTANCE.getResponse(createCertId(1, 1), 0);
+        assertNotNull("Response should have been cached.", cached);
+        assertSame(ocspResponse, cached.getOcspResponse());
+        assertEquals("Expire time should be the earliest of thisUpdate+maxAge and nextUpdate.", now + 30000, cached.getExpireTime());
+        assertNull("Other key binding should not match.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 1), 4711));
+        assertNull("Other issuer should not match.", OcspResponseCache.INSTANCE.getResponse(createCertId(2, 1), 0));
+        // Already expired response is never stored
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 2), 0, ocspResponse, 1000, null, now - 2000, 0, count);
+        assertNull("Expired response should not have been cached.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 2), 0));
+        // Neither maxAge nor nextUpdate
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 3), 0, ocspResponse, 0, null, now, 0, count);
+        assertNull("Response without validity should not have been cached.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 3), 0));
+    }
+
+    @Test
+    public void testBounded() {
+        final long now = System.currentTimeMillis();
+        final long count = OcspResponseCache.INSTANCE.getInvalidationCount();
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 2), 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 3), 0, ocspResponse, 60000, null, now, 0, count);
+        assertEquals("Cache should not grow beyond configured size.", 2, OcspResponseCache.INSTANCE.size());
+        assertNull(OcspResponseCache.INSTANCE.getResponse(createCertId(1, 3), 0));
+    }
+
+    @Test
+    public void testExpiredRemovedAtMostOncePerInterval() throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        final long count = OcspResponseCache.INSTANCE.getInvalidationCount();
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 100, null, now, 0, count);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 2), 0, ocspResponse, 100, null, now, 0, count);
+        Thread.sleep(200);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 3), 0, ocspResponse, 60000, null, System.currentTimeMillis(), 0, count);
+        assertNotNull("Expired entries of a full cache should have been removed.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 3), 0));
+        assertEquals(1, OcspResponseCache.INSTANCE.size());
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 4), 0, ocspResponse, 100, null, System.currentTimeMillis(), 0, count);
+        Thread.sleep(200);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 5), 0, ocspResponse, 60000, null, System.currentTimeMillis(), 0, count);
+        assertNull("Full cache should not be scanned again within the interval.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 5), 0));
+    }
+
+    @Test
+    public void testInvalidation() {
+        final long now = System.currentTimeMillis();
+        final long count = OcspResponseCache.INSTANCE.getInvalidationCount();
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(2, 1), 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.invalidate(BigInteger.valueOf(1));
+        assertEquals("All responses for the serial number should have been removed.", 0, OcspResponseCache.INSTANCE.size());
+        // A response produced from a status read before the invalidation must not be cached
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, 0, count);
+        assertNull("Stale response should not have been cached.", OcspResponseCache.INSTANCE.getResponse(createCertId(1, 1), 0));
+        OcspResponseCache.INSTANCE.putResponse(createCertId(1, 1), 0, ocspResponse, 60000, null, now, 0, OcspResponseCache.INSTANCE.getInvalidationCount());
+        assertNotNull(OcspResponseCache.INSTANCE.getResponse(createCertId(1, 1), 0));
+    }
+
+    @Test
+    public void testIssuerInvalidation() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        final X509Certificate caCertificate = CertTools.genSelfCert("CN=OcspResponseCacheTest", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        final CertificateID caCertId = new JcaCertificateID(new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256)),
+                caCertificate, BigInteger.valueOf(1));
+        final long now = System.currentTimeMillis();
+        final long count = OcspResponseCache.INSTANCE.getInvalidationCount();
+        OcspResponseCache.INSTANCE.putResponse(caCertId, 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.putResponse(createCertId(2, 1), 0, ocspResponse, 60000, null, now, 0, count);
+        OcspResponseCache.INSTANCE.invalidateIssuer(caCertificate);
+        assertNull("Response for the CA should have been removed.", OcspResponseCache.INSTANCE.getResponse(caCertId, 0));
+        assertNotNull("Response for another CA should have been kept.", OcspResponseCache.INSTANCE.getResponse(createCertId(2, 1), 0));
+    }
+
+    private CertificateID createCertId(final int issuer, final long serialNumber) {
+        final byte[] issuerHash = new byte[32];
+        issuerHash[0] = (byte) issuer;
+        return new CertificateID(new CertID(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256), new DEROctetString(issuerHash),
+                new DEROctetString(issuerHash), new ASN1Integer(serialNumber)));
+    }
+}
@@ -0,0 +1,176 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Test of the directory tree of exported OCSP responses.
+ *
+ * @version $Id$
+ */
+public class OcspResponseFileTreeTest {
+
+    private static KeyPair keys;
+    private static X509Certificate caCertificate;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        caCertificate = CertTools.genSelfCert("CN=OcspResponseFileTreeTest", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+    }
+
+    @Test
+    public void testExportAndRead() throws Exception {
+        final OcspResponseFileTree tree = new OcspResponseFileTree(folder.getRoot().getAbsolutePath());
+        final CertificateID certId1 = getCertId(BigInteger.valueOf(1));
+        final CertificateID certId2 = getCertId(BigInteger.valueOf(2));
+        final byte[] response1 = createResponse(certId1, 1000L);
+        final byte[] response2 = createResponse(certId2, 1000L);
+        assertNull("Nothing should be found before the first export.", tree.getResponse(getRequest(certId1)));
+        try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+            assertTrue(writer.add(4711, "1", 1000L, 2000L, response1));
+            assertTrue(writer.add(4711, "2", 1000L, 2000L, response2));
+            assertNull("Responses must not be visible before commit.", tree.getResponse(getRequest(certId1)));
+            writer.commit();
+            assertEquals(2, writer.getWrittenCount());
+        }
+        assertArrayEquals(response1, tree.getResponse(getRequest(certId1)));
+        assertArrayEquals(response2, tree.getResponse(getRequest(certId2)));
+        assertEquals(2, tree.getCurrentManifest().size());
+        // Only the changed response is written again
+        final byte[] newResponse2 = createResponse(certId2, 3000L);
+        try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+            writer.add(4711, "1", 1000L, 2000L, response1);
+            writer.add(4711, "2", 3000L, 4000L, newResponse2);
+            writer.commit();
+            assertEquals(1, writer.getWrittenCount());
+        }
+        assertArrayEquals(response1, tree.getResponse(getRequest(certId1)));
+        assertArrayEquals(newResponse2, tree.getResponse(getRequest(certId2)));
+        assertEquals(3000L, tree.getCurrentManifest().get(OcspResponseFileTree.getRequestKey(getRequest(certId2))).getProducedAt());
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        final OcspResponseFileTree tree = new OcspResponseFileTree(folder.getRoot().getAbsolutePath());
+        final CertificateID certId = getCertId(BigInteger.valueOf(1));
+        final byte[] response = createResponse(certId, 1000L);
+        for (int i = 0; i < 3; i++) {
+            try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+                writer.add(4711, "1", 1000L, 2000L, response);
+                writer.commit();
+            }
+        }
+        assertEquals("Only the current and previous snapshot should be kept.", 2, countSnapshots());
+        try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+            writer.add(4711, "1", 1000L, 2000L, response);
+            // Not committed
+        }
+        assertEquals("Snapshot that was not committed should be deleted.", 2, countSnapshots());
+        assertArrayEquals(response, tree.getResponse(getRequest(certId)));
+        final Extensions nonce = new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false, new byte[] { 4, 1, 1 }));
+        assertNull("Request with a nonce should not be found.",
+                tree.getResponse(new OCSPReqBuilder().addRequest(certId).setRequestExtensions(nonce).build().getEncoded()));
+    }
+
+    @Test
+    public void testRemoveResponses() throws Exception {
+        final OcspResponseFileTree tree = new OcspResponseFileTree(folder.getRoot().getAbsolutePath());
+        assertEquals("Nothing should be removed before the first export.", 0, tree.removeResponses(caCertificate, BigInteger.valueOf(1)));
+        final CertificateID certId1 = getCertId(BigInteger.valueOf(1));
+        final CertificateID certId2 = getCertId(BigInteger.valueOf(2));
+        final byte[] response2 = createResponse(certId2, 1000L);
+        try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+            writer.add(4711, "1", 1000L, 2000L, createResponse(certId1, 1000L));
+            writer.add(4711, "2", 1000L, 2000L, response2);
+            writer.commit();
+        }
+        assertEquals(1, tree.removeResponses(caCertificate, BigInteger.valueOf(1)));
+        assertNull("Removed response should not be found.", tree.getResponse(getRequest(certId1)));
+        assertArrayEquals(response2, tree.getResponse(getRequest(certId2)));
+        // The next export writes the removed response again
+        final byte[] newResponse1 = createResponse(certId1, 3000L);
+        try (final OcspResponseFileTree.Writer writer = tree.newWriter()) {
+            writer.add(4711, "1", 1000L, 2000L, newResponse1);
+            writer.add(4711, "2", 1000L, 2000L, response2);
+            writer.commit();
+        }
+        assertArrayEquals(newResponse1, tree.getResponse(getRequest(certId1)));
+    }
+
+    private int countSnapshots() {
+        int count = 0;
+        for (final File file : folder.getRoot().listFiles()) {
+            if (file.getName().startsWith("snapshot-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static CertificateID getCertId(final BigInteger serialNumber) throws Exception {
+        return new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder(caCertificate), serialNumber);
+    }
+
+    private static byte[] getRequest(final CertificateID certId) throws Exception {
+        return new OCSPReqBuilder().addRequest(certId).build().getEncoded();
+    }
+
+    private static byte[] createResponse(final CertificateID certId, final long producedAt) throws Exception {
+        final X509CertificateHolder caCertificateHolder = new JcaX509CertificateHolder(caCertificate);
+        final BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(caCertificateHolder.getSubject()));
+        builder.addResponse(certId, CertificateStatus.GOOD, new Date(producedAt), new Date(producedAt + 1000L), null);
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, builder.build(
+                new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate()),
+                new X509CertificateHolder[] { caCertificateHolder }, new Date(producedAt))).getEncoded();
+    }
+}
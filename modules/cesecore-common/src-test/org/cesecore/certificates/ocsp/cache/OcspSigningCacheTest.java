@@ -0,0 +1,175 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.util.cert.CertificateUtils;
+import org.cesecore.keybind.InternalKeyBindingStatus;
+import org.cesecore.keybind.impl.OcspKeyBinding;
+import org.cesecore.keybind.impl.OcspKeyBinding.ResponderIdType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Test of incremental updates of the OCSP signing cache.
+ *
+ * @version $Id$
+ */
+public class OcspSigningCacheTest {
+
+    private static final String CA_A_DN = "CN=OcspSigningCacheTest CA A";
+    private static final String CA_B_DN = "CN=OcspSigningCacheTest CA B";
+    private static final String CA_C_DN = "CN=OcspSigningCacheTest CA C";
+    private static final String CA_EXTERNAL_DN = "CN=OcspSigningCacheTest External CA";
+
+    private static KeyPair keys;
+    private static X509Certificate caA;
+    private static X509Certificate caB;
+    private static X509Certificate caC;
+    private static X509Certificate caExternal;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        caA = createCaCertificate(CA_A_DN);
+        caB = createCaCertificate(CA_B_DN);
+        caC = createCaCertificate(CA_C_DN);
+        caExternal = createCaCertificate(CA_EXTERNAL_DN);
+    }
+
+    @Before
+    public void before() {
+        stageCas(CA_A_DN);
+    }
+
+    @After
+    public void after() {
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+    }
+
+    @Test
+    public void testUpdateCaEntries() {
+        final OcspSigningCacheEntry entryA = OcspSigningCache.INSTANCE.getEntry(getCertId(caA));
+        assertSame(caA, entryA.getIssuerCaCertificate());
+        final Collection<OcspSigningCacheEntry> entriesBefore = new ArrayList<>(OcspSigningCache.INSTANCE.getEntries());
+        final OcspSigningCacheEntry newEntryB = createCaEntry(caB);
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_B_DN.hashCode(), Collections.singletonList(newEntryB));
+        assertSame("Entry of the updated CA should have been replaced.", newEntryB, OcspSigningCache.INSTANCE.getEntry(getCertId(caB)));
+        assertSame("Entry of other CA should be untouched.", entryA, OcspSigningCache.INSTANCE.getEntry(getCertId(caA)));
+        assertEquals(entriesBefore.size(), OcspSigningCache.INSTANCE.getEntries().size());
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_B_DN.hashCode(), Collections.emptyList());
+        assertNull("Entry of removed CA should be gone.", OcspSigningCache.INSTANCE.getEntry(getCertId(caB)));
+        assertSame(entryA, OcspSigningCache.INSTANCE.getEntry(getCertId(caA)));
+    }
+
+    @Test
+    public void testDefaultResponder() {
+        final OcspSigningCacheEntry placeholder = OcspSigningCache.INSTANCE.getEntry(getCertId(caExternal));
+        assertFalse("External CA should be answered by the default responder.", placeholder.isPlaceholder());
+        assertSame(caA, OcspSigningCache.INSTANCE.getDefaultEntry().getIssuerCaCertificate());
+        // Default responder goes away
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_A_DN.hashCode(), Collections.emptyList());
+        assertNull(OcspSigningCache.INSTANCE.getDefaultEntry());
+        assertNull("External CA without default responder should not be answered.", OcspSigningCache.INSTANCE.getEntry(getCertId(caExternal)));
+        // And comes back
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_A_DN.hashCode(), Collections.singletonList(createCaEntry(caA)));
+        assertFalse(OcspSigningCache.INSTANCE.getEntry(getCertId(caExternal)).isPlaceholder());
+    }
+
+    @Test
+    public void testUpdateKeyBindingEntry() throws Exception {
+        final OcspKeyBinding ocspKeyBinding = new OcspKeyBinding();
+        ocspKeyBinding.init(4711, "OcspSigningCacheTest", InternalKeyBindingStatus.ACTIVE, null, 0, "signKey", new LinkedHashMap<>());
+        final OcspSigningCacheEntry keyBindingEntry = new OcspSigningCacheEntry(caB, CertificateStatus.OK, Collections.singletonList(caB), caB,
+                keys.getPrivate(), BouncyCastleProvider.PROVIDER_NAME, ocspKeyBinding, ResponderIdType.KEYHASH);
+        OcspSigningCache.INSTANCE.updateKeyBindingEntry(4711, keyBindingEntry);
+        assertSame("Key binding should take precedence over the CA.", keyBindingEntry, OcspSigningCache.INSTANCE.getEntry(getCertId(caB)));
+        // Key binding entry is kept when the CA is updated
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_B_DN.hashCode(), Collections.singletonList(createCaEntry(caB)));
+        assertSame(keyBindingEntry, OcspSigningCache.INSTANCE.getEntry(getCertId(caB)));
+        // Disabled key binding
+        OcspSigningCache.INSTANCE.updateKeyBindingEntry(4711, null);
+        assertSame(caB, OcspSigningCache.INSTANCE.getEntry(getCertId(caB)).getIssuerCaCertificate());
+        assertNull(OcspSigningCache.INSTANCE.getEntry(getCertId(caB)).getOcspKeyBinding());
+    }
+
+    @Test
+    public void testAddSingleEntryIsKept() {
+        final OcspSigningCacheEntry entryC = createCaEntry(caC);
+        OcspSigningCache.INSTANCE.addSingleEntry(entryC);
+        assertSame(entryC, OcspSigningCache.INSTANCE.getEntry(getCertId(caC)));
+        // Entries added on demand must survive incremental updates of other CAs and key bindings
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_B_DN.hashCode(), Collections.singletonList(createCaEntry(caB)));
+        assertSame("Entry added on demand should be kept when another CA is updated.", entryC, OcspSigningCache.INSTANCE.getEntry(getCertId(caC)));
+        OcspSigningCache.INSTANCE.updateKeyBindingEntry(4712, null);
+        assertSame("Entry added on demand should be kept when a key binding is updated.", entryC, OcspSigningCache.INSTANCE.getEntry(getCertId(caC)));
+        // Adding the same CA again does not duplicate it, and updating the CA itself replaces it
+        OcspSigningCache.INSTANCE.addSingleEntry(createCaEntry(caC));
+        assertSame(entryC, OcspSigningCache.INSTANCE.getEntry(getCertId(caC)));
+        OcspSigningCache.INSTANCE.updateCaEntries(CA_C_DN.hashCode(), Collections.emptyList());
+        assertNull(OcspSigningCache.INSTANCE.getEntry(getCertId(caC)));
+    }
+
+    private void stageCas(final String defaultResponderSubjectDn) {
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingAdd(CA_A_DN.hashCode(), createCaEntry(caA));
+            OcspSigningCache.INSTANCE.stagingAdd(CA_B_DN.hashCode(), createCaEntry(caB));
+            OcspSigningCache.INSTANCE.stagingAdd(CA_EXTERNAL_DN.hashCode(),
+                    new OcspSigningCacheEntry(caExternal, CertificateStatus.OK, null, null, null, null, null, ResponderIdType.KEYHASH));
+            OcspSigningCache.INSTANCE.stagingCommit(defaultResponderSubjectDn);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+    }
+
+    private static OcspSigningCacheEntry createCaEntry(final X509Certificate caCertificate) {
+        return new OcspSigningCacheEntry(caCertificate, CertificateStatus.OK, Collections.singletonList(caCertificate), null, keys.getPrivate(),
+                BouncyCastleProvider.PROVIDER_NAME, null, ResponderIdType.KEYHASH);
+    }
+
+    private static CertificateID getCertId(final X509Certificate caCertificate) {
+        return CertificateUtils.getIdFromCertificate(caCertificate).get(0);
+    }
+
+    private static X509Certificate createCaCertificate(final String subjectDn) throws Exception {
+        return CertTools.genSelfCert(subjectDn, 365, null, keys.getPrivate(), keys.getPublic(), AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+    }
+}
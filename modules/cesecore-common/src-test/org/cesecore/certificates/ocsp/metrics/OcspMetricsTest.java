@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.junit.Test;
+
+/**
+ * Test of the OCSP latency histograms and metrics.
+ *
+ * @version $Id$
+ */
+public class OcspMetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long micros = 0; micros < 100000; micros++) {
+            final int bucket = LatencyHistogram.getBucket(micros);
+            assertTrue("Bucket " + bucket + " is too low for " + micros + " µs.", micros < LatencyHistogram.getUpperBound(bucket));
+            assertTrue("Bucket " + bucket + " is too high for " + micros + " µs.", bucket == 0 || micros >= LatencyHistogram.getUpperBound(bucket - 1));
+            assertTrue("Bucket is more than 25% wide.", LatencyHistogram.getUpperBound(bucket) <= Math.max(micros + 1, micros * 5 / 4 + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucket(LatencyHistogram.MAX_MICROS));
+    }
+
+    @Test
+    public void testHistogramQuantiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getSnapshot().getQuantileMicros(0.99));
+        // 1 ms to 1000 ms
+        for (int i = 1; i <= 1000; i++) {
+            histogram.add(i * 1000000L);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500000L, snapshot.getSumMicros());
+        assertQuantile(500000, snapshot.getQuantileMicros(0.5));
+        assertQuantile(990000, snapshot.getQuantileMicros(0.99));
+        assertQuantile(1000000, snapshot.getQuantileMicros(1));
+        assertEquals("Bucket bounds are powers of two µs, 2^17 µs is 131 ms.", 131, snapshot.getCountBelow(1 << 17));
+        histogram.reset();
+        assertEquals(0, histogram.getSnapshot().getCount());
+    }
+
+    @Test
+    public void testRecord() {
+        final long successfulBefore = OcspMetrics.INSTANCE.getRequestCountByResponseStatus().get("successful");
+        final long revokedBefore = OcspMetrics.INSTANCE.getCertificateStatusCount().get("revoked");
+        final long totalBefore = OcspMetrics.INSTANCE.getLatencies(OcspMetrics.Phase.TOTAL).getSnapshot().getCount();
+        final long signBefore = OcspMetrics.INSTANCE.getLatencies(OcspMetrics.Phase.SIGN).getSnapshot().getCount();
+        final OcspMetrics.Sample sample = OcspMetrics.INSTANCE.newSample();
+        sample.mark(OcspMetrics.Phase.PARSE);
+        sample.addCa("CN=OcspMetricsTest \"CA\"");
+        sample.addCertificateStatus(null);
+        sample.addCertificateStatus(new RevokedStatus(new Date(), 0));
+        sample.addCertificateStatus(new UnknownStatus());
+        sample.setResponder("OcspMetricsTest");
+        sample.responseCacheLookup(false);
+        OcspMetrics.INSTANCE.record(sample, OCSPRespBuilder.SUCCESSFUL);
+        // An unpublished sample does not count
+        OcspMetrics.INSTANCE.newSample().addCertificateStatus(new RevokedStatus(new Date(), 0));
+        assertEquals(successfulBefore + 1, OcspMetrics.INSTANCE.getRequestCountByResponseStatus().get("successful").longValue());
+        assertEquals(revokedBefore + 1, OcspMetrics.INSTANCE.getCertificateStatusCount().get("revoked").longValue());
+        assertEquals(totalBefore + 1, OcspMetrics.INSTANCE.getLatencies(OcspMetrics.Phase.TOTAL).getSnapshot().getCount());
+        assertEquals("Phase that was not measured should not count.", signBefore,
+                OcspMetrics.INSTANCE.getLatencies(OcspMetrics.Phase.SIGN).getSnapshot().getCount());
+        assertEquals(1, OcspMetrics.INSTANCE.getRequestCountByResponder().get("OcspMetricsTest").longValue());
+        final String text = OcspMetrics.INSTANCE.toPrometheusText();
+        assertTrue(text, text.contains("ejbca_ocsp_ca_requests_total{ca=\"CN=OcspMetricsTest \\\"CA\\\"\"} 1\n"));
+        assertTrue(text, text.contains("ejbca_ocsp_phase_duration_seconds_bucket{phase=\"total\",le=\"0.000064\"} "));
+        assertTrue(text, text.contains("ejbca_ocsp_phase_duration_seconds_bucket{phase=\"total\",le=\"16.777216\"} "));
+    }
+
+    private static void assertQuantile(final long expectedMicros, final long actualMicros) {
+        assertTrue("Expected " + expectedMicros + " µs, but was " + actualMicros + " µs.",
+                actualMicros > expectedMicros && actualMicros <= expectedMicros * 5 / 4 + 1);
+    }
+}
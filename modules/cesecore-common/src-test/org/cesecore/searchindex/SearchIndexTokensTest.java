@@ -0,0 +1,77 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.cesecore.searchindex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests the SearchIndexTokens class
+ */
+public class SearchIndexTokensTest {
+
+    @Test
+    public void testTokensAreUpperCaseTrigrams() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("CN=", "N=F", "=FO", "FOO")), SearchIndexTokens.getTokens("cn=Foo"));
+    }
+
+    @Test
+    public void testTokensAreDistinct() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("AAA")), SearchIndexTokens.getTokens("aaaaa"));
+    }
+
+    @Test
+    public void testShortValuesHaveNoTokens() {
+        assertTrue(SearchIndexTokens.getTokens(null).isEmpty());
+        assertTrue(SearchIndexTokens.getTokens("").isEmpty());
+        assertTrue(SearchIndexTokens.getTokens("ab").isEmpty());
+        assertTrue(SearchIndexTokens.getSearchTokens("ab").isEmpty());
+    }
+
+    @Test
+    public void testSubstringHasSubsetOfTokens() {
+        final Set<String> valueTokens = SearchIndexTokens.getTokens("CN=Test User,O=Example Organization,C=SE");
+        assertTrue(valueTokens.containsAll(SearchIndexTokens.getSearchTokens("user,o=exam")));
+        assertTrue(valueTokens.containsAll(SearchIndexTokens.getSearchTokens("Test User,O=Example Organization")));
+    }
+
+    @Test
+    public void testSearchTokensSkipDnSeparators() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("USE", "SER", "EXA", "XAM")), SearchIndexTokens.getSearchTokens("user,o=exam"));
+        assertTrue("Search strings with only DN separators should not use the index.", SearchIndexTokens.getSearchTokens(",C=").isEmpty());
+    }
+
+    @Test
+    public void testSearchStringsWithWildcardsHaveNoTokens() {
+        assertTrue(SearchIndexTokens.getSearchTokens("Test%User").isEmpty());
+        assertTrue(SearchIndexTokens.getSearchTokens("Test_User").isEmpty());
+        assertTrue(SearchIndexTokens.getSearchTokens("Test\\User").isEmpty());
+    }
+
+    @Test
+    public void testSearchTokensAreLimited() {
+        final String searchString = "Example Organization Unit";
+        final Set<String> searchTokens = SearchIndexTokens.getSearchTokens(searchString);
+        assertEquals(SearchIndexTokens.MAX_SEARCH_TOKENS, searchTokens.size());
+        assertTrue(searchTokens.contains("EXA"));
+        assertTrue(searchTokens.contains("NIT"));
+        assertTrue(SearchIndexTokens.getTokens(searchString).containsAll(searchTokens));
+    }
+}
@@ -14,12 +14,27 @@ package org.cesecore.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.certificate.CertificateConstants;
@@ -105,6 +120,129 @@ public class CompressedCollectionTest {
         compressedCollection.clear();
     }
 
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC, 3);
+        compressedCollection.add(new RevokedCertInfo("fingerprint1".getBytes(), new BigInteger("123456789012345678901234567890").toByteArray(), 1000L,
+                RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L, 500L));
+        compressedCollection.add(new RevokedCertInfo(null, null, 3000L, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 4000L));
+        for (int i=0; i<5; i++) {
+            compressedCollection.add(new RevokedCertInfo(("fp" + i).getBytes(), BigInteger.valueOf(i).toByteArray(), i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, i));
+        }
+        assertEquals(7, compressedCollection.size());
+        assertEquals("7 entries should be stored in chunks of 3.", 3, compressedCollection.getChunkCount());
+        // Serialize the collection, the same way as when it is returned from a remote EJB call
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(compressedCollection);
+        }
+        @SuppressWarnings("unchecked")
+        final CompressedCollection<RevokedCertInfo> deserialized = (CompressedCollection<RevokedCertInfo>) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        for (final CompressedCollection<RevokedCertInfo> collection : Arrays.asList(compressedCollection, deserialized)) {
+            final Iterator<RevokedCertInfo> iter = collection.iterator();
+            final RevokedCertInfo first = iter.next();
+            assertEquals("fingerprint1", first.getCertificateFingerprint());
+            assertEquals(new BigInteger("123456789012345678901234567890"), first.getUserCertificate());
+            assertEquals(1000L, first.getRevocationDate().getTime());
+            assertEquals(2000L, first.getExpireDate().getTime());
+            assertEquals(500L, first.getInvalidityDate().getTime());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, first.getReason());
+            final RevokedCertInfo second = iter.next();
+            assertNull(second.getCertificateFingerprint());
+            assertNull(second.getUserCertificate());
+            assertNull(second.getInvalidityDate());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, second.getReason());
+            int count = 2;
+            while (iter.hasNext()) {
+                assertTrue("hasNext() should not consume entries.", iter.hasNext());
+                assertEquals(BigInteger.valueOf(count - 2), iter.next().getUserCertificate());
+                count++;
+            }
+            assertEquals(7, count);
+        }
+        compressedCollection.clear();
+        deserialized.clear();
+    }
+
+    @Test
+    public void testIterateAgain() {
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC, 2);
+        for (int i=0; i<5; i++) {
+            compressedCollection.add(new RevokedCertInfo(("fp" + i).getBytes(), BigInteger.valueOf(i).toByteArray(), i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, i));
+        }
+        // Chunks that an iterator has read should still be available to the next iterator
+        for (int pass=0; pass<2; pass++) {
+            int count = 0;
+            for (final RevokedCertInfo revokedCertInfo : compressedCollection) {
+                assertEquals(BigInteger.valueOf(count), revokedCertInfo.getUserCertificate());
+                count++;
+            }
+            assertEquals(5, count);
+        }
+        compressedCollection.clear();
+    }
+
+    @Test
+    public void testParallelIteration() throws Exception {
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC, 1000);
+        for (int i=0; i<10500; i++) {
+            compressedCollection.add(new RevokedCertInfo(("fp" + i).getBytes(), BigInteger.valueOf(i).toByteArray(), i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, i));
+        }
+        assertEquals(11, compressedCollection.getChunkCount());
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Long>> sums = new ArrayList<>();
+            for (int i=0; i<4; i++) {
+                sums.add(executorService.submit(() -> {
+                    long sum = 0;
+                    for (final RevokedCertInfo revokedCertInfo : compressedCollection) {
+                        sum += revokedCertInfo.getUserCertificate().longValue();
+                    }
+                    return sum;
+                }));
+            }
+            for (final Future<Long> sum : sums) {
+                assertEquals(10500L * 10499L / 2, sum.get().longValue());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        compressedCollection.clear();
+    }
+
+    @Test
+    public void testSerializedFormIsCompatible() throws Exception {
+        // Earlier versions have these fields and serialVersionUID, and read all objects from one compressed stream
+        final ObjectStreamClass objectStreamClass = ObjectStreamClass.lookup(CompressedCollection.class);
+        assertEquals(1L, objectStreamClass.getSerialVersionUID());
+        final Set<String> fieldNames = new HashSet<>();
+        for (final ObjectStreamField field : objectStreamClass.getFields()) {
+            fieldNames.add(field.getName() + ":" + field.getType().getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("baos:java.io.ByteArrayOutputStream", "oos:java.io.ObjectOutputStream", "compressedData:[B",
+                "size:int", "oiss:java.util.List", "acceptedClasses:java.util.Set")), fieldNames);
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC, 3);
+        for (int i=0; i<7; i++) {
+            compressedCollection.add(new RevokedCertInfo(("fp" + i).getBytes(), BigInteger.valueOf(i).toByteArray(), i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, i));
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(compressedCollection);
+        }
+        @SuppressWarnings("unchecked")
+        final CompressedCollection<RevokedCertInfo> deserialized = (CompressedCollection<RevokedCertInfo>) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals("All objects should be in one stream.", 1, deserialized.getChunkCount());
+        assertEquals(7, deserialized.size());
+        int count = 0;
+        for (final RevokedCertInfo revokedCertInfo : deserialized) {
+            assertEquals(BigInteger.valueOf(count), revokedCertInfo.getUserCertificate());
+            count++;
+        }
+        assertEquals(7, count);
+        compressedCollection.clear();
+        deserialized.clear();
+    }
+
     private void logMemUnreliably() {
         System.gc();
         // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
@@ -0,0 +1,159 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.cesecore.util.NetworkTools.HttpValidators;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests of downloads with {@link NetworkTools}, against a local HTTP server.
+ */
+public class NetworkToolsTest {
+
+    private static final String ETAG = "\"etag1\"";
+    private static final long LAST_MODIFIED = 1600000000000L;
+    private static final byte[] DATA = new byte[1000];
+
+    private HttpServer server;
+    private File file;
+    private volatile String lastIfNoneMatch;
+    private volatile long lastIfModifiedSince;
+
+    @Before
+    public void before() throws IOException {
+        for (int i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte) i;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/data", exchange -> {
+            lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            lastIfModifiedSince = ifModifiedSince == null ? -1
+                    : ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            if (ETAG.equals(lastIfNoneMatch) || (lastIfNoneMatch == null && lastIfModifiedSince >= LAST_MODIFIED)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.getResponseHeaders().add("Last-Modified", "Sun, 13 Sep 2020 12:26:40 GMT");
+            send(exchange, 200, DATA, DATA.length);
+        });
+        server.createContext("/chunked", exchange -> send(exchange, 200, DATA, 0));
+        server.createContext("/missing", exchange -> send(exchange, 404, new byte[0], -1));
+        server.start();
+        file = File.createTempFile("networktoolstest", ".bin");
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+        file.delete();
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        final HttpValidators validators = NetworkTools.downloadToFileIfModified(url("/data"), DATA.length, null, file);
+        assertNotNull(validators);
+        assertEquals(ETAG, validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+        assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+        assertNull("Unconditional request should not have a validator.", lastIfNoneMatch);
+        assertEquals(-1, lastIfModifiedSince);
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        assertNull("Not modified data should not be downloaded.", NetworkTools.downloadToFileIfModified(url("/data"), DATA.length,
+                new HttpValidators(ETAG, LAST_MODIFIED), file));
+        assertEquals(ETAG, lastIfNoneMatch);
+        assertEquals(LAST_MODIFIED, lastIfModifiedSince);
+        assertArrayEquals("File should not be written.", new byte[] { 1, 2, 3 }, Files.readAllBytes(file.toPath()));
+        assertNull(NetworkTools.downloadToFileIfModified(url("/data"), DATA.length, new HttpValidators(null, LAST_MODIFIED), file));
+        assertNull("ETag should only be sent if known.", lastIfNoneMatch);
+    }
+
+    @Test
+    public void testModified() throws IOException {
+        final HttpValidators validators = NetworkTools.downloadToFileIfModified(url("/data"), DATA.length, new HttpValidators("\"other\"", 0), file);
+        assertNotNull("Modified data should be downloaded.", validators);
+        assertEquals("\"other\"", lastIfNoneMatch);
+        assertEquals("Last-Modified should only be sent if known.", -1, lastIfModifiedSince);
+        assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        try {
+            NetworkTools.downloadToFileIfModified(url("/data"), DATA.length - 1, null, file);
+            fail("Content-Length larger than the maximum size should be rejected.");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            NetworkTools.downloadToFileIfModified(url("/chunked"), DATA.length - 1, null, file);
+            fail("Data larger than the maximum size should be rejected while it is read.");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertNotNull(NetworkTools.downloadToFileIfModified(url("/chunked"), DATA.length, null, file));
+        assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testErrorResponse() {
+        try {
+            NetworkTools.downloadToFileIfModified(url("/missing"), DATA.length, null, file);
+            fail("Error response should be rejected.");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path);
+    }
+
+    /** Sends a response, with a Content-Length header if length is positive and chunked otherwise */
+    private static void send(final HttpExchange exchange, final int status, final byte[] data, final long length) throws IOException {
+        exchange.sendResponseHeaders(status, length);
+        if (length != -1) {
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(data);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,314 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Bounded read-through cache of the status of certificates, keyed by issuer DN and serial number. Only two lookups in
+ * CertificateStoreSession read through it:
+ * <ul>
+ * <li>isRevoked (RA, CMP key update and web services), cached for certificatestatus.cachetime milliseconds, disabled by default.
+ * <li>getFirstStatusByIssuerAndSerno (client certificate authentication in the admin web and authorization), cached for
+ * certificatestatus.authentication.cachetime milliseconds, 12 seconds by default.
+ * </ul>
+ * Other status lookups, like getStatus and getCertificateAndStatus used by OCSP, always read the database, since OCSP has its own
+ * status index and response cache.
+ *
+ * Status changes made on this node remove the affected entries. There is no invalidation across a cluster, so status changes made
+ * on other nodes are seen after at most the cache time of the entry, or when caches are cleared. Certificates that are not found
+ * in the database are not cached.
+ *
+ * @version $Id$
+ */
+public enum CertificateStatusCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(CertificateStatusCache.class);
+
+    private static class StatusKey {
+        private final String issuerDn;
+        private final BigInteger serialNumber;
+
+        private StatusKey(final String issuerDn, final BigInteger serialNumber) {
+            this.issuerDn = issuerDn;
+            this.serialNumber = serialNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return issuerDn.hashCode() * 31 + serialNumber.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StatusKey)) {
+                return false;
+            }
+            final StatusKey other = (StatusKey) obj;
+            return serialNumber.equals(other.serialNumber) && issuerDn.equals(other.issuerDn);
+        }
+    }
+
+    /** The status columns of the certificate with an issuer DN and serial number. */
+    public static class CachedStatus {
+        private final int status;
+        private final int revocationReason;
+        private final long revocationDate;
+        private final int certificateProfileId;
+        private final long expireDate;
+        private final boolean anyRevoked;
+        private final long cachedTime;
+        private final long cacheExpireTime;
+
+        /**
+         * @param status the status (CertificateConstants.CERT_*) of the first certificate found with the issuer DN and serial number
+         * @param revocationReason the revocation reason of the first certificate
+         * @param revocationDate the revocation date of the first certificate, in epoch milliseconds
+         * @param certificateProfileId the certificate profile id of the first certificate
+         * @param expireDate the expire date of the first certificate, in epoch milliseconds
+         * @param anyRevoked true if any of the certificates found has status CertificateConstants.CERT_REVOKED
+         */
+        public CachedStatus(final int status, final int revocationReason, final long revocationDate, final int certificateProfileId,
+                final long expireDate, final boolean anyRevoked) {
+            this(status, revocationReason, revocationDate, certificateProfileId, expireDate, anyRevoked, 0, 0);
+        }
+
+        private CachedStatus(final int status, final int revocationReason, final long revocationDate, final int certificateProfileId,
+                final long expireDate, final boolean anyRevoked, final long cachedTime, final long cacheExpireTime) {
+            this.status = status;
+            this.revocationReason = revocationReason;
+            this.revocationDate = revocationDate;
+            this.certificateProfileId = certificateProfileId;
+            this.expireDate = expireDate;
+            this.anyRevoked = anyRevoked;
+            this.cachedTime = cachedTime;
+            this.cacheExpireTime = cacheExpireTime;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public int getRevocationReason() {
+            return revocationReason;
+        }
+
+        public long getRevocationDate() {
+            return revocationDate;
+        }
+
+        public int getCertificateProfileId() {
+            return certificateProfileId;
+        }
+
+        public long getExpireDate() {
+            return expireDate;
+        }
+
+        /** @return true if any of the certificates with the issuer DN and serial number is revoked */
+        public boolean isAnyRevoked() {
+            return anyRevoked;
+        }
+    }
+
+    private final Map<StatusKey, CachedStatus> cache = new ConcurrentHashMap<>();
+    /** Incremented on every invalidation, so statuses read before the invalidation are not cached. */
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @return true if the cache has been enabled for isRevoked with certificatestatus.cachetime and certificatestatus.cachemaxentries.
+     * Authentication lookups use their own cache time, see {@link #put(String, BigInteger, CachedStatus, long, long)}.
+     */
+    public boolean isEnabled() {
+        return CesecoreConfiguration.getCacheTimeCertificateStatus() > 0 && CesecoreConfiguration.getCertificateStatusCacheMaxEntries() > 0;
+    }
+
+    /**
+     * Read before looking up the certificate status in the database and pass the value to {@link #put}, to avoid caching a
+     * status that was changed while it was being read.
+     *
+     * @return the number of invalidations made since startup
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param serialNumber the serial number of the certificate
+     * @return the cached status or null if it must be read from the database
+     */
+    public CachedStatus get(final String issuerDn, final BigInteger serialNumber) {
+        return get(issuerDn, serialNumber, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param serialNumber the serial number of the certificate
+     * @param maxAge the maximum time in milliseconds since the status was read from the database
+     * @return the cached status or null if it must be read from the database
+     */
+    public CachedStatus get(final String issuerDn, final BigInteger serialNumber, final long maxAge) {
+        if (CesecoreConfiguration.getCertificateStatusCacheMaxEntries() <= 0) {
+            return null;
+        }
+        final StatusKey key = new StatusKey(issuerDn, serialNumber);
+        final CachedStatus cachedStatus = cache.get(key);
+        if (cachedStatus == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (cachedStatus.cacheExpireTime <= now) {
+            cache.remove(key, cachedStatus);
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (now - cachedStatus.cachedTime >= maxAge) {
+            // Cached for a longer time by another lookup
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return cachedStatus;
+    }
+
+    /**
+     * Store a status read from the database for certificatestatus.cachetime milliseconds. The status is dropped if the cache is
+     * disabled, or if any status was invalidated after the lookup started.
+     *
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param serialNumber the serial number of the certificate
+     * @param cachedStatus the status read from the database
+     * @param invalidationCountBeforeLookup the value of {@link #getInvalidationCount()} before the status was read
+     */
+    public void put(final String issuerDn, final BigInteger serialNumber, final CachedStatus cachedStatus, final long invalidationCountBeforeLookup) {
+        put(issuerDn, serialNumber, cachedStatus, invalidationCountBeforeLookup, CesecoreConfiguration.getCacheTimeCertificateStatus());
+    }
+
+    /**
+     * Store a status read from the database for the given time. The status is dropped if the time or certificatestatus.cachemaxentries
+     * is 0, or if any status was invalidated after the lookup started.
+     *
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param serialNumber the serial number of the certificate
+     * @param cachedStatus the status read from the database
+     * @param invalidationCountBeforeLookup the value of {@link #getInvalidationCount()} before the status was read
+     * @param cacheTime the time in milliseconds that the status may be served from the cache
+     */
+    public void put(final String issuerDn, final BigInteger serialNumber, final CachedStatus cachedStatus, final long invalidationCountBeforeLookup,
+            final long cacheTime) {
+        final int maxEntries = CesecoreConfiguration.getCertificateStatusCacheMaxEntries();
+        if (cacheTime <= 0 || maxEntries <= 0) {
+            return;
+        }
+        if (cache.size() >= maxEntries) {
+            makeRoom(maxEntries);
+        }
+        final StatusKey key = new StatusKey(issuerDn, serialNumber);
+        final long now = System.currentTimeMillis();
+        final CachedStatus entry = new CachedStatus(cachedStatus.status, cachedStatus.revocationReason, cachedStatus.revocationDate,
+                cachedStatus.certificateProfileId, cachedStatus.expireDate, cachedStatus.anyRevoked, now, now + cacheTime);
+        cache.put(key, entry);
+        if (invalidationCount.get() != invalidationCountBeforeLookup) {
+            // The status might have changed while it was read
+            cache.remove(key, entry);
+        }
+    }
+
+    /**
+     * Remove the status of a certificate. Invoked when the status of the certificate changes.
+     *
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param serialNumber the serial number of the certificate
+     */
+    public void invalidate(final String issuerDn, final BigInteger serialNumber) {
+        invalidationCount.incrementAndGet();
+        cache.remove(new StatusKey(issuerDn, serialNumber));
+    }
+
+    /**
+     * Remove the status of all certificates issued by a CA. Invoked when the status of many certificates changes at once.
+     *
+     * @param issuerDn the issuer DN, in the format of CertTools.stringToBCDNString
+     */
+    public void invalidateIssuer(final String issuerDn) {
+        invalidationCount.incrementAndGet();
+        cache.keySet().removeIf(key -> key.issuerDn.equals(issuerDn));
+    }
+
+    /** @return the number of statuses currently held by the cache, including expired entries not yet removed */
+    public int size() {
+        return cache.size();
+    }
+
+    /** @return the number of lookups answered from the cache since startup */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** @return the number of lookups that had to read the database since startup */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** @return the number of statuses removed since startup to keep the cache within certificatestatus.cachemaxentries */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /** Clear cache. */
+    public void flush() {
+        invalidationCount.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("Clearing certificate status cache with " + cache.size() + " entries. Hits: " + hitCount.get() + ", misses: " + missCount.get()
+                    + ", evictions: " + evictionCount.get() + ".");
+        }
+        cache.clear();
+    }
+
+    /** Remove expired entries, and if that is not enough, arbitrary entries until a tenth of the cache is free. */
+    private void makeRoom(final int maxEntries) {
+        final long now = System.currentTimeMillis();
+        cache.values().removeIf(cachedStatus -> cachedStatus.cacheExpireTime <= now);
+        final int targetSize = maxEntries - Math.max(1, maxEntries / 10);
+        int evicted = 0;
+        final Iterator<Entry<StatusKey, CachedStatus>> iterator = cache.entrySet().iterator();
+        while (cache.size() > targetSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evicted++;
+        }
+        if (evicted > 0) {
+            evictionCount.addAndGet(evicted);
+            if (log.isDebugEnabled()) {
+                log.debug("Certificate status cache is full. Evicted " + evicted + " entries.");
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.cesecore.util.CompressedCollection;
+
+/**
+ * Builds the list of revoked certificates for a full CRL from the entries of the previous full CRL and the revocation
+ * status changes since it was issued, so that a new full CRL can be generated without reading all revoked certificates
+ * of the CA from the database.
+ *
+ * @version $Id$
+ */
+public final class CrlEntryMerger {
+
+    private static final Logger log = Logger.getLogger(CrlEntryMerger.class);
+
+    private CrlEntryMerger() {}
+
+    /**
+     * Merges the entries of the previous full CRL with the changes since it was issued.
+     * <ul>
+     * <li>Entries for certificates that have changed are replaced by the current information, or removed if the certificate is no longer revoked.
+     * <li>Entries for expired certificates are removed.
+     * <li>Changed certificates that are not on the previous CRL are added at the end.
+     * </ul>
+     * The revocation date is not updated when a certificate on hold is revoked permanently, so the current status of a certificate
+     * that is on hold on the previous CRL can not be determined from the changes. If there is such an entry, null is returned
+     * and the list should be read from the database instead.
+     *
+     * @param previousCrl DER encoded previous full CRL
+     * @param changed revoked certificate information for certificates whose status has changed since the previous full CRL was issued, regardless
+     *      of their revocation date, with the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL} for certificates that are no longer revoked.
+     *      Certificates that have not changed may also be included.
+     * @param expired certificates that should be removed from the CRL
+     * @return the revoked certificates to include in the new full CRL, or null if the list can not be built from the previous CRL.
+     * @throws IOException if the previous CRL could not be parsed
+     */
+    public static Collection<RevokedCertInfo> merge(final byte[] previousCrl, final Collection<RevokedCertInfo> changed,
+            final Collection<RevokedCertInfo> expired) throws IOException {
+        final Map<BigInteger, RevokedCertInfo> changes = new HashMap<>();
+        for (final RevokedCertInfo revokedCertInfo : changed) {
+            changes.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+        }
+        final Set<BigInteger> removed = new HashSet<>();
+        for (final RevokedCertInfo revokedCertInfo : expired) {
+            removed.add(revokedCertInfo.getUserCertificate());
+        }
+        final CompressedCollection<RevokedCertInfo> ret = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
+        int previousCount = 0;
+        // Parse lazily, the entries are decoded one by one while they are merged
+        try (final ASN1InputStream asn1InputStream = new ASN1InputStream(previousCrl, true)) {
+            final TBSCertList tbsCertList = CertificateList.getInstance(asn1InputStream.readObject()).getTBSCertList();
+            final Enumeration<?> entries = tbsCertList.getRevokedCertificateEnumeration();
+            while (entries.hasMoreElements()) {
+                final TBSCertList.CRLEntry entry = (TBSCertList.CRLEntry) entries.nextElement();
+                previousCount++;
+                final BigInteger serialNumber = entry.getUserCertificate().getValue();
+                if (removed.contains(serialNumber)) {
+                    changes.remove(serialNumber);
+                    continue;
+                }
+                final RevokedCertInfo change = changes.remove(serialNumber);
+                if (change != null) {
+                    if (change.getReason() != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                        ret.add(change);
+                    }
+                    continue;
+                }
+                final RevokedCertInfo previous = toRevokedCertInfo(entry);
+                if (previous.getReason() == RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Certificate with serial number " + serialNumber.toString(16) + " is on hold on the previous CRL. Incremental CRL generation is not possible.");
+                    }
+                    ret.clear();
+                    return null;
+                }
+                ret.add(previous);
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            ret.clear();
+            throw new IOException("Previous CRL could not be parsed: " + e.getMessage(), e);
+        }
+        final int previousAndChangedCount = ret.size();
+        for (final RevokedCertInfo change : changes.values()) {
+            if (change.getReason() != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL && !removed.contains(change.getUserCertificate())) {
+                ret.add(change);
+            }
+        }
+        ret.closeForWrite();
+        if (log.isDebugEnabled()) {
+            log.debug("Merged " + previousCount + " entries from the previous CRL with " + changed.size() + " changes and " + expired.size()
+                    + " expired certificates. Kept " + previousAndChangedCount + " entries and added " + (ret.size() - previousAndChangedCount) + ".");
+        }
+        return ret;
+    }
+
+    /**
+     * Removes the changes that are already on a full CRL, so that a delta CRL based on it only lists actual changes. Changes read
+     * with an overlap before the full CRL was issued can include such entries.
+     * <ul>
+     * <li>Revoked certificates are removed if the full CRL has an entry with the same revocation date, reason and invalidity date.
+     * <li>Certificates with the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL} are removed if they are not on the full CRL.
+     * </ul>
+     *
+     * @param baseCrl DER encoded full CRL
+     * @param changed revoked certificate information for certificates whose status may have changed since the full CRL was issued
+     * @return the changes that are not already on the full CRL, in the same order
+     * @throws IOException if the full CRL could not be parsed
+     */
+    public static Collection<RevokedCertInfo> removeUnchanged(final byte[] baseCrl, final Collection<RevokedCertInfo> changed) throws IOException {
+        final Map<BigInteger, RevokedCertInfo> changes = new LinkedHashMap<>();
+        for (final RevokedCertInfo revokedCertInfo : changed) {
+            changes.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+        }
+        final Set<BigInteger> unchanged = new HashSet<>();
+        final Set<BigInteger> onBaseCrl = new HashSet<>();
+        try (final ASN1InputStream asn1InputStream = new ASN1InputStream(baseCrl, true)) {
+            final TBSCertList tbsCertList = CertificateList.getInstance(asn1InputStream.readObject()).getTBSCertList();
+            final Enumeration<?> entries = tbsCertList.getRevokedCertificateEnumeration();
+            while (entries.hasMoreElements()) {
+                final TBSCertList.CRLEntry entry = (TBSCertList.CRLEntry) entries.nextElement();
+                final BigInteger serialNumber = entry.getUserCertificate().getValue();
+                final RevokedCertInfo change = changes.get(serialNumber);
+                if (change == null) {
+                    continue;
+                }
+                onBaseCrl.add(serialNumber);
+                if (isSameEntry(change, toRevokedCertInfo(entry))) {
+                    unchanged.add(serialNumber);
+                }
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IOException("Base CRL could not be parsed: " + e.getMessage(), e);
+        }
+        final CompressedCollection<RevokedCertInfo> ret = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
+        for (final RevokedCertInfo change : changes.values()) {
+            final BigInteger serialNumber = change.getUserCertificate();
+            final boolean notOnBaseCrl = change.getReason() == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL && !onBaseCrl.contains(serialNumber);
+            if (!notOnBaseCrl && !unchanged.contains(serialNumber)) {
+                ret.add(change);
+            }
+        }
+        ret.closeForWrite();
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + (changes.size() - ret.size()) + " of " + changes.size() + " changes that were already on the base CRL.");
+        }
+        return ret;
+    }
+
+    /** @return true if the revocation information would give the same CRL entry. CRL dates have a resolution of seconds. */
+    private static boolean isSameEntry(final RevokedCertInfo change, final RevokedCertInfo entry) {
+        return change.getReason() == entry.getReason() && toSeconds(change.getRevocationDate()) == toSeconds(entry.getRevocationDate())
+                && toSeconds(change.getInvalidityDate()) == toSeconds(entry.getInvalidityDate());
+    }
+
+    private static long toSeconds(final Date date) {
+        return date == null ? -1 : date.getTime() / 1000;
+    }
+
+    /** @return the revocation information of a CRL entry, without fingerprint and expire date */
+    static RevokedCertInfo toRevokedCertInfo(final TBSCertList.CRLEntry entry) {
+        int reason = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+        Long invalidityDate = null;
+        final Extensions extensions = entry.getExtensions();
+        if (extensions != null) {
+            final Extension reasonCode = extensions.getExtension(Extension.reasonCode);
+            if (reasonCode != null) {
+                reason = ASN1Enumerated.getInstance(reasonCode.getParsedValue()).intValueExact();
+            }
+            final Extension invalidity = extensions.getExtension(Extension.invalidityDate);
+            if (invalidity != null) {
+                try {
+                    invalidityDate = ASN1GeneralizedTime.getInstance(invalidity.getParsedValue()).getDate().getTime();
+                } catch (ParseException e) {
+                    throw new IllegalArgumentException("Invalid invalidity date: " + e.getMessage(), e);
+                }
+            }
+        }
+        // The fingerprint and expire date are not needed to encode the entry again
+        return new RevokedCertInfo(null, entry.getUserCertificate().getValue().toByteArray(), entry.getRevocationDate().getDate().getTime(), reason, 0,
+                invalidityDate);
+    }
+}
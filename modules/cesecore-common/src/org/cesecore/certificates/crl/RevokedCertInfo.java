@@ -12,6 +12,9 @@
  *************************************************************************/ 
 package org.cesecore.certificates.crl;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.Collection;
@@ -24,6 +27,7 @@ import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
 import org.cesecore.util.CompressedCollection;
+import org.cesecore.util.CompressedCollectionCodec;
 
 /**
  * Holds information about a revoked certificate. The information kept here is the
@@ -67,6 +71,12 @@ public class RevokedCertInfo implements Serializable {
     /** Fingerprint in byte format, String.getBytes() */    
     private byte[] 		fingerprint;
 
+    /**
+     * Codec for storing RevokedCertInfo objects in a {@link CompressedCollection}, as a fixed binary record instead of with
+     * Java serialization.
+     */
+    public static final CompressedCollectionCodec<RevokedCertInfo> COMPRESSED_COLLECTION_CODEC = new Codec();
+
     /**
      * A default constructor is needed to instantiate
      * RevokedCertInfo objects using &lt;jsp:useBean&gt; by Tomcat 5. 
@@ -296,6 +306,63 @@ public class RevokedCertInfo implements Serializable {
         }
     }
     
+    /**
+     * Writes a RevokedCertInfo as: flags byte, length prefixed fingerprint, length prefixed serial number, revocation date,
+     * expire date, reason and, if set, invalidity date.
+     */
+    private static final class Codec implements CompressedCollectionCodec<RevokedCertInfo> {
+        private static final long serialVersionUID = 1L;
+        private static final int FLAG_FINGERPRINT = 0x01;
+        private static final int FLAG_SERIAL_NUMBER = 0x02;
+        private static final int FLAG_INVALIDITY_DATE = 0x04;
+
+        @Override
+        public void write(final DataOutput out, final RevokedCertInfo element) throws IOException {
+            out.writeByte((element.fingerprint != null ? FLAG_FINGERPRINT : 0) | (element.userCertificate != null ? FLAG_SERIAL_NUMBER : 0)
+                    | (element.invalidityDate != null ? FLAG_INVALIDITY_DATE : 0));
+            if (element.fingerprint != null) {
+                out.writeShort(element.fingerprint.length);
+                out.write(element.fingerprint);
+            }
+            if (element.userCertificate != null) {
+                out.writeShort(element.userCertificate.length);
+                out.write(element.userCertificate);
+            }
+            out.writeLong(element.revocationDate);
+            out.writeLong(element.expireDate);
+            out.writeInt(element.reason);
+            if (element.invalidityDate != null) {
+                out.writeLong(element.invalidityDate);
+            }
+        }
+
+        @Override
+        public RevokedCertInfo read(final DataInput in) throws IOException {
+            final int flags = in.readUnsignedByte();
+            final RevokedCertInfo ret = new RevokedCertInfo();
+            if ((flags & FLAG_FINGERPRINT) != 0) {
+                ret.fingerprint = new byte[in.readUnsignedShort()];
+                in.readFully(ret.fingerprint);
+            }
+            if ((flags & FLAG_SERIAL_NUMBER) != 0) {
+                ret.userCertificate = new byte[in.readUnsignedShort()];
+                in.readFully(ret.userCertificate);
+            }
+            ret.revocationDate = in.readLong();
+            ret.expireDate = in.readLong();
+            ret.reason = in.readInt();
+            if ((flags & FLAG_INVALIDITY_DATE) != 0) {
+                ret.invalidityDate = in.readLong();
+            }
+            return ret;
+        }
+
+        /** Keeps the codec a singleton when deserialized together with a collection */
+        private Object readResolve() {
+            return COMPRESSED_COLLECTION_CODEC;
+        }
+    }
+
     /**
      * Merges two collections of RevokedCertInfo. Note that the parameters are slightly different. Duplicates are removed according to these rules:
      * <ul>
@@ -349,7 +416,7 @@ public class RevokedCertInfo implements Serializable {
                 tempRevoked.put(serial, revoked);
             }
         }
-        final CompressedCollection<RevokedCertInfo> mergedRevokedData = new CompressedCollection<>(RevokedCertInfo.class);
+        final CompressedCollection<RevokedCertInfo> mergedRevokedData = new CompressedCollection<>(COMPRESSED_COLLECTION_CODEC);
         mergedRevokedData.addAll(permRevoked.values()); // Permanently revoked entries are always added
         for (final RevokedCertInfo revoked : tempRevoked.values()) {
             if (!revoked.isRevoked() && (lastBaseCrlDate <= 0 || revoked.getRevocationDate().getTime() <= lastBaseCrlDate)) {
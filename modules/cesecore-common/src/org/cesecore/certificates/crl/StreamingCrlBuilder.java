@@ -0,0 +1,346 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1BitString;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+
+/**
+ * Builds X.509 CRLs like BouncyCastle's X509v2CRLBuilder, but encodes each revoked certificate entry as DER when it is added, instead of
+ * keeping it as an object until the CRL is signed. Entries are kept in memory up to {@value #MEMORY_THRESHOLD} bytes, and in a temporary
+ * file beyond that. The TBSCertList is streamed to the signer, and the CRL is then assembled in one byte array of the exact size.
+ * <p>
+ * The encoding of the CRL is the same as from X509v2CRLBuilder. The returned X509CRLHolder is parsed lazily, and verifies its signature
+ * and returns its encoding without parsing the revoked certificates, so the entries are never held as objects.
+ * <p>
+ * The builder must be closed to delete the temporary file.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlBuilder implements Closeable {
+
+    private static final Logger log = Logger.getLogger(StreamingCrlBuilder.class);
+
+    /** Entries are written to a temporary file when they take more than this number of bytes */
+    static final int MEMORY_THRESHOLD = 16 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int SEQUENCE = BERTags.SEQUENCE | BERTags.CONSTRUCTED;
+
+    private final X500Name issuer;
+    private final Time thisUpdate;
+    private final int memoryThreshold;
+    private Time nextUpdate;
+    private Extensions extensions;
+    private ByteArrayOutputStream memoryEntries = new ByteArrayOutputStream();
+    private Path entriesFile;
+    private OutputStream entriesOut = memoryEntries;
+    private long entriesLength = 0;
+    private int entryCount = 0;
+
+    public StreamingCrlBuilder(final X500Name issuer, final Date thisUpdate) {
+        this(issuer, thisUpdate, MEMORY_THRESHOLD);
+    }
+
+    StreamingCrlBuilder(final X500Name issuer, final Date thisUpdate, final int memoryThreshold) {
+        this.issuer = issuer;
+        this.thisUpdate = new Time(thisUpdate);
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public StreamingCrlBuilder setNextUpdate(final Date date) {
+        this.nextUpdate = new Time(date);
+        return this;
+    }
+
+    /** Sets the crlExtensions of the CRL, or null for none */
+    public StreamingCrlBuilder setExtensions(final Extensions extensions) {
+        this.extensions = extensions;
+        return this;
+    }
+
+    /** Adds a CRL entry with a reasonCode extension, unless the reason is unspecified (0) */
+    public StreamingCrlBuilder addCRLEntry(final BigInteger userCertificateSerial, final Date revocationDate, final int reason) throws IOException {
+        return addCRLEntry(userCertificateSerial, revocationDate, reason, null);
+    }
+
+    /**
+     * Adds a CRL entry with a reasonCode extension, unless the reason is unspecified (0), and an invalidityDate extension unless
+     * invalidityDate is null.
+     */
+    public StreamingCrlBuilder addCRLEntry(final BigInteger userCertificateSerial, final Date revocationDate, final int reason,
+            final Date invalidityDate) throws IOException {
+        final ASN1EncodableVector entry = new ASN1EncodableVector(3);
+        entry.add(new ASN1Integer(userCertificateSerial));
+        entry.add(new Time(revocationDate));
+        if (reason != 0 || invalidityDate != null) {
+            final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+            if (reason != 0) {
+                entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(reason));
+            }
+            if (invalidityDate != null) {
+                entryExtensions.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(invalidityDate));
+            }
+            entry.add(entryExtensions.generate());
+        }
+        final byte[] encoded = new DERSequence(entry).getEncoded(ASN1Encoding.DER);
+        entriesOut.write(encoded);
+        entriesLength += encoded.length;
+        entryCount++;
+        if (memoryEntries != null && memoryEntries.size() > memoryThreshold) {
+            entriesFile = Files.createTempFile("crlentries", ".der");
+            if (log.isDebugEnabled()) {
+                log.debug("Writing CRL entries to temporary file '" + entriesFile + "' after " + entryCount + " entries.");
+            }
+            entriesOut = new BufferedOutputStream(Files.newOutputStream(entriesFile), COPY_BUFFER_SIZE);
+            memoryEntries.writeTo(entriesOut);
+            memoryEntries = null;
+        }
+        return this;
+    }
+
+    /** @return the number of entries added so far */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Signs the CRL and returns it. The builder can not be used after this.
+     *
+     * @param signer the signer for the CRL, which is fed the TBSCertList as a stream
+     * @return the CRL
+     * @throws IOException if the CRL could not be encoded, or is larger than a byte array can hold
+     */
+    public X509CRLHolder build(final ContentSigner signer) throws IOException {
+        entriesOut.close();
+        final AlgorithmIdentifier signatureAlgorithm = signer.getAlgorithmIdentifier();
+        // The fields before and after the revoked certificates are small and encoded as usual, see RFC 5280 5.1
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER));
+        head.write(signatureAlgorithm.getEncoded(ASN1Encoding.DER));
+        head.write(issuer.getEncoded(ASN1Encoding.DER));
+        head.write(thisUpdate.getEncoded(ASN1Encoding.DER));
+        if (nextUpdate != null) {
+            head.write(nextUpdate.getEncoded(ASN1Encoding.DER));
+        }
+        final byte[] tail = extensions == null ? new byte[0] : new DERTaggedObject(0, extensions).getEncoded(ASN1Encoding.DER);
+        final byte[] revokedCertificatesHeader = entryCount == 0 ? new byte[0] : encodeHeader(entriesLength);
+        final long tbsLength = head.size() + revokedCertificatesHeader.length + entriesLength + tail.length;
+        final byte[] tbsHeader = encodeHeader(tbsLength);
+        try (final OutputStream signerOut = signer.getOutputStream()) {
+            writeTbsCertList(signerOut, tbsHeader, head, revokedCertificatesHeader, tail);
+        }
+        final byte[] signatureAlgorithmEncoded = signatureAlgorithm.getEncoded(ASN1Encoding.DER);
+        final byte[] signatureEncoded = new DERBitString(signer.getSignature()).getEncoded(ASN1Encoding.DER);
+        final long crlLength = tbsHeader.length + tbsLength + signatureAlgorithmEncoded.length + signatureEncoded.length;
+        final byte[] crlHeader = encodeHeader(crlLength);
+        if (crlHeader.length + crlLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("The CRL is too large to be encoded: " + (crlHeader.length + crlLength) + " bytes.");
+        }
+        final ArrayOutputStream crl = new ArrayOutputStream((int) (crlHeader.length + crlLength));
+        crl.write(crlHeader);
+        writeTbsCertList(crl, tbsHeader, head, revokedCertificatesHeader, tail);
+        crl.write(signatureAlgorithmEncoded);
+        crl.write(signatureEncoded);
+        if (log.isDebugEnabled()) {
+            log.debug("Built CRL of " + crl.getArray().length + " bytes with " + entryCount + " entries.");
+        }
+        return new EncodedX509CRLHolder(crl.getArray());
+    }
+
+    /** Deletes the temporary file, if any */
+    @Override
+    public void close() throws IOException {
+        entriesOut.close();
+        memoryEntries = null;
+        if (entriesFile != null) {
+            Files.deleteIfExists(entriesFile);
+            entriesFile = null;
+        }
+    }
+
+    private void writeTbsCertList(final OutputStream out, final byte[] tbsHeader, final ByteArrayOutputStream head,
+            final byte[] revokedCertificatesHeader, final byte[] tail) throws IOException {
+        out.write(tbsHeader);
+        head.writeTo(out);
+        out.write(revokedCertificatesHeader);
+        if (memoryEntries != null) {
+            memoryEntries.writeTo(out);
+        } else {
+            try (final InputStream in = Files.newInputStream(entriesFile)) {
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+        out.write(tail);
+    }
+
+    /** @return the DER tag and length of a SEQUENCE with contents of the given length */
+    private static byte[] encodeHeader(final long contentLength) {
+        if (contentLength < 0x80) {
+            return new byte[] { SEQUENCE, (byte) contentLength };
+        }
+        int lengthByteCount = 1;
+        while (lengthByteCount < 8 && (contentLength >>> (8 * lengthByteCount)) != 0) {
+            lengthByteCount++;
+        }
+        final byte[] ret = new byte[2 + lengthByteCount];
+        ret[0] = SEQUENCE;
+        ret[1] = (byte) (0x80 | lengthByteCount);
+        for (int i = 0; i < lengthByteCount; i++) {
+            ret[2 + i] = (byte) (contentLength >>> (8 * (lengthByteCount - 1 - i)));
+        }
+        return ret;
+    }
+
+    /** @return the index after the DER element starting at position */
+    private static int getElementEnd(final byte[] der, final int position) throws IOException {
+        return getContentStart(der, position) + getContentLength(der, position);
+    }
+
+    private static int getContentStart(final byte[] der, final int position) {
+        final int firstLengthByte = der[position + 1] & 0xff;
+        return position + 2 + (firstLengthByte > 0x80 ? firstLengthByte & 0x7f : 0);
+    }
+
+    private static int getContentLength(final byte[] der, final int position) throws IOException {
+        final int firstLengthByte = der[position + 1] & 0xff;
+        if (firstLengthByte < 0x80) {
+            return firstLengthByte;
+        }
+        final int lengthByteCount = firstLengthByte & 0x7f;
+        if (lengthByteCount == 0 || lengthByteCount > 4) {
+            throw new IOException("Unsupported length encoding in CRL.");
+        }
+        long length = 0;
+        for (int i = 0; i < lengthByteCount; i++) {
+            length = length << 8 | der[position + 2 + i] & 0xff;
+        }
+        if (position + 2 + lengthByteCount + length > der.length) {
+            throw new IOException("Truncated CRL.");
+        }
+        return (int) length;
+    }
+
+    /** CRL holder that keeps the encoding it was parsed from, so the revoked certificates are only parsed if they are asked for */
+    private static class EncodedX509CRLHolder extends X509CRLHolder {
+        private static final long serialVersionUID = 1L;
+
+        /** Serialized by X509CRLHolder through getEncoded() */
+        private transient byte[] encoded;
+
+        private EncodedX509CRLHolder(final byte[] encoded) throws IOException {
+            super(encoded);
+            this.encoded = encoded;
+        }
+
+        /** @return the encoded CRL. It is not copied, since it may be large. */
+        @Override
+        public byte[] getEncoded() throws IOException {
+            return encoded != null ? encoded : super.getEncoded();
+        }
+
+        /** Verifies the signature over the encoded TBSCertList, like X509CRLHolder does after encoding it again */
+        @Override
+        public boolean isSignatureValid(final ContentVerifierProvider verifierProvider) throws CertException {
+            if (encoded == null) {
+                return super.isSignatureValid(verifierProvider);
+            }
+            try {
+                final int tbsStart = getContentStart(encoded, 0);
+                final int tbsEnd = getElementEnd(encoded, tbsStart);
+                final int signatureAlgorithmEnd = getElementEnd(encoded, tbsEnd);
+                final byte[] signatureAlgorithmEncoded = Arrays.copyOfRange(encoded, tbsEnd, signatureAlgorithmEnd);
+                // The signature field of the TBSCertList follows the optional version
+                int innerSignatureAlgorithmStart = getContentStart(encoded, tbsStart);
+                if (encoded[innerSignatureAlgorithmStart] == BERTags.INTEGER) {
+                    innerSignatureAlgorithmStart = getElementEnd(encoded, innerSignatureAlgorithmStart);
+                }
+                final byte[] innerSignatureAlgorithmEncoded = Arrays.copyOfRange(encoded, innerSignatureAlgorithmStart,
+                        getElementEnd(encoded, innerSignatureAlgorithmStart));
+                if (!Arrays.equals(signatureAlgorithmEncoded, innerSignatureAlgorithmEncoded)) {
+                    throw new CertException("signature invalid - algorithm identifier mismatch");
+                }
+                final ContentVerifier verifier = verifierProvider.get(AlgorithmIdentifier.getInstance(signatureAlgorithmEncoded));
+                try (final OutputStream verifierOut = verifier.getOutputStream()) {
+                    verifierOut.write(encoded, tbsStart, tbsEnd - tbsStart);
+                }
+                final ASN1BitString signature = ASN1BitString.getInstance(Arrays.copyOfRange(encoded, signatureAlgorithmEnd, encoded.length));
+                return verifier.verify(signature.getOctets());
+            } catch (CertException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CertException("unable to process signature: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Output stream into a byte array of known size, which is returned without copying */
+    private static class ArrayOutputStream extends OutputStream {
+        private final byte[] array;
+        private int position = 0;
+
+        private ArrayOutputStream(final int size) {
+            array = new byte[size];
+        }
+
+        @Override
+        public void write(final int b) {
+            array[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int offset, final int length) {
+            System.arraycopy(b, offset, array, position, length);
+            position += length;
+        }
+
+        private byte[] getArray() {
+            return array;
+        }
+    }
+}
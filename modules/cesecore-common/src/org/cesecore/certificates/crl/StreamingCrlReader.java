@@ -0,0 +1,381 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1BitString;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+/**
+ * Reads a DER encoded X.509 CRL without decoding all of it. The header fields are decoded when the reader is created, while the
+ * revoked certificate entries are only located. Each {@link Entry} refers to its encoding in the CRL, and is decoded when its revocation
+ * information is needed, so that large CRLs can be compared and imported without holding an object tree for all entries.
+ *
+ * @version $Id$
+ */
+public final class StreamingCrlReader {
+
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+
+    private final byte[] encoded;
+    private final int tbsOffset;
+    private final int tbsLength;
+    private final AlgorithmIdentifier tbsSignatureAlgorithm;
+    private final AlgorithmIdentifier signatureAlgorithm;
+    private final byte[] signature;
+    private final X500Name issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final Extensions extensions;
+    /** Offset and end of the contents of the revokedCertificates sequence, or -1 if there are no entries */
+    private final int entriesOffset;
+    private final int entriesEnd;
+
+    /**
+     * @param encoded DER encoded CRL. The array is not copied and must not be modified while the reader or its entries are in use.
+     * @throws IOException if the CRL could not be parsed
+     */
+    public StreamingCrlReader(final byte[] encoded) throws IOException {
+        this.encoded = encoded;
+        try {
+            // CertificateList ::= SEQUENCE { tbsCertList, signatureAlgorithm, signatureValue }
+            final int certificateListEnd = expect(TAG_SEQUENCE, 0, encoded.length);
+            int pos = headerLength(0, encoded.length);
+            tbsOffset = pos;
+            tbsLength = elementLength(pos, certificateListEnd);
+            pos += tbsLength;
+            final int signatureAlgorithmLength = elementLength(pos, certificateListEnd);
+            signatureAlgorithm = AlgorithmIdentifier.getInstance(decode(pos, signatureAlgorithmLength));
+            pos += signatureAlgorithmLength;
+            signature = ASN1BitString.getInstance(decode(pos, elementLength(pos, certificateListEnd))).getOctets();
+            // TBSCertList ::= SEQUENCE { version OPTIONAL, signature, issuer, thisUpdate, nextUpdate OPTIONAL,
+            //                            revokedCertificates OPTIONAL, crlExtensions [0] EXPLICIT OPTIONAL }
+            final int tbsEnd = expect(TAG_SEQUENCE, tbsOffset, certificateListEnd);
+            pos = tbsOffset + headerLength(tbsOffset, tbsEnd);
+            if (tag(pos, tbsEnd) == TAG_INTEGER) {
+                pos += elementLength(pos, tbsEnd);
+            }
+            int length = elementLength(pos, tbsEnd);
+            tbsSignatureAlgorithm = AlgorithmIdentifier.getInstance(decode(pos, length));
+            pos += length;
+            length = elementLength(pos, tbsEnd);
+            issuer = X500Name.getInstance(decode(pos, length));
+            pos += length;
+            length = elementLength(pos, tbsEnd);
+            thisUpdate = Time.getInstance(decode(pos, length)).getDate();
+            pos += length;
+            Date next = null;
+            if (pos < tbsEnd && (tag(pos, tbsEnd) == TAG_UTC_TIME || tag(pos, tbsEnd) == TAG_GENERALIZED_TIME)) {
+                length = elementLength(pos, tbsEnd);
+                next = Time.getInstance(decode(pos, length)).getDate();
+                pos += length;
+            }
+            nextUpdate = next;
+            if (pos < tbsEnd && tag(pos, tbsEnd) == TAG_SEQUENCE) {
+                length = elementLength(pos, tbsEnd);
+                entriesOffset = pos + headerLength(pos, tbsEnd);
+                entriesEnd = pos + length;
+                pos += length;
+            } else {
+                entriesOffset = -1;
+                entriesEnd = -1;
+            }
+            if (pos < tbsEnd) {
+                length = elementLength(pos, tbsEnd);
+                extensions = Extensions.getInstance(ASN1TaggedObject.getInstance(decode(pos, length)).getExplicitBaseObject());
+            } else {
+                extensions = null;
+            }
+        } catch (IllegalArgumentException | ClassCastException | IllegalStateException e) {
+            throw new IOException("CRL could not be parsed: " + e.getMessage(), e);
+        }
+    }
+
+    public X500Name getIssuer() {
+        return issuer;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return nextUpdate of the CRL, or null if it is not present */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /** @return the CRL number, or 0 if the CRL number extension is not present, like {@link org.cesecore.certificates.util.cert.CrlExtensions#getCrlNumber} */
+    public BigInteger getCrlNumber() {
+        final CRLNumber crlNumber = getCrlNumberExtension(Extension.cRLNumber);
+        return crlNumber == null ? BigInteger.ZERO : crlNumber.getCRLNumber();
+    }
+
+    /** @return the base CRL number of a delta CRL, or -1 for a full CRL, like {@link org.cesecore.certificates.util.cert.CrlExtensions#getDeltaCRLIndicator} */
+    public BigInteger getDeltaCrlIndicator() {
+        final CRLNumber crlNumber = getCrlNumberExtension(Extension.deltaCRLIndicator);
+        return crlNumber == null ? BigInteger.valueOf(-1) : crlNumber.getCRLNumber();
+    }
+
+    /**
+     * @param oid extension OID
+     * @return the extension value as a DER encoded OCTET STRING, like {@link java.security.cert.X509CRL#getExtensionValue}, or null if the
+     *     extension is not present
+     * @throws IOException if the extension could not be encoded
+     */
+    public byte[] getExtensionValue(final ASN1ObjectIdentifier oid) throws IOException {
+        if (extensions == null) {
+            return null;
+        }
+        final Extension extension = extensions.getExtension(oid);
+        return extension == null ? null : extension.getExtnValue().getEncoded();
+    }
+
+    private CRLNumber getCrlNumberExtension(final ASN1ObjectIdentifier oid) {
+        if (extensions == null) {
+            return null;
+        }
+        final Extension extension = extensions.getExtension(oid);
+        return extension == null ? null : CRLNumber.getInstance(extension.getParsedValue());
+    }
+
+    /**
+     * Verifies the signature of the CRL.
+     *
+     * @param publicKey public key of the issuer
+     * @throws SignatureException if the signature is invalid, or could not be verified
+     */
+    public void verify(final PublicKey publicKey) throws SignatureException {
+        if (!signatureAlgorithm.equals(tbsSignatureAlgorithm)) {
+            throw new SignatureException("Signature algorithm in the CRL does not match the one in the signed part.");
+        }
+        final boolean valid;
+        try {
+            final ContentVerifier verifier = new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(publicKey)
+                    .get(signatureAlgorithm);
+            try (final OutputStream outputStream = verifier.getOutputStream()) {
+                outputStream.write(encoded, tbsOffset, tbsLength);
+            }
+            valid = verifier.verify(signature);
+        } catch (OperatorCreationException | IOException e) {
+            throw new SignatureException("CRL signature could not be verified: " + e.getMessage(), e);
+        }
+        if (!valid) {
+            throw new SignatureException("CRL signature is invalid.");
+        }
+    }
+
+    /**
+     * Locates the revoked certificate entries, and reads the serial number of each of them.
+     *
+     * @return the entries sorted by serial number, or an empty list if the CRL has no entries
+     * @throws IOException if an entry could not be parsed
+     */
+    public List<Entry> getSortedEntries() throws IOException {
+        if (entriesOffset == -1) {
+            return Collections.emptyList();
+        }
+        final List<Entry> ret = new ArrayList<>();
+        try {
+            int pos = entriesOffset;
+            while (pos < entriesEnd) {
+                final int length = elementLength(pos, entriesEnd);
+                final int entryEnd = expect(TAG_SEQUENCE, pos, entriesEnd);
+                final int serialNumberOffset = pos + headerLength(pos, entryEnd);
+                expect(TAG_INTEGER, serialNumberOffset, entryEnd);
+                final BigInteger serialNumber = ASN1Integer.getInstance(decode(serialNumberOffset, elementLength(serialNumberOffset, entryEnd))).getValue();
+                ret.add(new Entry(serialNumber, pos, length));
+                pos += length;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("CRL entry could not be parsed: " + e.getMessage(), e);
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Compares the entries of two CRLs by walking through them in serial number order.
+     *
+     * @param entries sorted entries of the new CRL, see {@link #getSortedEntries()}
+     * @param previousEntries sorted entries of the previous CRL
+     * @return the entries of the new CRL that are not in the previous CRL, or have changed, in serial number order.
+     *      Entries that have been removed are not included.
+     */
+    public static List<Entry> getNewOrChangedEntries(final List<Entry> entries, final List<Entry> previousEntries) {
+        final List<Entry> ret = new ArrayList<>();
+        final Iterator<Entry> previousIterator = previousEntries.iterator();
+        Entry previous = previousIterator.hasNext() ? previousIterator.next() : null;
+        for (final Entry entry : entries) {
+            while (previous != null && previous.serialNumber.compareTo(entry.serialNumber) < 0) {
+                previous = previousIterator.hasNext() ? previousIterator.next() : null;
+            }
+            if (previous == null || previous.serialNumber.compareTo(entry.serialNumber) != 0 || !entry.hasSameEncoding(previous)) {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    private ASN1Primitive decode(final int offset, final int length) throws IOException {
+        return ASN1Primitive.fromByteArray(Arrays.copyOfRange(encoded, offset, offset + length));
+    }
+
+    private int tag(final int pos, final int end) throws IOException {
+        if (pos >= end) {
+            throw new IOException("Unexpected end of CRL at offset " + pos + ".");
+        }
+        final int tag = encoded[pos] & 0xff;
+        if ((tag & 0x1f) == 0x1f) {
+            throw new IOException("Unsupported high tag number at offset " + pos + ".");
+        }
+        return tag;
+    }
+
+    /** Checks the tag of the element at pos, and returns the offset after it */
+    private int expect(final int expectedTag, final int pos, final int end) throws IOException {
+        if (tag(pos, end) != expectedTag) {
+            throw new IOException("Unexpected tag " + tag(pos, end) + " at offset " + pos + ".");
+        }
+        return pos + elementLength(pos, end);
+    }
+
+    private int headerLength(final int pos, final int end) throws IOException {
+        tag(pos, end);
+        if (pos + 1 >= end) {
+            throw new IOException("Unexpected end of CRL at offset " + pos + ".");
+        }
+        final int first = encoded[pos + 1] & 0xff;
+        if (first < 0x80) {
+            return 2;
+        }
+        final int count = first & 0x7f;
+        if (count == 0 || count > 4) {
+            throw new IOException("Unsupported length encoding at offset " + pos + ". CRLs must be DER encoded.");
+        }
+        return 2 + count;
+    }
+
+    /** @return the length of the element at pos, including its tag and length octets */
+    private int elementLength(final int pos, final int end) throws IOException {
+        final int headerLength = headerLength(pos, end);
+        long contentLength;
+        if (headerLength == 2) {
+            contentLength = encoded[pos + 1] & 0xff;
+        } else {
+            if (pos + headerLength > end) {
+                throw new IOException("Unexpected end of CRL at offset " + pos + ".");
+            }
+            contentLength = 0;
+            for (int i = pos + 2; i < pos + headerLength; i++) {
+                contentLength = (contentLength << 8) | (encoded[i] & 0xff);
+            }
+        }
+        if (pos + headerLength + contentLength > end) {
+            throw new IOException("Element at offset " + pos + " is longer than its enclosing element.");
+        }
+        return (int) (headerLength + contentLength);
+    }
+
+    /** An entry in the CRL, which is decoded on demand. */
+    public final class Entry implements Comparable<Entry> {
+
+        private final BigInteger serialNumber;
+        private final int offset;
+        private final int length;
+
+        private Entry(final BigInteger serialNumber, final int offset, final int length) {
+            this.serialNumber = serialNumber;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        /** @return the revocation information of the entry. The fingerprint and expire date are not known and not set. */
+        public RevokedCertInfo toRevokedCertInfo() throws IOException {
+            try {
+                return CrlEntryMerger.toRevokedCertInfo(decodeEntry());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("CRL entry could not be parsed: " + e.getMessage(), e);
+            }
+        }
+
+        /** @return the issuer in the certificate issuer extension of the entry, or null if the entry has no such extension */
+        public X500Name getCertificateIssuer() throws IOException {
+            final Extensions entryExtensions = decodeEntry().getExtensions();
+            final Extension extension = entryExtensions == null ? null : entryExtensions.getExtension(Extension.certificateIssuer);
+            if (extension == null) {
+                return null;
+            }
+            for (final GeneralName name : GeneralNames.getInstance(extension.getParsedValue()).getNames()) {
+                if (name.getTagNo() == GeneralName.directoryName) {
+                    return X500Name.getInstance(name.getName());
+                }
+            }
+            return null;
+        }
+
+        private TBSCertList.CRLEntry decodeEntry() throws IOException {
+            try {
+                return TBSCertList.CRLEntry.getInstance(decode(offset, length));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("CRL entry could not be parsed: " + e.getMessage(), e);
+            }
+        }
+
+        private boolean hasSameEncoding(final Entry other) {
+            return Arrays.equals(encoded, offset, offset + length, other.getEncoded(), other.offset, other.offset + other.length);
+        }
+
+        private byte[] getEncoded() {
+            return encoded;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            return serialNumber.compareTo(other.serialNumber);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * In-memory index of the revocation status of the certificates issued by the CAs that this OCSP responder serves,
+ * so that most requests can be answered without a database lookup.
+ * <p>
+ * For each issuer the index holds a map of the revoked certificates by serial number, and a Bloom filter per certificate
+ * profile of all known serial numbers. A certificate that is not revoked and is found in exactly one of the Bloom
+ * filters is considered good. In every other case {@link #getStatus(String, BigInteger)} returns null and the
+ * caller must look up the status in the database, and should report the result back with {@link #learnStatus}.
+ * <p>
+ * The index is built with {@link #newBuilder(Map)}, updated through the revocation path of this node with
+ * {@link #updateStatus} once the change has been committed, and revocations made by other nodes are picked up
+ * periodically with {@link #replaceRevoked}.
+ *
+ * @version $Id$
+ */
+public enum CertificateStatusIndex {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(CertificateStatusIndex.class);
+
+    /** Bloom filters are sized with some headroom, so certificates issued after the build do not saturate them right away. */
+    private static final double CAPACITY_HEADROOM = 1.25;
+    private static final long MIN_CAPACITY = 1024;
+
+    /** Information about a revoked certificate, as needed to build an OCSP response. */
+    public static class RevokedEntry {
+        private final BigInteger serialNumber;
+        private final long revocationDate;
+        private final int revocationReason;
+        private final int certificateProfileId;
+
+        public RevokedEntry(final BigInteger serialNumber, final long revocationDate, final int revocationReason, final int certificateProfileId) {
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+            this.revocationReason = revocationReason;
+            this.certificateProfileId = certificateProfileId;
+        }
+    }
+
+    /** A committed status change made by this node, kept for a while so it is not lost when the index is rebuilt or reconciled from an older database read. */
+    private static class LocalChange {
+        private final long time;
+        private final CertificateStatus status;
+
+        private LocalChange(final long time, final CertificateStatus status) {
+            this.time = time;
+            this.status = status;
+        }
+    }
+
+    /** Status index for the certificates of one issuer. */
+    private static class IssuerIndex {
+        private final long buildTime;
+        private final Map<BigInteger, LocalChange> localChanges = new ConcurrentHashMap<>();
+        /** Start time of the database read of the last reconciliation, or the build. */
+        private volatile long lastReadTime;
+        private final double falsePositiveProbability;
+        private final Map<Integer, SerialNumberBloomFilter> knownSerialNumbers = new ConcurrentHashMap<>();
+        /** Serial numbers that were changed in a way the Bloom filters can not represent, e.g. deleted, until the next rebuild. */
+        private final Set<BigInteger> uncertainSerialNumbers = ConcurrentHashMap.newKeySet();
+        /** Replaced as a whole when the revoked certificates are read from the database. */
+        private volatile Map<BigInteger, RevokedEntry> revoked = new ConcurrentHashMap<>();
+
+        private IssuerIndex(final long buildTime, final double falsePositiveProbability) {
+            this.buildTime = buildTime;
+            this.lastReadTime = buildTime;
+            this.falsePositiveProbability = falsePositiveProbability;
+        }
+
+        private void apply(final BigInteger serialNumber, final CertificateStatus status) {
+            if (CertificateStatus.NOT_AVAILABLE.equals(status)) {
+                clearRevoked(serialNumber);
+                uncertainSerialNumbers.add(serialNumber);
+                return;
+            }
+            addKnown(serialNumber, status.certificateProfileId);
+            if (CertificateStatus.REVOKED.equals(status)) {
+                setRevoked(new RevokedEntry(serialNumber, status.revocationDate.getTime(), status.revocationReason, status.certificateProfileId));
+            } else {
+                clearRevoked(serialNumber);
+            }
+        }
+
+        /**
+         * Apply changes made by this node since the given time again, since they may not have been committed when the
+         * database was read, and forget changes made before it.
+         */
+        private void reapplyLocalChanges(final Map<BigInteger, LocalChange> changes, final long since) {
+            for (final Map.Entry<BigInteger, LocalChange> entry : changes.entrySet()) {
+                if (entry.getValue().time >= since) {
+                    localChanges.put(entry.getKey(), entry.getValue());
+                    apply(entry.getKey(), entry.getValue().status);
+                } else {
+                    localChanges.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private void addKnown(final BigInteger serialNumber, final int certificateProfileId) {
+            knownSerialNumbers.computeIfAbsent(certificateProfileId, k -> new SerialNumberBloomFilter(MIN_CAPACITY, falsePositiveProbability))
+                    .put(serialNumber);
+        }
+
+        // Synchronized with replaceRevoked, so a change is not made to a map that is being replaced
+        private synchronized void setRevoked(final RevokedEntry entry) {
+            revoked.put(entry.serialNumber, entry);
+        }
+
+        private synchronized void clearRevoked(final BigInteger serialNumber) {
+            revoked.remove(serialNumber);
+        }
+
+        private synchronized void replaceRevoked(final Collection<RevokedEntry> revokedEntries) {
+            revoked = toMap(revokedEntries);
+        }
+
+        private boolean isSaturated() {
+            for (final SerialNumberBloomFilter filter : knownSerialNumbers.values()) {
+                if (filter.isSaturated()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Collects the certificates of one issuer before the index is made available with {@link CertificateStatusIndex#putIndex(String, Builder)}. */
+    public static class Builder {
+        private final IssuerIndex issuerIndex;
+        private final List<RevokedEntry> revokedEntries = new ArrayList<>();
+
+        private Builder(final Map<Integer, Long> certificateCountPerProfile, final double falsePositiveProbability) {
+            // Created before the database is read, so changes made while reading are reapplied
+            issuerIndex = new IssuerIndex(System.currentTimeMillis(), falsePositiveProbability);
+            for (final Map.Entry<Integer, Long> entry : certificateCountPerProfile.entrySet()) {
+                final long capacity = Math.max(MIN_CAPACITY, (long) (entry.getValue() * CAPACITY_HEADROOM));
+                issuerIndex.knownSerialNumbers.put(entry.getKey(), new SerialNumberBloomFilter(capacity, falsePositiveProbability));
+            }
+        }
+
+        /**
+         * Add a certificate to the index being built.
+         *
+         * @param serialNumber the serial number of the certificate
+         * @param status the status of the certificate as returned by CertificateStatusHelper
+         */
+        public void add(final BigInteger serialNumber, final CertificateStatus status) {
+            issuerIndex.addKnown(serialNumber, status.certificateProfileId);
+            if (CertificateStatus.REVOKED.equals(status)) {
+                revokedEntries.add(new RevokedEntry(serialNumber, status.revocationDate.getTime(), status.revocationReason, status.certificateProfileId));
+            }
+        }
+    }
+
+    private final Map<String, IssuerIndex> indexes = new ConcurrentHashMap<>();
+
+    /** @return true if the index has been enabled with ocsp.statusindex.enabled */
+    public boolean isEnabled() {
+        return OcspConfiguration.isCertificateStatusIndexEnabled();
+    }
+
+    /**
+     * @param issuerDn the issuer DN, as stored in CertificateData
+     * @param serialNumber the serial number of the certificate
+     * @return the status of the certificate, or null if the index can not answer and the database must be used
+     */
+    public CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        final IssuerIndex issuerIndex = indexes.get(issuerDn);
+        if (issuerIndex == null || issuerIndex.uncertainSerialNumbers.contains(serialNumber)) {
+            return null;
+        }
+        final RevokedEntry revokedEntry = issuerIndex.revoked.get(serialNumber);
+        if (revokedEntry != null) {
+            return new CertificateStatus(CertificateStatus.REVOKED.toString(), revokedEntry.revocationDate, revokedEntry.revocationReason,
+                    revokedEntry.certificateProfileId);
+        }
+        Integer certificateProfileId = null;
+        for (final Map.Entry<Integer, SerialNumberBloomFilter> entry : issuerIndex.knownSerialNumbers.entrySet()) {
+            if (entry.getValue().mightContain(serialNumber)) {
+                if (certificateProfileId != null) {
+                    // Found for more than one profile, we can't tell which one is right
+                    return null;
+                }
+                certificateProfileId = entry.getKey();
+            }
+        }
+        if (certificateProfileId == null) {
+            // Probably an unknown certificate, but it may have been issued by another node since the index was built
+            return null;
+        }
+        return new CertificateStatus(CertificateStatus.OK.toString(), -1L, RevokedCertInfo.NOT_REVOKED, certificateProfileId);
+    }
+
+    /**
+     * Update the index with a status change made by this node. Does nothing if there is no index for the issuer.
+     *
+     * @param issuerDn the issuer DN, as stored in CertificateData
+     * @param serialNumber the serial number of the certificate
+     * @param status the new status of the certificate, as returned by CertificateStatusHelper, or NOT_AVAILABLE if the certificate was deleted
+     */
+    public void updateStatus(final String issuerDn, final BigInteger serialNumber, final CertificateStatus status) {
+        final IssuerIndex issuerIndex = indexes.get(issuerDn);
+        if (issuerIndex == null) {
+            return;
+        }
+        issuerIndex.localChanges.put(serialNumber, new LocalChange(System.currentTimeMillis(), status));
+        issuerIndex.apply(serialNumber, status);
+    }
+
+    /**
+     * Update the index with a status that was read from the database because the index could not answer, e.g. for a
+     * certificate issued by another node since the index was built. Does nothing if there is no index for the issuer.
+     * <p>
+     * Since the database may have been read before a concurrent change by this node, a learned status never overrides a
+     * local change and never removes a revocation. Revocations removed by other nodes are picked up by {@link #replaceRevoked}.
+     *
+     * @param issuerDn the issuer DN, as stored in CertificateData
+     * @param serialNumber the serial number of the certificate
+     * @param status the status of the certificate, as returned by CertificateStatusHelper
+     */
+    public void learnStatus(final String issuerDn, final BigInteger serialNumber, final CertificateStatus status) {
+        final IssuerIndex issuerIndex = indexes.get(issuerDn);
+        if (issuerIndex == null || CertificateStatus.NOT_AVAILABLE.equals(status)) {
+            // Unknown certificates are not remembered, since anyone can ask for any serial number
+            return;
+        }
+        if (issuerIndex.localChanges.containsKey(serialNumber)) {
+            return;
+        }
+        issuerIndex.addKnown(serialNumber, status.certificateProfileId);
+        if (CertificateStatus.REVOKED.equals(status)) {
+            issuerIndex.setRevoked(new RevokedEntry(serialNumber, status.revocationDate.getTime(), status.revocationReason, status.certificateProfileId));
+        }
+    }
+
+    /**
+     * Replace the revoked certificates of an issuer, to pick up revocations made by other nodes. Does nothing if there
+     * is no index for the issuer.
+     *
+     * @param issuerDn the issuer DN, as stored in CertificateData
+     * @param revokedEntries all currently revoked certificates of the issuer
+     * @param readTime the time the database read was started
+     */
+    public void replaceRevoked(final String issuerDn, final Collection<RevokedEntry> revokedEntries, final long readTime) {
+        final IssuerIndex issuerIndex = indexes.get(issuerDn);
+        if (issuerIndex == null) {
+            return;
+        }
+        issuerIndex.replaceRevoked(revokedEntries);
+        for (final RevokedEntry entry : revokedEntries) {
+            issuerIndex.addKnown(entry.serialNumber, entry.certificateProfileId);
+        }
+        // Keep local changes since the previous read, in case they were not committed when the database was read this time
+        issuerIndex.reapplyLocalChanges(issuerIndex.localChanges, issuerIndex.lastReadTime);
+        issuerIndex.lastReadTime = readTime;
+    }
+
+    /**
+     * @param certificateCountPerProfile the number of certificates of the issuer per certificate profile id, used to size the index
+     * @return a builder for a new index of an issuer
+     */
+    public Builder newBuilder(final Map<Integer, Long> certificateCountPerProfile) {
+        return new Builder(certificateCountPerProfile, OcspConfiguration.getCertificateStatusIndexFalsePositiveProbability());
+    }
+
+    /** Make a newly built index available for lookups, replacing any previous index for the issuer. */
+    public void putIndex(final String issuerDn, final Builder builder) {
+        builder.issuerIndex.replaceRevoked(builder.revokedEntries);
+        final IssuerIndex previous = indexes.put(issuerDn, builder.issuerIndex);
+        if (previous != null) {
+            builder.issuerIndex.reapplyLocalChanges(previous.localChanges, Math.min(previous.lastReadTime, builder.issuerIndex.buildTime));
+        }
+        if (log.isDebugEnabled()) {
+            long size = 0;
+            long bytes = 0;
+            for (final SerialNumberBloomFilter filter : builder.issuerIndex.knownSerialNumbers.values()) {
+                size += filter.size();
+                bytes += filter.getSizeInBytes();
+            }
+            log.debug("Built certificate status index for '" + issuerDn + "' with " + size + " certificates (" + bytes + " bytes) and "
+                    + builder.revokedEntries.size() + " revoked certificates.");
+        }
+    }
+
+    /**
+     * @param issuerDn the issuer DN, as stored in CertificateData
+     * @param maxAgeMs the time after which an index should be rebuilt from the database, in milliseconds
+     * @return true if there is no index for the issuer, or if it is older than the given age or has received more certificates than it was sized for
+     */
+    public boolean needsRebuild(final String issuerDn, final long maxAgeMs) {
+        final IssuerIndex issuerIndex = indexes.get(issuerDn);
+        return issuerIndex == null || issuerIndex.buildTime + maxAgeMs <= System.currentTimeMillis() || issuerIndex.isSaturated();
+    }
+
+    /** Remove the index of an issuer, so that all lookups go to the database until the index has been rebuilt. */
+    public void remove(final String issuerDn) {
+        indexes.remove(issuerDn);
+    }
+
+    /** Remove the indexes of all issuers not in the given collection. */
+    public void retainIssuers(final Collection<String> issuerDns) {
+        indexes.keySet().retainAll(issuerDns);
+    }
+
+    /** Clear cache. */
+    public void flush() {
+        indexes.clear();
+    }
+
+    private static Map<BigInteger, RevokedEntry> toMap(final Collection<RevokedEntry> revokedEntries) {
+        final Map<BigInteger, RevokedEntry> revoked = new ConcurrentHashMap<>(Math.max(16, revokedEntries.size() * 4 / 3 + 1));
+        for (final RevokedEntry entry : revokedEntries) {
+            revoked.put(entry.serialNumber, entry);
+        }
+        return revoked;
+    }
+}
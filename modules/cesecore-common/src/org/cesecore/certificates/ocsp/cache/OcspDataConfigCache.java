@@ -32,9 +32,10 @@ public enum OcspDataConfigCache {
     
     private final static Logger log = Logger.getLogger(OcspDataConfigCache.class);
     
-    private Map<Integer, OcspDataConfigCacheEntry> cache = new HashMap<>();
+    /** Replaced as a whole and never modified, so it can be read without locking */
+    private volatile Map<Integer, OcspDataConfigCacheEntry> cache = new HashMap<>();
     private Map<Integer, OcspDataConfigCacheEntry> staging = new HashMap<>();
-    private Boolean isCaModeCompatiblePresent = false;
+    private volatile Boolean isCaModeCompatiblePresent = false;
     private Boolean isCaModeCompatibleStagingValue = false;
 
     /**
@@ -65,13 +66,33 @@ public enum OcspDataConfigCache {
     }
     
     /** Commits the staged cache to the live one. Invoke when staging cache is considered ready. */
-    public void stagingCommit() {
+    public synchronized void stagingCommit() {
         cache = staging;
         staging = new HashMap<>();
         isCaModeCompatiblePresent = isCaModeCompatibleStagingValue;
         isCaModeCompatibleStagingValue = false;
     }
 
+    /**
+     * Replaces the entries of a single CA in the live cache, leaving all other entries untouched.
+     * @param caId the ID of the CA
+     * @param ocspDataConfigCacheEntries the new entries of the CA, or an empty list if the CA should be removed
+     * @param isMsCaCompatible true if the CA is MS compatible
+     */
+    public synchronized void updateCaEntries(final int caId, final List<OcspDataConfigCacheEntry> ocspDataConfigCacheEntries, final boolean isMsCaCompatible) {
+        final Map<Integer, OcspDataConfigCacheEntry> updated = new HashMap<>(cache);
+        updated.values().removeIf(entry -> entry.getCaId() == caId);
+        for (final OcspDataConfigCacheEntry ocspDataConfigCacheEntry : ocspDataConfigCacheEntries) {
+            for (CertificateID certID : ocspDataConfigCacheEntry.getCertificateID()) {
+                updated.put(getCacheIdFromCertificateID(certID), ocspDataConfigCacheEntry);
+            }
+        }
+        cache = updated;
+        if (isMsCaCompatible) {
+            isCaModeCompatiblePresent = true;
+        }
+    }
+
     /** @return Cache identifier based on the provided CertificateID. */
     private static int getCacheIdFromCertificateID(final CertificateID certID) {
         // Use bitwise XOR of the hashcodes for IssuerNameHash and IssuerKeyHash to produce the integer.
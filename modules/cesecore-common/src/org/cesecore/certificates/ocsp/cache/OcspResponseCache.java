@@ -0,0 +1,311 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Bounded in-memory cache of signed OCSP responses, so that repeated requests for the same certificate can be
+ * answered without a status lookup and a new signature.
+ *
+ * Entries are keyed by the requested CertificateID and the OCSP key binding used to sign the response, and
+ * expire at the response's thisUpdate + maxAge, or at nextUpdate when no maxAge is used. Since an issuer DN can
+ * not be mapped back to an issuerNameHash without knowing the hash algorithm, revocation invalidates all cached
+ * responses for the serial number regardless of issuer.
+ *
+ * @version $Id$
+ */
+public enum OcspResponseCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspResponseCache.class);
+
+    /** Cache lookup key built from the CertificateID of a single request and the signing key binding. */
+    private static class ResponseKey {
+        private final String hashAlgorithm;
+        private final ASN1ObjectIdentifier hashAlgorithmOid;
+        private final byte[] issuerNameHash;
+        private final byte[] issuerKeyHash;
+        private final BigInteger serialNumber;
+        private final int ocspKeyBindingId;
+        private final int hashCode;
+
+        private ResponseKey(final CertificateID certId, final int ocspKeyBindingId) {
+            this.hashAlgorithmOid = certId.getHashAlgOID();
+            this.hashAlgorithm = hashAlgorithmOid.getId();
+            this.issuerNameHash = certId.getIssuerNameHash();
+            this.issuerKeyHash = certId.getIssuerKeyHash();
+            this.serialNumber = certId.getSerialNumber();
+            this.ocspKeyBindingId = ocspKeyBindingId;
+            this.hashCode = ((hashAlgorithm.hashCode() * 31 + Arrays.hashCode(issuerNameHash)) * 31 + Arrays.hashCode(issuerKeyHash)) * 31
+                    + serialNumber.hashCode() + ocspKeyBindingId;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ResponseKey)) {
+                return false;
+            }
+            final ResponseKey other = (ResponseKey) obj;
+            return ocspKeyBindingId == other.ocspKeyBindingId && serialNumber.equals(other.serialNumber) && hashAlgorithm.equals(other.hashAlgorithm)
+                    && Arrays.equals(issuerNameHash, other.issuerNameHash) && Arrays.equals(issuerKeyHash, other.issuerKeyHash);
+        }
+    }
+
+    /** An immutable signed response together with the information needed to serve it again. */
+    public static class CachedOcspResponse {
+        private final OCSPResp ocspResponse;
+        private final long maxAge;
+        private final X509Certificate signerCert;
+        private final long expireTime;
+
+        private CachedOcspResponse(final OCSPResp ocspResponse, final long maxAge, final X509Certificate signerCert, final long expireTime) {
+            this.ocspResponse = ocspResponse;
+            this.maxAge = maxAge;
+            this.signerCert = signerCert;
+            this.expireTime = expireTime;
+        }
+
+        public OCSPResp getOcspResponse() {
+            return ocspResponse;
+        }
+
+        /** @return the max age in milliseconds that was used when the response was produced */
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        public X509Certificate getSignerCert() {
+            return signerCert;
+        }
+
+        /** @return the time in epoch milliseconds after which this response may no longer be served from the cache */
+        public long getExpireTime() {
+            return expireTime;
+        }
+    }
+
+    private final Map<ResponseKey, CachedOcspResponse> cache = new ConcurrentHashMap<>();
+    /** Secondary index used to find the entries to drop when a certificate is revoked. */
+    private final Map<BigInteger, Set<ResponseKey>> keysBySerialNumber = new ConcurrentHashMap<>();
+    /** Incremented on every invalidation, so responses built from a status read before the invalidation are not cached. */
+    private final AtomicLong invalidationCount = new AtomicLong();
+    /** Minimum time in milliseconds between two scans for expired entries when the cache is full */
+    private static final long EXPIRED_SCAN_INTERVAL = 1000L;
+    /** Time of the last scan for expired entries */
+    private final AtomicLong lastExpiredScan = new AtomicLong();
+
+    /** @return true if the cache has been enabled with ocsp.responsecache.maxentries */
+    public boolean isEnabled() {
+        return OcspConfiguration.getResponseCacheMaxEntries() > 0;
+    }
+
+    /**
+     * Read before looking up the certificate status and pass the value to {@link #putResponse}, to avoid caching a
+     * response with a status that was changed while the response was being produced.
+     *
+     * @return the number of invalidations made since startup
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * @param certId the CertificateID of the single request
+     * @param ocspKeyBindingId the id of the OCSP key binding that signs the response, or 0 if the CA signs it directly
+     * @return a response that is still valid to serve or null if none was found
+     */
+    public CachedOcspResponse getResponse(final CertificateID certId, final int ocspKeyBindingId) {
+        final ResponseKey key = new ResponseKey(certId, ocspKeyBindingId);
+        final CachedOcspResponse cachedResponse = cache.get(key);
+        if (cachedResponse == null) {
+            return null;
+        }
+        if (cachedResponse.getExpireTime() <= System.currentTimeMillis()) {
+            remove(key, cachedResponse);
+            return null;
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Store a signed response in the cache. The response is silently dropped if it would expire immediately or if
+     * the cache is full. When the cache is full, expired entries are removed, but at most once per second, so that a full
+     * cache does not scan all entries on every request.
+     *
+     * @param certId the CertificateID of the single request
+     * @param ocspKeyBindingId the id of the OCSP key binding that signed the response, or 0 if the CA signed it directly
+     * @param ocspResponse the complete signed response
+     * @param maxAge the max age in milliseconds used for the response, or 0 if none
+     * @param signerCert the certificate of the response signer
+     * @param thisUpdate thisUpdate of the single response in epoch milliseconds
+     * @param nextUpdate nextUpdate of the single response in epoch milliseconds, or 0 if none
+     * @param invalidationCountBeforeLookup the value of {@link #getInvalidationCount()} before the certificate status was looked up
+     */
+    public void putResponse(final CertificateID certId, final int ocspKeyBindingId, final OCSPResp ocspResponse, final long maxAge,
+            final X509Certificate signerCert, final long thisUpdate, final long nextUpdate, final long invalidationCountBeforeLookup) {
+        final int maxEntries = OcspConfiguration.getResponseCacheMaxEntries();
+        if (maxEntries <= 0) {
+            return;
+        }
+        final long expireTime;
+        if (maxAge > 0) {
+            expireTime = nextUpdate > 0 ? Math.min(thisUpdate + maxAge, nextUpdate) : thisUpdate + maxAge;
+        } else {
+            expireTime = nextUpdate;
+        }
+        final long now = System.currentTimeMillis();
+        if (expireTime <= now) {
+            return;
+        }
+        if (cache.size() >= maxEntries) {
+            final long lastScan = lastExpiredScan.get();
+            if (now - lastScan >= EXPIRED_SCAN_INTERVAL && lastExpiredScan.compareAndSet(lastScan, now)) {
+                removeExpired(now);
+            }
+            if (cache.size() >= maxEntries) {
+                if (log.isDebugEnabled()) {
+                    log.debug("OCSP response cache is full with " + cache.size() + " entries. Not caching response for serial number "
+                            + certId.getSerialNumber().toString(16) + ".");
+                }
+                return;
+            }
+        }
+        final ResponseKey key = new ResponseKey(certId, ocspKeyBindingId);
+        keysBySerialNumber.computeIfAbsent(key.serialNumber, k -> ConcurrentHashMap.newKeySet()).add(key);
+        cache.put(key, new CachedOcspResponse(ocspResponse, maxAge, signerCert, expireTime));
+        if (invalidationCount.get() != invalidationCountBeforeLookup) {
+            // The status might have changed while this response was produced
+            invalidate(key.serialNumber);
+        }
+    }
+
+    /**
+     * Remove all cached responses for a certificate, regardless of issuer and signer. Invoked when the
+     * revocation status of the certificate changes.
+     *
+     * @param serialNumber the serial number of the certificate
+     */
+    public void invalidate(final BigInteger serialNumber) {
+        invalidationCount.incrementAndGet();
+        final Set<ResponseKey> keys = keysBySerialNumber.remove(serialNumber);
+        if (keys != null) {
+            for (final ResponseKey key : keys) {
+                cache.remove(key);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Removed " + keys.size() + " cached OCSP responses for serial number " + serialNumber.toString(16) + ".");
+            }
+        }
+    }
+
+    /**
+     * Remove all cached responses for certificates issued by a CA, e.g. when the CA's keys, certificates or status change.
+     * Responses are matched on the issuerNameHash, so the responses for all certificates of a CA with the given subject DN are
+     * removed, regardless of the CA key they were issued with. If the name hash can not be computed, the whole cache is flushed.
+     *
+     * @param caCertificate a certificate of the CA
+     */
+    public void invalidateIssuer(final X509Certificate caCertificate) {
+        invalidationCount.incrementAndGet();
+        final Map<String, byte[]> issuerNameHashes = new HashMap<>();
+        int removed = 0;
+        try {
+            for (final Entry<ResponseKey, CachedOcspResponse> entry : cache.entrySet()) {
+                final ResponseKey key = entry.getKey();
+                byte[] issuerNameHash = issuerNameHashes.get(key.hashAlgorithm);
+                if (issuerNameHash == null) {
+                    issuerNameHash = new JcaCertificateID(new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(key.hashAlgorithmOid)),
+                            caCertificate, BigInteger.ONE).getIssuerNameHash();
+                    issuerNameHashes.put(key.hashAlgorithm, issuerNameHash);
+                }
+                if (Arrays.equals(issuerNameHash, key.issuerNameHash)) {
+                    remove(key, entry.getValue());
+                    removed++;
+                }
+            }
+        } catch (OperatorCreationException | OCSPException | CertificateEncodingException e) {
+            log.info("Could not compute the issuer name hash of '" + caCertificate.getSubjectDN() + "'. Flushing all cached OCSP responses: "
+                    + e.getMessage());
+            flush();
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + removed + " cached OCSP responses for issuer '" + caCertificate.getSubjectDN() + "'.");
+        }
+    }
+
+    /** @return the number of responses currently held by the cache, including expired entries not yet removed */
+    public int size() {
+        return cache.size();
+    }
+
+    /** Clear cache. */
+    public void flush() {
+        invalidationCount.incrementAndGet();
+        cache.clear();
+        keysBySerialNumber.clear();
+        lastExpiredScan.set(0);
+    }
+
+    private void removeExpired(final long now) {
+        final Iterator<Entry<ResponseKey, CachedOcspResponse>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry<ResponseKey, CachedOcspResponse> entry = iterator.next();
+            if (entry.getValue().getExpireTime() <= now) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void remove(final ResponseKey key, final CachedOcspResponse cachedResponse) {
+        if (cache.remove(key, cachedResponse)) {
+            final Set<ResponseKey> keys = keysBySerialNumber.get(key.serialNumber);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysBySerialNumber.remove(key.serialNumber, keys);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
+
+/**
+ * Directory tree of pre-produced OCSP responses, addressed like RFC 5019 GET requests, so that the responses can be served by a plain
+ * web server or CDN, or by the OCSP servlet without a database lookup.
+ * <p>
+ * Each response is stored in a file named by the base64url encoding (without padding) of the DER encoded OCSP request for the CertID
+ * of the response, i.e. the URL of an RFC 5019 GET request with '+' and '/' replaced by '-' and '_'. A web server in front of the tree
+ * has to do that replacement, and serve the files with content type application/ocsp-response.
+ * <p>
+ * Every export is written to a new snapshot directory with a manifest of the exported responses. The snapshot is then made current
+ * by atomically replacing the symbolic link {@value #CURRENT}, so readers never see a partially written tree. Responses that have
+ * not changed since the previous snapshot are hard linked instead of written again.
+ *
+ * @version $Id$
+ */
+public class OcspResponseFileTree {
+
+    private static final Logger log = Logger.getLogger(OcspResponseFileTree.class);
+
+    /** Name of the symbolic link to the current snapshot */
+    public static final String CURRENT = "current";
+    /** Name of the manifest file in each snapshot */
+    public static final String MANIFEST = "manifest.txt";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    /** File names longer than this are not supported by common file systems */
+    private static final int MAX_KEY_LENGTH = 255;
+    /** Hash algorithms of the CertIDs that exported responses may be addressed by */
+    private static final ASN1ObjectIdentifier[] CERTID_HASH_ALGORITHMS = { OIWObjectIdentifiers.idSHA1, NISTObjectIdentifiers.id_sha256,
+            NISTObjectIdentifiers.id_sha384, NISTObjectIdentifiers.id_sha512 };
+
+    private final Path baseDirectory;
+
+    /** Entry in the manifest of a snapshot */
+    public static final class ManifestEntry {
+        private final String key;
+        private final int caId;
+        private final String serialNumber;
+        private final long producedAt;
+        private final long nextUpdate;
+
+        public ManifestEntry(final String key, final int caId, final String serialNumber, final long producedAt, final long nextUpdate) {
+            this.key = key;
+            this.caId = caId;
+            this.serialNumber = serialNumber;
+            this.producedAt = producedAt;
+            this.nextUpdate = nextUpdate;
+        }
+
+        /** @return the file name of the response, see {@link OcspResponseFileTree#getRequestKey(byte[])} */
+        public String getKey() { return key; }
+        public int getCaId() { return caId; }
+        /** @return the serial number of the certificate in decimal, as in the database */
+        public String getSerialNumber() { return serialNumber; }
+        public long getProducedAt() { return producedAt; }
+        public long getNextUpdate() { return nextUpdate; }
+
+        private String toLine() {
+            return key + ' ' + caId + ' ' + serialNumber + ' ' + producedAt + ' ' + nextUpdate;
+        }
+
+        private static ManifestEntry fromLine(final String line) {
+            final String[] fields = line.split(" ");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("Invalid manifest line: " + line);
+            }
+            return new ManifestEntry(fields[0], Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+        }
+    }
+
+    /** Writes a new snapshot. The snapshot is discarded if the writer is closed without {@link #commit()}. */
+    public final class Writer implements Closeable {
+        private final Path snapshotDirectory;
+        private final Path previousSnapshotDirectory;
+        private final Map<String, ManifestEntry> previousManifest;
+        private final Map<String, ManifestEntry> manifest = new HashMap<>();
+        private int writtenCount = 0;
+        private boolean committed = false;
+
+        private Writer() throws IOException {
+            Files.createDirectories(baseDirectory);
+            previousSnapshotDirectory = getCurrentSnapshotDirectory();
+            previousManifest = previousSnapshotDirectory == null ? Collections.emptyMap() : readManifest(previousSnapshotDirectory);
+            Path directory = baseDirectory.resolve(SNAPSHOT_PREFIX + System.currentTimeMillis());
+            for (int i = 1; Files.exists(directory); i++) {
+                directory = baseDirectory.resolve(SNAPSHOT_PREFIX + System.currentTimeMillis() + "-" + i);
+            }
+            snapshotDirectory = Files.createDirectory(directory);
+        }
+
+        /**
+         * Adds a response to the snapshot. If the same response was in the previous snapshot, it is hard linked from there.
+         *
+         * @param caId the ID of the CA that issued the certificate
+         * @param serialNumber the serial number of the certificate in decimal
+         * @param producedAt the producedAt time of the response
+         * @param nextUpdate the nextUpdate time of the response
+         * @param ocspResponse the DER encoded OCSP response, which must contain a single response
+         * @return false if the response could not be addressed by a GET request and was not added
+         */
+        public boolean add(final int caId, final String serialNumber, final long producedAt, final long nextUpdate, final byte[] ocspResponse)
+                throws IOException {
+            final String key = getResponseKey(ocspResponse);
+            if (key == null || key.length() > MAX_KEY_LENGTH) {
+                return false;
+            }
+            final Path file = snapshotDirectory.resolve(key);
+            final ManifestEntry previous = previousManifest.get(key);
+            boolean linked = false;
+            if (previous != null && previous.getProducedAt() == producedAt) {
+                try {
+                    Files.createLink(file, previousSnapshotDirectory.resolve(key));
+                    linked = true;
+                } catch (UnsupportedOperationException | IOException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Could not link unchanged OCSP response '" + key + "', writing it instead: " + e.getMessage());
+                    }
+                    Files.deleteIfExists(file);
+                }
+            }
+            if (!linked) {
+                Files.write(file, ocspResponse);
+                writtenCount++;
+            }
+            manifest.put(key, new ManifestEntry(key, caId, serialNumber, producedAt, nextUpdate));
+            return true;
+        }
+
+        /** @return the number of responses added so far */
+        public int getSize() {
+            return manifest.size();
+        }
+
+        /** @return the number of responses that were new or changed since the previous snapshot, and were written to disk */
+        public int getWrittenCount() {
+            return writtenCount;
+        }
+
+        /**
+         * Writes the manifest and makes the snapshot current. The previous snapshot is kept, since readers may still be using it,
+         * and any older snapshots are deleted.
+         */
+        public void commit() throws IOException {
+            final List<ManifestEntry> entries = new ArrayList<>(manifest.values());
+            entries.sort(Comparator.comparing(ManifestEntry::getKey));
+            try (final BufferedWriter writer = Files.newBufferedWriter(snapshotDirectory.resolve(MANIFEST), StandardCharsets.US_ASCII)) {
+                writer.write("# key caId serialNumber producedAt nextUpdate");
+                writer.newLine();
+                for (final ManifestEntry entry : entries) {
+                    writer.write(entry.toLine());
+                    writer.newLine();
+                }
+            }
+            final Path temporaryLink = baseDirectory.resolve(CURRENT + ".tmp");
+            Files.deleteIfExists(temporaryLink);
+            Files.createSymbolicLink(temporaryLink, snapshotDirectory.getFileName());
+            Files.move(temporaryLink, baseDirectory.resolve(CURRENT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            deleteOldSnapshots(snapshotDirectory, previousSnapshotDirectory);
+            log.info("Exported " + entries.size() + " OCSP responses to '" + snapshotDirectory + "', of which " + writtenCount + " were new or changed.");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                deleteRecursively(snapshotDirectory);
+            }
+        }
+    }
+
+    /** @param baseDirectory the directory holding the snapshots and the {@value #CURRENT} link */
+    public OcspResponseFileTree(final String baseDirectory) {
+        this.baseDirectory = Paths.get(baseDirectory);
+    }
+
+    /** @return a writer of a new snapshot, which has to be closed */
+    public Writer newWriter() throws IOException {
+        return new Writer();
+    }
+
+    /**
+     * Reads a response from the current snapshot.
+     *
+     * @param requestBytes a DER encoded OCSP request
+     * @return the DER encoded OCSP response for the request, or null if the tree has no response for it. The response may have expired.
+     */
+    public byte[] getResponse(final byte[] requestBytes) {
+        final String key = getRequestKey(requestBytes);
+        if (key.length() > MAX_KEY_LENGTH) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(baseDirectory.resolve(CURRENT).resolve(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.info("Could not read exported OCSP response '" + key + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the responses for a certificate from the current snapshot, e.g. when the certificate has been revoked after the export,
+     * so that requests for it are left to the OCSP responder until the next export. Responses are looked up for all supported CertID
+     * hash algorithms, with and without algorithm parameters. The manifest is left as it is, and the next export writes the responses
+     * again instead of linking them.
+     *
+     * @param caCertificate the certificate of the CA that issued the certificate
+     * @param serialNumber the serial number of the certificate
+     * @return the number of responses removed
+     */
+    public int removeResponses(final X509Certificate caCertificate, final BigInteger serialNumber) throws IOException {
+        final Path current = getCurrentSnapshotDirectory();
+        if (current == null) {
+            return 0;
+        }
+        int removed = 0;
+        try {
+            for (final ASN1ObjectIdentifier hashAlgorithm : CERTID_HASH_ALGORITHMS) {
+                for (final AlgorithmIdentifier algorithmIdentifier : new AlgorithmIdentifier[] { new AlgorithmIdentifier(hashAlgorithm),
+                        new AlgorithmIdentifier(hashAlgorithm, DERNull.INSTANCE) }) {
+                    final CertificateID certId = new JcaCertificateID(new BcDigestCalculatorProvider().get(algorithmIdentifier), caCertificate,
+                            serialNumber);
+                    final String key = getRequestKey(new OCSPReqBuilder().addRequest(certId).build().getEncoded());
+                    if (key.length() <= MAX_KEY_LENGTH && Files.deleteIfExists(current.resolve(key))) {
+                        removed++;
+                    }
+                }
+            }
+        } catch (OperatorCreationException | OCSPException | CertificateEncodingException e) {
+            throw new IOException("Could not compute the CertID of certificate with serial number " + serialNumber.toString(16) + ".", e);
+        }
+        if (removed > 0) {
+            log.info("Removed " + removed + " exported OCSP responses for certificate with serial number " + serialNumber.toString(16) + " from '"
+                    + current + "'.");
+        }
+        return removed;
+    }
+
+    /** @return the manifest of the current snapshot, empty if there is none */
+    public Map<String, ManifestEntry> getCurrentManifest() throws IOException {
+        final Path current = getCurrentSnapshotDirectory();
+        return current == null ? Collections.emptyMap() : readManifest(current);
+    }
+
+    /**
+     * @param requestBytes a DER encoded OCSP request
+     * @return the name of the file holding the response to the request, which only contains characters that are safe in file names and URLs
+     */
+    public static String getRequestKey(final byte[] requestBytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(requestBytes);
+    }
+
+    /**
+     * @param ocspResponse a DER encoded OCSP response
+     * @return the name of the file holding the response, i.e. the key of an unsigned request without extensions for its CertID,
+     *      or null if the response does not contain exactly one single response
+     */
+    public static String getResponseKey(final byte[] ocspResponse) throws IOException {
+        try {
+            final Object responseObject = new OCSPResp(ocspResponse).getResponseObject();
+            if (!(responseObject instanceof BasicOCSPResp)) {
+                return null;
+            }
+            final SingleResp[] singleResponses = ((BasicOCSPResp) responseObject).getResponses();
+            if (singleResponses.length != 1) {
+                return null;
+            }
+            return getRequestKey(new OCSPReqBuilder().addRequest(singleResponses[0].getCertID()).build().getEncoded());
+        } catch (OCSPException e) {
+            throw new IOException("Could not parse OCSP response.", e);
+        }
+    }
+
+    private Path getCurrentSnapshotDirectory() throws IOException {
+        final Path link = baseDirectory.resolve(CURRENT);
+        if (!Files.isSymbolicLink(link)) {
+            return null;
+        }
+        final Path target = baseDirectory.resolve(Files.readSymbolicLink(link));
+        return Files.isDirectory(target) ? target : null;
+    }
+
+    private static Map<String, ManifestEntry> readManifest(final Path snapshotDirectory) throws IOException {
+        final Map<String, ManifestEntry> ret = new HashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(snapshotDirectory.resolve(MANIFEST), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    final ManifestEntry entry = ManifestEntry.fromLine(line);
+                    ret.put(entry.getKey(), entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            log.info("Snapshot '" + snapshotDirectory + "' has no manifest. All responses will be written again.");
+        } catch (IllegalArgumentException e) {
+            log.info("Invalid manifest in snapshot '" + snapshotDirectory + "'. All responses will be written again: " + e.getMessage());
+            ret.clear();
+        }
+        return ret;
+    }
+
+    private void deleteOldSnapshots(final Path current, final Path previous) {
+        try (final DirectoryStream<Path> snapshots = Files.newDirectoryStream(baseDirectory, SNAPSHOT_PREFIX + "*")) {
+            for (final Path snapshot : snapshots) {
+                if (!snapshot.equals(current) && !snapshot.equals(previous)) {
+                    deleteRecursively(snapshot);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete old OCSP response snapshots in '" + baseDirectory + "': " + e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(final Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            final List<Path> toDelete = new ArrayList<>();
+            paths.forEach(toDelete::add);
+            // Delete files before their directories
+            Collections.reverse(toDelete);
+            for (final Path path : toDelete) {
+                try {
+                    Files.delete(path);
+                } catch (NoSuchFileException e) {
+                    // Already gone
+                }
+            }
+        }
+    }
+}
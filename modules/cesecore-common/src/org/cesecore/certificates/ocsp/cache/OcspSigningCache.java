@@ -33,27 +33,52 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Hold information needed to create OCSP responses without database lookups.
+ * <p>
+ * The cache content is an immutable snapshot that is replaced atomically, so lookups never block. Changes are made
+ * copy-on-write, either by staging a complete new content, or by replacing the entries of a single CA or OcspKeyBinding
+ * with {@link #updateCaEntries(int, List)} and {@link #updateKeyBindingEntry(int, OcspSigningCacheEntry)}.
  */
 public enum OcspSigningCache {
     INSTANCE;
-    
-    private Map<Integer, OcspSigningCacheEntry> cache = new HashMap<>();
-    private Map<Integer, OcspSigningCacheEntry> staging = new HashMap<>();
-    private OcspSigningCacheEntry defaultResponderCacheEntry = null;
+
+    /** Immutable cache content, together with the entries it was built from so that single entries can be replaced. */
+    private static final class Snapshot {
+        private final Map<Integer, List<OcspSigningCacheEntry>> caEntries;
+        private final Map<Integer, OcspSigningCacheEntry> keyBindingEntries;
+        private final String defaultResponderSubjectDn;
+        private final Map<Integer, OcspSigningCacheEntry> cache;
+        private final OcspSigningCacheEntry defaultResponderCacheEntry;
+
+        private Snapshot(final Map<Integer, List<OcspSigningCacheEntry>> caEntries, final Map<Integer, OcspSigningCacheEntry> keyBindingEntries,
+                final String defaultResponderSubjectDn, final Map<Integer, OcspSigningCacheEntry> cache, final OcspSigningCacheEntry defaultResponderCacheEntry) {
+            this.caEntries = Collections.unmodifiableMap(caEntries);
+            this.keyBindingEntries = Collections.unmodifiableMap(keyBindingEntries);
+            this.defaultResponderSubjectDn = defaultResponderSubjectDn;
+            this.cache = Collections.unmodifiableMap(cache);
+            this.defaultResponderCacheEntry = defaultResponderCacheEntry;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new LinkedHashMap<>(), new LinkedHashMap<>(), null, new HashMap<>(), null);
+    private Map<Integer, List<OcspSigningCacheEntry>> stagingCaEntries = new LinkedHashMap<>();
+    private Map<Integer, OcspSigningCacheEntry> stagingKeyBindingEntries = new LinkedHashMap<>();
+    /** Serializes writers. Readers never take the lock. */
     private final ReentrantLock lock = new ReentrantLock(false);
     private final static Logger log = Logger.getLogger(OcspSigningCache.class);
     /** Flag to detect and log non-existence of a default responder once. */
     private boolean logDefaultHasRunOnce = false;
  
     public OcspSigningCacheEntry getEntry(final CertificateID certID) {
-        return cache.get(getCacheIdFromCertificateID(certID));
+        return snapshot.cache.get(getCacheIdFromCertificateID(certID));
     }
 
     /**
@@ -61,34 +86,110 @@ public enum OcspSigningCache {
      * @return the entry corresponding to the default responder, or null if it wasn't found.
      */
     public OcspSigningCacheEntry getDefaultEntry() {
-        return defaultResponderCacheEntry;
+        return snapshot.defaultResponderCacheEntry;
     }
 
     /** WARNING: This method potentially exports references to CAs private keys! */
     public Collection<OcspSigningCacheEntry> getEntries() {
-        return cache.values();
+        return snapshot.cache.values();
     }
 
+    /** @return the entries of the given CA, or an empty list if the CA is not used for OCSP */
+    public List<OcspSigningCacheEntry> getCaEntries(final int caId) {
+        return Collections.unmodifiableList(snapshot.caEntries.getOrDefault(caId, Collections.emptyList()));
+    }
+
+    /** Starts building a new cache content. Must be followed by {@link #stagingRelease()}, also if staging fails. */
     public void stagingStart() {
         lock.lock();
-        staging = new HashMap<>();
+        stagingCaEntries = new LinkedHashMap<>();
+        stagingKeyBindingEntries = new LinkedHashMap<>();
     }
 
-    public void stagingAdd(OcspSigningCacheEntry ocspSigningCacheEntry) {
-        for (CertificateID certID : ocspSigningCacheEntry.getCertificateID()) {
-            staging.put(getCacheIdFromCertificateID(certID), ocspSigningCacheEntry);            
-        }
-        for (CertificateID certID : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
-            // override cache only if no OCSP key binding present or the entry is a placeholder
-            int cacheId = getCacheIdFromCertificateID(certID);
-            if(!staging.containsKey(cacheId) || staging.get(cacheId).isPlaceholder() 
-                            || staging.get(cacheId).getOcspKeyBinding()==null ) {
-                staging.put(cacheId, ocspSigningCacheEntry);
-            }      
+    /**
+     * Adds an entry to the staged cache content. Entries of OcspKeyBindings are identified by the key binding, other entries by
+     * the subject DN of the issuing CA.
+     */
+    public void stagingAdd(final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        if (ocspSigningCacheEntry.getOcspKeyBinding() != null) {
+            stagingKeyBindingEntries.put(ocspSigningCacheEntry.getOcspKeyBinding().getId(), ocspSigningCacheEntry);
+        } else {
+            stagingAdd(CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate()).hashCode(), ocspSigningCacheEntry);
         }
     }
 
+    /** Adds an entry of the given CA to the staged cache content. A CA may have several entries, e.g. one per CA certificate. */
+    public void stagingAdd(final int caId, final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        stagingCaEntries.computeIfAbsent(caId, id -> new ArrayList<>()).add(ocspSigningCacheEntry);
+    }
+
+    /** Replaces the cache content with the staged one. OcspKeyBinding entries take precedence over CA entries for the same issuer. */
     public void stagingCommit(final String defaultResponderSubjectDn) {
+        publish(stagingCaEntries, stagingKeyBindingEntries, defaultResponderSubjectDn);
+        stagingCaEntries = new LinkedHashMap<>();
+        stagingKeyBindingEntries = new LinkedHashMap<>();
+    }
+
+    public void stagingRelease() {
+        lock.unlock();
+    }
+
+    /**
+     * Replaces the entries of a single CA, leaving all other entries untouched.
+     *
+     * @param caId the ID of the CA
+     * @param ocspSigningCacheEntries the new entries of the CA, or an empty list if the CA should no longer be used for OCSP
+     */
+    public void updateCaEntries(final int caId, final List<OcspSigningCacheEntry> ocspSigningCacheEntries) {
+        lock.lock();
+        try {
+            final Snapshot current = snapshot;
+            final Map<Integer, List<OcspSigningCacheEntry>> caEntries = new LinkedHashMap<>(current.caEntries);
+            if (ocspSigningCacheEntries.isEmpty()) {
+                caEntries.remove(caId);
+            } else {
+                caEntries.put(caId, new ArrayList<>(ocspSigningCacheEntries));
+            }
+            publish(caEntries, current.keyBindingEntries, current.defaultResponderSubjectDn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the entry of a single OcspKeyBinding, leaving all other entries untouched.
+     *
+     * @param internalKeyBindingId the ID of the OcspKeyBinding
+     * @param ocspSigningCacheEntry the new entry, or null if the key binding should no longer be used (e.g. it was disabled or deleted)
+     */
+    public void updateKeyBindingEntry(final int internalKeyBindingId, final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        lock.lock();
+        try {
+            final Snapshot current = snapshot;
+            final Map<Integer, OcspSigningCacheEntry> keyBindingEntries = new LinkedHashMap<>(current.keyBindingEntries);
+            if (ocspSigningCacheEntry == null) {
+                keyBindingEntries.remove(internalKeyBindingId);
+            } else {
+                keyBindingEntries.put(internalKeyBindingId, ocspSigningCacheEntry);
+            }
+            publish(current.caEntries, keyBindingEntries, current.defaultResponderSubjectDn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Builds the lookup map from the given entries and makes it the live cache content. Must be called while holding the lock. */
+    private void publish(final Map<Integer, List<OcspSigningCacheEntry>> caEntries, final Map<Integer, OcspSigningCacheEntry> keyBindingEntries,
+            final String defaultResponderSubjectDn) {
+        final Map<Integer, OcspSigningCacheEntry> staging = new HashMap<>();
+        for (final List<OcspSigningCacheEntry> entries : caEntries.values()) {
+            for (final OcspSigningCacheEntry entry : entries) {
+                putEntry(staging, entry);
+            }
+        }
+        for (final OcspSigningCacheEntry entry : keyBindingEntries.values()) {
+            putEntry(staging, entry);
+        }
         OcspSigningCacheEntry stagedDefaultResponder = null;
         for (final OcspSigningCacheEntry entry : staging.values()) {
             if (entry.getOcspSigningCertificate() != null) {
@@ -118,6 +219,7 @@ public enum OcspSigningCache {
                             stagedDefaultResponder.getPrivateKey(), stagedDefaultResponder.getSignatureProviderName(),
                             stagedDefaultResponder.getOcspKeyBinding(), stagedDefaultResponder.getResponderIdType());
                     entry.setCrlSigningAlgorithm(stagedDefaultResponder.getCrlSigningAlgorithm());
+                    entry.setCaCryptoTokenId(stagedDefaultResponder.getCryptoTokenId());
                     modifiedEntries.put(key, entry);
                 } else {
                     //If no default responder is defined, remove placeholder. 
@@ -129,9 +231,8 @@ public enum OcspSigningCache {
         for (Integer removedKey : removedEntries) {
             staging.remove(removedKey);
         }
-        logDefaultResponderChanges(defaultResponderCacheEntry, stagedDefaultResponder, defaultResponderSubjectDn);
-        cache = staging;
-        defaultResponderCacheEntry = stagedDefaultResponder;
+        logDefaultResponderChanges(snapshot.defaultResponderCacheEntry, stagedDefaultResponder, defaultResponderSubjectDn);
+        snapshot = new Snapshot(caEntries, keyBindingEntries, defaultResponderSubjectDn, staging, stagedDefaultResponder);
         if (log.isDebugEnabled()) {
             log.debug("Committing the following to OCSP cache:");
             for (final Integer key : staging.keySet()) {
@@ -147,8 +248,18 @@ public enum OcspSigningCache {
         }
     }
 
-    public void stagingRelease() {
-        lock.unlock();
+    private static void putEntry(final Map<Integer, OcspSigningCacheEntry> staging, final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        for (CertificateID certID : ocspSigningCacheEntry.getCertificateID()) {
+            staging.put(getCacheIdFromCertificateID(certID), ocspSigningCacheEntry);            
+        }
+        for (CertificateID certID : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
+            // override cache only if no OCSP key binding present or the entry is a placeholder
+            int cacheId = getCacheIdFromCertificateID(certID);
+            if(!staging.containsKey(cacheId) || staging.get(cacheId).isPlaceholder() 
+                            || staging.get(cacheId).getOcspKeyBinding()==null ) {
+                staging.put(cacheId, ocspSigningCacheEntry);
+            }      
+        }
     }
 
     /** Log any change in default responder */
@@ -205,27 +316,54 @@ public enum OcspSigningCache {
      * @param ocspSigningCacheEntry the entry to add
      */
     public void addSingleEntry(OcspSigningCacheEntry ocspSigningCacheEntry) {
-        List<CertificateID> certIDs = ocspSigningCacheEntry.getCertificateID();
-        for (CertificateID certID : certIDs) {
-            int cacheId = getCacheIdFromCertificateID(certID);
-            lock.lock();
-            try {
+        lock.lock();
+        try {
+            final Snapshot current = snapshot;
+            final Map<Integer, OcspSigningCacheEntry> cache = new HashMap<>(current.cache);
+            for (CertificateID certID : ocspSigningCacheEntry.getCertificateID()) {
                 //Make sure that another thread didn't add the same entry while this one was waiting.
-                if (!cache.containsKey(cacheId)) {
-                    cache.put(cacheId, ocspSigningCacheEntry);
-                }
-                for (CertificateID certIDOnBehalf : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
-                    // override cache only if no OCSP key binding present or the entry is a placeholder
-                    int cacheIdOnBehalf = getCacheIdFromCertificateID(certIDOnBehalf);
-                    if(!cache.containsKey(cacheIdOnBehalf) || cache.get(cacheIdOnBehalf).isPlaceholder() 
-                                    || cache.get(cacheIdOnBehalf).getOcspKeyBinding()==null ) {
-                        cache.put(cacheIdOnBehalf, ocspSigningCacheEntry);
-                    }      
+                cache.putIfAbsent(getCacheIdFromCertificateID(certID), ocspSigningCacheEntry);
+            }
+            for (CertificateID certIDOnBehalf : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
+                // override cache only if no OCSP key binding present or the entry is a placeholder
+                int cacheIdOnBehalf = getCacheIdFromCertificateID(certIDOnBehalf);
+                if(!cache.containsKey(cacheIdOnBehalf) || cache.get(cacheIdOnBehalf).isPlaceholder() 
+                                || cache.get(cacheIdOnBehalf).getOcspKeyBinding()==null ) {
+                    cache.put(cacheIdOnBehalf, ocspSigningCacheEntry);
+                }      
+            }
+            // Remember the entry, so that it is kept when single CAs or key bindings are updated later on
+            final Map<Integer, List<OcspSigningCacheEntry>> caEntries;
+            final Map<Integer, OcspSigningCacheEntry> keyBindingEntries;
+            if (ocspSigningCacheEntry.getOcspKeyBinding() != null) {
+                caEntries = current.caEntries;
+                keyBindingEntries = new LinkedHashMap<>(current.keyBindingEntries);
+                keyBindingEntries.putIfAbsent(ocspSigningCacheEntry.getOcspKeyBinding().getId(), ocspSigningCacheEntry);
+            } else {
+                // Same CA ID as used by stagingAdd(OcspSigningCacheEntry)
+                final int caId = CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate()).hashCode();
+                caEntries = new LinkedHashMap<>(current.caEntries);
+                keyBindingEntries = current.keyBindingEntries;
+                final List<OcspSigningCacheEntry> entries = new ArrayList<>(caEntries.getOrDefault(caId, Collections.emptyList()));
+                if (!containsIssuer(entries, ocspSigningCacheEntry.getIssuerCaCertificate())) {
+                    entries.add(ocspSigningCacheEntry);
+                    caEntries.put(caId, entries);
                 }
-            } finally {
-                lock.unlock();
+            }
+            snapshot = new Snapshot(caEntries, keyBindingEntries, current.defaultResponderSubjectDn, cache, current.defaultResponderCacheEntry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return true if one of the entries is for the given CA certificate */
+    private static boolean containsIssuer(final List<OcspSigningCacheEntry> entries, final X509Certificate issuerCaCertificate) {
+        for (final OcspSigningCacheEntry entry : entries) {
+            if (issuerCaCertificate.equals(entry.getIssuerCaCertificate())) {
+                return true;
             }
         }
+        return false;
     }
 
     private static BigInteger bigIntFromBytes(final byte[] bytes) {
@@ -54,6 +54,7 @@ public class OcspSigningCacheEntry {
     private final String signatureProviderName;
     private final OcspKeyBinding ocspKeyBinding;
     private final X509Certificate issuerCaCertificate;
+    private final String issuerCaCertificateSubjectDn;
     private final CertificateStatus issuerCaCertificateStatus;
     private boolean responseSignatureVerified = false;
     private final OcspKeyBinding.ResponderIdType responderIdType;
@@ -63,6 +64,7 @@ public class OcspSigningCacheEntry {
     
     // only relevant if CA itself signs the OCSP response
     private String crlSigningAlgorithm;
+    private int caCryptoTokenId;
     
     // we flatten the CertificateIds SHA(1/256/384/512) for simpler lookup
     // references to each CA X509Certificate is stored for each hash mechanism
@@ -103,6 +105,7 @@ public class OcspSigningCacheEntry {
         this.signatureProviderName = signatureProviderName;
         this.ocspKeyBinding = ocspKeyBinding;
         this.issuerCaCertificate = issuerCaCertificate;
+        this.issuerCaCertificateSubjectDn = CertTools.getSubjectDN(issuerCaCertificate);
         this.certificateID = CertificateUtils.getIdFromCertificate(issuerCaCertificate);
         this.issuerCaCertificateStatus = issuerCaCertificateStatus;
         this.responderIdType = responderIdType;
@@ -149,6 +152,9 @@ public class OcspSigningCacheEntry {
     /** @return certificate of the CA that we want to respond for */
     public X509Certificate getIssuerCaCertificate() { return issuerCaCertificate; }
 
+    /** @return subject DN of the CA that we want to respond for, in EJBCA's normalized form */
+    public String getIssuerCaCertificateSubjectDn() { return issuerCaCertificateSubjectDn; }
+
     /** @return certificate ID of the CA that we want to respond for */
     public List<CertificateID> getCertificateID() { return certificateID; }
 
@@ -295,4 +301,14 @@ public class OcspSigningCacheEntry {
         this.crlSigningAlgorithm = crlSigningAlgorithm;
     }
 
+    /** @return the id of the crypto token that holds the private key, or 0 if this is a placeholder entry */
+    public int getCryptoTokenId() {
+        return ocspKeyBinding == null ? caCryptoTokenId : ocspKeyBinding.getCryptoTokenId();
+    }
+
+    /** Set the id of the CA's crypto token. Only relevant if the CA itself signs the OCSP response. */
+    public void setCaCryptoTokenId(int caCryptoTokenId) {
+        this.caCryptoTokenId = caCryptoTokenId;
+    }
+
 }
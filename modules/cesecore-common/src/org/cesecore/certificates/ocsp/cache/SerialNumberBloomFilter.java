@@ -0,0 +1,115 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe Bloom filter of certificate serial numbers. A negative answer from {@link #mightContain(BigInteger)} is
+ * always correct, a positive answer is wrong with about the false positive probability given at creation, as long as
+ * no more than the expected number of serial numbers have been added.
+ *
+ * @version $Id$
+ */
+public class SerialNumberBloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray bits;
+    private final long numberOfBits;
+    private final int numberOfHashFunctions;
+    private final long capacity;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param expectedInsertions the number of serial numbers the filter is sized for
+     * @param falsePositiveProbability the wanted probability of false positives, between 0 and 1 (exclusive)
+     */
+    public SerialNumberBloomFilter(final long expectedInsertions, final double falsePositiveProbability) {
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1, was " + falsePositiveProbability);
+        }
+        this.capacity = Math.max(1, expectedInsertions);
+        final long wantedBits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (LN2 * LN2));
+        final int numberOfLongs = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (wantedBits + 63) / 64));
+        this.numberOfBits = numberOfLongs * 64L;
+        this.numberOfHashFunctions = Math.max(1, (int) Math.round((double) numberOfBits / capacity * LN2));
+        this.bits = new AtomicLongArray(numberOfLongs);
+    }
+
+    /** Add a serial number to the filter. */
+    public void put(final BigInteger serialNumber) {
+        final byte[] bytes = serialNumber.toByteArray();
+        final long hash1 = hash(bytes, 0xcbf29ce484222325L);
+        final long hash2 = hash(bytes, 0x84222325cbf29ce4L) | 1;
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            final long bitIndex = ((hash1 + i * hash2) & Long.MAX_VALUE) % numberOfBits;
+            final int longIndex = (int) (bitIndex >>> 6);
+            final long mask = 1L << bitIndex;
+            long current;
+            do {
+                current = bits.get(longIndex);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(longIndex, current, current | mask));
+        }
+        size.incrementAndGet();
+    }
+
+    /** @return false if the serial number has definitely not been added, true if it probably has */
+    public boolean mightContain(final BigInteger serialNumber) {
+        final byte[] bytes = serialNumber.toByteArray();
+        final long hash1 = hash(bytes, 0xcbf29ce484222325L);
+        final long hash2 = hash(bytes, 0x84222325cbf29ce4L) | 1;
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            final long bitIndex = ((hash1 + i * hash2) & Long.MAX_VALUE) % numberOfBits;
+            if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if more serial numbers than the filter was sized for have been added, so false positives are more likely than requested */
+    public boolean isSaturated() {
+        return size.get() > capacity;
+    }
+
+    /** @return the number of serial numbers added, including any duplicates */
+    public long size() {
+        return size.get();
+    }
+
+    /** @return the memory used by the bit array in bytes */
+    public long getSizeInBytes() {
+        return numberOfBits / 8;
+    }
+
+    /** FNV-1a over the bytes, followed by the MurmurHash3 64-bit finalizer for better bit distribution. */
+    private static long hash(final byte[] bytes, final long seed) {
+        long hash = seed;
+        for (final byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
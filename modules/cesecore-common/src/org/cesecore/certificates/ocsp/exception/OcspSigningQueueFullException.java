@@ -0,0 +1,31 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.exception;
+
+/**
+ * Thrown when an OCSP response can not be signed because all signing threads are busy and the
+ * signing queue is full. The client should be asked to try again later.
+ */
+public class OcspSigningQueueFullException extends OcspFailureException {
+
+    private static final long serialVersionUID = -2460437417404396574L;
+
+    /**
+     * @param msg Human readable error message
+     * @param t the rejection from the executor
+     */
+    public OcspSigningQueueFullException(String msg, Throwable t) {
+        super(msg, t);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies with microsecond resolution.
+ * <p>
+ * Values below 8 µs get a bucket each. Above that every power of two is split into 4 linear buckets, so a percentile estimate is
+ * never more than 25% above the real value. Latencies above {@link #MAX_MICROS} end up in the last bucket.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Highest power of two that gets buckets of its own, 2^36 µs is about 19 hours */
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 2) * SUB_BUCKETS;
+    /** Largest latency that is not capped */
+    public static final long MAX_MICROS = getUpperBound(BUCKET_COUNT - 1) - 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder sumMicros = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /** Add a latency given in nanoseconds */
+    public void add(final long nanos) {
+        final long micros = Math.min(Math.max(nanos / 1000L, 0), MAX_MICROS);
+        buckets[getBucket(micros)].increment();
+        sumMicros.add(micros);
+    }
+
+    /** @return a consistent copy of the current counts, that can be used to compute several percentiles */
+    public Snapshot getSnapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sumMicros.sum());
+    }
+
+    /** Clear all counts. Latencies added at the same time may or may not be kept. */
+    public void reset() {
+        for (final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sumMicros.reset();
+    }
+
+    static int getBucket(final long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 3) * SUB_BUCKETS + subBucket;
+    }
+
+    /** @return the exclusive upper bound in microseconds of the bucket */
+    static long getUpperBound(final int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket + 1;
+        }
+        final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 3;
+        final int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /** Immutable counts of a histogram at one point in time */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+
+        private Snapshot(final long[] counts, final long count, final long sumMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+        }
+
+        /** @return the number of latencies */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the sum of all latencies in microseconds */
+        public long getSumMicros() {
+            return sumMicros;
+        }
+
+        /**
+         * @param quantile a value between 0 and 1, e.g. 0.99
+         * @return the upper bound in microseconds of the bucket holding the quantile, or 0 if the histogram is empty
+         */
+        public long getQuantileMicros(final double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(BUCKET_COUNT - 1);
+        }
+
+        /**
+         * @param upperBoundMicros bound that must be a power of two, so it is also a bucket boundary
+         * @return the number of latencies below the bound
+         */
+        public long getCountBelow(final long upperBoundMicros) {
+            long below = 0;
+            for (int i = 0; i < BUCKET_COUNT && getUpperBound(i) <= upperBoundMicros; i++) {
+                below += counts[i];
+            }
+            return below;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+
+/**
+ * Counters and latency histograms of the OCSP responder, served in the Prometheus text format by the OCSP metrics servlet of the health
+ * check web application, and over JMX as {@value #OBJECT_NAME}.
+ * <p>
+ * Each OCSP request is measured with a {@link Sample}, which is only published when the request has been answered. Pre-produced responses
+ * are not measured.
+ *
+ * @version $Id$
+ */
+public enum OcspMetrics implements OcspMetricsMXBean {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspMetrics.class);
+
+    public static final String OBJECT_NAME = "org.cesecore:type=OcspMetrics";
+
+    /** Processing phases of an OCSP request, measured separately */
+    public enum Phase {
+        /** Decoding and validating the request, including the signature of signed requests */
+        PARSE("parse"),
+        /** Finding the CA or OcspKeyBinding that signs the response */
+        SIGNER_LOOKUP("signer_lookup"),
+        /** Finding the status of the certificates asked about */
+        STATUS_LOOKUP("status_lookup"),
+        /** Signing the response, including the wait for a free signing thread */
+        SIGN("sign"),
+        /** Encoding the response */
+        SERIALIZE("serialize"),
+        /** The whole request */
+        TOTAL("total");
+
+        private final String label;
+
+        private Phase(final String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final String[] RESPONSE_STATUS_NAMES = { "successful", "malformedRequest", "internalError", "tryLater", null, "sigRequired",
+            "unauthorized" };
+    private static final String[] CERTIFICATE_STATUS_NAMES = { "good", "revoked", "unknown" };
+    /** Sizes of the arrays above, as constants since static fields are not initialized yet when the enum constant is created */
+    private static final int RESPONSE_STATUS_COUNT = 7;
+    private static final int CERTIFICATE_STATUS_COUNT = 3;
+    private static final int GOOD = 0;
+    private static final int REVOKED = 1;
+    private static final int UNKNOWN = 2;
+    /** Bucket bounds of the exported histograms, 64 µs to 16.8 s in powers of two */
+    private static final int MIN_EXPORTED_EXPONENT = 6;
+    private static final int MAX_EXPORTED_EXPONENT = 24;
+
+    private final LongAdder[] responseStatusCounts = newCounters(RESPONSE_STATUS_COUNT);
+    private final LongAdder[] certificateStatusCounts = newCounters(CERTIFICATE_STATUS_COUNT);
+    private final Map<String, LongAdder> caCounts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> responderCounts = new ConcurrentHashMap<>();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Phase.values().length];
+    private final LongAdder responseCacheHits = new LongAdder();
+    private final LongAdder responseCacheMisses = new LongAdder();
+    private final LongAdder statusIndexHits = new LongAdder();
+    private final LongAdder statusIndexMisses = new LongAdder();
+    private volatile IntSupplier signingQueueDepth = () -> 0;
+
+    private OcspMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /** @return a new sample, started now */
+    public Sample newSample() {
+        return new Sample();
+    }
+
+    /**
+     * Publish a finished sample.
+     *
+     * @param sample the sample of the request
+     * @param responseStatus the status of the OCSP response, one of the OCSPRespBuilder constants
+     */
+    public void record(final Sample sample, final int responseStatus) {
+        final long now = System.nanoTime();
+        for (int i = 0; i < PHASES.length - 1; i++) {
+            if (sample.phaseNanos[i] >= 0) {
+                latencies[i].add(sample.phaseNanos[i]);
+            }
+        }
+        latencies[Phase.TOTAL.ordinal()].add(now - sample.startTime);
+        if (responseStatus >= 0 && responseStatus < RESPONSE_STATUS_NAMES.length && RESPONSE_STATUS_NAMES[responseStatus] != null) {
+            responseStatusCounts[responseStatus].increment();
+        } else {
+            responseStatusCounts[OCSPRespBuilder.INTERNAL_ERROR].increment();
+        }
+        for (int i = 0; i < CERTIFICATE_STATUS_NAMES.length; i++) {
+            if (sample.certificateStatusCounts[i] > 0) {
+                certificateStatusCounts[i].add(sample.certificateStatusCounts[i]);
+            }
+        }
+        for (final String ca : sample.cas) {
+            caCounts.computeIfAbsent(ca, key -> new LongAdder()).increment();
+        }
+        if (sample.responder != null) {
+            responderCounts.computeIfAbsent(sample.responder, key -> new LongAdder()).increment();
+        }
+        responseCacheHits.add(sample.responseCacheHits);
+        responseCacheMisses.add(sample.responseCacheMisses);
+        statusIndexHits.add(sample.statusIndexHits);
+        statusIndexMisses.add(sample.statusIndexMisses);
+    }
+
+    /** @param signingQueueDepth supplier of the number of responses waiting for a free signing thread */
+    public void setSigningQueueDepth(final IntSupplier signingQueueDepth) {
+        this.signingQueueDepth = signingQueueDepth;
+    }
+
+    /** Register as {@value #OBJECT_NAME} in the platform MBean server, replacing the instance of an earlier deployment if present. */
+    public void registerMBean() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register OCSP metrics as '" + OBJECT_NAME + "': " + e.getMessage());
+        }
+    }
+
+    /** @return all metrics in the Prometheus text exposition format, version 0.0.4 */
+    public String toPrometheusText() {
+        final StringBuilder sb = new StringBuilder(4096);
+        writeHeader(sb, "ejbca_ocsp_requests_total", "counter", "Answered OCSP requests by response status.");
+        for (int i = 0; i < RESPONSE_STATUS_NAMES.length; i++) {
+            if (RESPONSE_STATUS_NAMES[i] != null) {
+                writeValue(sb, "ejbca_ocsp_requests_total", "status", RESPONSE_STATUS_NAMES[i], responseStatusCounts[i].sum());
+            }
+        }
+        writeHeader(sb, "ejbca_ocsp_ca_requests_total", "counter", "Certificates asked about by subject DN of the issuing CA.");
+        for (final Map.Entry<String, Long> entry : getRequestCountByCa().entrySet()) {
+            writeValue(sb, "ejbca_ocsp_ca_requests_total", "ca", entry.getKey(), entry.getValue());
+        }
+        writeHeader(sb, "ejbca_ocsp_responder_responses_total", "counter", "Signed responses by OcspKeyBinding name or CA subject DN.");
+        for (final Map.Entry<String, Long> entry : getRequestCountByResponder().entrySet()) {
+            writeValue(sb, "ejbca_ocsp_responder_responses_total", "responder", entry.getKey(), entry.getValue());
+        }
+        writeHeader(sb, "ejbca_ocsp_certificate_status_total", "counter", "Single responses by certificate status.");
+        for (int i = 0; i < CERTIFICATE_STATUS_NAMES.length; i++) {
+            writeValue(sb, "ejbca_ocsp_certificate_status_total", "status", CERTIFICATE_STATUS_NAMES[i], certificateStatusCounts[i].sum());
+        }
+        writeHeader(sb, "ejbca_ocsp_cache_lookups_total", "counter", "Lookups in the OCSP response cache and the certificate status index.");
+        sb.append("ejbca_ocsp_cache_lookups_total{cache=\"response\",result=\"hit\"} ").append(responseCacheHits.sum()).append('\n');
+        sb.append("ejbca_ocsp_cache_lookups_total{cache=\"response\",result=\"miss\"} ").append(responseCacheMisses.sum()).append('\n');
+        sb.append("ejbca_ocsp_cache_lookups_total{cache=\"statusindex\",result=\"hit\"} ").append(statusIndexHits.sum()).append('\n');
+        sb.append("ejbca_ocsp_cache_lookups_total{cache=\"statusindex\",result=\"miss\"} ").append(statusIndexMisses.sum()).append('\n');
+        writeHeader(sb, "ejbca_ocsp_signing_queue_depth", "gauge", "Responses waiting for a free signing thread.");
+        sb.append("ejbca_ocsp_signing_queue_depth ").append(getSigningQueueDepth()).append('\n');
+        writeHeader(sb, "ejbca_ocsp_phase_duration_seconds", "histogram", "Time spent in each processing phase of an OCSP request.");
+        for (final Phase phase : PHASES) {
+            final LatencyHistogram.Snapshot snapshot = latencies[phase.ordinal()].getSnapshot();
+            for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++) {
+                sb.append("ejbca_ocsp_phase_duration_seconds_bucket{phase=\"").append(phase.getLabel()).append("\",le=\"")
+                        .append(BigDecimal.valueOf(1L << exponent, 6).stripTrailingZeros().toPlainString()).append("\"} ")
+                        .append(snapshot.getCountBelow(1L << exponent)).append('\n');
+            }
+            sb.append("ejbca_ocsp_phase_duration_seconds_bucket{phase=\"").append(phase.getLabel()).append("\",le=\"+Inf\"} ")
+                    .append(snapshot.getCount()).append('\n');
+            sb.append("ejbca_ocsp_phase_duration_seconds_sum{phase=\"").append(phase.getLabel()).append("\"} ")
+                    .append(BigDecimal.valueOf(snapshot.getSumMicros(), 6).toPlainString()).append('\n');
+            sb.append("ejbca_ocsp_phase_duration_seconds_count{phase=\"").append(phase.getLabel()).append("\"} ").append(snapshot.getCount())
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long getRequestCount() {
+        long count = 0;
+        for (final LongAdder counter : responseStatusCounts) {
+            count += counter.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getRequestCountByResponseStatus() {
+        final Map<String, Long> ret = new LinkedHashMap<>();
+        for (int i = 0; i < RESPONSE_STATUS_NAMES.length; i++) {
+            if (RESPONSE_STATUS_NAMES[i] != null) {
+                ret.put(RESPONSE_STATUS_NAMES[i], responseStatusCounts[i].sum());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, Long> getRequestCountByCa() {
+        return toSortedMap(caCounts);
+    }
+
+    @Override
+    public Map<String, Long> getRequestCountByResponder() {
+        return toSortedMap(responderCounts);
+    }
+
+    @Override
+    public Map<String, Long> getCertificateStatusCount() {
+        final Map<String, Long> ret = new LinkedHashMap<>();
+        for (int i = 0; i < CERTIFICATE_STATUS_NAMES.length; i++) {
+            ret.put(CERTIFICATE_STATUS_NAMES[i], certificateStatusCounts[i].sum());
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Millis() {
+        return getQuantileMillis(0.5);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Millis() {
+        return getQuantileMillis(0.99);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP999Millis() {
+        return getQuantileMillis(0.999);
+    }
+
+    @Override
+    public double getResponseCacheHitRatio() {
+        return getRatio(responseCacheHits.sum(), responseCacheMisses.sum());
+    }
+
+    @Override
+    public double getStatusIndexHitRatio() {
+        return getRatio(statusIndexHits.sum(), statusIndexMisses.sum());
+    }
+
+    @Override
+    public int getSigningQueueDepth() {
+        return signingQueueDepth.getAsInt();
+    }
+
+    @Override
+    public void resetLatencies() {
+        for (final LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+    }
+
+    /** @return the latency histogram of a phase */
+    public LatencyHistogram getLatencies(final Phase phase) {
+        return latencies[phase.ordinal()];
+    }
+
+    private Map<String, Double> getQuantileMillis(final double quantile) {
+        final Map<String, Double> ret = new LinkedHashMap<>();
+        for (final Phase phase : PHASES) {
+            ret.put(phase.getLabel(), latencies[phase.ordinal()].getSnapshot().getQuantileMicros(quantile) / 1000.0);
+        }
+        return ret;
+    }
+
+    private static double getRatio(final long hits, final long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private static Map<String, Long> toSortedMap(final Map<String, LongAdder> counters) {
+        final Map<String, Long> ret = new TreeMap<>();
+        for (final Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().sum());
+        }
+        return ret;
+    }
+
+    private static LongAdder[] newCounters(final int size) {
+        final LongAdder[] counters = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static void writeHeader(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeValue(final StringBuilder sb, final String name, final String label, final String labelValue, final long value) {
+        sb.append(name).append('{').append(label).append("=\"");
+        for (int i = 0; i < labelValue.length(); i++) {
+            final char c = labelValue.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * Measurements of a single OCSP request. The time between two calls of {@link #mark(Phase)} is added to the phase, time between
+     * {@link #restart()} and the next mark is not measured. A sample is only used by the thread processing the request.
+     */
+    public static class Sample {
+        private final long startTime = System.nanoTime();
+        private long markTime = startTime;
+        private final long[] phaseNanos = new long[PHASES.length];
+        private final int[] certificateStatusCounts = new int[CERTIFICATE_STATUS_NAMES.length];
+        private final List<String> cas = new ArrayList<>(1);
+        private String responder;
+        private int responseCacheHits;
+        private int responseCacheMisses;
+        private int statusIndexHits;
+        private int statusIndexMisses;
+
+        private Sample() {
+            Arrays.fill(phaseNanos, -1);
+        }
+
+        /** Start measuring from now, without adding the time since the last mark to any phase */
+        public void restart() {
+            markTime = System.nanoTime();
+        }
+
+        /** Add the time since the last mark or restart to the phase */
+        public void mark(final Phase phase) {
+            final long now = System.nanoTime();
+            final int i = phase.ordinal();
+            phaseNanos[i] = Math.max(phaseNanos[i], 0) + now - markTime;
+            markTime = now;
+        }
+
+        /** @param caSubjectDn subject DN of the CA that issued a certificate asked about, or null if the CA is not known */
+        public void addCa(final String caSubjectDn) {
+            cas.add(caSubjectDn == null ? "unknown" : caSubjectDn);
+        }
+
+        /** @param responder name of the OcspKeyBinding or subject DN of the CA that signed the response */
+        public void setResponder(final String responder) {
+            this.responder = responder;
+        }
+
+        /** @param certificateStatus status of a single response, null meaning good */
+        public void addCertificateStatus(final CertificateStatus certificateStatus) {
+            if (certificateStatus == null) {
+                certificateStatusCounts[GOOD]++;
+            } else if (certificateStatus instanceof RevokedStatus) {
+                certificateStatusCounts[REVOKED]++;
+            } else {
+                certificateStatusCounts[UNKNOWN]++;
+            }
+        }
+
+        public void responseCacheLookup(final boolean hit) {
+            if (hit) {
+                responseCacheHits++;
+            } else {
+                responseCacheMisses++;
+            }
+        }
+
+        public void statusIndexLookup(final boolean hit) {
+            if (hit) {
+                statusIndexHits++;
+            } else {
+                statusIndexMisses++;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link OcspMetrics}, registered as {@value OcspMetrics#OBJECT_NAME}.
+ * <p>
+ * Counters are counted since start up. Latency percentiles are counted since start up or the last call to {@link #resetLatencies()}.
+ *
+ * @version $Id$
+ */
+public interface OcspMetricsMXBean {
+
+    /** @return the number of answered OCSP requests */
+    long getRequestCount();
+
+    /** @return the number of answered OCSP requests by response status, e.g. successful or tryLater */
+    Map<String, Long> getRequestCountByResponseStatus();
+
+    /** @return the number of certificates asked about, by subject DN of the issuing CA */
+    Map<String, Long> getRequestCountByCa();
+
+    /** @return the number of signed responses, by name of the OcspKeyBinding or subject DN of the CA that signed them */
+    Map<String, Long> getRequestCountByResponder();
+
+    /** @return the number of single responses by certificate status, i.e. good, revoked or unknown */
+    Map<String, Long> getCertificateStatusCount();
+
+    /** @return the 50th percentile in milliseconds of each processing phase */
+    Map<String, Double> getLatencyP50Millis();
+
+    /** @return the 99th percentile in milliseconds of each processing phase */
+    Map<String, Double> getLatencyP99Millis();
+
+    /** @return the 99.9th percentile in milliseconds of each processing phase */
+    Map<String, Double> getLatencyP999Millis();
+
+    /** @return the fraction of lookups in the OCSP response cache that were hits, or 0 if there were no lookups */
+    double getResponseCacheHitRatio();
+
+    /** @return the fraction of lookups in the certificate status index that were hits, or 0 if there were no lookups */
+    double getStatusIndexHitRatio();
+
+    /** @return the number of responses waiting for a free signing thread */
+    int getSigningQueueDepth();
+
+    /** Clear the latency histograms, e.g. to measure the percentiles of a load test */
+    void resetLatencies();
+}
@@ -123,8 +123,15 @@ public class CrlExtensions {
 
     /** @return a list of URLs in String format with present freshest CRL extensions or an empty List */
     public static List<String> extractFreshestCrlDistributionPoints(final X509CRL crl) {
+        return extractFreshestCrlDistributionPoints(crl.getExtensionValue(Extension.freshestCRL.getId()));
+    }
+
+    /**
+     * @param extensionValue value of the freshest CRL extension as a DER encoded OCTET STRING, or null
+     * @return a list of URLs in String format with present freshest CRL extensions or an empty List
+     */
+    public static List<String> extractFreshestCrlDistributionPoints(final byte[] extensionValue) {
         final List<String> freshestCdpUrls = new ArrayList<>();
-        final byte[] extensionValue = crl.getExtensionValue(Extension.freshestCRL.getId());
         if (extensionValue!=null) {
             final ASN1OctetString asn1OctetString = getAsn1ObjectFromBytes(extensionValue, ASN1OctetString.class);
             if (asn1OctetString!=null) {
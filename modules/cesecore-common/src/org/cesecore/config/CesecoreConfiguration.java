@@ -180,6 +180,28 @@ public final class CesecoreConfiguration {
         return getLongValue("globalconfiguration.cachetime", 30000L, "milliseconds to cache authorization");
     }
 
+    /**
+     * Parameter to specify if the status of certificates checked in CertificateStoreSession should be cached, and in that case for how long.
+     * Disabled (0) by default, since status changes made on other nodes in a cluster are only seen when the cached status expires.
+     */
+    public static long getCacheTimeCertificateStatus() {
+        return getLongValue("certificatestatus.cachetime", 0L, "milliseconds to cache certificate status");
+    }
+
+    /**
+     * Time in milliseconds that the status of certificates used for client certificate authentication is cached, see
+     * CertificateStoreSession.getFirstStatusByIssuerAndSerno. Status changes made on other nodes in a cluster are seen after at most
+     * this time. 12 seconds by default, 0 disables caching.
+     */
+    public static long getCacheTimeAuthenticationCertificateStatus() {
+        return getLongValue("certificatestatus.authentication.cachetime", 12000L, "milliseconds to cache the status of authentication certificates");
+    }
+
+    /** @return the maximum number of certificates whose status is cached */
+    public static int getCertificateStatusCacheMaxEntries() {
+        return (int) Math.max(0, getLongValue("certificatestatus.cachemaxentries", 10000L, "certificates"));
+    }
+
     private static long getLongValue(final String propertyName, final long defaultValue, final String unit) {
         final String value = ConfigurationHolder.getString(propertyName);
         long time = defaultValue;
@@ -327,6 +349,71 @@ public final class CesecoreConfiguration {
         return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchordered"));
     }
 
+    /**
+     * @return the number of revoked certificates from which CRLs are encoded entry by entry, using a temporary file for the entries
+     * of very large CRLs, instead of holding all entries as objects in memory while the CRL is built.
+     */
+    public static int getCrlStreamingThreshold() {
+        return (int) getLongValue("crlgen.streamingthreshold", 100000L, "revoked certificates");
+    }
+
+    /**
+     * @return true if full CRLs should be built from the entries of the previous full CRL and the revocation status changes since it
+     * was issued, instead of reading all revoked certificates from the database.
+     */
+    public static boolean isCrlIncrementalGeneration() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("crlgen.incremental"));
+    }
+
+    /**
+     * @return the number of milliseconds before the previous full CRL was issued from which status changes are read when a full CRL is
+     * built incrementally, or from the revocation journal. The update time of a certificate is set before the transaction commits, so a change committed after the
+     * previous CRL was generated can have an earlier update time.
+     */
+    public static long getCrlIncrementalOverlap() {
+        return getLongValue("crlgen.incremental.overlap", 600000L, "milliseconds");
+    }
+
+    /** @return the maximum number of expired certificates that are archived with a single database update and audit log record during CRL generation */
+    public static int getCrlArchiveBatchSize() {
+        return (int) Math.max(1, getLongValue("crlgen.archivebatchsize", 1000L, "certificates"));
+    }
+
+    /** @return true if expired certificates should be archived in separate transactions after the CRL has been stored */
+    public static boolean isCrlArchiveAfterStore() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("crlgen.archiveafterstore"));
+    }
+
+    /** @return the maximum number of CRLs (CAs or CRL partitions) that are created concurrently by the CRL update service */
+    public static int getCrlGenerationThreads() {
+        return (int) Math.max(1, getLongValue("crlgen.threads", 1L, "threads"));
+    }
+
+    /** @return the maximum number of CRLs that are created concurrently for CAs using the same crypto token */
+    public static int getCrlGenerationThreadsPerCryptoToken() {
+        return (int) Math.max(1, getLongValue("crlgen.threadspercryptotoken", 1L, "threads"));
+    }
+
+    /** @return true if changes of revocation status should be journaled and used for creating delta CRLs */
+    public static boolean isRevocationJournalEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("crlgen.revocationjournal"));
+    }
+
+    /** @return the number of new or changed CRL entries that are looked up and updated in each transaction when a CRL is imported */
+    public static int getCrlImportBatchSize() {
+        return (int) Math.max(1, getLongValue("crlimport.batchsize", 1000L, "entries"));
+    }
+
+    /** @return the number of certificates that are checked and inserted together when many certificates are stored at once */
+    public static int getCertificateStoreBatchSize() {
+        return (int) Math.max(1, getLongValue("certstore.batchsize", 500L, "certificates"));
+    }
+
+    /** @return true if the search index of certificates and end entities should be maintained and used for substring searches */
+    public static boolean isSearchIndexEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("searchindex.enabled"));
+    }
+
     /** @return a list of enabled TLS protocol versions and cipher suites */
     /*
      * Java 6: http://docs.oracle.com/javase/6/docs/technotes/guides/security/SunProviders.html#SunJSSEProvider
@@ -40,6 +40,16 @@ public class OcspConfiguration {
     public static final String DEFAULT_RESPONDER = "ocsp.defaultresponder";
     public static final String SIGNING_CERTD_VALID_TIME = "ocsp.signingCertsValidTime";
     public static final String REQUEST_SIGNING_CERT_REVOCATION_CACHE_TIME = "ocsp.reqsigncertrevcachetime";
+    public static final String RESPONSE_CACHE_MAX_ENTRIES = "ocsp.responsecache.maxentries";
+    public static final String SIGNING_THREADS = "ocsp.signing.threads";
+    public static final String SIGNING_QUEUE_SIZE = "ocsp.signing.queuesize";
+    public static final String PRESIGNING_THREADS = "ocsp.presigning.threads";
+    public static final String PRESIGNING_BATCH_SIZE = "ocsp.presigning.batchsize";
+    public static final String STATIC_RESPONSES_DIR = "ocsp.staticresponses.dir";
+    public static final String STATUS_INDEX_ENABLED = "ocsp.statusindex.enabled";
+    public static final String STATUS_INDEX_RECONCILE_INTERVAL = "ocsp.statusindex.reconcileinterval";
+    public static final String STATUS_INDEX_REBUILD_INTERVAL = "ocsp.statusindex.rebuildinterval";
+    public static final String STATUS_INDEX_FALSE_POSITIVE_PROBABILITY = "ocsp.statusindex.falsepositiveprobability";
     public static final String SIGNING_TRUSTSTORE_VALID_TIME = "ocsp.signtrustvalidtime";
     public static final String SIGNATUREREQUIRED = "ocsp.signaturerequired";
     public static final String CARD_PASSWORD = "ocsp.keys.cardPassword";
@@ -155,6 +165,157 @@ public class OcspConfiguration {
         return timeInSeconds;
     }
 
+    /**
+     * The maximum number of signed OCSP responses to keep in the in-memory response cache. 0 (the default) disables the cache.
+     */
+    public static int getResponseCacheMaxEntries() {
+        int maxEntries;
+        try {
+            maxEntries = Integer.parseInt(ConfigurationHolder.getString(RESPONSE_CACHE_MAX_ENTRIES));
+        } catch (NumberFormatException e) {
+            maxEntries = 0;
+            log.warn(RESPONSE_CACHE_MAX_ENTRIES + " is not a decimal integer. Disabling the OCSP response cache.");
+        }
+        return Math.max(0, maxEntries);
+    }
+
+    /**
+     * The number of threads used for signing OCSP responses with each signature provider (crypto token).
+     */
+    public static int getSigningThreads() {
+        final int defaultThreads = 16;
+        try {
+            final int threads = Integer.parseInt(ConfigurationHolder.getString(SIGNING_THREADS));
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(SIGNING_THREADS + " is not a positive decimal integer. Using default " + defaultThreads + ".");
+        return defaultThreads;
+    }
+
+    /**
+     * The number of OCSP responses that may wait for a free signing thread for each signature provider, before
+     * further requests are answered with tryLater.
+     */
+    public static int getSigningQueueSize() {
+        final int defaultQueueSize = 1000;
+        try {
+            final int queueSize = Integer.parseInt(ConfigurationHolder.getString(SIGNING_QUEUE_SIZE));
+            if (queueSize > 0) {
+                return queueSize;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(SIGNING_QUEUE_SIZE + " is not a positive decimal integer. Using default " + defaultQueueSize + ".");
+        return defaultQueueSize;
+    }
+
+    /**
+     * The number of threads used to produce OCSP responses in parallel when pre-producing responses for many certificates of a CA.
+     */
+    public static int getPreSigningThreads() {
+        final int defaultThreads = 8;
+        try {
+            final int threads = Integer.parseInt(ConfigurationHolder.getString(PRESIGNING_THREADS));
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(PRESIGNING_THREADS + " is not a positive decimal integer. Using default " + defaultThreads + ".");
+        return defaultThreads;
+    }
+
+    /**
+     * The number of certificates read, and OCSP responses stored in one transaction, at a time when pre-producing responses for a whole CA.
+     */
+    public static int getPreSigningBatchSize() {
+        final int defaultBatchSize = 500;
+        try {
+            final int batchSize = Integer.parseInt(ConfigurationHolder.getString(PRESIGNING_BATCH_SIZE));
+            if (batchSize > 0) {
+                return batchSize;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(PRESIGNING_BATCH_SIZE + " is not a positive decimal integer. Using default " + defaultBatchSize + ".");
+        return defaultBatchSize;
+    }
+
+    /**
+     * Directory of OCSP responses exported by the OCSP Response Export service, that GET requests are answered from when possible.
+     * @return the directory, or null if responses should not be read from an exported directory
+     */
+    public static String getStaticResponsesDirectory() {
+        final String value = ConfigurationHolder.getString(STATIC_RESPONSES_DIR);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
+    /**
+     * If set to true the responder keeps an in-memory index of the certificate status of the CAs it serves
+     */
+    public static boolean isCertificateStatusIndexEnabled() {
+        final String value = ConfigurationHolder.getString(STATUS_INDEX_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * The interval on which revocations made by other nodes are read into the certificate status index, in milliseconds
+     */
+    public static long getCertificateStatusIndexReconcileIntervalMs() {
+        final long defaultTimeInSeconds = 300;
+        try {
+            final long timeInSeconds = Long.parseLong(ConfigurationHolder.getString(STATUS_INDEX_RECONCILE_INTERVAL));
+            if (timeInSeconds > 0) {
+                return timeInSeconds * 1000L;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(STATUS_INDEX_RECONCILE_INTERVAL + " is not a positive decimal long. Using default " + defaultTimeInSeconds + " s.");
+        return defaultTimeInSeconds * 1000L;
+    }
+
+    /**
+     * The interval on which the certificate status index is rebuilt from the database, in milliseconds
+     */
+    public static long getCertificateStatusIndexRebuildIntervalMs() {
+        final long defaultTimeInSeconds = 86400;
+        try {
+            final long timeInSeconds = Long.parseLong(ConfigurationHolder.getString(STATUS_INDEX_REBUILD_INTERVAL));
+            if (timeInSeconds > 0) {
+                return timeInSeconds * 1000L;
+            }
+        } catch (NumberFormatException e) {
+            // Warn below
+        }
+        log.warn(STATUS_INDEX_REBUILD_INTERVAL + " is not a positive decimal long. Using default " + defaultTimeInSeconds + " s.");
+        return defaultTimeInSeconds * 1000L;
+    }
+
+    /**
+     * The probability that the certificate status index considers a certificate that was never issued as known
+     */
+    public static double getCertificateStatusIndexFalsePositiveProbability() {
+        final double defaultProbability = 1E-9;
+        try {
+            final double probability = Double.parseDouble(ConfigurationHolder.getString(STATUS_INDEX_FALSE_POSITIVE_PROBABILITY));
+            if (probability > 0 && probability < 1) {
+                return probability;
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            // Warn below
+        }
+        log.warn(STATUS_INDEX_FALSE_POSITIVE_PROBABILITY + " is not a number between 0 and 1. Using default " + defaultProbability + ".");
+        return defaultProbability;
+    }
+
     /**
      * If set to true the responder will enforce OCSP request signing
      */
@@ -0,0 +1,88 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.searchindex;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Splits values into the tokens of the search index, which are the distinct sequences of {@link #TOKEN_LENGTH} characters (trigrams)
+ * of the upper case value. A value contains a search string only if it has all tokens of the search string, so the tokens can be used
+ * to find the candidates for a substring search with an index lookup. The candidates must still be checked with the substring search
+ * itself, since the tokens may occur in another order.
+ */
+public final class SearchIndexTokens {
+
+    /** Number of characters (code points) of each token */
+    public static final int TOKEN_LENGTH = 3;
+    /** Maximum number of tokens used for a search. More tokens make the candidates fewer, but the index lookup slower. */
+    public static final int MAX_SEARCH_TOKENS = 8;
+
+    /** Wildcards and the default escape character of LIKE in some databases */
+    private static final String LIKE_SPECIAL_CHARACTERS = "%_\\";
+    private static final String DN_SEPARATORS = "=,";
+
+    private SearchIndexTokens() { }
+
+    /**
+     * @param value the value to index, e.g. a subject DN, or null
+     * @return the distinct tokens of the value, in the order they occur. Empty if the value is shorter than {@link #TOKEN_LENGTH}.
+     */
+    public static Set<String> getTokens(final String value) {
+        final Set<String> ret = new LinkedHashSet<>();
+        if (value == null) {
+            return ret;
+        }
+        // The same upper case conversion is used for the search strings, so the tokens always match
+        final String upper = value.toUpperCase();
+        final int count = upper.codePointCount(0, upper.length());
+        int start = 0;
+        for (int i = 0; i + TOKEN_LENGTH <= count; i++) {
+            final int end = upper.offsetByCodePoints(start, TOKEN_LENGTH);
+            ret.add(upper.substring(start, end));
+            start = upper.offsetByCodePoints(start, 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Tokens with the separators of DN components, like "CN=" or ",C=", are found in almost every row, so they are not used for searches.
+     * Search strings with LIKE wildcards or the escape character do not use the index, since they match more than the literal string.
+     *
+     * @param searchString the string searched for with LIKE
+     * @return at most {@link #MAX_SEARCH_TOKENS} tokens that every value containing the search string has, evenly spread over the search
+     *      string, or an empty set if the index can't be used for the search string
+     */
+    public static Set<String> getSearchTokens(final String searchString) {
+        final Set<String> tokens = new LinkedHashSet<>();
+        if (searchString == null || StringUtils.containsAny(searchString, LIKE_SPECIAL_CHARACTERS)) {
+            return tokens;
+        }
+        for (final String token : getTokens(searchString)) {
+            if (!StringUtils.containsAny(token, DN_SEPARATORS)) {
+                tokens.add(token);
+            }
+        }
+        if (tokens.size() <= MAX_SEARCH_TOKENS) {
+            return tokens;
+        }
+        final String[] all = tokens.toArray(new String[0]);
+        final Set<String> ret = new LinkedHashSet<>();
+        for (int i = 0; i < MAX_SEARCH_TOKENS; i++) {
+            ret.add(all[(int) ((long) i * (all.length - 1) / (MAX_SEARCH_TOKENS - 1))]);
+        }
+        return ret;
+    }
+}
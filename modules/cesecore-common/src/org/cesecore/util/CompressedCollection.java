@@ -14,8 +14,15 @@ package org.cesecore.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,6 +34,7 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import org.apache.log4j.Logger;
@@ -37,7 +45,13 @@ import org.apache.log4j.Logger;
  * Objects are read from the collection by using a iterator over a decompression InputStream.
  * To avoid memory leaks, the .clear() call should be used when the collection is no longer needed.
  * 
- * The implementation is not thread safe.
+ * The objects are written with Java serialization, or with a {@link CompressedCollectionCodec} if one is given, which is
+ * much faster for large collections. They are compressed in chunks of a fixed number of objects.
+ * 
+ * The serialized form is the same as in earlier versions, with all objects in one stream written with Java serialization,
+ * so that collections can be exchanged with older versions over remote calls. A deserialized collection does not use the codec.
+ * 
+ * The implementation is not thread safe, except that several iterators may be used at once after the collection has been closed for write.
  * 
  * Example use-case: a RevokedCertInfo takes 248 bytes in serialized form, but averages at only 48
  * bytes in compressed serialized form.
@@ -46,33 +60,93 @@ public class CompressedCollection<T extends Serializable> implements Collection<
 
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(CompressedCollection.class);
+    /** Default number of objects in each compressed chunk */
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+    /** The fields of the first version of this class, which are written by {@link #writeObject(ObjectOutputStream)} */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("baos", ByteArrayOutputStream.class),
+            new ObjectStreamField("oos", ObjectOutputStream.class),
+            new ObjectStreamField("compressedData", byte[].class),
+            new ObjectStreamField("size", Integer.TYPE),
+            new ObjectStreamField("oiss", List.class),
+            new ObjectStreamField("acceptedClasses", Set.class)
+    };
 
-    private ByteArrayOutputStream baos = null;
-    private ObjectOutputStream oos = null;
-    private byte[] compressedData = null;
+    private Set<Class<? extends Serializable>> acceptedClasses;
+    private CompressedCollectionCodec<T> codec;
+    private int chunkSize;
+    /** Compressed data of the chunks that have been completed */
+    private List<byte[]> chunks = new ArrayList<>();
+    private List<Integer> chunkObjectCounts = new ArrayList<>();
+    private transient ByteArrayOutputStream baos = null;
+    private transient OutputStream os = null;
+    private int currentChunkObjectCount = 0;
+    private boolean closedForWrite = false;
     private int size = 0;
-    private final List<LookAheadObjectInputStream> oiss = new ArrayList<>();
-    private final Set<Class<? extends Serializable>> acceptedClasses;
+    private transient List<Closeable> openInputStreams;
 
+    /**
+     * Creates a collection where the objects are stored with Java serialization.
+     * 
+     * @param elementClass class of the objects
+     * @param nestedClasses other classes that may be deserialized as part of the objects
+     */
     @SafeVarargs
     public CompressedCollection(final Class<T> elementClass, final Class<? extends Serializable>... nestedClasses) {
         acceptedClasses = new HashSet<Class<? extends Serializable>>(nestedClasses.length + 1);        
         acceptedClasses.add(elementClass);
         acceptedClasses.addAll(Arrays.asList(nestedClasses));
+        codec = null;
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        clear();
+    }
+
+    /**
+     * Creates a collection where the objects are stored as binary records by the given codec.
+     * 
+     * @param codec codec for the objects
+     */
+    public CompressedCollection(final CompressedCollectionCodec<T> codec) {
+        this(codec, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a collection where the objects are stored as binary records by the given codec.
+     * 
+     * @param codec codec for the objects
+     * @param chunkSize number of objects in each compressed chunk
+     */
+    public CompressedCollection(final CompressedCollectionCodec<T> codec, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.acceptedClasses = null;
+        this.codec = codec;
+        this.chunkSize = chunkSize;
         clear();
     }
     
     @Override
     public boolean add(final T object) {
-        if (compressedData!=null) {
+        if (closedForWrite) {
             throw new IllegalStateException("closeForWrite() has alread been called without clear() for this CompressedCollection.");
         }
         boolean ret = false;
         if (object!=null) {
             try {
-                getObjectOutputStream().writeObject(object);
+                if (os == null) {
+                    startChunk();
+                }
+                if (codec == null) {
+                    ((ObjectOutputStream) os).writeObject(object);
+                } else {
+                    codec.write((DataOutputStream) os, object);
+                }
                 ret = true;
                 size++;
+                if (++currentChunkObjectCount >= chunkSize) {
+                    finishChunk();
+                }
             } catch (IOException e) {
                 throw new IllegalStateException(e);
             }
@@ -80,14 +154,25 @@ public class CompressedCollection<T extends Serializable> implements Collection<
         return ret;
     }
 
-    /** Lazy initialization of our in memory object storage */
-    private ObjectOutputStream getObjectOutputStream() throws IOException {
-        if (oos==null) {
-            baos = new ByteArrayOutputStream();
-            final DeflaterOutputStream dos = new DeflaterOutputStream(baos, new Deflater(Deflater.BEST_COMPRESSION));
-            oos = new ObjectOutputStream(dos);
+    /** Lazy initialization of the in memory storage of the next chunk */
+    private void startChunk() throws IOException {
+        baos = new ByteArrayOutputStream();
+        if (codec == null) {
+            os = new ObjectOutputStream(new DeflaterOutputStream(baos, new Deflater(Deflater.BEST_COMPRESSION)));
+        } else {
+            // The binary records are already compact, so favor speed
+            os = new DataOutputStream(new DeflaterOutputStream(baos, new Deflater(Deflater.BEST_SPEED)));
         }
-        return oos;
+        currentChunkObjectCount = 0;
+    }
+
+    private void finishChunk() throws IOException {
+        os.close();
+        os = null;
+        chunks.add(baos.toByteArray());
+        chunkObjectCounts.add(currentChunkObjectCount);
+        baos = null;
+        currentChunkObjectCount = 0;
     }
 
     @Override
@@ -100,40 +185,40 @@ public class CompressedCollection<T extends Serializable> implements Collection<
 
     @Override
     public void clear() {
-        if (oos!=null) {
+        if (os!=null) {
             // Clean up OutputStream, unless this has already been done
             try {
-                oos.close();
+                os.close();
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
-            oos = null;
+            os = null;
         }
+        baos = null;
         size = 0;
-        compressedData = null;
+        currentChunkObjectCount = 0;
+        chunks.clear();
+        chunkObjectCounts.clear();
+        closedForWrite = false;
         // Clean up all InputStreams, unless this has already been done
-        for (final LookAheadObjectInputStream ois : oiss) {
-            try {
-                ois.close();
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
+        if (openInputStreams != null) {
+            synchronized (openInputStreams) {
+                for (final Closeable is : openInputStreams) {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                }
+                openInputStreams.clear();
             }
         }
-        oiss.clear();
     }
 
     @Override
     public boolean contains(Object object) {
-        final Iterator<T> iterator = iterator();
-        while (iterator.hasNext()) {
-            final T t = iterator.next();
+        for (final T t : this) {
             if (t.equals(object)) {
-                try {
-                    oiss.get(oiss.size()-1).close();
-                } catch (IOException e) {
-                    throw new IllegalStateException(e);
-                }
-                oiss.remove(oiss.size()-1);
                 return true;
             }
         }
@@ -152,101 +237,217 @@ public class CompressedCollection<T extends Serializable> implements Collection<
 
     /** Signal that no more data will be added to this collection. Call before Serialization. */
     public void closeForWrite() {
-        if (compressedData==null) {
-            if (oos==null) {
-                // Nothing was added
-                compressedData = new byte[0];
-            } else {
+        if (!closedForWrite) {
+            if (os!=null) {
                 // Clean up outputstream now when we are about to read the data
                 try {
-                    oos.flush();
-                    oos.close();
-                    oos = null;
-                    compressedData = baos.toByteArray();
-                    baos = null;
-                    if (log.isDebugEnabled()) {
-                        log.debug("Compressed data of " + size + " entries to " + compressedData.length + " bytes.");
-                    }
+                    finishChunk();
                 } catch (IOException e) {
                     log.error(e.getMessage(), e);
                 }
             }
+            closedForWrite = true;
+            if (log.isDebugEnabled() && size > 0) {
+                long compressedSize = 0;
+                for (final byte[] chunk : chunks) {
+                    compressedSize += chunk.length;
+                }
+                log.debug("Compressed data of " + size + " entries to " + compressedSize + " bytes in " + chunks.size() + " chunks.");
+            }
         }
     }
 
+    /**
+     * Closes the collection for write, if not already done.
+     * 
+     * @return the number of chunks
+     */
+    int getChunkCount() {
+        closeForWrite();
+        return chunks.size();
+    }
+
     @Override
     public Iterator<T> iterator() {
         closeForWrite();
-        // Create a new decompression stream over the data that belongs to the Iterator
-        final ByteArrayInputStream bais = new ByteArrayInputStream(compressedData);
-        final InflaterInputStream iis = new InflaterInputStream(bais);
-        final LookAheadObjectInputStream ois;
-        if (compressedData.length==0) {
-            ois = null;
-        } else {
-            try {
-                ois = new LookAheadObjectInputStream(iis);
-                ois.setAcceptedClasses(acceptedClasses);
-                ois.setEnabledMaxObjects(false);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
-            }
-            oiss.add(ois);
-        }
         return new Iterator<T>() {
-            private T next = null;
-            
+            private int chunkIndex = 0;
+            private Iterator<T> current = null;
+
             @Override
             public boolean hasNext() {
-                try {
-                    next = readNext();
-                } catch (NoSuchElementException e) {
-                    return false;
+                while (current == null || !current.hasNext()) {
+                    // Don't keep the buffers of a chunk that has been read while reading the next one
+                    current = null;
+                    if (chunkIndex >= chunks.size()) {
+                        return false;
+                    }
+                    current = new ChunkIterator(chunks.get(chunkIndex), chunkObjectCounts.get(chunkIndex));
+                    chunkIndex++;
                 }
                 return true;
             }
 
             @Override
             public T next() {
-                if (next==null) {
-                    return readNext();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
-                T ret = next;
-                next = null;
-                return ret;
+                return current.next();
             }
 
             @Override
             public void remove() {
                 throw new UnsupportedOperationException();
             }
+        };
+    }
 
-            @SuppressWarnings("unchecked")
-            private T readNext() {
-                if (ois==null) {
-                    throw new NoSuchElementException();
+    /**
+     * Iterator over the objects in one chunk. The decompression stream is closed and released when the last object has been read.
+     * The compressed chunk itself is kept by the collection until {@link #clear()}, since the collection may be iterated several times.
+     */
+    private class ChunkIterator implements Iterator<T> {
+        private final Inflater inflater = new Inflater();
+        private InputStream is;
+        private int remaining;
+
+        private ChunkIterator(final byte[] chunk, final int objectCount) {
+            remaining = objectCount;
+            final InflaterInputStream iis = new InflaterInputStream(new ByteArrayInputStream(chunk), inflater, 8192);
+            try {
+                if (codec == null) {
+                    final LookAheadObjectInputStream ois = new LookAheadObjectInputStream(iis);
+                    ois.setAcceptedClasses(acceptedClasses);
+                    ois.setEnabledMaxObjects(false);
+                    is = ois;
+                } else {
+                    is = new DataInputStream(iis);
                 }
-                try {
-                    return (T) ois.readObject();
-                } catch (IOException e) {
-                    cleanUp();
-                    throw new NoSuchElementException();
-                } catch (ClassNotFoundException e) {
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            final List<Closeable> openInputStreams = getOpenInputStreams();
+            synchronized (openInputStreams) {
+                openInputStreams.add(is);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final T ret;
+                if (codec == null) {
+                    ret = (T) ((LookAheadObjectInputStream) is).readObject();
+                } else {
+                    ret = codec.read((DataInputStream) is);
+                }
+                if (--remaining == 0) {
                     cleanUp();
-                    throw new NoSuchElementException();
                 }
+                return ret;
+            } catch (IOException | ClassNotFoundException e) {
+                cleanUp();
+                throw new IllegalStateException(e);
             }
+        }
 
-            /** Clean up InputStream right away if we reached the last entry in the stream */
-            private void cleanUp() {
-                oiss.remove(ois);
-                try {
-                    ois.close();
-                } catch (IOException e) {
-                    log.error(e.getMessage(), e);
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Clean up InputStream right away if we reached the last entry in the stream */
+        private void cleanUp() {
+            remaining = 0;
+            if (is == null) {
+                return;
+            }
+            final List<Closeable> openInputStreams = getOpenInputStreams();
+            synchronized (openInputStreams) {
+                openInputStreams.remove(is);
+            }
+            try {
+                is.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            // The stream doesn't end an Inflater that it didn't create
+            inflater.end();
+            is = null;
+        }
+    }
+
+    /** @return the list of InputStreams that have not been read to the end yet. Not serialized, so created lazily. */
+    private synchronized List<Closeable> getOpenInputStreams() {
+        if (openInputStreams == null) {
+            openInputStreams = new ArrayList<>();
+        }
+        return openInputStreams;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        closeForWrite();
+        final Set<Class<? extends Serializable>> classes;
+        final byte[] compressedData;
+        if (size == 0) {
+            classes = acceptedClasses == null ? new HashSet<>() : acceptedClasses;
+            compressedData = new byte[0];
+        } else if (codec == null && chunks.size() == 1) {
+            // Same format as a single chunk
+            classes = acceptedClasses;
+            compressedData = chunks.get(0);
+        } else {
+            classes = new HashSet<>();
+            if (acceptedClasses != null) {
+                classes.addAll(acceptedClasses);
+            }
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (final ObjectOutputStream oos = new ObjectOutputStream(new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_COMPRESSION)))) {
+                for (final T object : this) {
+                    classes.add(object.getClass());
+                    oos.writeObject(object);
                 }
             }
-        };
+            compressedData = compressed.toByteArray();
+        }
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("baos", null);
+        fields.put("oos", null);
+        fields.put("compressedData", compressedData);
+        fields.put("size", size);
+        // Earlier versions add the streams of their iterators to this list
+        fields.put("oiss", new ArrayList<>());
+        fields.put("acceptedClasses", classes);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        acceptedClasses = (Set<Class<? extends Serializable>>) fields.get("acceptedClasses", null);
+        final byte[] compressedData = (byte[]) fields.get("compressedData", null);
+        size = fields.get("size", 0);
+        codec = null;
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        chunks = new ArrayList<>();
+        chunkObjectCounts = new ArrayList<>();
+        if (size > 0 && compressedData != null && compressedData.length > 0) {
+            chunks.add(compressedData);
+            chunkObjectCounts.add(size);
+        } else {
+            size = 0;
+        }
+        closedForWrite = true;
     }
 
     @Override
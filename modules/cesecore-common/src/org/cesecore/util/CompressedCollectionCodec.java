@@ -0,0 +1,35 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes and reads the elements of a {@link CompressedCollection} as binary records, instead of with Java serialization.
+ * <p>
+ * Implementations must be stateless, since the same codec is used by all threads iterating over a collection.
+ * The codec is not serialized together with the collection, see {@link CompressedCollection}.
+ *
+ * @param <T> type of the elements
+ */
+public interface CompressedCollectionCodec<T> extends Serializable {
+
+    /** Writes one element. The element is never null. */
+    void write(DataOutput out, T element) throws IOException;
+
+    /** Reads one element, as written by {@link #write(DataOutput, Object)}. */
+    T read(DataInput in) throws IOException;
+}
@@ -13,8 +13,12 @@
 package org.cesecore.util;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -53,14 +57,14 @@ public abstract class NetworkTools {
         try (final InputStream is = url.openStream()) {
             int count;
             while ((count = is.read(data)) != -1) {
-                baos.write(data, 0, count);
-            }
-            downloadedBytes += count;
-            if (downloadedBytes>maxSize) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Failed to download data from " + url.toString() + ". Size exceedes " + maxSize + " bytes.");
+                downloadedBytes += count;
+                if (downloadedBytes>maxSize) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to download data from " + url.toString() + ". Size exceedes " + maxSize + " bytes.");
+                    }
+                    return null;
                 }
-                return null;
+                baos.write(data, 0, count);
             }
         } catch (IOException e) {
             if (log.isDebugEnabled()) {
@@ -70,4 +74,75 @@ public abstract class NetworkTools {
         }
         return baos.toByteArray();
     }
+
+    /**
+     * Downloads the data at the provided HTTP URL to a file. If validators of an earlier download are given, the request is conditional
+     * (If-None-Match and If-Modified-Since), and nothing is written if the server responds that the data has not been modified.
+     * 
+     * @param url HTTP URL
+     * @param maxSize maximum number of bytes to download
+     * @param previous validators of an earlier download of the same URL, or null to always download
+     * @param file file to write the data to. It is overwritten.
+     * @return the validators of the downloaded data, or null if the data has not been modified since the earlier download
+     * @throws IOException if the download failed, the server responded with an error or the size exceeds maxSize
+     */
+    public static HttpValidators downloadToFileIfModified(final URL url, final long maxSize, final HttpValidators previous, final File file) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (previous != null) {
+                if (previous.getETag() != null) {
+                    connection.setRequestProperty("If-None-Match", previous.getETag());
+                }
+                if (previous.getLastModified() > 0) {
+                    connection.setIfModifiedSince(previous.getLastModified());
+                }
+            }
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP response code " + responseCode + " from " + url);
+            }
+            if (connection.getContentLengthLong() > maxSize) {
+                throw new IOException("Size of data at " + url + " is " + connection.getContentLengthLong() + " bytes, which exceeds " + maxSize + " bytes.");
+            }
+            final byte[] data = new byte[32768];
+            long downloadedBytes = 0;
+            try (final InputStream is = connection.getInputStream(); final OutputStream os = new FileOutputStream(file)) {
+                int count;
+                while ((count = is.read(data)) != -1) {
+                    downloadedBytes += count;
+                    if (downloadedBytes > maxSize) {
+                        throw new IOException("Size of data at " + url + " exceeds " + maxSize + " bytes.");
+                    }
+                    os.write(data, 0, count);
+                }
+            }
+            return new HttpValidators(connection.getHeaderField("ETag"), connection.getLastModified());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** The ETag and Last-Modified response headers of a download, used to make the next download of the same URL conditional. */
+    public static final class HttpValidators {
+        private final String eTag;
+        private final long lastModified;
+
+        public HttpValidators(final String eTag, final long lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /** @return the ETag header including quotes, or null if the server did not send one */
+        public String getETag() {
+            return eTag;
+        }
+
+        /** @return the Last-Modified header in milliseconds, or 0 if the server did not send one */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
 }
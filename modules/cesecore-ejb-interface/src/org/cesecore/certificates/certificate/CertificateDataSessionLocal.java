@@ -17,6 +17,7 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -84,6 +85,45 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
      * @return the query results as a List<String>
      */
     List<String> findSerialNrByIssuerWithLimitAndOffset(String issuerDN, int limit, int offset);
+
+    /**
+     * @param issuerDN of the issuing CA to count entries for
+     * @return the number of entries per certificate profile id. Entries without certificate profile are counted as CertificateProfileConstants.CERTPROFILE_NO_PROFILE
+     */
+    Map<Integer, Long> countByIssuerDNPerCertificateProfile(String issuerDN);
+
+    /**
+     * Reads the status columns of the entries of an issuer, ordered by serial number, one page at a time.
+     * 
+     * @param issuerDN of the issuing CA to find entries for
+     * @param afterSerialNumber the last serial number (decimal string) of the previous page, or null for the first page
+     * @param maxResults maximum number of results
+     * @return Object[] {serialNumber, status, revocationDate, revocationReason, certificateProfileId} for each entry
+     */
+    List<Object[]> findStatusInfoByIssuerDN(String issuerDN, String afterSerialNumber, int maxResults);
+
+    /**
+     * @param issuerDN of the issuing CA to find entries for
+     * @return Object[] {serialNumber, status, revocationDate, revocationReason, certificateProfileId} for each revoked entry, including revoked entries that have been archived
+     */
+    List<Object[]> findRevokedStatusInfoByIssuerDN(String issuerDN);
+
+    /**
+     * Reads the status columns of several entries of an issuer with a single query.
+     * 
+     * @param issuerDN of the issuing CA to find entries for
+     * @param serialNumbers serial numbers (decimal strings) of the entries. Keep the collection small, since it is used in an IN clause.
+     * @return Object[] {serialNumber, status, revocationDate, revocationReason, certificateProfileId, expireDate, invalidityDate} for each found entry
+     */
+    List<Object[]> findStatusInfoByIssuerDNAndSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
+    /**
+     * Finds the issuers of several serial numbers with a single query, without reading the certificates.
+     * 
+     * @param serialNumbers serial numbers (decimal strings). Keep the collection small, since it is used in an IN clause.
+     * @return Object[] {serialNumber, issuerDN} for each found entry
+     */
+    List<Object[]> findIssuerDNBySerialNumbers(Collection<String> serialNumbers);
     
     /**
      * 
@@ -96,9 +136,30 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     List<String> findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String issuerDN, 
                                                         long expireDate, int limit, int offset);
 
+    /**
+     * Same as {@link #findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String, long, int, int)}, but ordered by serial number and paged
+     * by the last serial number of the previous page, so that each page is an index range scan regardless of how far into the result it is.
+     * 
+     * @param issuerDN of the issing CA to find entries for
+     * @param expireDate earliest expireDate of the certificate, can be past or future 
+     * @param afterSerialNumber the last serial number of the previous page, or null for the first page
+     * @param limit maximum number of results
+     * @return the query results as a List<String>
+     */
+    List<String> findSerialNrByIssuerAndExpireDateAfterSerialNr(String issuerDN, long expireDate, String afterSerialNumber, int limit);
+
     
     /** @return return the query results as a Collection<RevokedCertInfo>. */
     Collection<RevokedCertInfo> getRevokedCertInfos(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean allowInvalidityDate);
+
+    /**
+     * @return information about certificates that have been revoked or reactivated, and updated after the given time. Reactivated certificates
+     * have the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL}.
+     */
+    Collection<RevokedCertInfo> getRevokedCertInfosUpdatedAfter(String issuerDN, int crlPartitionIndex, long updatedAfter);
+
+    /** @return information about revoked certificates that expired before the given time and still have the status revoked, i.e. have not been archived. */
+    Collection<RevokedCertInfo> getExpiredRevokedCertInfos(String issuerDN, int crlPartitionIndex, long expiredBefore);
     
     /** @return return the query results as a List. */
     List<CertificateData> findByExpireDateWithLimit(long expireDate, int maxNumberOfResults);
@@ -0,0 +1,144 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.io.Serializable;
+import java.security.cert.Certificate;
+import java.util.Date;
+
+import org.cesecore.certificates.crl.RevocationReasons;
+
+import com.keyfactor.util.EJBTools;
+import com.keyfactor.util.certificate.CertificateWrapper;
+
+/**
+ * A certificate to store with {@link CertificateStoreSessionLocal#storeCertificates}, with the same values as the parameters of
+ * {@link CertificateStoreSessionLocal#storeCertificateNoAuth}.
+ */
+public final class CertificateStoreItem implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CertificateWrapper certificate;
+    private final String username;
+    private final String cafp;
+    private final String certificateRequest;
+    private final int status;
+    private final int type;
+    private final int certificateProfileId;
+    private final int endEntityProfileId;
+    private final int crlPartitionIndex;
+    private final String tag;
+    private final long updateTime;
+    private final String accountBindingId;
+    private final RevocationReasons revocationReason;
+    private final Date revocationDate;
+
+    /**
+     * Creates a certificate to store in the state given by status.
+     *
+     * @see CertificateStoreSessionLocal#storeCertificateNoAuth
+     */
+    public CertificateStoreItem(final Certificate certificate, final String username, final String cafp, final String certificateRequest,
+            final int status, final int type, final int certificateProfileId, final int endEntityProfileId, final int crlPartitionIndex,
+            final String tag, final long updateTime, final String accountBindingId) {
+        this(certificate, username, cafp, certificateRequest, status, type, certificateProfileId, endEntityProfileId, crlPartitionIndex, tag,
+                updateTime, accountBindingId, RevocationReasons.NOT_REVOKED, null);
+    }
+
+    /**
+     * Creates a certificate to store in revoked state.
+     *
+     * @see CertificateStoreSessionLocal#storeCertificateRevokedNoAuth
+     */
+    public CertificateStoreItem(final Certificate certificate, final String username, final String cafp, final String certificateRequest,
+            final int status, final int type, final int certificateProfileId, final int endEntityProfileId, final int crlPartitionIndex,
+            final String tag, final long updateTime, final String accountBindingId, final RevocationReasons revocationReason,
+            final Date revocationDate) {
+        this.certificate = EJBTools.wrap(certificate);
+        this.username = username;
+        this.cafp = cafp;
+        this.certificateRequest = certificateRequest;
+        this.status = status;
+        this.type = type;
+        this.certificateProfileId = certificateProfileId;
+        this.endEntityProfileId = endEntityProfileId;
+        this.crlPartitionIndex = crlPartitionIndex;
+        this.tag = tag;
+        this.updateTime = updateTime;
+        this.accountBindingId = accountBindingId;
+        this.revocationReason = revocationReason;
+        this.revocationDate = revocationDate;
+    }
+
+    public Certificate getCertificate() {
+        return EJBTools.unwrap(certificate);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /** @return fingerprint (hex) of the CA certificate */
+    public String getCafp() {
+        return cafp;
+    }
+
+    public String getCertificateRequest() {
+        return certificateRequest;
+    }
+
+    /** @return one of the CertificateConstants.CERT_ constants */
+    public int getStatus() {
+        return status;
+    }
+
+    /** @return one of the CertificateConstants.CERTTYPE_ constants */
+    public int getType() {
+        return type;
+    }
+
+    public int getCertificateProfileId() {
+        return certificateProfileId;
+    }
+
+    public int getEndEntityProfileId() {
+        return endEntityProfileId;
+    }
+
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public String getAccountBindingId() {
+        return accountBindingId;
+    }
+
+    /** @return the revocation reason, or RevocationReasons.NOT_REVOKED */
+    public RevocationReasons getRevocationReason() {
+        return revocationReason;
+    }
+
+    /** @return the revocation date, or null if not revoked */
+    public Date getRevocationDate() {
+        return revocationDate;
+    }
+}
@@ -0,0 +1,98 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of storing one certificate with {@link CertificateStoreSessionLocal#storeCertificates}.
+ */
+public final class CertificateStoreOutcome implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        /** The certificate was stored */
+        STORED,
+        /** The certificate was not stored, since it is already in the database, or occurs earlier in the same request */
+        ALREADY_STORED,
+        /** The certificate was not stored, since the administrator is not authorized to the issuing CA */
+        NOT_AUTHORIZED,
+        /** The certificate was not stored, since it could not be read */
+        INVALID
+    }
+
+    private final CertificateStoreItem item;
+    private final Status status;
+    private final String fingerprint;
+    private final CertificateDataWrapper certificateDataWrapper;
+    private final String message;
+
+    private CertificateStoreOutcome(final CertificateStoreItem item, final Status status, final String fingerprint,
+            final CertificateDataWrapper certificateDataWrapper, final String message) {
+        this.item = item;
+        this.status = status;
+        this.fingerprint = fingerprint;
+        this.certificateDataWrapper = certificateDataWrapper;
+        this.message = message;
+    }
+
+    /** @return the outcome of a stored certificate */
+    public static CertificateStoreOutcome stored(final CertificateStoreItem item, final CertificateDataWrapper certificateDataWrapper) {
+        return new CertificateStoreOutcome(item, Status.STORED, certificateDataWrapper.getCertificateData().getFingerprint(), certificateDataWrapper,
+                null);
+    }
+
+    /** @return the outcome of a certificate that was not stored */
+    public static CertificateStoreOutcome notStored(final CertificateStoreItem item, final Status status, final String fingerprint,
+            final String message) {
+        return new CertificateStoreOutcome(item, status, fingerprint, null, message);
+    }
+
+    /**
+     * @return a copy of this outcome without the certificate to store and the stored certificate, which is what is returned to remote
+     *      clients, that already have the certificate
+     */
+    public CertificateStoreOutcome withoutCertificates() {
+        return new CertificateStoreOutcome(null, status, fingerprint, null, message);
+    }
+
+    /** @return the certificate to store, or null if the outcome was returned to a remote client */
+    public CertificateStoreItem getItem() {
+        return item;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** @return true if the certificate was stored */
+    public boolean isStored() {
+        return status == Status.STORED;
+    }
+
+    /** @return the fingerprint of the certificate, or null if it could not be read */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /** @return the stored certificate, that can be used for further publishing, or null if it was not stored or the outcome was returned to a remote client */
+    public CertificateDataWrapper getCertificateDataWrapper() {
+        return certificateDataWrapper;
+    }
+
+    /** @return the reason the certificate was not stored, or null if it was stored */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -23,6 +23,7 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -122,6 +123,28 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
             int status, int type, int certificateProfileId, int endEntityProfileId, int crlPartitionIndex, String tag, long updateTime, String accountBindingId,
             final RevocationReasons revocationReason, final Date revocationDate);
 
+    /**
+     * Stores many certificates at once, e.g. for bulk imports. The certificates are checked first: certificates that the administrator
+     * is not authorized to store, that can't be read or that are already in the database are not stored. The other certificates are
+     * inserted in chunks of certstore.batchsize, which are flushed to the database in JDBC batches when database.jdbc.batchsize is set, and one audit log record is
+     * written per CA, end entity and chunk, which lists the serial numbers of the certificates and has the details of each certificate.
+     * <p>
+     * All certificates are stored in the current transaction, so callers should pass a limited number of certificates (e.g. a few
+     * thousand) in each call. Remote clients, such as the CLI certificate import, use
+     * {@link CertificateStoreSessionRemote#storeCertificatesRemote}.
+     *
+     * @param admin authentication token of the admin performing the operation, which must be authorized to the issuing CAs
+     * @param items the certificates to store
+     * @return the outcome for each certificate, in the order of the items
+     */
+    List<CertificateStoreOutcome> storeCertificates(AuthenticationToken admin, Collection<CertificateStoreItem> items);
+
+    /**
+     * Same as {@link #storeCertificates}, but without checking authorization. This should be used from other methods where authorization
+     * to the CAs issuing the certificates has already been checked.
+     */
+    List<CertificateStoreOutcome> storeCertificatesNoAuth(AuthenticationToken admin, Collection<CertificateStoreItem> items);
+
     /** 
      * Retrieve the full wrapped CertificateData and Base64CertData objects.
      * @return the sought certificate, or null if no data for the specified fingerprint exists
@@ -238,6 +261,43 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     
     /** Reloads the cache containing CA certificates */
     void reloadCaCertificateCache();
+
+    /** Clears the cache of certificate statuses used by {@link #isRevoked} and {@link #getFirstStatusByIssuerAndSerno} */
+    void clearCertificateStatusCache();
+
+    /**
+     * Builds the in-memory status index of all certificates of an issuer from the database, replacing any previous index for the issuer.
+     * 
+     * @param issuerDn the issuer DN of the certificates to index
+     */
+    void rebuildCertificateStatusIndex(String issuerDn);
+
+    /**
+     * Reads the revoked certificates of an issuer from the database into the in-memory status index, to pick up revocations made by
+     * other nodes. Does nothing if there is no index for the issuer.
+     * 
+     * @param issuerDn the issuer DN of the certificates to reconcile
+     */
+    void reconcileCertificateStatusIndex(String issuerDn);
+
+    /**
+     * Get the status of several certificates of an issuer with one database query per 500 serial numbers. Like
+     * {@link #getStatus(String, BigInteger)}, the read statuses are passed on to the in-memory status index.
+     * 
+     * @param issuerDN the issuer DN of the certificates
+     * @param sernos the serial numbers, duplicates are looked up once
+     * @return the status of each certificate found in the database, including the invalidity date of revoked certificates that have one.
+     * Serial numbers that were not found are left out.
+     */
+    Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> sernos);
+
+    /**
+     * Finds the issuers of several serial numbers with a single database query, without reading the certificates.
+     * 
+     * @param sernos the serial numbers. Keep the collection small, e.g. the serial numbers of one OCSP request.
+     * @return the issuer DNs of the certificates with each serial number, serial numbers that were not found are left out
+     */
+    Map<BigInteger, List<String>> findIssuerDNsBySernos(Collection<BigInteger> sernos);
     
     /** Invoked from timer. Reloads the cache containing CA certificates and additionally sets a new timeout. */
     void reloadCaCertificateCacheAndSetTimeout();
@@ -309,6 +369,8 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     /** Gets the status of the certificate, or -1 if the certificate does not exist. 
      * If more than one certificate exists with the issuerDN/serialNumber, the first one is returned.
      * This query performs limited database read and thus will not verify database integrity protection.
+     * Used to check client certificates when authenticating, so the status is cached for certificatestatus.authentication.cachetime
+     * milliseconds (12 seconds by default).
      * 
      * @param issuerDN issuer DN of the desired certificate.
      * @param serno serial number of the desired certificate!
@@ -338,6 +400,19 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     List<String> findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String issuerDN, long expireDate, int limit, int offset);
 
+    /**
+     * Lists serial numbers of certificates issued by the given issuer and earliest expire time of certificates, one page
+     * at a time in serial number order. Unlike {@link #findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String, long, int, int)}
+     * the cost of fetching a page does not grow with the number of pages already read.
+     * 
+     * @param issuerDN of the issuing CA.
+     * @param expireDate earliest expireTime(in UTC milliseconds) of the certificates.
+     * @param afterSerialNumber the last serial number of the previous page, or null for the first page
+     * @param limit Maximum number of results
+     * @return List of all found entries.
+     */
+    List<String> findSerialNrByIssuerAndExpireDateAfterSerialNr(String issuerDN, long expireDate, String afterSerialNumber, int limit);
+
     /**
      * Finds certificates expiring before the given date.
      *
@@ -369,4 +444,23 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     Set<String> deleteExpiredCertificatesInSeparateTransactions(List<String> issuerDns, Date maximumExpirationDate, int batchSize,
             AuthenticationToken adminForLogging, Set<String> previousDeletedFingerprints);
+
+    /**
+     * Sets the status of revoked certificates to {@link CertificateConstants#CERT_ARCHIVED}. The certificates are updated in chunks of
+     * {@link org.cesecore.config.CesecoreConfiguration#getCrlArchiveBatchSize()}, with a bulk update (unless database integrity protection
+     * is enabled for CertificateData) and a single audit log record per chunk.
+     *
+     * @param admin the administrator performing the operation
+     * @param issuerDN the issuer of the certificates
+     * @param fingerprints fingerprints of the certificates to archive
+     * @return the number of certificates that were archived
+     * @throws AuthorizationDeniedException if the administrator is not authorized to the CA
+     */
+    int archiveRevokedCertificates(AuthenticationToken admin, String issuerDN, List<String> fingerprints) throws AuthorizationDeniedException;
+
+    /**
+     * Same as {@link #archiveRevokedCertificates}, but each chunk is updated in a separate transaction.
+     */
+    int archiveRevokedCertificatesInSeparateTransactions(AuthenticationToken admin, String issuerDN, List<String> fingerprints)
+            throws AuthorizationDeniedException;
 }
@@ -12,6 +12,9 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.ejb.Remote;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
@@ -48,6 +51,17 @@ public interface CertificateStoreSessionRemote extends CertificateStoreSession {
     void storeCertificateRemote(AuthenticationToken admin, CertificateWrapper cert, String username, String cafp, int status, int type,
             int certificateProfileId, int endEntityProfileId, int crlPartitionIndex, String tag, long updateTime, String accountBindingId) throws AuthorizationDeniedException;
 
+    /**
+     * Stores many certificates at once (remote EJB interface), e.g. for bulk imports. Certificates that the administrator is not authorized
+     * to store, that can't be read or that are already in the database are not stored.
+     *
+     * @param admin An authentication token to authorize the action, which must be authorized to the CAs that issued the certificates
+     * @param items the certificates to store. All of them are stored in one transaction, so pass a limited number (e.g. a few thousand).
+     * @return the outcome for each certificate, in the order of the items, without the certificate to store and the stored certificate
+     * @see CertificateStoreSessionLocal#storeCertificates
+     */
+    List<CertificateStoreOutcome> storeCertificatesRemote(AuthenticationToken admin, Collection<CertificateStoreItem> items);
+
     /**
      * Finds a certificate by fingerprint (remote EJB interface, supports unnamed ECC and Brainpool)
      * @param fingerprint Fingerprint of certificate
@@ -39,5 +39,17 @@ public interface NoConflictCertificateDataSessionLocal extends NoConflictCertifi
      */
     Collection<RevokedCertInfo> getRevokedCertInfosWithDuplicates(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl, 
             boolean allowInvalidityDate);
-    
+
+    /**
+     * Returns a list with information about certificates that have been revoked or reactivated, and updated after the given time. Since the
+     * NoConflictCertificateData table is append-only, the result may contain duplicate entries, that should be filtered by date and revocation status.
+     */
+    Collection<RevokedCertInfo> getRevokedCertInfosUpdatedAfterWithDuplicates(String issuerDN, int crlPartitionIndex, long updatedAfter);
+
+    /**
+     * Returns a list with information about revoked certificates that expired before the given time. Entries in the append-only table
+     * are never archived, so the result may contain certificates that have already been removed from earlier CRLs.
+     */
+    Collection<RevokedCertInfo> getExpiredRevokedCertInfos(String issuerDN, int crlPartitionIndex, long expiredBefore);
+
 }
@@ -12,12 +12,14 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.Collection;
 import java.util.Date;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for {@link NoConflictCertificateStoreSession}.
@@ -30,4 +32,16 @@ public interface NoConflictCertificateStoreSessionLocal extends NoConflictCertif
     
     /** @see CertificateStoreSessionLocal#getCertificateData(String) */
     public CertificateDataWrapper getCertificateData(final String fingerprint);
+
+    /**
+     * Lists the certificates that have been revoked or reactivated, and updated after the given time, in both CertificateData and
+     * NoConflictCertificateData. Unlike the delta CRL listing of {@link #listRevokedCertInfo}, which selects by revocation date, this
+     * also finds revocations with a backdated revocation date.
+     *
+     * @param issuerDN the issuer DN of the CA
+     * @param crlPartitionIndex the CRL partition, or 0 for the main CRL
+     * @param updatedAfter the earliest update time, in epoch milliseconds
+     * @return the revocation information, with the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL} for reactivated certificates
+     */
+    Collection<RevokedCertInfo> listRevokedCertInfoUpdatedAfter(String issuerDN, int crlPartitionIndex, long updatedAfter);
 }
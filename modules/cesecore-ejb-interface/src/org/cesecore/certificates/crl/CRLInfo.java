@@ -118,4 +118,13 @@ public final class CRLInfo implements Serializable {
     public X509CRL getCrl() {
         return crlData.getCRL();
     }
+
+    /**
+     * Get the DER encoded CRL, without parsing it.
+     * 
+     * @return the encoded CRL.
+     */
+    public byte[] getEncoded() {
+        return crlData.getCRLBytes();
+    }
 }
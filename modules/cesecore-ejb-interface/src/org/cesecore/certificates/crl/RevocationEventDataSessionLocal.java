@@ -0,0 +1,65 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.util.Collection;
+
+import javax.ejb.Local;
+
+import org.cesecore.certificates.certificate.BaseCertificateData;
+
+/**
+ * Data session for RevocationEventData, the journal of revocation status changes used for creating delta CRLs.
+ *
+ * @see RevocationEventData
+ */
+@Local
+public interface RevocationEventDataSessionLocal {
+
+    /**
+     * Adds an event with the current revocation information of a certificate to the journal, in the current transaction.
+     * Does nothing unless the journal is enabled with crlgen.revocationjournal.
+     *
+     * @param certificateData the certificate, after its revocation status has been changed
+     * @param eventTime time of the change
+     */
+    void addEvent(BaseCertificateData certificateData, long eventTime);
+
+    /**
+     * Records that a full CRL has been created while the journal was enabled, and deletes the events that are no longer needed.
+     * Does nothing unless the journal is enabled with crlgen.revocationjournal.
+     *
+     * @param issuerDN issuer DN of the CRL
+     * @param crlPartitionIndex CRL partition index, or {@link org.cesecore.certificates.certificate.CertificateConstants#NO_CRL_PARTITION}
+     * @param thisUpdate thisUpdate of the new full CRL
+     * @param previousThisUpdate thisUpdate of the previous full CRL, or -1 if there is none. Events before this time, minus the overlap
+     *      configured with crlgen.incremental.overlap, are deleted.
+     */
+    void fullCrlCreated(String issuerDN, int crlPartitionIndex, long thisUpdate, long previousThisUpdate);
+
+    /**
+     * Gets the revocation information for the certificates that have changed since a full CRL was created, in the same form as
+     * {@link org.cesecore.certificates.certificate.CertificateDataSessionLocal#getRevokedCertInfos} returns it for delta CRLs.
+     * Reactivated certificates have the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL}.
+     * The events are read from the time configured with crlgen.incremental.overlap before the full CRL, since the event time is set before
+     * the transaction commits. Changes that are already on the full CRL may therefore be included, see {@link CrlEntryMerger#removeUnchanged}.
+     *
+     * @param issuerDN issuer DN of the CRL
+     * @param crlPartitionIndex CRL partition index, or {@link org.cesecore.certificates.certificate.CertificateConstants#NO_CRL_PARTITION}
+     * @param lastBaseCrlDate thisUpdate of the full CRL
+     * @param allowInvalidityDate true if the invalidity date should be included
+     * @return the latest revocation information of each changed certificate, or null if the journal was not enabled when the full CRL was
+     *      created, so that the changes must be read from CertificateData.
+     */
+    Collection<RevokedCertInfo> getRevokedCertInfosSinceFullCrl(String issuerDN, int crlPartitionIndex, long lastBaseCrlDate, boolean allowInvalidityDate);
+}
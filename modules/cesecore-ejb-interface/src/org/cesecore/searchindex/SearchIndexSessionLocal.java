@@ -0,0 +1,78 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.searchindex;
+
+import javax.ejb.Local;
+
+/**
+ * Data session for SearchIndexData, the index used for substring searches of the subject DN, subject alternative name and username of
+ * certificates and end entities. The index is only maintained if it is enabled with searchindex.enabled.
+ *
+ * @see SearchIndexData
+ */
+@Local
+public interface SearchIndexSessionLocal {
+
+    /**
+     * @param tableName {@link SearchIndexData#BACKFILL_CERTIFICATES} or {@link SearchIndexData#BACKFILL_END_ENTITIES}
+     * @return true if the index is enabled and all rows of the table have been indexed, so that the index can be used for searches
+     */
+    boolean isSearchable(String tableName);
+
+    /**
+     * Indexes a certificate in the current transaction. Does nothing unless the index is enabled, or a backfill of the certificates has
+     * been started.
+     *
+     * @param fingerprint fingerprint of the certificate
+     * @param subjectDN subject DN, or null
+     * @param subjectAltName subject alternative name, or null
+     * @param username username, or null
+     * @param replace true if existing index rows of the certificate should be removed first, false for a new certificate
+     */
+    void indexCertificate(String fingerprint, String subjectDN, String subjectAltName, String username, boolean replace);
+
+    /**
+     * Indexes an end entity in the current transaction. Does nothing unless the index is enabled, or a backfill of the end entities has
+     * been started.
+     *
+     * @param username username of the end entity
+     * @param subjectDN subject DN, or null
+     * @param subjectAltName subject alternative name, or null
+     * @param replace true if existing index rows of the end entity should be removed first, false for a new end entity
+     */
+    void indexEndEntity(String username, String subjectDN, String subjectAltName, boolean replace);
+
+    /**
+     * Removes the index rows of an end entity in the current transaction. Does nothing unless the index is enabled, or a backfill of the
+     * end entities has been started.
+     *
+     * @param username username of the end entity
+     */
+    void removeEndEntity(String username);
+
+    /**
+     * Indexes the next batch of existing certificates, in a new transaction. Does nothing unless the index is enabled.
+     *
+     * @param batchSize maximum number of certificates to index
+     * @return the number of indexed certificates. Less than the batch size when the backfill has completed.
+     */
+    int backfillCertificates(int batchSize);
+
+    /**
+     * Indexes the next batch of existing end entities, in a new transaction. Does nothing unless the index is enabled.
+     *
+     * @param batchSize maximum number of end entities to index
+     * @return the number of indexed end entities. Less than the batch size when the backfill has completed.
+     */
+    int backfillEndEntities(int batchSize);
+}
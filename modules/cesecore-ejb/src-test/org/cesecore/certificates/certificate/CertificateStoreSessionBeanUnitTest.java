@@ -0,0 +1,339 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.configuration.LogRedactionConfigurationCache;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Unit tests of the operations of {@link CertificateStoreSessionBean} on many certificates at once, {@link CertificateStoreSessionBean#storeCertificates}
+ * and {@link CertificateStoreSessionBean#getStatuses}
+ */
+@RunWith(EasyMockRunner.class)
+public class CertificateStoreSessionBeanUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CertificateStoreSessionBeanUnitTest"));
+    private static final String ISSUER_DN = "CN=Issuer,O=Test,C=SE";
+
+    private static X509Certificate certificate1;
+    private static X509Certificate certificate2;
+    private static X509Certificate certificate3;
+
+    @Mock(type = MockType.NICE)
+    private EntityManager entityManager;
+    @Mock(type = MockType.NICE)
+    private AuthorizationSessionLocal authorizationSession;
+    @Mock(type = MockType.NICE)
+    private CertificateProfileSessionLocal certificateProfileSession;
+    @Mock
+    private CertificateDataSessionLocal certificateDataSession;
+    @Mock(type = MockType.NICE)
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @Mock(type = MockType.NICE)
+    private SearchIndexSessionLocal searchIndexSession;
+    @Mock
+    private SecurityEventsLoggerSessionLocal logSession;
+
+    @TestSubject
+    private final CertificateStoreSessionBean certificateStoreSession = new CertificateStoreSessionBean();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        // No end entity profiles are loaded in unit tests
+        LogRedactionConfigurationCache.INSTANCE.updateLogRedactionCache(new HashMap<>(), new HashMap<>());
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        certificate1 = CertTools.genSelfCert("CN=Store1,O=Test,C=SE", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+        certificate2 = CertTools.genSelfCert("CN=Store2,O=Test,C=SE", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+        certificate3 = CertTools.genSelfCert("CN=Store3,O=Test,C=SE", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStoreCertificatesSkipsDuplicates() throws Exception {
+        // certificate2 is already in the database
+        final TypedQuery<String> query = EasyMock.createNiceMock(TypedQuery.class);
+        expect(entityManager.createQuery(anyString(), eq(String.class))).andReturn(query);
+        expect(query.setParameter(eq("fingerprints"), anyObject())).andReturn(query);
+        expect(query.getResultList()).andReturn(Collections.singletonList(CertTools.getFingerprintAsString(certificate2)));
+        entityManager.flush();
+        expectLastCall().once();
+        // One audit log record for each CA and username, searchable by serial number and username
+        final Capture<String> serialNumbers = EasyMock.newCapture(CaptureType.ALL);
+        final Capture<Map<String, Object>> details = EasyMock.newCapture(CaptureType.ALL);
+        logSession.log(eq(EventTypes.CERT_STORED), eq(EventStatus.SUCCESS), eq(ModuleTypes.CERTIFICATE), eq(ServiceTypes.CORE), anyString(),
+                anyString(), capture(serialNumbers), eq("user"), capture(details));
+        expectLastCall().times(2);
+        replay(entityManager, query, certificateProfileSession, revocationEventDataSession, searchIndexSession, logSession);
+
+        final List<CertificateStoreOutcome> outcomes = certificateStoreSession.storeCertificatesNoAuth(admin,
+                Arrays.asList(item(certificate1), item(certificate2), item(certificate1), item(certificate3)));
+
+        verify(entityManager, logSession);
+        assertEquals(4, outcomes.size());
+        assertEquals(CertificateStoreOutcome.Status.STORED, outcomes.get(0).getStatus());
+        assertEquals(CertTools.getFingerprintAsString(certificate1), outcomes.get(0).getCertificateDataWrapper().getCertificateData().getFingerprint());
+        assertEquals(CertificateStoreOutcome.Status.ALREADY_STORED, outcomes.get(1).getStatus());
+        assertEquals(CertificateStoreOutcome.Status.ALREADY_STORED, outcomes.get(2).getStatus());
+        assertTrue(outcomes.get(3).isStored());
+        assertEquals(Arrays.asList(CertTools.getSerialNumberAsString(certificate1), CertTools.getSerialNumberAsString(certificate3)),
+                serialNumbers.getValues());
+        assertTrue(((String) details.getValues().get(0).get("msg")).contains(CertTools.getFingerprintAsString(certificate1)));
+        assertTrue(((String) details.getValues().get(1).get("msg")).contains(CertTools.getFingerprintAsString(certificate3)));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStoreCertificatesAuditLogListsSerialNumbers() throws Exception {
+        // Certificates of the same CA, with two usernames
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        final List<CertificateStoreItem> items = new ArrayList<>();
+        final List<String> expectedSerialNumbers = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            final X509Certificate certificate = CertTools.genSelfCert(ISSUER_DN, 365, null, keys.getPrivate(), keys.getPublic(),
+                    AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+            items.add(item(certificate, i == 0 ? "other" : "user"));
+            expectedSerialNumbers.add(CertTools.getSerialNumberAsString(certificate));
+        }
+        final TypedQuery<String> query = EasyMock.createNiceMock(TypedQuery.class);
+        expect(entityManager.createQuery(anyString(), eq(String.class))).andReturn(query);
+        expect(query.setParameter(eq("fingerprints"), anyObject())).andReturn(query);
+        expect(query.getResultList()).andReturn(new ArrayList<>());
+        final Capture<String> serialNumbers = EasyMock.newCapture(CaptureType.ALL);
+        final Capture<String> usernames = EasyMock.newCapture(CaptureType.ALL);
+        final Capture<Map<String, Object>> details = EasyMock.newCapture(CaptureType.ALL);
+        logSession.log(eq(EventTypes.CERT_STORED), eq(EventStatus.SUCCESS), eq(ModuleTypes.CERTIFICATE), eq(ServiceTypes.CORE), anyString(),
+                eq(String.valueOf(ISSUER_DN.hashCode())), capture(serialNumbers), capture(usernames), capture(details));
+        expectLastCall().atLeastOnce();
+        replay(entityManager, query, certificateProfileSession, revocationEventDataSession, searchIndexSession, logSession);
+
+        final List<CertificateStoreOutcome> outcomes = certificateStoreSession.storeCertificatesNoAuth(admin, items);
+
+        verify(logSession);
+        for (final CertificateStoreOutcome outcome : outcomes) {
+            assertTrue(outcome.isStored());
+        }
+        assertEquals("The certificate of the other end entity should have a record of its own.", "other", usernames.getValues().get(0));
+        assertEquals(expectedSerialNumbers.get(0), serialNumbers.getValues().get(0));
+        assertTrue("Serial numbers of one end entity should be split over several records.", serialNumbers.getValues().size() > 2);
+        final List<String> loggedSerialNumbers = new ArrayList<>();
+        for (int i = 1; i < serialNumbers.getValues().size(); i++) {
+            final String listing = serialNumbers.getValues().get(i);
+            assertTrue("Serial numbers should fit in the database column.", listing.length() <= CertificateStoreSessionBean.AUDIT_SERIAL_NUMBERS_MAX_LENGTH);
+            assertEquals("user", usernames.getValues().get(i));
+            final List<String> listed = Arrays.asList(listing.split(","));
+            assertEquals("The details should include each certificate and a summary.", listed.size() + 1, details.getValues().get(i).size());
+            loggedSerialNumbers.addAll(listed);
+        }
+        assertEquals(expectedSerialNumbers.subList(1, expectedSerialNumbers.size()), loggedSerialNumbers);
+    }
+
+    @Test
+    public void testStoreCertificatesChecksAuthorization() throws Exception {
+        expect(authorizationSession.isAuthorized(anyObject(), anyString())).andReturn(false).anyTimes();
+        entityManager.persist(anyObject());
+        expectLastCall().andThrow(new AssertionError("Nothing should be stored")).anyTimes();
+        replay(authorizationSession, entityManager, logSession);
+
+        final List<CertificateStoreOutcome> outcomes = certificateStoreSession.storeCertificates(admin,
+                Arrays.asList(item(certificate1), item(certificate2)));
+
+        verify(logSession);
+        assertEquals(2, outcomes.size());
+        for (final CertificateStoreOutcome outcome : outcomes) {
+            assertEquals(CertificateStoreOutcome.Status.NOT_AUTHORIZED, outcome.getStatus());
+            assertFalse(outcome.isStored());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStoreCertificatesRemoteLeavesOutCertificates() throws Exception {
+        expect(authorizationSession.isAuthorized(anyObject(), anyString())).andReturn(true).anyTimes();
+        final TypedQuery<String> query = EasyMock.createNiceMock(TypedQuery.class);
+        expect(entityManager.createQuery(anyString(), eq(String.class))).andReturn(query);
+        expect(query.setParameter(eq("fingerprints"), anyObject())).andReturn(query);
+        expect(query.getResultList()).andReturn(Collections.singletonList(CertTools.getFingerprintAsString(certificate2)));
+        logSession.log(eq(EventTypes.CERT_STORED), eq(EventStatus.SUCCESS), eq(ModuleTypes.CERTIFICATE), eq(ServiceTypes.CORE), anyString(),
+                anyString(), anyString(), eq("user"), anyObject());
+        expectLastCall().once();
+        replay(authorizationSession, entityManager, query, certificateProfileSession, revocationEventDataSession, searchIndexSession, logSession);
+
+        final List<CertificateStoreOutcome> outcomes = certificateStoreSession.storeCertificatesRemote(admin,
+                Arrays.asList(item(certificate1), item(certificate2)));
+
+        verify(logSession);
+        assertEquals(2, outcomes.size());
+        assertTrue(outcomes.get(0).isStored());
+        assertEquals(CertTools.getFingerprintAsString(certificate1), outcomes.get(0).getFingerprint());
+        assertNull("The stored certificate should not be returned to remote clients.", outcomes.get(0).getCertificateDataWrapper());
+        assertNull(outcomes.get(0).getItem());
+        assertEquals(CertificateStoreOutcome.Status.ALREADY_STORED, outcomes.get(1).getStatus());
+        assertEquals("The certificate is already stored in the database.", outcomes.get(1).getMessage());
+    }
+
+    @Test
+    public void testGetStatusesInChunks() {
+        final int count = 2 * CertificateStoreSessionBean.STATUS_LOOKUP_CHUNK_SIZE + 10;
+        final List<BigInteger> serialNumbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            serialNumbers.add(BigInteger.valueOf(i));
+        }
+        final Capture<Collection<String>> chunks = EasyMock.newCapture(CaptureType.ALL);
+        expect(certificateDataSession.findStatusInfoByIssuerDNAndSerialNumbers(eq(ISSUER_DN), capture(chunks)))
+                .andReturn(Collections.singletonList(row(0, CertificateConstants.CERT_ACTIVE)))
+                .andReturn(new ArrayList<>())
+                .andReturn(Collections.singletonList(row(count - 1, CertificateConstants.CERT_ACTIVE)));
+        replay(certificateDataSession);
+
+        final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(ISSUER_DN, serialNumbers);
+
+        verify(certificateDataSession);
+        assertEquals("Serial numbers should be looked up in 3 chunks.", 3, chunks.getValues().size());
+        assertEquals(CertificateStoreSessionBean.STATUS_LOOKUP_CHUNK_SIZE, chunks.getValues().get(0).size());
+        assertEquals(CertificateStoreSessionBean.STATUS_LOOKUP_CHUNK_SIZE, chunks.getValues().get(1).size());
+        assertEquals(10, chunks.getValues().get(2).size());
+        assertTrue(chunks.getValues().get(2).contains(String.valueOf(count - 1)));
+        assertEquals(2, statuses.size());
+        assertEquals(CertificateStatus.OK, statuses.get(BigInteger.valueOf(count - 1)));
+    }
+
+    @Test
+    public void testGetStatusesMissingAndDuplicates() {
+        final Capture<Collection<String>> chunk = EasyMock.newCapture();
+        // Serial number 1 is used by two certificates of the issuer, which is an error. The first one found is used.
+        expect(certificateDataSession.findStatusInfoByIssuerDNAndSerialNumbers(eq(ISSUER_DN), capture(chunk))).andReturn(Arrays.asList(
+                row(1, CertificateConstants.CERT_REVOKED), row(1, CertificateConstants.CERT_ACTIVE), row(3, CertificateConstants.CERT_ACTIVE)));
+        replay(certificateDataSession);
+
+        final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(ISSUER_DN,
+                Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(2), BigInteger.valueOf(3)));
+
+        verify(certificateDataSession);
+        assertEquals("Duplicate serial numbers should be looked up once.", Arrays.asList("1", "2", "3"), new ArrayList<>(chunk.getValue()));
+        assertEquals(2, statuses.size());
+        assertEquals(CertificateStatus.REVOKED, statuses.get(BigInteger.valueOf(1)));
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, statuses.get(BigInteger.valueOf(1)).revocationReason);
+        assertNull("Missing certificate should be left out.", statuses.get(BigInteger.valueOf(2)));
+        assertEquals(CertificateStatus.OK, statuses.get(BigInteger.valueOf(3)));
+        assertEquals(1234L, statuses.get(BigInteger.valueOf(3)).getExpirationDate());
+    }
+
+    @Test
+    public void testGetStatusesWithoutSerialNumbers() {
+        replay(certificateDataSession);
+        assertTrue(certificateStoreSession.getStatuses(ISSUER_DN, new ArrayList<>()).isEmpty());
+        verify(certificateDataSession);
+    }
+
+    @Test
+    public void testGetStatusesWithInvalidityDate() {
+        expect(certificateDataSession.findStatusInfoByIssuerDNAndSerialNumbers(eq(ISSUER_DN), EasyMock.<Collection<String>>anyObject())).andReturn(
+                Arrays.asList(row(1, CertificateConstants.CERT_REVOKED, 500L), row(2, CertificateConstants.CERT_REVOKED, -1L),
+                        row(3, CertificateConstants.CERT_REVOKED, null)));
+        replay(certificateDataSession);
+
+        final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(ISSUER_DN,
+                Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3)));
+
+        verify(certificateDataSession);
+        assertEquals(CertificateStatus.REVOKED, statuses.get(BigInteger.valueOf(1)));
+        assertEquals(500L, statuses.get(BigInteger.valueOf(1)).invalidityDate.getTime());
+        assertEquals(1000L, statuses.get(BigInteger.valueOf(1)).revocationDate.getTime());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, statuses.get(BigInteger.valueOf(1)).revocationReason);
+        assertEquals(1234L, statuses.get(BigInteger.valueOf(1)).getExpirationDate());
+        assertNull("No invalidity date is stored as -1.", statuses.get(BigInteger.valueOf(2)).invalidityDate);
+        assertNull(statuses.get(BigInteger.valueOf(3)).invalidityDate);
+    }
+
+    /** @return a row as returned by CertificateDataSessionLocal.findStatusInfoByIssuerDNAndSerialNumbers */
+    private Object[] row(final long serialNumber, final int status) {
+        return row(serialNumber, status, -1L);
+    }
+
+    /** @return a row as returned by CertificateDataSessionLocal.findStatusInfoByIssuerDNAndSerialNumbers */
+    private Object[] row(final long serialNumber, final int status, final Long invalidityDate) {
+        final boolean revoked = status == CertificateConstants.CERT_REVOKED;
+        return new Object[] { String.valueOf(serialNumber), status, revoked ? 1000L : -1L,
+                revoked ? RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE : RevokedCertInfo.NOT_REVOKED,
+                CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, 1234L, invalidityDate };
+    }
+
+    private CertificateStoreItem item(final X509Certificate certificate) {
+        return item(certificate, "user");
+    }
+
+    private CertificateStoreItem item(final X509Certificate certificate, final String username) {
+        return new CertificateStoreItem(certificate, username, "cafp", null, CertificateConstants.CERT_ACTIVE,
+                CertificateConstants.CERTTYPE_ENDENTITY, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, 1,
+                CertificateConstants.NO_CRL_PARTITION, null, System.currentTimeMillis(), null);
+    }
+}
@@ -0,0 +1,195 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.config.ConfigurationHolder;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.TestSubject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of the revocation journal in {@link RevocationEventDataSessionBean}
+ */
+@RunWith(EasyMockRunner.class)
+public class RevocationEventDataSessionBeanUnitTest {
+
+    private static final String JOURNAL = "crlgen.revocationjournal";
+    private static final String OVERLAP = "crlgen.incremental.overlap";
+    private static final String ISSUER_DN = "CN=Issuer,O=Test,C=SE";
+    private static final long BASE_CRL_DATE = 1700000000000L;
+
+    private String defaultJournal = null;
+    private String defaultOverlap = null;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @TestSubject
+    private final RevocationEventDataSessionBean revocationEventDataSession = new RevocationEventDataSessionBean();
+
+    @Before
+    public void before() {
+        defaultJournal = ConfigurationHolder.getString(JOURNAL);
+        defaultOverlap = ConfigurationHolder.getString(OVERLAP);
+        ConfigurationHolder.updateConfiguration(JOURNAL, "true");
+        ConfigurationHolder.updateConfiguration(OVERLAP, "60000");
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(JOURNAL, defaultJournal);
+        ConfigurationHolder.updateConfiguration(OVERLAP, defaultOverlap);
+    }
+
+    @Test
+    public void testDisabledJournal() {
+        ConfigurationHolder.updateConfiguration(JOURNAL, "false");
+        replay(entityManager);
+        revocationEventDataSession.fullCrlCreated(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, BASE_CRL_DATE, BASE_CRL_DATE - 86400000L);
+        assertNull("Changes should be read from CertificateData when the journal is disabled.",
+                revocationEventDataSession.getRevokedCertInfosSinceFullCrl(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, BASE_CRL_DATE, false));
+        verify(entityManager);
+    }
+
+    @Test
+    public void testMissingMarker() {
+        expect(entityManager.createQuery(anyString(), eq(Long.class))).andReturn(markerQuery(0L));
+        replay(entityManager);
+        assertNull("Changes should be read from CertificateData when the full CRL was created without the journal.",
+                revocationEventDataSession.getRevokedCertInfosSinceFullCrl(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, BASE_CRL_DATE, false));
+        verify(entityManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLatestEventPerCertificate() {
+        expect(entityManager.createQuery(anyString(), eq(Long.class))).andReturn(markerQuery(1L));
+        final TypedQuery<RevocationEventData> eventQuery = EasyMock.createNiceMock(TypedQuery.class);
+        final Capture<Long> eventsAfter = EasyMock.newCapture();
+        expect(entityManager.createQuery(anyString(), eq(RevocationEventData.class))).andReturn(eventQuery);
+        expect(eventQuery.setParameter(eq("eventTime"), capture(eventsAfter))).andReturn(eventQuery);
+        // Ordered by event time. Certificate 1 was revoked and then reactivated, certificate 2 was put on hold and then revoked.
+        expect(eventQuery.getResultList()).andReturn(Arrays.asList(
+                event(1, BASE_CRL_DATE - 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE),
+                event(2, BASE_CRL_DATE + 1000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD),
+                event(1, BASE_CRL_DATE + 2000, RevokedCertInfo.NOT_REVOKED),
+                event(2, BASE_CRL_DATE + 3000, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED),
+                event(3, BASE_CRL_DATE + 4000, RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE)));
+        replay(entityManager, eventQuery);
+
+        final Collection<RevokedCertInfo> changes = revocationEventDataSession.getRevokedCertInfosSinceFullCrl(ISSUER_DN,
+                CertificateConstants.NO_CRL_PARTITION, BASE_CRL_DATE, false);
+
+        verify(entityManager);
+        assertEquals("Events committed after the CRL was generated may be stamped before it.", BASE_CRL_DATE - 60000, eventsAfter.getValue().longValue());
+        final List<RevokedCertInfo> list = new ArrayList<>();
+        for (final RevokedCertInfo revokedCertInfo : changes) {
+            list.add(revokedCertInfo);
+        }
+        assertEquals("Only the latest event of each certificate should be used.", 3, list.size());
+        assertEquals(BigInteger.valueOf(1), list.get(0).getUserCertificate());
+        assertEquals("Reactivated certificate should be removed from the CRL.", RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, list.get(0).getReason());
+        assertEquals(BigInteger.valueOf(2), list.get(1).getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, list.get(1).getReason());
+        assertEquals(BigInteger.valueOf(3), list.get(2).getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_CACOMPROMISE, list.get(2).getReason());
+    }
+
+    @Test
+    public void testFullCrlCreated() {
+        final Capture<RevocationEventData> marker = EasyMock.newCapture();
+        entityManager.persist(capture(marker));
+        expectLastCall();
+        final Query deleteQuery = EasyMock.createNiceMock(Query.class);
+        final Capture<Long> deleteBefore = EasyMock.newCapture();
+        expect(entityManager.createQuery(anyString())).andReturn(deleteQuery);
+        expect(deleteQuery.setParameter(eq("eventTime"), capture(deleteBefore))).andReturn(deleteQuery);
+        expect(deleteQuery.setParameter(anyString(), anyObject())).andReturn(deleteQuery).anyTimes();
+        replay(entityManager, deleteQuery);
+
+        revocationEventDataSession.fullCrlCreated(ISSUER_DN, 2, BASE_CRL_DATE, BASE_CRL_DATE - 86400000L);
+
+        verify(entityManager);
+        assertTrue(marker.getValue().isFullCrlMarker());
+        assertEquals(ISSUER_DN, marker.getValue().getIssuerDN());
+        assertEquals(2, marker.getValue().getCrlPartitionIndex());
+        assertEquals(BASE_CRL_DATE, marker.getValue().getEventTime());
+        assertEquals("Events in the overlap before the previous CRL should be kept.", BASE_CRL_DATE - 86400000L - 60000, deleteBefore.getValue().longValue());
+    }
+
+    @Test
+    public void testFirstFullCrlCreated() {
+        final Capture<RevocationEventData> marker = EasyMock.newCapture();
+        entityManager.persist(capture(marker));
+        expectLastCall();
+        // Nothing should be deleted without a previous CRL
+        replay(entityManager);
+
+        revocationEventDataSession.fullCrlCreated(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, BASE_CRL_DATE, -1);
+
+        verify(entityManager);
+        assertTrue(marker.getValue().isFullCrlMarker());
+        assertEquals(BASE_CRL_DATE, marker.getValue().getEventTime());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TypedQuery<Long> markerQuery(final long count) {
+        final TypedQuery<Long> query = EasyMock.createNiceMock(TypedQuery.class);
+        expect(query.getSingleResult()).andReturn(count);
+        replay(query);
+        return query;
+    }
+
+    private static RevocationEventData event(final long serialNumber, final long eventTime, final int revocationReason) {
+        final RevocationEventData event = new RevocationEventData();
+        event.setIssuerDN(ISSUER_DN);
+        event.setCrlPartitionIndex(CertificateConstants.NO_CRL_PARTITION);
+        event.setEventTime(eventTime);
+        event.setFingerprint("fingerprint" + serialNumber);
+        event.setSerialNumber(String.valueOf(serialNumber));
+        event.setRevocationReason(revocationReason);
+        event.setStatus(revocationReason == RevokedCertInfo.NOT_REVOKED ? CertificateConstants.CERT_ACTIVE : CertificateConstants.CERT_REVOKED);
+        event.setRevocationDate(revocationReason == RevokedCertInfo.NOT_REVOKED ? -1L : eventTime);
+        event.setExpireDate(eventTime + 86400000L);
+        return event;
+    }
+}
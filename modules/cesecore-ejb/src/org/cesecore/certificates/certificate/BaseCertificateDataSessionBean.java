@@ -39,7 +39,7 @@ public abstract class BaseCertificateDataSessionBean {
         final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
         query.setMaxResults(maxResults);
         int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.class);
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
         while (true) {
             query.setFirstResult(firstResult);
             @SuppressWarnings("unchecked")
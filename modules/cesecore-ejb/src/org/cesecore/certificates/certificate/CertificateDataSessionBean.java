@@ -16,6 +16,7 @@ import static java.util.stream.Collectors.toList;
 
 import org.apache.commons.lang.time.FastDateFormat;
 import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.util.LogRedactionUtils;
@@ -32,12 +33,15 @@ import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -313,6 +317,50 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return getRevokedCertInfosInternal(query, allowInvalidityDate);
     }
 
+    @Override
+    public Collection<RevokedCertInfo> getRevokedCertInfosUpdatedAfter(final String issuerDN, final int crlPartitionIndex, final long updatedAfter) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        // Certificates that have never been revoked have the revocation date -1
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, a.invalidityDate as invalidityDate FROM CertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.updateTime>:updatedAfter AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
+                        + crlPartitionExpression,
+                "RevokedCertInfoSubset");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("updatedAfter", updatedAfter);
+        query.setParameter("revocationDate", 0L);
+        query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+        query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // reactivated from on hold, included as "removeFromCRL"
+        query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfosInternal(query, false);
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getExpiredRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long expiredBefore) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, a.invalidityDate as invalidityDate FROM CertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.status=:status AND a.expireDate<:expiredBefore"
+                        + crlPartitionExpression,
+                "RevokedCertInfoSubset");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("expiredBefore", expiredBefore);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfosInternal(query, false);
+    }
+
     @Override
     public List<CertificateData> findByExpireDateWithLimit(final long expireDate, final int maxNumberOfResults) {
         final long now = System.currentTimeMillis();
@@ -336,6 +384,71 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
     
+    @Override
+    public Map<Integer, Long> countByIssuerDNPerCertificateProfile(final String issuerDN) {
+        final TypedQuery<Object[]> query = entityManager
+                .createQuery("SELECT a.certificateProfileId, COUNT(a) FROM CertificateData a WHERE a.issuerDN=:issuerDN GROUP BY a.certificateProfileId", Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        final Map<Integer, Long> ret = new HashMap<>();
+        for (final Object[] row : query.getResultList()) {
+            final Integer certificateProfileId = row[0] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ((Number) row[0]).intValue();
+            ret.merge(certificateProfileId, ((Number) row[1]).longValue(), Long::sum);
+        }
+        return ret;
+    }
+
+    @Override
+    public List<Object[]> findStatusInfoByIssuerDN(final String issuerDN, final String afterSerialNumber, final int maxResults) {
+        final TypedQuery<Object[]> query;
+        if (afterSerialNumber == null) {
+            query = entityManager.createQuery("SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a "
+                    + "WHERE a.issuerDN=:issuerDN ORDER BY a.serialNumber", Object[].class);
+        } else {
+            query = entityManager.createQuery("SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a "
+                    + "WHERE a.issuerDN=:issuerDN AND a.serialNumber>:serialNumber ORDER BY a.serialNumber", Object[].class);
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        query.setParameter("issuerDN", issuerDN);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findRevokedStatusInfoByIssuerDN(final String issuerDN) {
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId "
+                + "FROM CertificateData a WHERE a.issuerDN=:issuerDN AND (a.status=:revoked OR (a.status=:archived AND a.revocationReason NOT IN (:notRevoked)))",
+                Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("revoked", CertificateConstants.CERT_REVOKED);
+        query.setParameter("archived", CertificateConstants.CERT_ARCHIVED);
+        query.setParameter("notRevoked", Arrays.asList(RevokedCertInfo.NOT_REVOKED, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL));
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findStatusInfoByIssuerDNAndSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, "
+                + "a.certificateProfileId, a.expireDate, a.invalidityDate FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)",
+                Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findIssuerDNBySerialNumbers(final Collection<String> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.serialNumber, a.issuerDN FROM CertificateData a WHERE a.serialNumber IN (:serialNumbers)",
+                Object[].class);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
     @Override
     public List<String> findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String issuerDN, long expireDate, int limit, int offset) {
         // we ignore the certificate status
@@ -347,6 +460,24 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         query.setFirstResult(offset);
         return query.getResultList();
     }
+
+    @Override
+    public List<String> findSerialNrByIssuerAndExpireDateAfterSerialNr(final String issuerDN, final long expireDate, final String afterSerialNumber, final int limit) {
+        // we ignore the certificate status
+        final TypedQuery<String> query;
+        if (afterSerialNumber == null) {
+            query = entityManager.createQuery("SELECT a.serialNumber FROM CertificateData a WHERE a.issuerDN=:issuerDN and a.expireDate>:expireDate "
+                    + "ORDER BY a.serialNumber", String.class);
+        } else {
+            query = entityManager.createQuery("SELECT a.serialNumber FROM CertificateData a WHERE a.issuerDN=:issuerDN and a.expireDate>:expireDate "
+                    + "and a.serialNumber>:serialNumber ORDER BY a.serialNumber", String.class);
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("expireDate", expireDate);
+        query.setMaxResults(limit);
+        return query.getResultList();
+    }
     
     @Override
     public List<CertificateData> findByExpireDateWithLimitAndOffset(long expireDate, int maxNumberOfResults, int offset) {
@@ -41,8 +41,11 @@ import org.cesecore.certificates.certificate.request.RequestMessage;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.GlobalCesecoreConfiguration;
@@ -51,6 +54,7 @@ import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.util.CvcKeyTools;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
 import org.cesecore.util.LogRedactionUtils;
 import org.cesecore.util.ValueExtractor;
 import org.ejbca.cvc.PublicKeyEC;
@@ -70,6 +74,9 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.math.BigInteger;
 import java.security.PublicKey;
 import java.security.cert.CertPathValidatorException;
@@ -83,9 +90,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -99,6 +108,10 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    /** Maximum number of serial numbers in the IN clause of a status lookup, well below the limits of all supported databases */
+    static final int STATUS_LOOKUP_CHUNK_SIZE = 500;
+    /** Maximum length of the serial numbers listed in the searchable detail of an audit log record, which fits in the database column */
+    static final int AUDIT_SERIAL_NUMBERS_MAX_LENGTH = 250;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -114,10 +127,16 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
     @EJB
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @EJB
+    private SearchIndexSessionLocal searchIndexSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal logSession;
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining.
@@ -219,6 +238,169 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return ret;
     }
     
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public List<CertificateStoreOutcome> storeCertificates(final AuthenticationToken admin, final Collection<CertificateStoreItem> items) {
+        return storeCertificatesInternal(admin, items, true);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public List<CertificateStoreOutcome> storeCertificatesRemote(final AuthenticationToken admin, final Collection<CertificateStoreItem> items) {
+        final List<CertificateStoreOutcome> outcomes = storeCertificates(admin, items);
+        // Don't send the stored database entities back to the remote client
+        final List<CertificateStoreOutcome> ret = new ArrayList<>(outcomes.size());
+        for (final CertificateStoreOutcome outcome : outcomes) {
+            ret.add(outcome.withoutCertificates());
+        }
+        return ret;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public List<CertificateStoreOutcome> storeCertificatesNoAuth(final AuthenticationToken admin, final Collection<CertificateStoreItem> items) {
+        return storeCertificatesInternal(admin, items, false);
+    }
+
+    private List<CertificateStoreOutcome> storeCertificatesInternal(final AuthenticationToken admin, final Collection<CertificateStoreItem> items,
+            final boolean checkAuthorization) {
+        if (log.isTraceEnabled()) {
+            log.trace(">storeCertificates(" + items.size() + ")");
+        }
+        final CertificateStoreOutcome[] outcomes = new CertificateStoreOutcome[items.size()];
+        final List<CertificateStoreItem> itemList = new ArrayList<>(items);
+        // Check all certificates before storing any of them, so that each problem only affects its own certificate
+        final Map<Integer, Boolean> authorizedCaIds = new HashMap<>();
+        final Map<String, Integer> fingerprints = new LinkedHashMap<>();
+        for (int i = 0; i < itemList.size(); i++) {
+            final CertificateStoreItem item = itemList.get(i);
+            final String fingerprint;
+            final int caId;
+            try {
+                fingerprint = CertTools.getFingerprintAsString(item.getCertificate());
+                caId = CertTools.getIssuerDN(item.getCertificate()).hashCode();
+            } catch (RuntimeException e) {
+                outcomes[i] = CertificateStoreOutcome.notStored(item, CertificateStoreOutcome.Status.INVALID, null, e.getMessage());
+                continue;
+            }
+            if (checkAuthorization && !authorizedCaIds.computeIfAbsent(caId,
+                    id -> authorizationSession.isAuthorized(admin, StandardRules.CAACCESS.resource() + id))) {
+                outcomes[i] = CertificateStoreOutcome.notStored(item, CertificateStoreOutcome.Status.NOT_AUTHORIZED, fingerprint,
+                        INTRES.getLocalizedMessage("caadmin.notauthorizedtoca", admin.toString(), caId));
+            } else if (fingerprints.containsKey(fingerprint)) {
+                outcomes[i] = CertificateStoreOutcome.notStored(item, CertificateStoreOutcome.Status.ALREADY_STORED, fingerprint,
+                        "The certificate occurs earlier in the request.");
+            } else {
+                fingerprints.put(fingerprint, i);
+            }
+        }
+        final int batchSize = CesecoreConfiguration.getCertificateStoreBatchSize();
+        final List<String> toStore = new ArrayList<>(fingerprints.keySet());
+        for (int start = 0; start < toStore.size(); start += batchSize) {
+            final List<String> batch = toStore.subList(start, Math.min(start + batchSize, toStore.size()));
+            final Set<String> existing = new HashSet<>(entityManager
+                    .createQuery("SELECT a.fingerprint FROM CertificateData a WHERE a.fingerprint IN (:fingerprints)", String.class)
+                    .setParameter("fingerprints", batch)
+                    .getResultList());
+            // Audit log details of the stored certificates, by CA and username
+            final Map<List<String>, List<StoredCertificateLog>> logsByCaAndUsername = new LinkedHashMap<>();
+            final List<CertificateDataWrapper> stored = new ArrayList<>();
+            for (final String fingerprint : batch) {
+                final int i = fingerprints.get(fingerprint);
+                final CertificateStoreItem item = itemList.get(i);
+                if (existing.contains(fingerprint)) {
+                    outcomes[i] = CertificateStoreOutcome.notStored(item, CertificateStoreOutcome.Status.ALREADY_STORED, fingerprint,
+                            "The certificate is already stored in the database.");
+                    continue;
+                }
+                final Certificate incert = item.getCertificate();
+                final CertificateDataWrapper cdw = storeCertificateNoAuthInternal(admin, incert, item.getUsername(), item.getCafp(),
+                        item.getCertificateRequest(), item.getStatus(), item.getType(), item.getCertificateProfileId(), item.getEndEntityProfileId(),
+                        item.getCrlPartitionIndex(), item.getTag(), item.getUpdateTime(), false, item.getAccountBindingId(), item.getRevocationReason(),
+                        item.getRevocationDate());
+                final CertificateData certificateData = cdw.getCertificateData();
+                final String msg = INTRES.getLocalizedMessage("store.storecertwithaccountbindingid", item.getUsername(), fingerprint,
+                        certificateData.getLogSafeSubjectDn(), certificateData.getIssuerDN(), CertTools.getSerialNumberAsString(incert),
+                        certificateData.getAccountBindingId());
+                final String issuerDN = CertTools.getIssuerDN(incert);
+                final String caId = String.valueOf(issuerDN.hashCode());
+                logsByCaAndUsername.computeIfAbsent(Arrays.asList(caId, item.getUsername()), key -> new ArrayList<>())
+                        .add(new StoredCertificateLog(caId, issuerDN, item.getUsername(), CertTools.getSerialNumberAsString(incert), fingerprint, msg));
+                stored.add(cdw);
+                outcomes[i] = CertificateStoreOutcome.stored(item, cdw);
+            }
+            // Send the inserts of the chunk to the database in JDBC batches, if database.jdbc.batchsize is set
+            entityManager.flush();
+            for (final CertificateDataWrapper cdw : stored) {
+                entityManager.detach(cdw.getCertificateData());
+                if (cdw.getBase64CertData() != null) {
+                    entityManager.detach(cdw.getBase64CertData());
+                }
+            }
+            for (final List<StoredCertificateLog> logs : logsByCaAndUsername.values()) {
+                logStoredCertificates(admin, logs);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Stored " + stored.size() + " of " + batch.size() + " certificates in chunk starting at " + start + ".");
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<storeCertificates()");
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    /** Audit log details of a certificate stored with storeCertificates */
+    private static final class StoredCertificateLog {
+        private final String caId;
+        private final String issuerDn;
+        private final String username;
+        private final String serialNumber;
+        private final String fingerprint;
+        private final String msg;
+
+        private StoredCertificateLog(final String caId, final String issuerDn, final String username, final String serialNumber,
+                final String fingerprint, final String msg) {
+            this.caId = caId;
+            this.issuerDn = issuerDn;
+            this.username = username;
+            this.serialNumber = serialNumber;
+            this.fingerprint = fingerprint;
+            this.msg = msg;
+        }
+    }
+
+    /**
+     * Writes the audit log records of certificates with the same CA and username. The username is the searchable detail 2, like when
+     * storing a single certificate, and the serial numbers are listed in searchable detail 1, comma separated. The certificates are split
+     * into as many records as needed to fit the serial numbers in the database column. A record of a single certificate is the same as
+     * when storing a single certificate.
+     */
+    private void logStoredCertificates(final AuthenticationToken admin, final List<StoredCertificateLog> logs) {
+        int start = 0;
+        while (start < logs.size()) {
+            final StringBuilder serialNumbers = new StringBuilder(logs.get(start).serialNumber);
+            int end = start + 1;
+            while (end < logs.size() && serialNumbers.length() + 1 + logs.get(end).serialNumber.length() <= AUDIT_SERIAL_NUMBERS_MAX_LENGTH) {
+                serialNumbers.append(',').append(logs.get(end).serialNumber);
+                end++;
+            }
+            final StoredCertificateLog first = logs.get(start);
+            final Map<String, Object> details = new LinkedHashMap<>();
+            if (end - start == 1) {
+                details.put("msg", first.msg);
+            } else {
+                details.put("msg", INTRES.getLocalizedMessage("store.storecertbulk", end - start, first.issuerDn));
+                for (final StoredCertificateLog certificateLog : logs.subList(start, end)) {
+                    details.put(certificateLog.fingerprint, certificateLog.msg);
+                }
+            }
+            logSession.log(EventTypes.CERT_STORED, EventStatus.SUCCESS, ModuleTypes.CERTIFICATE, ServiceTypes.CORE, admin.toString(), first.caId,
+                    serialNumbers.toString(), first.username, details);
+            start = end;
+        }
+    }
+
     /** same as storeCertificateNoAuth but with a flag to not audit log certificate storage.
      * The only reason to not audit log is when called from checkForUniqueCertificateSerialNumberIndexInTransaction
      *
@@ -255,7 +437,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         if (useBase64CertTable && storeCertificateData) {
             // use special table for encoded data if told so.
             base64CertData = new Base64CertData(incert);
-            entityManager.persist(new Base64CertData(incert));
+            entityManager.persist(base64CertData);
         }
         final boolean storeSubjectAlternativeName = certificateProfile==null || certificateProfile.getStoreSubjectAlternativeName();
         final CertificateData certificateData = new CertificateData(incert, pubk, username, cafp, certificateRequest, status, type, certificateProfileId, endEntityProfileId,
@@ -265,6 +447,11 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             certificateData.setRevocationReason(revocationReason.getDatabaseValue());
         }
         entityManager.persist(certificateData);
+        if (revocationReason != RevocationReasons.NOT_REVOKED) {
+            revocationEventDataSession.addEvent(certificateData, System.currentTimeMillis());
+        }
+        searchIndexSession.indexCertificate(certificateData.getFingerprint(), certificateData.getSubjectDN(), certificateData.getSubjectAltName(),
+                username, false);
         if (doAuditLog) {
             final String serialNo = CertTools.getSerialNumberAsString(incert);
             final String msg = INTRES.getLocalizedMessage("store.storecertwithaccountbindingid", username, certificateData.getFingerprint(), 
@@ -804,6 +991,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         final Query deleteQuery = entityManager.createQuery("DELETE FROM CertificateData a WHERE a.fingerprint = :fingerprint");
         deleteQuery.setParameter("fingerprint", certInfo.getFingerprint());
         deleteQuery.executeUpdate();
+        if (certInfo.getIssuerDN() != null) {
+            invalidateCachedStatus(certInfo.getIssuerDN(), certInfo.getSerialNumber());
+        }
 
         final String caIdString = (certInfo.getIssuerDN() != null ? String.valueOf(certInfo.getIssuerDN().hashCode()) : null);
         final String detailsMsg = InternalResources.getInstance().getLocalizedMessage("store.deletedexpiredcert",
@@ -832,6 +1022,71 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return currentlyDeletedFingerprints;
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public int archiveRevokedCertificates(final AuthenticationToken admin, final String issuerDN, final List<String> fingerprints) throws AuthorizationDeniedException {
+        final String bcdn = CertTools.stringToBCDNString(issuerDN);
+        authorizedToCA(admin, bcdn.hashCode());
+        final int batchSize = CesecoreConfiguration.getCrlArchiveBatchSize();
+        int archived = 0;
+        for (int fromIndex = 0; fromIndex < fingerprints.size(); fromIndex += batchSize) {
+            archived += archiveRevokedCertificatesChunk(admin, bcdn, fingerprints.subList(fromIndex, Math.min(fromIndex + batchSize, fingerprints.size())));
+        }
+        if (archived > 0) {
+            invalidateCachedStatusOfIssuer(bcdn);
+        }
+        return archived;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int archiveRevokedCertificatesInSeparateTransactions(final AuthenticationToken admin, final String issuerDN, final List<String> fingerprints)
+            throws AuthorizationDeniedException {
+        final int batchSize = CesecoreConfiguration.getCrlArchiveBatchSize();
+        int archived = 0;
+        for (int fromIndex = 0; fromIndex < fingerprints.size(); fromIndex += batchSize) {
+            // Copy the chunk, since a sub list is not serializable
+            archived += certificateStoreSession.archiveRevokedCertificates(admin, issuerDN,
+                    new ArrayList<>(fingerprints.subList(fromIndex, Math.min(fromIndex + batchSize, fingerprints.size()))));
+        }
+        return archived;
+    }
+
+    private int archiveRevokedCertificatesChunk(final AuthenticationToken admin, final String bcdn, final List<String> fingerprints) {
+        final long now = System.currentTimeMillis();
+        int archived = 0;
+        if (CesecoreConfiguration.useDatabaseIntegrityProtection(CertificateData.class.getSimpleName())) {
+            // The row protection has to be calculated for each updated row
+            for (final String fingerprint : fingerprints) {
+                final CertificateData certificateData = certificateDataSession.findByFingerprint(fingerprint);
+                if (certificateData != null && certificateData.getStatus() == CertificateConstants.CERT_REVOKED && bcdn.equals(certificateData.getIssuerDN())) {
+                    certificateData.setStatus(CertificateConstants.CERT_ARCHIVED);
+                    certificateData.setUpdateTime(now);
+                    archived++;
+                }
+            }
+        } else {
+            final Query query = entityManager.createQuery("UPDATE CertificateData a SET a.status=:archived, a.updateTime=:now, a.rowVersion=a.rowVersion+1 "
+                    + "WHERE a.issuerDN=:issuerDN AND a.status=:revoked AND a.fingerprint IN (:fingerprints)");
+            query.setParameter("archived", CertificateConstants.CERT_ARCHIVED);
+            query.setParameter("now", now);
+            query.setParameter("issuerDN", bcdn);
+            query.setParameter("revoked", CertificateConstants.CERT_REVOKED);
+            query.setParameter("fingerprints", fingerprints);
+            archived = query.executeUpdate();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Archived " + archived + " of " + fingerprints.size() + " certificates issued by '" + bcdn + "'.");
+        }
+        final String msg = INTRES.getLocalizedMessage("store.setstatusbulk", CertificateConstants.CERT_ARCHIVED, archived, bcdn);
+        final Map<String, Object> details = new LinkedHashMap<>();
+        details.put("msg", msg);
+        details.put("fingerprints", StringUtils.join(fingerprints, ','));
+        logSession.log(EventTypes.CERT_CHANGEDSTATUS, EventStatus.SUCCESS, ModuleTypes.CERTIFICATE, ServiceTypes.CORE, admin.toString(),
+                String.valueOf(bcdn.hashCode()), null, null, details);
+        return archived;
+    }
+
     @Override
     public boolean existsByIssuerAndSerno(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -926,6 +1181,11 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
 
     @Override
     public int getFirstStatusByIssuerAndSerno(final String issuerDN, final BigInteger serno) {
+        final long cacheTime = CesecoreConfiguration.getCacheTimeAuthenticationCertificateStatus();
+        if (cacheTime > 0 && CesecoreConfiguration.getCertificateStatusCacheMaxEntries() > 0) {
+            final CertificateStatusCache.CachedStatus cachedStatus = getCachedStatus(CertTools.stringToBCDNString(issuerDN), serno, cacheTime);
+            return cachedStatus == null ? -1 : cachedStatus.getStatus();
+        }
         final Query query = entityManager.createQuery("SELECT a.status FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber=:serialNumber");
         query.setParameter("issuerDN", CertTools.stringToBCDNString(issuerDN));
         query.setParameter("serialNumber", serno.toString());
@@ -963,6 +1223,18 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
         return ret;
     }
+
+    @Override
+    public List<String> findSerialNrByIssuerAndExpireDateAfterSerialNr(String issuerDN, long expireDate, String afterSerialNumber, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace(">findSerialNrByIssuerAndExpireDateAfterSerialNr()");
+        }
+        final List<String> ret = certificateDataSession.findSerialNrByIssuerAndExpireDateAfterSerialNr(issuerDN, expireDate, afterSerialNumber, limit);
+        if (log.isTraceEnabled()) {
+            log.trace("<findSerialNrByIssuerAndExpireDateAfterSerialNr()");
+        }
+        return ret;
+    }
     
     @Override
     public Collection<Certificate> findCertificatesByIssuerAndSernos(String issuerDN, Collection<BigInteger> sernos) {
@@ -1326,6 +1598,18 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             } else {
                 entityManager.merge(certificateData);
             }
+            revocationEventDataSession.addEvent(certificateData, System.currentTimeMillis());
+            invalidateCachedStatus(issuerDn, certificateData.getSerialNumber());
+            if (isX509) {
+                final BigInteger serno = new BigInteger(certificateData.getSerialNumber());
+                runNowAndAfterCompletion(() -> OcspResponseCache.INSTANCE.invalidate(serno));
+                if (CertificateStatusIndex.INSTANCE.isEnabled()) {
+                    final String bcdn = CertTools.stringToBCDNString(issuerDn);
+                    final CertificateStatus indexStatus = CertificateStatusHelper.getCertificateStatus(certificateData.getStatus(),
+                            certificateData.getRevocationReason(), certificateData.getRevocationDate(), certificateData.getCertificateProfileId());
+                    runAfterCommit(() -> CertificateStatusIndex.INSTANCE.updateStatus(bcdn, serno, indexStatus));
+                }
+            }
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1354,11 +1638,18 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
                 	d.setRevocationDate(System.currentTimeMillis());
                 	d.setRevocationReason(reason);
+                	revocationEventDataSession.addEvent(d, System.currentTimeMillis());
                 	revoked++;
             	}
             	firstResult += maxRows;
             	list = findAllNonRevokedCertificates(bcdn, firstResult, maxRows);
             }
+            if (revoked > 0) {
+                invalidateCachedStatusOfIssuer(bcdn);
+                runNowAndAfterCompletion(OcspResponseCache.INSTANCE::flush);
+                // Too many changes to track, lookups go to the database until the index has been rebuilt after the commit
+                runNowAndAfterCompletion(() -> CertificateStatusIndex.INSTANCE.remove(bcdn));
+            }
             final String msg = INTRES.getLocalizedMessage("store.revokedallbyca", issuerdn, revoked, reason);
     		Map<String, Object> details = new LinkedHashMap<>();
     		details.put("msg", msg);
@@ -1398,6 +1689,15 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         String dn = CertTools.stringToBCDNString(issuerDN);
         boolean ret = false;
         try {
+            if (CertificateStatusCache.INSTANCE.isEnabled()) {
+                final CertificateStatusCache.CachedStatus cachedStatus = getCachedStatus(dn, serno, CesecoreConfiguration.getCacheTimeCertificateStatus());
+                // If there are no certificates with this serial number, return true (=revoked). Better safe than sorry!
+                ret = cachedStatus == null || cachedStatus.isAnyRevoked();
+                if (log.isTraceEnabled()) {
+                    log.trace("<isRevoked() returned " + ret);
+                }
+                return ret;
+            }
             Collection<CertificateData> coll = certificateDataSession.findByIssuerDNSerialNumber(dn, serno.toString());
             if (coll.size() > 0) {
                 if (coll.size() > 1) {
@@ -1438,6 +1738,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         final String dn = CertTools.stringToBCDNString(issuerDN);
 
         try {
+            // Not read through the certificate status cache, since OCSP has its own status index and response cache, which must
+            // learn statuses from the database
             Collection<CertificateData> coll = certificateDataSession.findByIssuerDNSerialNumber(dn, serno.toString());
 
 
@@ -1448,6 +1750,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
 
             for(CertificateData data : coll) {
                 final CertificateStatus result = CertificateStatusHelper.getCertificateStatus(data);
+                if (CertificateStatusIndex.INSTANCE.isEnabled()) {
+                    CertificateStatusIndex.INSTANCE.learnStatus(dn, serno, result);
+                }
                 if (log.isTraceEnabled()) {
                     log.trace("<getStatus() returned " + result + " for cert number " + serno.toString(16));
                 }
@@ -1463,6 +1768,57 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return CertificateStatus.NOT_AVAILABLE;
     }
 
+    @Override
+    public Map<BigInteger, CertificateStatus> getStatuses(final String issuerDN, final Collection<BigInteger> sernos) {
+        final String dn = CertTools.stringToBCDNString(issuerDN);
+        // Each serial number is only looked up once
+        final Set<String> uniqueSerialNumbers = new LinkedHashSet<>(sernos.size());
+        for (final BigInteger serno : sernos) {
+            uniqueSerialNumbers.add(serno.toString());
+        }
+        final List<String> serialNumbers = new ArrayList<>(uniqueSerialNumbers);
+        final Map<BigInteger, CertificateStatus> ret = new HashMap<>();
+        for (int start = 0; start < serialNumbers.size(); start += STATUS_LOOKUP_CHUNK_SIZE) {
+            final List<String> chunk = serialNumbers.subList(start, Math.min(start + STATUS_LOOKUP_CHUNK_SIZE, serialNumbers.size()));
+            for (final Object[] row : certificateDataSession.findStatusInfoByIssuerDNAndSerialNumbers(dn, chunk)) {
+                final BigInteger serno = new BigInteger((String) row[0]);
+                if (ret.containsKey(serno)) {
+                    log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16)));
+                    continue;
+                }
+                CertificateStatus result = CertificateStatusHelper.getCertificateStatus(((Number) row[1]).intValue(), ((Number) row[3]).intValue(),
+                        ((Number) row[2]).longValue(), row[4] == null ? null : ((Number) row[4]).intValue());
+                // Include the invalidity date, so that e.g. CRL import can tell if a revoked certificate is already up to date
+                if (CertificateStatus.REVOKED.equals(result) && row[6] != null && ((Number) row[6]).longValue() >= 0) {
+                    result = new CertificateStatus(result.toString(), result.revocationDate.getTime(), ((Number) row[6]).longValue(),
+                            result.revocationReason, result.certificateProfileId);
+                }
+                if (CertificateStatusIndex.INSTANCE.isEnabled()) {
+                    CertificateStatusIndex.INSTANCE.learnStatus(dn, serno, result);
+                }
+                result.setExpirationDate(((Number) row[5]).longValue());
+                ret.put(serno, result);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Found status of " + ret.size() + " of " + sernos.size() + " certificates issued by '" + dn + "'.");
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<BigInteger, List<String>> findIssuerDNsBySernos(final Collection<BigInteger> sernos) {
+        final List<String> serialNumbers = new ArrayList<>(sernos.size());
+        for (final BigInteger serno : sernos) {
+            serialNumbers.add(serno.toString());
+        }
+        final Map<BigInteger, List<String>> ret = new HashMap<>();
+        for (final Object[] row : certificateDataSession.findIssuerDNBySerialNumbers(serialNumbers)) {
+            ret.computeIfAbsent(new BigInteger((String) row[0]), serno -> new ArrayList<>()).add((String) row[1]);
+        }
+        return ret;
+    }
+
     @Override
     public CertificateStatusHolder getCertificateAndStatus(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -1489,6 +1845,128 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return new CertificateStatusHolder(null, CertificateStatus.NOT_AVAILABLE);
     }
 
+    /**
+     * Reads the status of the certificates with an issuer DN and serial number through the certificate status cache.
+     *
+     * @param dn the issuer DN, in the format of CertTools.stringToBCDNString
+     * @param cacheTime the time in milliseconds that the status may be served from the cache
+     * @return the status, or null if no certificate was found
+     */
+    private CertificateStatusCache.CachedStatus getCachedStatus(final String dn, final BigInteger serno, final long cacheTime) {
+        CertificateStatusCache.CachedStatus cachedStatus = CertificateStatusCache.INSTANCE.get(dn, serno, cacheTime);
+        if (cachedStatus != null) {
+            return cachedStatus;
+        }
+        final long invalidationCount = CertificateStatusCache.INSTANCE.getInvalidationCount();
+        if (CesecoreConfiguration.useDatabaseIntegrityProtection(CertificateData.class.getSimpleName())) {
+            // The row protection is verified when the entities are loaded
+            final Collection<CertificateData> coll = certificateDataSession.findByIssuerDNSerialNumber(dn, serno.toString());
+            if (coll.isEmpty()) {
+                return null;
+            }
+            if (coll.size() > 1) {
+                log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", dn, serno.toString(16)));
+            }
+            cachedStatus = toCachedStatus(coll);
+        } else {
+            final List<Object[]> rows = certificateDataSession.findStatusInfoByIssuerDNAndSerialNumbers(dn, Collections.singletonList(serno.toString()));
+            if (rows.isEmpty()) {
+                return null;
+            }
+            if (rows.size() > 1) {
+                log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", dn, serno.toString(16)));
+            }
+            boolean anyRevoked = false;
+            for (final Object[] row : rows) {
+                anyRevoked |= ((Number) row[1]).intValue() == CertificateConstants.CERT_REVOKED;
+            }
+            final Object[] row = rows.get(0);
+            cachedStatus = new CertificateStatusCache.CachedStatus(((Number) row[1]).intValue(), ((Number) row[3]).intValue(),
+                    ((Number) row[2]).longValue(), row[4] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ((Number) row[4]).intValue(),
+                    ((Number) row[5]).longValue(), anyRevoked);
+        }
+        CertificateStatusCache.INSTANCE.put(dn, serno, cachedStatus, invalidationCount, cacheTime);
+        return cachedStatus;
+    }
+
+    /** @return the status of the first certificate in the collection */
+    private CertificateStatusCache.CachedStatus toCachedStatus(final Collection<CertificateData> coll) {
+        final CertificateData first = coll.iterator().next();
+        boolean anyRevoked = false;
+        for (final CertificateData data : coll) {
+            anyRevoked |= data.getStatus() == CertificateConstants.CERT_REVOKED;
+        }
+        return new CertificateStatusCache.CachedStatus(first.getStatus(), first.getRevocationReason(), first.getRevocationDate(),
+                first.getCertificateProfileId() == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : first.getCertificateProfileId(),
+                first.getExpireDate(), anyRevoked);
+    }
+
+    /**
+     * Removes the status of a certificate from the certificate status cache, now and again when the current transaction completes,
+     * so that a status read by another thread before the change was committed is not kept.
+     */
+    private void invalidateCachedStatus(final String issuerDn, final String serialNumber) {
+        try {
+            invalidateCachedStatus(issuerDn, new BigInteger(serialNumber));
+        } catch (NumberFormatException e) {
+            // Not looked up by serial number, so not cached
+        }
+    }
+
+    private void invalidateCachedStatus(final String issuerDn, final BigInteger serialNumber) {
+        final String dn = CertTools.stringToBCDNString(issuerDn);
+        runNowAndAfterCompletion(() -> CertificateStatusCache.INSTANCE.invalidate(dn, serialNumber));
+    }
+
+    /** Removes the status of all certificates of an issuer from the certificate status cache, see {@link #invalidateCachedStatus} */
+    private void invalidateCachedStatusOfIssuer(final String issuerDn) {
+        final String dn = CertTools.stringToBCDNString(issuerDn);
+        runNowAndAfterCompletion(() -> CertificateStatusCache.INSTANCE.invalidateIssuer(dn));
+    }
+
+    /**
+     * Runs an invalidation of an in-memory cache now and again when the current transaction completes, so that a value read by
+     * another thread before the change was committed is not kept.
+     */
+    private void runNowAndAfterCompletion(final Runnable invalidation) {
+        invalidation.run();
+        if (registry.getTransactionKey() != null) {
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(final int transactionStatus) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs an update of an in-memory cache when the current transaction has been committed, or now if there is no transaction,
+     * so that a change that is rolled back is never seen by other threads.
+     */
+    private void runAfterCommit(final Runnable update) {
+        if (registry.getTransactionKey() == null) {
+            update.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    update.run();
+                }
+            }
+        });
+    }
+
     @Override
     public List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin,
             long activeNotifiedExpireDateMax, long activeExpireDateMin) {
@@ -1507,6 +1985,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        invalidateCachedStatus(certificateData.getIssuerDN(), certificateData.getSerialNumber());
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1783,6 +2262,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 limitedCertificateData.setCaFingerprint(caFingerprint);
                 log.info("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
                 entityManager.persist(limitedCertificateData);
+                searchIndexSession.indexCertificate(limitedFingerprint, limitedCertificateData.getSubjectDN(), null, username, false);
             }
         } else if (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint())) {
         	if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
@@ -1809,6 +2289,19 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             // Refuse to update a normal entry with this method
         	throw new UnsupportedOperationException("Only limited certificate entries can be updated using this method.");
         }
+        invalidateCachedStatus(issuerDn, serialNumber);
+        runNowAndAfterCompletion(() -> OcspResponseCache.INSTANCE.invalidate(serialNumber));
+        if (CertificateStatusIndex.INSTANCE.isEnabled()) {
+            final CertificateStatus indexStatus;
+            if (reasonCode == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                indexStatus = CertificateStatus.NOT_AVAILABLE;
+            } else {
+                indexStatus = new CertificateStatus(CertificateStatus.REVOKED.toString(), revocationDate.getTime(), reasonCode,
+                        CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
+            }
+            final String bcdn = CertTools.stringToBCDNString(issuerDn);
+            runAfterCommit(() -> CertificateStatusIndex.INSTANCE.updateStatus(bcdn, serialNumber, indexStatus));
+        }
     }
 
     @Override
@@ -1821,6 +2314,62 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         log.info("Reloaded CA certificate cache with "+certs.size()+" certificates");
     }
 
+    @Override
+    public void clearCertificateStatusCache() {
+        CertificateStatusCache.INSTANCE.flush();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void rebuildCertificateStatusIndex(final String issuerDn) {
+        final String dn = CertTools.stringToBCDNString(issuerDn);
+        final long start = System.currentTimeMillis();
+        final CertificateStatusIndex.Builder builder = CertificateStatusIndex.INSTANCE.newBuilder(certificateDataSession.countByIssuerDNPerCertificateProfile(dn));
+        final int maxRows = 10000;
+        long count = 0;
+        String lastSerialNumber = null;
+        List<Object[]> rows;
+        do {
+            rows = certificateDataSession.findStatusInfoByIssuerDN(dn, lastSerialNumber, maxRows);
+            for (final Object[] row : rows) {
+                lastSerialNumber = (String) row[0];
+                final BigInteger serialNumber;
+                try {
+                    serialNumber = new BigInteger(lastSerialNumber);
+                } catch (NumberFormatException e) {
+                    // Not an X.509 certificate
+                    continue;
+                }
+                builder.add(serialNumber, CertificateStatusHelper.getCertificateStatus(((Number) row[1]).intValue(), ((Number) row[3]).intValue(),
+                        ((Number) row[2]).longValue(), row[4] == null ? null : ((Number) row[4]).intValue()));
+                count++;
+            }
+        } while (rows.size() == maxRows);
+        CertificateStatusIndex.INSTANCE.putIndex(dn, builder);
+        log.info("Built certificate status index for '" + dn + "' with " + count + " certificates in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void reconcileCertificateStatusIndex(final String issuerDn) {
+        final String dn = CertTools.stringToBCDNString(issuerDn);
+        final long readTime = System.currentTimeMillis();
+        final List<Object[]> rows = certificateDataSession.findRevokedStatusInfoByIssuerDN(dn);
+        final List<CertificateStatusIndex.RevokedEntry> revokedEntries = new ArrayList<>(rows.size());
+        for (final Object[] row : rows) {
+            try {
+                revokedEntries.add(new CertificateStatusIndex.RevokedEntry(new BigInteger((String) row[0]), ((Number) row[2]).longValue(),
+                        ((Number) row[3]).intValue(), row[4] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ((Number) row[4]).intValue()));
+            } catch (NumberFormatException e) {
+                // Not an X.509 certificate
+            }
+        }
+        CertificateStatusIndex.INSTANCE.replaceRevoked(dn, revokedEntries, readTime);
+        if (log.isDebugEnabled()) {
+            log.debug("Reconciled certificate status index for '" + dn + "' with " + revokedEntries.size() + " revoked certificates.");
+        }
+    }
+
     /**
      * When a timer expires, this method will update
      *
@@ -139,5 +139,49 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
         return getRevokedCertInfosInternal(query, allowInvalidityDate);
     }
+
+    @Override
+    public Collection<RevokedCertInfo> getRevokedCertInfosUpdatedAfterWithDuplicates(final String issuerDN, final int crlPartitionIndex, final long updatedAfter) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        // Certificates that have never been revoked have the revocation date -1
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, a.invalidityDate as invalidityDate FROM NoConflictCertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.updateTime>:updatedAfter AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
+                        + crlPartitionExpression,
+                "RevokedCertInfoSubset");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("updatedAfter", updatedAfter);
+        query.setParameter("revocationDate", 0L);
+        query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+        query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // reactivated from on hold, included as "removeFromCRL"
+        query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfosInternal(query, false);
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getExpiredRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long expiredBefore) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, a.invalidityDate as invalidityDate FROM NoConflictCertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.status=:status AND a.expireDate<:expiredBefore"
+                        + crlPartitionExpression,
+                "RevokedCertInfoSubset");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("expiredBefore", expiredBefore);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfosInternal(query, false);
+    }
     
 }
@@ -81,6 +81,8 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
     @EJB
     private CaSessionLocal caSession;
     @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+    @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
     @EJB
     private CertificateStoreSessionLocal certificateStoreSession;
@@ -217,6 +219,22 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
         return RevokedCertInfo.mergeByDateAndStatus(revokedInCertData, revokedInNoConflictData, lastBaseCrlDate);
     }
     
+    @Override
+    public Collection<RevokedCertInfo> listRevokedCertInfoUpdatedAfter(final String issuerDN, final int crlPartitionIndex, final long updatedAfter) {
+        if (log.isTraceEnabled()) {
+            log.trace(">listRevokedCertInfoUpdatedAfter('" + issuerDN + "', " + crlPartitionIndex + ", " + updatedAfter + ")");
+        }
+        final Collection<RevokedCertInfo> revokedInCertData = certificateDataSession.getRevokedCertInfosUpdatedAfter(issuerDN, crlPartitionIndex, updatedAfter);
+        final Collection<RevokedCertInfo> revokedInNoConflictData = noConflictCertificateDataSession.getRevokedCertInfosUpdatedAfterWithDuplicates(issuerDN,
+                crlPartitionIndex, updatedAfter);
+        if (log.isDebugEnabled()) {
+            log.debug("listRevokedCertInfoUpdatedAfter: Got " + revokedInCertData.size() + " entries from CertificateData and " + revokedInNoConflictData.size()
+                    + " entries from NoConflictCertificateData");
+        }
+        // Reactivations before updatedAfter were committed before the previous CRL was generated, so they are not on it
+        return RevokedCertInfo.mergeByDateAndStatus(revokedInCertData, revokedInNoConflictData, updatedAfter);
+    }
+
     /**
      * Locates the most recent entry in NoConflictCertificateData for a given issuerdn/serial number combination.
      * @param issuerdn Issuer DN
@@ -0,0 +1,139 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.util.CompressedCollection;
+
+/**
+ * Data session bean for RevocationEventData
+ *
+ * @see RevocationEventData
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRED)
+public class RevocationEventDataSessionBean implements RevocationEventDataSessionLocal {
+
+    private static final Logger log = Logger.getLogger(RevocationEventDataSessionBean.class);
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @Override
+    public void addEvent(final BaseCertificateData certificateData, final long eventTime) {
+        if (!CesecoreConfiguration.isRevocationJournalEnabled()) {
+            return;
+        }
+        entityManager.persist(new RevocationEventData(certificateData, eventTime));
+    }
+
+    @Override
+    public void fullCrlCreated(final String issuerDN, final int crlPartitionIndex, final long thisUpdate, final long previousThisUpdate) {
+        if (!CesecoreConfiguration.isRevocationJournalEnabled()) {
+            return;
+        }
+        entityManager.persist(new RevocationEventData(issuerDN, crlPartitionIndex, thisUpdate));
+        if (previousThisUpdate != -1) {
+            // Delta CRLs are always based on the latest full CRL. Keep the events since the previous one, in case the new CRL is rolled back,
+            // and the events in the overlap before it, since they are read again for the delta CRLs of the previous CRL.
+            final long deleteBefore = previousThisUpdate - CesecoreConfiguration.getCrlIncrementalOverlap();
+            final int deleted = entityManager.createQuery(
+                    "DELETE FROM RevocationEventData a WHERE a.issuerDN=:issuerDN AND a.crlPartitionIndex=:crlPartitionIndex AND a.eventTime<:eventTime")
+                    .setParameter("issuerDN", issuerDN)
+                    .setParameter("crlPartitionIndex", crlPartitionIndex)
+                    .setParameter("eventTime", deleteBefore)
+                    .executeUpdate();
+            if (log.isDebugEnabled()) {
+                log.debug("Deleted " + deleted + " revocation events before " + deleteBefore + " for issuer '" + issuerDN + "' and partition "
+                        + crlPartitionIndex + ".");
+            }
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public Collection<RevokedCertInfo> getRevokedCertInfosSinceFullCrl(final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate,
+            final boolean allowInvalidityDate) {
+        if (!CesecoreConfiguration.isRevocationJournalEnabled()) {
+            return null;
+        }
+        final TypedQuery<Long> markerQuery = entityManager.createQuery(
+                "SELECT COUNT(a) FROM RevocationEventData a WHERE a.issuerDN=:issuerDN AND a.crlPartitionIndex=:crlPartitionIndex AND a.eventTime=:eventTime AND a.fingerprint IS NULL",
+                Long.class);
+        markerQuery.setParameter("issuerDN", issuerDN);
+        markerQuery.setParameter("crlPartitionIndex", crlPartitionIndex);
+        markerQuery.setParameter("eventTime", lastBaseCrlDate);
+        if (markerQuery.getSingleResult() == 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Revocation journal was not enabled when the full CRL of issuer '" + issuerDN + "' and partition " + crlPartitionIndex
+                        + " was created.");
+            }
+            return null;
+        }
+        // The event time is set before the transaction commits, so a change committed after the full CRL was generated can have an
+        // earlier event time. Read the events in an overlap before the CRL as well. Changes that are already on the CRL are harmless.
+        final long eventsAfter = lastBaseCrlDate - CesecoreConfiguration.getCrlIncrementalOverlap();
+        final TypedQuery<RevocationEventData> query = entityManager.createQuery(
+                "SELECT a FROM RevocationEventData a WHERE a.issuerDN=:issuerDN AND a.crlPartitionIndex=:crlPartitionIndex AND a.eventTime>:eventTime AND a.fingerprint IS NOT NULL ORDER BY a.eventTime",
+                RevocationEventData.class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        query.setParameter("eventTime", eventsAfter);
+        final List<RevocationEventData> events = query.getResultList();
+        // Only the latest change of each certificate is relevant
+        final Map<String, RevocationEventData> latestEvents = new LinkedHashMap<>();
+        for (final RevocationEventData event : events) {
+            latestEvents.remove(event.getFingerprint());
+            latestEvents.put(event.getFingerprint(), event);
+        }
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
+        for (final RevocationEventData event : latestEvents.values()) {
+            final byte[] fingerprint = event.getFingerprint().getBytes();
+            final byte[] serialNumber = new BigInteger(event.getSerialNumber()).toByteArray();
+            int revocationReason = event.getRevocationReason();
+            if (revocationReason == RevokedCertInfo.NOT_REVOKED) {
+                revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+            }
+            if (allowInvalidityDate) {
+                Long invalidityDate = event.getInvalidityDate();
+                if (invalidityDate != null && invalidityDate == -1L) {
+                    invalidityDate = null;
+                }
+                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, event.getRevocationDate(), revocationReason, event.getExpireDate(), invalidityDate));
+            } else {
+                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, event.getRevocationDate(), revocationReason, event.getExpireDate()));
+            }
+        }
+        revokedCertInfos.closeForWrite();
+        if (log.isDebugEnabled()) {
+            log.debug("Read " + events.size() + " revocation events for " + latestEvents.size() + " certificates issued by '" + issuerDN + "' since "
+                    + eventsAfter + ".");
+        }
+        return revokedCertInfos;
+    }
+}
@@ -0,0 +1,194 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.searchindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Data session bean for SearchIndexData
+ *
+ * @see SearchIndexData
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRED)
+public class SearchIndexSessionBean implements SearchIndexSessionLocal {
+
+    private static final Logger log = Logger.getLogger(SearchIndexSessionBean.class);
+
+    private static final List<Integer> CERTIFICATE_TYPES = Arrays.asList(SearchIndexData.TYPE_CERTIFICATE_SUBJECT_DN,
+            SearchIndexData.TYPE_CERTIFICATE_SUBJECT_ALT_NAME, SearchIndexData.TYPE_CERTIFICATE_USERNAME);
+    private static final List<Integer> END_ENTITY_TYPES = Arrays.asList(SearchIndexData.TYPE_END_ENTITY_SUBJECT_DN,
+            SearchIndexData.TYPE_END_ENTITY_SUBJECT_ALT_NAME, SearchIndexData.TYPE_END_ENTITY_USERNAME);
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public boolean isSearchable(final String tableName) {
+        if (!CesecoreConfiguration.isSearchIndexEnabled()) {
+            return false;
+        }
+        final SearchIndexData backfill = entityManager.find(SearchIndexData.class, SearchIndexData.getBackfillId(tableName));
+        return backfill != null && backfill.getIndexType() == SearchIndexData.TYPE_BACKFILL_COMPLETED;
+    }
+
+    @Override
+    public void indexCertificate(final String fingerprint, final String subjectDN, final String subjectAltName, final String username,
+            final boolean replace) {
+        if (!isMaintained(SearchIndexData.BACKFILL_CERTIFICATES)) {
+            return;
+        }
+        if (replace) {
+            removeRows(Arrays.asList(fingerprint), CERTIFICATE_TYPES);
+        }
+        addRows(fingerprint, subjectDN, subjectAltName, username, CERTIFICATE_TYPES);
+    }
+
+    @Override
+    public void indexEndEntity(final String username, final String subjectDN, final String subjectAltName, final boolean replace) {
+        if (!isMaintained(SearchIndexData.BACKFILL_END_ENTITIES)) {
+            return;
+        }
+        if (replace) {
+            removeRows(Arrays.asList(username), END_ENTITY_TYPES);
+        }
+        addRows(username, subjectDN, subjectAltName, username, END_ENTITY_TYPES);
+    }
+
+    @Override
+    public void removeEndEntity(final String username) {
+        if (!isMaintained(SearchIndexData.BACKFILL_END_ENTITIES)) {
+            return;
+        }
+        removeRows(Arrays.asList(username), END_ENTITY_TYPES);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int backfillCertificates(final int batchSize) {
+        // The table is read by its entity name, since the rows are indexed in the same way as when the certificates are stored
+        return backfill(SearchIndexData.BACKFILL_CERTIFICATES,
+                "SELECT a.fingerprint, a.subjectDN, a.subjectAltName, a.username FROM CertificateData a", "a.fingerprint", batchSize,
+                CERTIFICATE_TYPES);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int backfillEndEntities(final int batchSize) {
+        // UserData is not a CESeCore entity, but it is in the same persistence unit
+        return backfill(SearchIndexData.BACKFILL_END_ENTITIES,
+                "SELECT a.username, a.subjectDN, a.subjectAltName, a.username FROM UserData a", "a.username", batchSize,
+                END_ENTITY_TYPES);
+    }
+
+    /**
+     * The index of a table is kept up to date while the index is enabled, and also when it is disabled after a backfill has been started.
+     * Otherwise certificates and end entities stored while the index is disabled on this node, e.g. for a while or on some nodes in a
+     * cluster, would be missing from the index when it is used for searches again.
+     *
+     * @return true if rows of the table should be indexed when they are stored
+     */
+    private boolean isMaintained(final String tableName) {
+        return CesecoreConfiguration.isSearchIndexEnabled() || entityManager.find(SearchIndexData.class, SearchIndexData.getBackfillId(tableName)) != null;
+    }
+
+    /**
+     * Indexes the rows of a table after the key of the last indexed row, in the order of the key.
+     *
+     * @param tableName name of the table
+     * @param select query for key, subject DN, subject alternative name and username
+     * @param keyColumn the key in the query
+     * @param batchSize maximum number of rows to index
+     * @param indexTypes index types of subject DN, subject alternative name and username
+     * @return the number of indexed rows
+     */
+    private int backfill(final String tableName, final String select, final String keyColumn, final int batchSize, final List<Integer> indexTypes) {
+        if (!CesecoreConfiguration.isSearchIndexEnabled()) {
+            return 0;
+        }
+        SearchIndexData backfill = entityManager.find(SearchIndexData.class, SearchIndexData.getBackfillId(tableName));
+        if (backfill != null && backfill.getIndexType() == SearchIndexData.TYPE_BACKFILL_COMPLETED) {
+            return 0;
+        }
+        final String lastKey = backfill == null ? null : backfill.getToken();
+        final TypedQuery<Object[]> query = entityManager.createQuery(select + (lastKey == null ? "" : " WHERE " + keyColumn + ">:lastKey")
+                + " ORDER BY " + keyColumn, Object[].class);
+        if (lastKey != null) {
+            query.setParameter("lastKey", lastKey);
+        }
+        query.setMaxResults(batchSize);
+        final List<Object[]> rows = query.getResultList();
+        if (!rows.isEmpty()) {
+            final List<String> keys = new ArrayList<>();
+            for (final Object[] row : rows) {
+                keys.add((String) row[0]);
+            }
+            // Rows may already have been indexed when they were stored during the backfill
+            removeRows(keys, indexTypes);
+            for (final Object[] row : rows) {
+                addRows((String) row[0], (String) row[1], (String) row[2], (String) row[3], indexTypes);
+            }
+        }
+        final String newLastKey = rows.isEmpty() ? lastKey : (String) rows.get(rows.size() - 1)[0];
+        final int newType = rows.size() < batchSize ? SearchIndexData.TYPE_BACKFILL_COMPLETED : SearchIndexData.TYPE_BACKFILL_IN_PROGRESS;
+        if (backfill == null) {
+            // The token can't be empty, since Oracle treats that as null, so use a placeholder if the table is empty
+            backfill = new SearchIndexData(newType, tableName, newLastKey == null ? "-" : newLastKey);
+            backfill.setId(SearchIndexData.getBackfillId(tableName));
+            entityManager.persist(backfill);
+        } else {
+            backfill.setIndexType(newType);
+            backfill.setToken(newLastKey);
+        }
+        if (newType == SearchIndexData.TYPE_BACKFILL_COMPLETED) {
+            log.info("Search index backfill of " + tableName + " has completed. The search index will now be used for searches.");
+        } else if (log.isDebugEnabled()) {
+            log.debug("Indexed " + rows.size() + " rows of " + tableName + " up to '" + newLastKey + "'.");
+        }
+        return rows.size();
+    }
+
+    private void addRows(final String sourceKey, final String subjectDN, final String subjectAltName, final String username,
+            final List<Integer> indexTypes) {
+        addRows(indexTypes.get(0), sourceKey, subjectDN);
+        addRows(indexTypes.get(1), sourceKey, subjectAltName);
+        addRows(indexTypes.get(2), sourceKey, username);
+    }
+
+    private void addRows(final int indexType, final String sourceKey, final String value) {
+        for (final String token : SearchIndexTokens.getTokens(value)) {
+            entityManager.persist(new SearchIndexData(indexType, sourceKey, token));
+        }
+    }
+
+    private void removeRows(final Collection<String> sourceKeys, final List<Integer> indexTypes) {
+        entityManager.createQuery("DELETE FROM SearchIndexData a WHERE a.sourceKey IN (:sourceKeys) AND a.indexType IN (:indexTypes)")
+                .setParameter("sourceKeys", sourceKeys)
+                .setParameter("indexTypes", indexTypes)
+                .executeUpdate();
+    }
+}
@@ -35,14 +35,17 @@ public abstract class CertificateStatusHelper {
         if (certificateData == null) {
             return CertificateStatus.NOT_AVAILABLE;
         }
-        final int certProfileId;
-        {
-            final Integer tmp = certificateData.getCertificateProfileId();
-            certProfileId = tmp != null ? tmp.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
-        }
-        final int status = certificateData.getStatus();
-        final int revReason = certificateData.getRevocationReason();
-        final long revDate = certificateData.getRevocationDate();
+        return getCertificateStatus(certificateData.getStatus(), certificateData.getRevocationReason(), certificateData.getRevocationDate(),
+                certificateData.getCertificateProfileId());
+    }
+
+    /**
+     * Same as {@link #getCertificateStatus(BaseCertificateData)}, for when only the status columns have been read from the database.
+     * 
+     * @return CertificateStatus, can be compared (==) with CertificateStatus.OK, CertificateStatus.REVOKED and CertificateStatus.NOT_AVAILABLE
+     */
+    public static CertificateStatus getCertificateStatus(final int status, final int revReason, final long revDate, final Integer certificateProfileId) {
+        final int certProfileId = certificateProfileId != null ? certificateProfileId.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
         if (status == CertificateConstants.CERT_REVOKED) {
             return new CertificateStatus(CertificateStatus.REVOKED.toString(), revDate, revReason, certProfileId);
         }
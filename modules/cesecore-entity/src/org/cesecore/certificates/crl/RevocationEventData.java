@@ -0,0 +1,258 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+
+/**
+ * Append-only journal of changes to the revocation status of certificates. Each row holds the revocation information of a certificate
+ * right after it was revoked, had its revocation reason or invalidity date changed, or was reactivated. This allows delta CRLs to be
+ * created from the events since the last full CRL, instead of from a range scan of CertificateData.
+ * <p>
+ * A row without fingerprint is a marker, stating that the journal was written when the full CRL with thisUpdate equal to the event time
+ * was created. Events older than the previous full CRL are deleted when a new full CRL is created.
+ */
+@Entity
+@Table(name = "RevocationEventData")
+public class RevocationEventData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int LATEST_PROTECT_VERSION = 1;
+
+    private String id;
+    private String issuerDN;
+    private int crlPartitionIndex;
+    private long eventTime;
+    private String fingerprint;
+    private String serialNumber;
+    private int status;
+    private long revocationDate;
+    private int revocationReason;
+    private Long invalidityDate;
+    private long expireDate;
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    public RevocationEventData() { }
+
+    /**
+     * Creates an event with the current revocation information of a certificate.
+     *
+     * @param certificateData the certificate, after the revocation status has been changed
+     * @param eventTime time of the change
+     */
+    public RevocationEventData(final BaseCertificateData certificateData, final long eventTime) {
+        this.id = UUID.randomUUID().toString();
+        this.issuerDN = certificateData.getIssuerDN();
+        final Integer partition = certificateData.getCrlPartitionIndex();
+        this.crlPartitionIndex = partition == null ? CertificateConstants.NO_CRL_PARTITION : partition;
+        this.eventTime = eventTime;
+        this.fingerprint = certificateData.getFingerprint();
+        this.serialNumber = certificateData.getSerialNumber();
+        this.status = certificateData.getStatus();
+        this.revocationDate = certificateData.getRevocationDate();
+        this.revocationReason = certificateData.getRevocationReason();
+        this.invalidityDate = certificateData.getInvalidityDate();
+        this.expireDate = certificateData.getExpireDate();
+    }
+
+    /**
+     * Creates a marker for a full CRL.
+     *
+     * @param issuerDN issuer DN of the CRL
+     * @param crlPartitionIndex CRL partition index, or {@link CertificateConstants#NO_CRL_PARTITION}
+     * @param thisUpdate thisUpdate of the full CRL
+     */
+    public RevocationEventData(final String issuerDN, final int crlPartitionIndex, final long thisUpdate) {
+        this.id = UUID.randomUUID().toString();
+        this.issuerDN = issuerDN;
+        this.crlPartitionIndex = crlPartitionIndex;
+        this.eventTime = thisUpdate;
+        this.status = CertificateConstants.CERT_UNASSIGNED;
+        this.revocationReason = RevokedCertInfo.NOT_REVOKED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /** @return issuer DN of the certificate, in the same form as in CertificateData */
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    public void setIssuerDN(String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public void setCrlPartitionIndex(int crlPartitionIndex) {
+        this.crlPartitionIndex = crlPartitionIndex;
+    }
+
+    /** @return time of the change in milliseconds, or thisUpdate of the CRL for a marker */
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    public void setEventTime(long eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    /** @return fingerprint of the certificate, or null for a full CRL marker */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /** @return serial number of the certificate in decimal form, as in CertificateData */
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public long getRevocationDate() {
+        return revocationDate;
+    }
+
+    public void setRevocationDate(long revocationDate) {
+        this.revocationDate = revocationDate;
+    }
+
+    public int getRevocationReason() {
+        return revocationReason;
+    }
+
+    public void setRevocationReason(int revocationReason) {
+        this.revocationReason = revocationReason;
+    }
+
+    public Long getInvalidityDate() {
+        return invalidityDate;
+    }
+
+    public void setInvalidityDate(Long invalidityDate) {
+        this.invalidityDate = invalidityDate;
+    }
+
+    public long getExpireDate() {
+        return expireDate;
+    }
+
+    public void setExpireDate(long expireDate) {
+        this.expireDate = expireDate;
+    }
+
+    public int getRowVersion() {
+        return rowVersion;
+    }
+
+    public void setRowVersion(int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+
+    @Override
+    public String getRowProtection() {
+        return rowProtection;
+    }
+
+    @Override
+    public void setRowProtection(String rowProtection) {
+        this.rowProtection = rowProtection;
+    }
+
+    /** @return true if this row marks the creation of a full CRL, rather than a change of a certificate */
+    @Transient
+    public boolean isFullCrlMarker() {
+        return fingerprint == null;
+    }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        build.append(getId()).append(getIssuerDN()).append(getCrlPartitionIndex()).append(getEventTime()).append(getFingerprint())
+                .append(getSerialNumber()).append(getStatus()).append(getRevocationDate()).append(getRevocationReason())
+                .append(getInvalidityDate()).append(getExpireDate());
+        return build.toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return LATEST_PROTECT_VERSION;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() throws DatabaseProtectionException {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() throws DatabaseProtectionException {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return getId();
+    }
+
+    //
+    // End Database integrity protection methods
+    //
+}
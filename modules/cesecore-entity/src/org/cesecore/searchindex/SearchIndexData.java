@@ -0,0 +1,186 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.searchindex;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+
+/**
+ * Search index of the subject DN, subject alternative name and username of certificates and end entities. Each row holds one token of
+ * a value, as created by {@link SearchIndexTokens}, so that substring searches can find their candidates with an index lookup instead
+ * of a table scan.
+ * <p>
+ * The rows with the backfill index types keep track of the indexing of existing certificates and end entities. The source key is then
+ * the name of the indexed table, and the token is the key of the last indexed row.
+ */
+@Entity
+@Table(name = "SearchIndexData")
+public class SearchIndexData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int LATEST_PROTECT_VERSION = 1;
+
+    /** Subject DN of a certificate. The source key is the fingerprint. */
+    public static final int TYPE_CERTIFICATE_SUBJECT_DN = 1;
+    /** Subject alternative name of a certificate. The source key is the fingerprint. */
+    public static final int TYPE_CERTIFICATE_SUBJECT_ALT_NAME = 2;
+    /** Username of a certificate. The source key is the fingerprint. */
+    public static final int TYPE_CERTIFICATE_USERNAME = 3;
+    /** Subject DN of an end entity. The source key is the username. */
+    public static final int TYPE_END_ENTITY_SUBJECT_DN = 11;
+    /** Subject alternative name of an end entity. The source key is the username. */
+    public static final int TYPE_END_ENTITY_SUBJECT_ALT_NAME = 12;
+    /** Username of an end entity. The source key is the username. */
+    public static final int TYPE_END_ENTITY_USERNAME = 13;
+    /** Backfill of a table in progress */
+    public static final int TYPE_BACKFILL_IN_PROGRESS = 100;
+    /** Backfill of a table completed, so the index can be used for searches */
+    public static final int TYPE_BACKFILL_COMPLETED = 101;
+
+    /** Table name used as source key for the backfill of certificates */
+    public static final String BACKFILL_CERTIFICATES = "CertificateData";
+    /** Table name used as source key for the backfill of end entities */
+    public static final String BACKFILL_END_ENTITIES = "UserData";
+
+    private String id;
+    private int indexType;
+    private String sourceKey;
+    private String token;
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    public SearchIndexData() { }
+
+    /**
+     * @param indexType one of the TYPE_ constants
+     * @param sourceKey fingerprint of the certificate, or username of the end entity
+     * @param token token of the value
+     */
+    public SearchIndexData(final int indexType, final String sourceKey, final String token) {
+        this.id = UUID.randomUUID().toString();
+        this.indexType = indexType;
+        this.sourceKey = sourceKey;
+        this.token = token;
+    }
+
+    /** @return the id of the backfill row of a table */
+    public static String getBackfillId(final String tableName) {
+        return "backfill;" + tableName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /** @return one of the TYPE_ constants */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public void setIndexType(int indexType) {
+        this.indexType = indexType;
+    }
+
+    /** @return fingerprint of the certificate, username of the end entity, or name of the table for a backfill row */
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    public void setSourceKey(String sourceKey) {
+        this.sourceKey = sourceKey;
+    }
+
+    /** @return token of the value, or key of the last indexed row for a backfill row */
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public int getRowVersion() {
+        return rowVersion;
+    }
+
+    public void setRowVersion(int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+
+    @Override
+    public String getRowProtection() {
+        return rowProtection;
+    }
+
+    @Override
+    public void setRowProtection(String rowProtection) {
+        this.rowProtection = rowProtection;
+    }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        build.append(getId()).append(getIndexType()).append(getSourceKey()).append(getToken());
+        return build.toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return LATEST_PROTECT_VERSION;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() throws DatabaseProtectionException {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() throws DatabaseProtectionException {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return getId();
+    }
+
+    //
+    // End Database integrity protection methods
+    //
+}
@@ -135,6 +135,7 @@ import org.cesecore.certificates.certificatetransparency.CTLogInfo;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamingCrlBuilder;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
@@ -2096,24 +2097,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
             }
         }
 
-        final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(issuer, thisUpdate);
-        crlgen.setNextUpdate(nextUpdate);
-        if (certs != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-            for (final RevokedCertInfo certinfo : certs) {
-                if (certinfo.getInvalidityDate() != null) {
-                    crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason(), certinfo.getInvalidityDate());
-                } else {
-                    crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
-                }
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-        }
-
+        final ExtensionsGenerator crlExtensions = new ExtensionsGenerator();
 
         // Authority key identifier
         if (getUseAuthorityKeyIdentifier()) {
@@ -2121,13 +2105,13 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
             if (caSkid != null) {
                 // Use subject key id from CA certificate
                 AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(caSkid);
-                crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
+                crlExtensions.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
             } else {
                 // SHA1 used here, but it's not security relevant here as this is the RFC5280 Key Identifier
                 JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils(SHA1DigestCalculator.buildSha1Instance());
                 AuthorityKeyIdentifier aki = extensionUtils.createAuthorityKeyIdentifier(cryptoToken.getPublicKey(getCAToken().getAliasFromPurpose(
                         CATokenConstants.CAKEYPURPOSE_CRLSIGN)));
-                crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
+                crlExtensions.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
             }
         }
 
@@ -2144,13 +2128,13 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         if(accessList.size() > 0) {
             AuthorityInformationAccess authorityInformationAccess = AuthorityInformationAccess.getInstance(new DERSequence(accessList));
             // "This CRL extension MUST NOT be marked critical." according to rfc4325
-            crlgen.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
+            crlExtensions.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
         }
 
         // CRLNumber extension
         if (getUseCRLNumber()) {
             CRLNumber crlnum = new CRLNumber(BigInteger.valueOf(crlnumber));
-            crlgen.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
+            crlExtensions.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
         }
 
         // ExpiredCertsOnCRL extension (is always specified as not critical)
@@ -2181,7 +2165,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                 String d = dateF.format(new Date()) + "Z";
                 keepDate = new DERGeneralizedTime(d);
             }
-            crlgen.addExtension(ExpiredCertsOnCRL, false, keepDate);
+            crlExtensions.addExtension(ExpiredCertsOnCRL, false, keepDate);
             if (log.isDebugEnabled()) {
                 log.debug("ExpiredCertsOnCRL extension added to CRL. Keep date: " + keepDate.getTime());
             }
@@ -2190,7 +2174,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         if (isDeltaCRL) {
             // DeltaCRLIndicator extension
             CRLNumber basecrlnum = new CRLNumber(BigInteger.valueOf(basecrlnumber));
-            crlgen.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
+            crlExtensions.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
         }
         // CRL Distribution point URI and Freshest CRL DP
         if (getUseCrlDistributionPointOnCrl()) {
@@ -2204,7 +2188,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                 // According to the RFC, IDP must be a critical extension.
                 // Nonetheless, at the moment, Mozilla is not able to correctly
                 // handle the IDP extension and discards the CRL if it is critical.
-                crlgen.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
+                crlExtensions.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
             }
 
             if (!isDeltaCRL) {
@@ -2217,7 +2201,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                     // CRL must not be marked as critical. Therefore it is
                     // hardcoded as not critical and is independent of
                     // getCrlDistributionPointOnCrlCritical().
-                    crlgen.addExtension(Extension.freshestCRL, false, ext);
+                    crlExtensions.addExtension(Extension.freshestCRL, false, ext);
                 }
 
             }
@@ -2225,7 +2209,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
 
         final X509CRLHolder crl;
         if (log.isDebugEnabled()) {
-            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            log.debug("Building and signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
         }
         String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
         if (isMsCaCompatible() && partitionCaCert != null) {
@@ -2238,7 +2222,39 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                 prov = CryptoProviderTools.getProviderNameFromAlg(sigAlg);
             }
             final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(prov).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
-            crl = crlgen.build(signer);
+            final Extensions extensions = crlExtensions.isEmpty() ? null : crlExtensions.generate();
+            if (certs != null && log.isDebugEnabled()) {
+                log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            }
+            if (certs != null && certs.size() >= CesecoreConfiguration.getCrlStreamingThreshold()) {
+                // Large CRLs are encoded entry by entry, instead of holding all entries as objects until the CRL is signed
+                try (final StreamingCrlBuilder crlgen = new StreamingCrlBuilder(issuer, thisUpdate)) {
+                    crlgen.setNextUpdate(nextUpdate);
+                    crlgen.setExtensions(extensions);
+                    for (final RevokedCertInfo certinfo : certs) {
+                        crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason(), certinfo.getInvalidityDate());
+                    }
+                    crl = crlgen.build(signer);
+                }
+            } else {
+                final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(issuer, thisUpdate);
+                crlgen.setNextUpdate(nextUpdate);
+                if (extensions != null) {
+                    for (final ASN1ObjectIdentifier oid : extensions.getExtensionOIDs()) {
+                        crlgen.addExtension(extensions.getExtension(oid));
+                    }
+                }
+                if (certs != null) {
+                    for (final RevokedCertInfo certinfo : certs) {
+                        if (certinfo.getInvalidityDate() != null) {
+                            crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason(), certinfo.getInvalidityDate());
+                        } else {
+                            crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
+                        }
+                    }
+                }
+                crl = crlgen.build(signer);
+            }
         } catch (OperatorCreationException e) {
             // Very fatal error
             throw new RuntimeException("Can not create Jca content signer: ", e);
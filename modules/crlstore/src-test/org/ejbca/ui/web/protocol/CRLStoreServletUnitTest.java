@@ -0,0 +1,159 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.ejbca.core.protocol.crlstore.CachedCrl;
+import org.junit.Test;
+
+/**
+ * Unit tests of the conditional and range requests in {@link CRLStoreServlet}.
+ */
+public class CRLStoreServletUnitTest {
+
+    private static final int CRL_LENGTH = 1000;
+    private static final long THIS_UPDATE = 1600000000123L;
+
+    private final CachedCrl crl = new CachedCrl(new byte[CRL_LENGTH], 1, THIS_UPDATE);
+
+    @Test
+    public void testIfNoneMatchList() {
+        assertTrue("ETag in a list should match.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", "\"abc\", " + crl.getETag())));
+        assertTrue("ETag first in a list should match.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", crl.getETag() + ",\"abc\"")));
+        assertFalse("List of other ETags should not match.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", "\"abc\", \"def\"")));
+        assertFalse("Unquoted ETag should not match.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", crl.getETag().replace("\"", ""))));
+    }
+
+    @Test
+    public void testIfNoneMatchWeakETag() {
+        assertTrue("Weak comparison should be used.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", "W/" + crl.getETag())));
+        assertTrue("Weak comparison should be used in lists.", CRLStoreServlet.isNotModified(crl, request("If-None-Match", "W/\"abc\", W/" + crl.getETag())));
+    }
+
+    @Test
+    public void testIfNoneMatchAny() {
+        assertTrue(CRLStoreServlet.isNotModified(crl, request("If-None-Match", "*")));
+    }
+
+    @Test
+    public void testIfNoneMatchTakesPrecedence() {
+        final HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getHeader("If-None-Match")).andStubReturn("\"abc\"");
+        expect(req.getDateHeader("If-Modified-Since")).andStubReturn(THIS_UPDATE);
+        replay(req);
+        assertFalse("If-Modified-Since should be ignored when there is an If-None-Match.", CRLStoreServlet.isNotModified(crl, req));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        assertTrue("HTTP dates only have a resolution of seconds.", CRLStoreServlet.isNotModified(crl, dateRequest("If-Modified-Since", THIS_UPDATE - 123)));
+        assertTrue(CRLStoreServlet.isNotModified(crl, dateRequest("If-Modified-Since", THIS_UPDATE + 60000)));
+        assertFalse(CRLStoreServlet.isNotModified(crl, dateRequest("If-Modified-Since", THIS_UPDATE - 1000)));
+        assertFalse("Missing header should not match.", CRLStoreServlet.isNotModified(crl, dateRequest("If-Modified-Since", -1)));
+        assertFalse("Unknown thisUpdate should not match.", CRLStoreServlet.isNotModified(new CachedCrl(new byte[CRL_LENGTH], 1, 0),
+                dateRequest("If-Modified-Since", THIS_UPDATE)));
+        final HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getDateHeader("If-Modified-Since")).andStubThrow(new IllegalArgumentException());
+        replay(req);
+        assertFalse("Invalid date should be ignored.", CRLStoreServlet.isNotModified(crl, req));
+    }
+
+    @Test
+    public void testRange() {
+        assertArrayEquals(new long[] { 0, 99 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=0-99")));
+        assertArrayEquals("Last position should be limited to the CRL.", new long[] { 990, 999 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=990-2000")));
+        assertArrayEquals(new long[] { 999, 999 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=999-999")));
+    }
+
+    @Test
+    public void testOpenRange() {
+        assertArrayEquals(new long[] { 100, 999 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=100-")));
+        assertArrayEquals(new long[] { 0, 999 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=0-")));
+    }
+
+    @Test
+    public void testSuffixRange() {
+        assertArrayEquals(new long[] { 900, 999 }, CRLStoreServlet.getRange(crl, request("Range", "bytes=-100")));
+        assertArrayEquals("Suffix longer than the CRL should give the whole CRL.", new long[] { 0, 999 },
+                CRLStoreServlet.getRange(crl, request("Range", "bytes=-2000")));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        assertEquals("Range after the end of the CRL should not be satisfiable.", 0, CRLStoreServlet.getRange(crl, request("Range", "bytes=1000-")).length);
+        assertEquals(0, CRLStoreServlet.getRange(crl, request("Range", "bytes=1000-1999")).length);
+        assertEquals("Empty suffix should not be satisfiable.", 0, CRLStoreServlet.getRange(crl, request("Range", "bytes=-0")).length);
+    }
+
+    @Test
+    public void testIgnoredRange() {
+        assertNull("Missing header should give the whole CRL.", CRLStoreServlet.getRange(crl, request("Range", null)));
+        assertNull("Multiple ranges should give the whole CRL.", CRLStoreServlet.getRange(crl, request("Range", "bytes=0-1,5-6")));
+        assertNull("Other units should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "items=0-1")));
+        assertNull("Reversed range should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "bytes=5-1")));
+        assertNull("Non-numeric range should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "bytes=a-b")));
+        assertNull("Range without positions should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "bytes=-")));
+        assertNull("Range without dash should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "bytes=5")));
+        assertNull("Too large position should be ignored.", CRLStoreServlet.getRange(crl, request("Range", "bytes=1234567890123456789-")));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertArrayEquals("Matching ETag should give the range.", new long[] { 0, 99 },
+                CRLStoreServlet.getRange(crl, rangeRequest(crl.getETag(), -1)));
+        assertNull("Other ETag should give the whole CRL.", CRLStoreServlet.getRange(crl, rangeRequest("\"abc\"", -1)));
+        assertArrayEquals("Matching date should give the range.", new long[] { 0, 99 },
+                CRLStoreServlet.getRange(crl, rangeRequest("Sun, 13 Sep 2020 12:26:40 GMT", THIS_UPDATE - 123)));
+        assertNull("Other date should give the whole CRL.", CRLStoreServlet.getRange(crl, rangeRequest("Sun, 13 Sep 2020 12:26:39 GMT", THIS_UPDATE - 1123)));
+    }
+
+    private HttpServletRequest request(final String header, final String value) {
+        final HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getHeader(header)).andStubReturn(value);
+        expect(req.getDateHeader(anyString())).andStubReturn(-1L);
+        replay(req);
+        return req;
+    }
+
+    private HttpServletRequest dateRequest(final String header, final long value) {
+        final HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getDateHeader(header)).andStubReturn(value);
+        replay(req);
+        return req;
+    }
+
+    private HttpServletRequest rangeRequest(final String ifRange, final long ifRangeDate) {
+        final HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getHeader("Range")).andStubReturn("bytes=0-99");
+        expect(req.getHeader("If-Range")).andStubReturn(ifRange);
+        if (ifRangeDate == -1) {
+            // Like servlet containers do for values that are not dates
+            expect(req.getDateHeader("If-Range")).andStubThrow(new IllegalArgumentException());
+        } else {
+            expect(req.getDateHeader("If-Range")).andStubReturn(ifRangeDate);
+        }
+        replay(req);
+        return req;
+    }
+}
@@ -14,9 +14,10 @@
 package org.ejbca.core.protocol.crlstore;
 
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -25,13 +26,17 @@ import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.ejbca.config.VAConfiguration;
 
 import com.keyfactor.util.CertTools;
 
 /**
  * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the 
  * VA responder needs to fetch.
- *
+ * <p>
+ * The latest CRL and delta CRL of each CA and CRL partition is kept once, and is returned to all readers without copying or locking.
+ * The database is checked for a newer CRL at most once per va.crlstore.cachetime. Only one thread checks for each CRL, the other
+ * threads are served the current CRL meanwhile. The CRL itself is only read from the database when a new one has been published.
  */
 public class CRLCache {
 	private static final Logger log = Logger.getLogger(CRLCache.class);
@@ -41,44 +46,49 @@ public class CRLCache {
 	
 	private final CrlStoreSessionLocal crlStoreSession;
 	private final CaCertificateCache certCache;
-	private final Map<Integer, CRLEntity> crls = new HashMap<>();
-	private final Map<Integer, CRLEntity> deltaCrls = new HashMap<>();
-	private class CRLEntity {
-		final CRLInfo crlInfo;
-		final byte[] encoded;
-		/**
-		 * @param crlInfo
-		 * @param encoded
-		 */
-		CRLEntity(CRLInfo crlInfo, byte[] encoded) {
-			super();
-			this.crlInfo = crlInfo;
-			this.encoded = encoded;
+	private final ConcurrentMap<CacheKey, CacheEntry> crls = new ConcurrentHashMap<>();
+
+	/** Identifies the latest CRL or delta CRL of a CRL partition. The CRL number is not part of the key, a new CRL replaces the cached one. */
+	private static final class CacheKey {
+		final String issuerDN;
+		final int crlPartitionIndex;
+		final boolean isDelta;
+
+		CacheKey(final String issuerDN, final int crlPartitionIndex, final boolean isDelta) {
+			this.issuerDN = issuerDN;
+			this.crlPartitionIndex = crlPartitionIndex;
+			this.isDelta = isDelta;
 		}
 
 		@Override
 		public boolean equals(Object o) {
 			if (o == this)
 				return true;
-			if (!(o instanceof CRLEntity)) {
+			if (!(o instanceof CacheKey)) {
 				return false;
 			}
-			CRLEntity crlEntity = (CRLEntity) o;
-			return Objects.equals(crlInfo.getSubjectDN(), crlEntity.crlInfo.getSubjectDN()) && crlInfo.getCrlPartitionIndex() == crlEntity.crlInfo.getCrlPartitionIndex();
+			CacheKey cacheKey = (CacheKey) o;
+			return Objects.equals(issuerDN, cacheKey.issuerDN) && crlPartitionIndex == cacheKey.crlPartitionIndex && isDelta == cacheKey.isDelta;
 		}
 
 		@Override
 		public int hashCode() {
-			// Ignore CRL number. Always overwrite cache with latest CRL for the partition.
-			return Objects.hash(crlInfo.getSubjectDN(), crlInfo.getCrlPartitionIndex());
+			return Objects.hash(issuerDN, crlPartitionIndex, isDelta);
 		}
+	}
 
+	private static final class CacheEntry {
+		final CachedCrl crl;
+		/** Time when the database was last checked for a newer CRL */
+		volatile long lastChecked;
+		/** Set while a thread checks the database for a newer CRL */
+		final AtomicBoolean checking = new AtomicBoolean(false);
+
+		CacheEntry(final CachedCrl crl, final long lastChecked) {
+			this.crl = crl;
+			this.lastChecked = lastChecked;
+		}
 	}
-	/** We need an object to synchronize around when rebuilding and reading the cache. When rebuilding the cache no thread
-	 * can be allowed to read the cache, since the cache will be in an inconsistent state. In the normal case we want to use
-	 * as fast objects as possible (HashMap) for reading fast.
-	 */
-	private final Lock rebuildlock = new ReentrantLock();
 
 	 /**
      * @return  {@link CRLCache} for the CA.
@@ -112,9 +122,9 @@ public class CRLCache {
      * @param id The ID of the subject key identifier.
      * @param isDelta true if delta CRL
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
-     * @return CRL or null if the CRL does not exist in the cache.
+     * @return CRL or null if the CRL does not exist.
      */
-	public byte[] findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCrl findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findBySubjectKeyIdentifier(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
@@ -122,58 +132,104 @@ public class CRLCache {
      * @param id The ID of the issuer DN.
      * @param isDelta true if delta CRL
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
-     * @return CRL or null if the CRL does not exist in the cache.
+     * @return CRL or null if the CRL does not exist.
      */
-	public byte[] findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCrl findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findLatestBySubjectDN(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
-	private byte[] findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
+	/** Removes all CRLs from the cache, so that they are read from the database again when requested. */
+	public void clear() {
+		crls.clear();
+	}
+
+	private CachedCrl findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
 		if ( caCert==null ) {
 			if (log.isDebugEnabled()) {
 				log.debug("No CA certificate, returning null.");
 			}
-			return new byte[0];
+			return null;
 		}
 		final String issuerDN = CertTools.getSubjectDN(caCert);
-		this.rebuildlock.lock();
-		try {
-			final CRLInfo crlInfo = this.crlStoreSession.getLastCRLInfo(issuerDN, crlPartitionIndex, isDelta);
-			if ( crlInfo==null ) {
+		if (crlNumber > -1) {
+			// Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
+			if (log.isDebugEnabled()) {
+				log.debug("Getting CRL with CRL number "+crlNumber);
+			}
+			final byte[] encoded = this.crlStoreSession.getCRL(issuerDN, crlPartitionIndex, crlNumber);
+			if (encoded == null) {
 				if (log.isDebugEnabled()) {
-					log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
+					log.debug("No CRL found with issuerDN '"+issuerDN+"' and CRL number "+crlNumber+", returning null.");
 				}
-				return new byte[0];
+				return null;
 			}
-			final Integer cacheId = new CRLEntity(crlInfo, null).hashCode();
-            final Map<Integer, CRLEntity> usedCrls = isDelta ? this.deltaCrls : this.crls;
-			// If we have not specified a crlNumber we can try to find the latest CRL in the cache
-			if (crlNumber == -1) {
-			    final CRLEntity cachedCRL = usedCrls.get(cacheId);
-			    if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
-			        if (log.isDebugEnabled()) {
-			            log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			        }
-			        return cachedCRL.encoded;
-			    }
+			return new CachedCrl(encoded, crlNumber, 0);
+		}
+		final CacheKey cacheKey = new CacheKey(issuerDN, crlPartitionIndex, isDelta);
+		final CacheEntry cacheEntry = crls.get(cacheKey);
+		if (cacheEntry == null) {
+			return update(cacheKey, null);
+		}
+		if (System.currentTimeMillis() - cacheEntry.lastChecked < VAConfiguration.getCrlStoreCacheTime()) {
+			return cacheEntry.crl;
+		}
+		if (cacheEntry.checking.compareAndSet(false, true)) {
+			try {
+				return update(cacheKey, cacheEntry);
+			} finally {
+				cacheEntry.checking.set(false);
 			}
-			final CRLEntity entry;
-			if (crlNumber > -1) {
-			    if (log.isDebugEnabled()) {
-			        log.debug("Getting CRL with CRL number "+crlNumber);
-			    }
-			    entry = new CRLEntity( crlInfo, this.crlStoreSession.getCRL(issuerDN, crlPartitionIndex, crlNumber) );
-			} else {
-			    entry = new CRLEntity( crlInfo, this.crlStoreSession.getLastCRL(issuerDN, crlPartitionIndex, isDelta) );
-			    // Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
-	            usedCrls.put(cacheId, entry);
+		}
+		// Another thread is checking for a newer CRL, the current one is still valid
+		return cacheEntry.crl;
+	}
+
+	/**
+	 * Checks the database for a CRL newer than the cached one, and replaces the cached CRL if there is one.
+	 *
+	 * @param cacheKey the CRL to check
+	 * @param cacheEntry the cached entry, or null if the CRL is not cached
+	 * @return the latest CRL, or null if there is no CRL
+	 */
+	private CachedCrl update(final CacheKey cacheKey, final CacheEntry cacheEntry) {
+		final long now = System.currentTimeMillis();
+		final CRLInfo crlInfo;
+		try {
+			crlInfo = this.crlStoreSession.getLastCRLInfoLightWeight(cacheKey.issuerDN, cacheKey.crlPartitionIndex, cacheKey.isDelta);
+		} catch (RuntimeException e) {
+			if (cacheEntry == null) {
+				throw e;
 			}
+			// Keep serving the cached CRL, and don't check again until the cache time has passed
+			log.warn("Could not check for a newer CRL with issuerDN '"+cacheKey.issuerDN+"', returning cached CRL: "+e.getMessage());
+			cacheEntry.lastChecked = now;
+			return cacheEntry.crl;
+		}
+		if ( crlInfo==null ) {
 			if (log.isDebugEnabled()) {
-				log.debug("Retrieved CRL (not from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
+				log.debug("No CRL found with issuerDN '"+cacheKey.issuerDN+"', returning null.");
+			}
+			if (cacheEntry != null) {
+				crls.remove(cacheKey, cacheEntry);
 			}
-			return entry.encoded;
-		} finally {
-			this.rebuildlock.unlock();
+			return null;
+		}
+		if (cacheEntry != null && cacheEntry.crl.getCrlNumber() == crlInfo.getLastCRLNumber()) {
+			cacheEntry.lastChecked = now;
+			if (log.isDebugEnabled()) {
+				log.debug("Retrieved CRL (from cache) with issuerDN '"+cacheKey.issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
+			}
+			return cacheEntry.crl;
+		}
+		final byte[] encoded = this.crlStoreSession.getCRL(cacheKey.issuerDN, cacheKey.crlPartitionIndex, crlInfo.getLastCRLNumber());
+		if (encoded == null) {
+			return cacheEntry == null ? null : cacheEntry.crl;
+		}
+		final CachedCrl crl = new CachedCrl(encoded, crlInfo.getLastCRLNumber(), crlInfo.getCreateDate().getTime());
+		crls.put(cacheKey, new CacheEntry(crl, now));
+		if (log.isDebugEnabled()) {
+			log.debug("Retrieved CRL (not from cache) with issuerDN '"+cacheKey.issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
 		}
+		return crl;
 	}
 }
@@ -0,0 +1,60 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.protocol.crlstore;
+
+import com.keyfactor.util.CertTools;
+
+/**
+ * An encoded CRL with the information needed to answer conditional HTTP requests for it.
+ * Instances are shared between all threads serving the CRL, and are never modified.
+ */
+public final class CachedCrl {
+
+    private final byte[] encoded;
+    private final int crlNumber;
+    private final long thisUpdate;
+    private final String eTag;
+
+    /**
+     * @param encoded DER encoded CRL. The array is not copied and must not be modified.
+     * @param crlNumber CRL number
+     * @param thisUpdate thisUpdate of the CRL in milliseconds, or 0 if not known
+     */
+    public CachedCrl(final byte[] encoded, final int crlNumber, final long thisUpdate) {
+        this.encoded = encoded;
+        this.crlNumber = crlNumber;
+        this.thisUpdate = thisUpdate;
+        // The SHA-1 fingerprint is also used to identify the CRL in the database
+        this.eTag = "\"" + CertTools.getFingerprintAsString(encoded) + "\"";
+    }
+
+    /** @return the DER encoded CRL. The array is shared and must not be modified. */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public int getCrlNumber() {
+        return crlNumber;
+    }
+
+    /** @return thisUpdate of the CRL in milliseconds, or 0 if not known */
+    public long getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return a strong entity tag for the CRL, including the quotes */
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -30,6 +30,7 @@ import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.ejbca.core.protocol.crlstore.CRLCache;
+import org.ejbca.core.protocol.crlstore.CachedCrl;
 import org.ejbca.util.HTMLTools;
 
 import com.keyfactor.util.StringTools;
@@ -72,8 +73,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void iHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, iHash, crlPartitionIndex, isDelta(req));
+	    final CachedCrl crl = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, iHash, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -84,8 +85,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void sKIDHash(String sKIDHash, HttpServletResponse resp, HttpServletRequest req, String name) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, name, crlPartitionIndex, isDelta(req));
+	    final CachedCrl crl = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, name, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -123,21 +124,142 @@ public class CRLStoreServlet extends StoreServletBase {
         return CertificateConstants.NO_CRL_PARTITION;
     }
 
-	private void returnCrl(final byte[] crl, HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
-		if (ArrayUtils.isEmpty(crl)) {
+	private void returnCrl(final CachedCrl crl, final HttpServletRequest req, HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
+		if (crl == null || ArrayUtils.isEmpty(crl.getEncoded())) {
 		    if (log.isDebugEnabled()) {
 		        log.debug("CRL was not found. Hash=" + name + ", DeltaCRL=" + isDelta + ", Partition=" + crlPartitionIndex);
 		    }
 			resp.sendError(HttpServletResponse.SC_NO_CONTENT, "No CRL with hash: "+HTMLTools.htmlescape(name));
 			return;
 		}
+		final byte[] encoded = crl.getEncoded();
+		resp.setHeader("ETag", crl.getETag());
+		if (crl.getThisUpdate() > 0) {
+		    resp.setDateHeader("Last-Modified", crl.getThisUpdate());
+		}
+		resp.setHeader("Accept-Ranges", "bytes");
+		if (isNotModified(crl, req)) {
+		    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		    return;
+		}
 		resp.setContentType("application/pkix-crl");
 		resp.setHeader("Content-disposition", "attachment; filename=\"" + 
 		        (isDelta?"delta":"") +
 		        StringTools.stripFilename(name) +
 		        (crlPartitionIndex != CertificateConstants.NO_CRL_PARTITION ? "_partition" + crlPartitionIndex : "") +
 		        ".crl\"");
-		resp.setContentLength(crl.length);
-		resp.getOutputStream().write(crl);
+		final long[] range = getRange(crl, req);
+		if (range == null) {
+		    resp.setContentLength(encoded.length);
+		    resp.getOutputStream().write(encoded);
+		} else if (range.length == 0) {
+		    resp.setHeader("Content-Range", "bytes */" + encoded.length);
+		    resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		} else {
+		    final int offset = (int) range[0];
+		    final int length = (int) (range[1] - range[0] + 1);
+		    resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		    resp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + encoded.length);
+		    resp.setContentLength(length);
+		    resp.getOutputStream().write(encoded, offset, length);
+		}
+	}
+
+	/**
+	 * Evaluates If-None-Match, or If-Modified-Since if there is no If-None-Match, as described in RFC 7232.
+	 *
+	 * @return true if the client already has the CRL
+	 */
+	static boolean isNotModified(final CachedCrl crl, final HttpServletRequest req) {
+	    final String ifNoneMatch = req.getHeader("If-None-Match");
+	    if (ifNoneMatch != null) {
+	        return matchesETag(crl, ifNoneMatch);
+	    }
+	    if (crl.getThisUpdate() > 0) {
+	        final long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+	        // HTTP dates have a resolution of seconds
+	        return ifModifiedSince != -1 && crl.getThisUpdate() / 1000 <= ifModifiedSince / 1000;
+	    }
+	    return false;
+	}
+
+	/** @return true if the header value is "*" or contains the entity tag of the CRL, using weak comparison */
+	private static boolean matchesETag(final CachedCrl crl, final String headerValue) {
+	    for (String eTag : headerValue.split(",")) {
+	        eTag = eTag.trim();
+	        if (eTag.startsWith("W/")) {
+	            eTag = eTag.substring(2);
+	        }
+	        if ("*".equals(eTag) || crl.getETag().equals(eTag)) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
+	/**
+	 * Parses a Range header with a single byte range, as described in RFC 7233. Requests with multiple ranges are answered
+	 * with the whole CRL, which is allowed by the RFC.
+	 *
+	 * @return null if the whole CRL should be sent, an empty array if the range is not satisfiable, otherwise the first and last byte position
+	 */
+	static long[] getRange(final CachedCrl crl, final HttpServletRequest req) {
+	    final String rangeHeader = req.getHeader("Range");
+	    if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.indexOf(',') != -1) {
+	        return null;
+	    }
+	    final String ifRange = req.getHeader("If-Range");
+	    if (ifRange != null && !ifRange.equals(crl.getETag())) {
+	        // If-Range may also contain a date, which is only a strong validator if it is the exact modification time
+	        final long ifRangeDate = getDateHeader(req, "If-Range");
+	        if (ifRangeDate == -1 || crl.getThisUpdate() / 1000 != ifRangeDate / 1000) {
+	            return null;
+	        }
+	    }
+	    final long length = crl.getEncoded().length;
+	    final String range = rangeHeader.substring("bytes=".length()).trim();
+	    final int dash = range.indexOf('-');
+	    if (dash == -1) {
+	        return null;
+	    }
+	    final String first = range.substring(0, dash).trim();
+	    final String last = range.substring(dash + 1).trim();
+	    if ((!first.isEmpty() && !StringUtils.isNumeric(first)) || (!last.isEmpty() && !StringUtils.isNumeric(last)) || (first.isEmpty() && last.isEmpty())
+	            || first.length() > 18 || last.length() > 18) {
+	        // Invalid ranges are ignored
+	        return null;
+	    }
+	    if (first.isEmpty()) {
+	        // Suffix range with the last bytes of the CRL
+	        final long suffixLength = Long.parseLong(last);
+	        if (suffixLength == 0) {
+	            return new long[0];
+	        }
+	        return new long[] { Math.max(0, length - suffixLength), length - 1 };
+	    }
+	    final long firstPos = Long.parseLong(first);
+	    final long lastPos = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+	    if (!last.isEmpty() && Long.parseLong(last) < firstPos) {
+	        return null;
+	    }
+	    if (firstPos >= length) {
+	        return new long[0];
+	    }
+	    return new long[] { firstPos, lastPos };
+	}
+
+	/** @return the date of the header in milliseconds, or -1 if the header is missing or not a valid date */
+	private static long getDateHeader(final HttpServletRequest req, final String name) {
+	    try {
+	        return req.getDateHeader(name);
+	    } catch (IllegalArgumentException e) {
+	        return -1;
+	    }
+	}
+
+	@Override
+	protected void reloadCache() {
+	    super.reloadCache();
+	    crlCache.clear();
 	}
 }
@@ -0,0 +1,236 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.X509CAInfo.X509CAInfoBuilder;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.easymock.EasyMock;
+import org.ejbca.core.ejb.crl.ImportCrlSessionLocal;
+import org.ejbca.core.model.services.IWorker;
+import org.ejbca.core.model.services.ServiceConfiguration;
+import org.ejbca.core.model.services.actions.NoAction;
+import org.ejbca.core.model.services.intervals.PeriodicalInterval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests of the conditional downloads of {@link CRLDownloadWorker}, against a local HTTP server.
+ */
+public class CRLDownloadWorkerUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CRLDownloadWorkerUnitTest"));
+    private static final String ETAG = "\"crl5\"";
+    private static final int CRL_NUMBER = 5;
+
+    private static X509Certificate caCertificate;
+    private static String issuerDn;
+    private static byte[] crlBytes;
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile String lastIfNoneMatch;
+    private X509CAInfo caInfo;
+    private final CaSessionLocal caSession = EasyMock.createMock(CaSessionLocal.class);
+    private final CrlStoreSessionLocal crlStoreSession = EasyMock.createMock(CrlStoreSessionLocal.class);
+    private final ImportCrlSessionLocal importCrlSession = EasyMock.createMock(ImportCrlSessionLocal.class);
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        caCertificate = CertTools.genSelfCert("CN=CRLDownloadWorkerUnitTest", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        issuerDn = CertTools.getSubjectDN(caCertificate);
+        final Date now = new Date();
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name(issuerDn), now);
+        builder.setNextUpdate(new Date(now.getTime() + 3600000L));
+        builder.addCRLEntry(BigInteger.valueOf(1), now, 0);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(CRL_NUMBER)));
+        crlBytes = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(keys.getPrivate())).getEncoded();
+    }
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/crl", exchange -> {
+            requestCount.incrementAndGet();
+            lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ETAG.equals(lastIfNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.sendResponseHeaders(200, crlBytes.length);
+                try (final OutputStream os = exchange.getResponseBody()) {
+                    os.write(crlBytes);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        caInfo = new X509CAInfoBuilder()
+                .setSubjectDn(issuerDn)
+                .setName("CRLDownloadWorkerUnitTest")
+                .setStatus(CAConstants.CA_EXTERNAL)
+                .setCertificateChain(Collections.<Certificate>singletonList(caCertificate))
+                .build();
+        caInfo.setExternalCdp("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/crl");
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalDownload() throws Exception {
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(caInfo).anyTimes();
+        expect(crlStoreSession.getLastCRL(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(null).once().andReturn(crlBytes).anyTimes();
+        expect(crlStoreSession.getLastCRLNumber(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(CRL_NUMBER - 1).once()
+                .andReturn(CRL_NUMBER).anyTimes();
+        importCrlSession.importCrl(anyObject(), eq(caInfo), aryEq(crlBytes), eq(CertificateConstants.NO_CRL_PARTITION));
+        expectLastCall().once();
+        replay(caSession, crlStoreSession, importCrlSession);
+
+        runWorker("testConditionalDownload");
+        assertEquals(1, requestCount.get());
+        assertNull("First download should not be conditional.", lastIfNoneMatch);
+        runWorker("testConditionalDownload");
+        assertEquals(2, requestCount.get());
+        assertEquals("ETag of the last download should be sent.", ETAG, lastIfNoneMatch);
+
+        verify(importCrlSession);
+    }
+
+    @Test
+    public void testSkipImportedCrlNumber() throws Exception {
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(caInfo).anyTimes();
+        expect(crlStoreSession.getLastCRL(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(crlBytes).anyTimes();
+        expect(crlStoreSession.getLastCRLNumber(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(CRL_NUMBER).anyTimes();
+        // No import is expected
+        replay(caSession, crlStoreSession, importCrlSession);
+
+        runWorker("testSkipImportedCrlNumber");
+        assertEquals(1, requestCount.get());
+        assertNull(lastIfNoneMatch);
+        runWorker("testSkipImportedCrlNumber");
+        assertEquals("Validators should be kept when the CRL number was already imported.", ETAG, lastIfNoneMatch);
+
+        verify(importCrlSession);
+    }
+
+    @Test
+    public void testDownloadAgainWhenCrlNotStored() throws Exception {
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(caInfo).anyTimes();
+        expect(crlStoreSession.getLastCRL(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(null).anyTimes();
+        // The imported CRL is not stored, e.g. because it was deleted
+        expect(crlStoreSession.getLastCRLNumber(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(CRL_NUMBER - 1).anyTimes();
+        importCrlSession.importCrl(anyObject(), eq(caInfo), aryEq(crlBytes), eq(CertificateConstants.NO_CRL_PARTITION));
+        expectLastCall().times(2);
+        replay(caSession, crlStoreSession, importCrlSession);
+
+        runWorker("testDownloadAgainWhenCrlNotStored");
+        runWorker("testDownloadAgainWhenCrlNotStored");
+        assertEquals(2, requestCount.get());
+        assertNull("Validators should not be used when the downloaded CRL is not stored.", lastIfNoneMatch);
+
+        verify(importCrlSession);
+    }
+
+    @Test
+    public void testRemovedCaIsPruned() throws Exception {
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(caInfo);
+        expect(crlStoreSession.getLastCRL(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(crlBytes).anyTimes();
+        expect(crlStoreSession.getLastCRLNumber(issuerDn, CertificateConstants.NO_CRL_PARTITION, false)).andReturn(CRL_NUMBER).anyTimes();
+        replay(caSession, crlStoreSession, importCrlSession);
+        runWorker("testRemovedCaIsPruned");
+        verify(caSession);
+
+        // The CA is no longer an external CA
+        reset(caSession);
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(null);
+        replay(caSession);
+        runWorker("testRemovedCaIsPruned");
+        verify(caSession);
+        assertEquals(1, requestCount.get());
+
+        reset(caSession);
+        expect(caSession.getCAInfoInternal(caInfo.getCAId())).andReturn(caInfo);
+        replay(caSession);
+        runWorker("testRemovedCaIsPruned");
+        assertEquals(2, requestCount.get());
+        assertNull("Validators of a CA that was no longer checked should have been removed.", lastIfNoneMatch);
+    }
+
+    private void runWorker(final String serviceName) {
+        final Properties properties = new Properties();
+        properties.setProperty(IWorker.PROP_CAIDSTOCHECK, String.valueOf(caInfo.getCAId()));
+        properties.setProperty(CRLDownloadWorker.PROP_IGNORE_NEXT_UPDATE, "true");
+        final ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
+        serviceConfiguration.setWorkerProperties(properties);
+        serviceConfiguration.setActionClassPath(NoAction.class.getName());
+        serviceConfiguration.setIntervalClassPath(PeriodicalInterval.class.getName());
+        final CRLDownloadWorker worker = new CRLDownloadWorker();
+        worker.init(admin, serviceConfiguration, serviceName, 0, 0);
+        final Map<Class<?>, Object> ejbs = new HashMap<>();
+        ejbs.put(CaSessionLocal.class, caSession);
+        ejbs.put(CrlStoreSessionLocal.class, crlStoreSession);
+        ejbs.put(ImportCrlSessionLocal.class, importCrlSession);
+        worker.work(ejbs);
+    }
+}
@@ -31,4 +31,14 @@ public class VAConfiguration {
 		return ConfigurationHolder.updateConfiguration(S_HASH_ALIAS_PREFIX+name, hash);
 	}
 
+	/** @return the time in milliseconds that the CRL Store serves a cached CRL before checking the database for a newer one */
+	public static long getCrlStoreCacheTime() {
+		final String value = ConfigurationHolder.getString("va.crlstore.cachetime");
+		try {
+			return value == null ? 10000L : Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return 10000L;
+		}
+	}
+
 }
@@ -12,18 +12,24 @@
  *************************************************************************/
 package org.ejbca.core.model.services.workers;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.math.IntRange;
 import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.Extension;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAConstants;
 import org.cesecore.certificates.ca.CAInfo;
@@ -33,8 +39,10 @@ import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.StreamingCrlReader;
 import org.cesecore.certificates.util.cert.CrlExtensions;
 import org.cesecore.util.NetworkTools;
+import org.cesecore.util.NetworkTools.HttpValidators;
 import org.cesecore.util.PropertyTools;
 import org.cesecore.util.ValidityDate;
 import org.ejbca.core.ejb.crl.ImportCrlSessionLocal;
@@ -53,6 +61,9 @@ import com.keyfactor.util.CertTools;
  * If the freshest CRL extension is present in a full CRL, the delta CRL will be downloaded and processed as well.
  * <p>
  * The worker can be configured to not respect the nextUpdate
+ * <p>
+ * CRLs are downloaded with conditional requests, using the ETag and Last-Modified headers of the last download, and are only imported
+ * if the CRL number has advanced.
  *
  * @version $Id$
  */
@@ -63,6 +74,15 @@ public class CRLDownloadWorker extends BaseWorker {
     public static final String PROP_MAX_DOWNLOAD_SIZE = "maxDownloadSize";
     public static final int DEFAULT_MAX_DOWNLOAD_SIZE = 1 * 1024 * 1024;
 
+    /**
+     * Validators of the last download of each CRL by each service, so unchanged CRLs are not downloaded again. Workers are created for each run.
+     * The states of CAs and CRL partitions that a service no longer checks are removed when it runs.
+     */
+    private static final Map<String, DownloadState> downloadStates = new ConcurrentHashMap<>();
+
+    /** The CAs and CRL partitions checked in this run, see {@link #getCrlKey} */
+    private final Set<String> checkedCrlKeys = new HashSet<>();
+
     @Override
     public void canWorkerRun(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
         //This service worker has no other error states than misconfiguration, so can technically always run.       
@@ -85,6 +105,7 @@ public class CRLDownloadWorker extends BaseWorker {
             caIdsToCheck = caSession.getAllCaIds();
         }
         if(caIdsToCheck.isEmpty()) {
+            pruneDownloadStates();
             return new ServiceExecutionResult(Result.NO_ACTION, "CRL Download Worker " + serviceName + " ran, but has no CAs configured.");
         }
         // Process all the configured CAs
@@ -132,6 +153,7 @@ public class CRLDownloadWorker extends BaseWorker {
                 log.info("'" + (caInfo != null ? caInfo.getName() : caId) + "' is not an external X509 CA. Ignoring.");
             }
         }
+        pruneDownloadStates();
         if (checkedCas.isEmpty()) {
             return new ServiceExecutionResult(Result.NO_ACTION, "CRL Download Worker " + serviceName + " ran, but has no external CAs exist.");
         } else {
@@ -150,17 +172,18 @@ public class CRLDownloadWorker extends BaseWorker {
      */
     private void getCrlAndUpdateIfNeeded(final CAInfo caInfo, final X509Certificate caCertificate, final URL url, final int crlPartitionIndex, final Date now,
                                          final CrlStoreSessionLocal crlStoreSession, final ImportCrlSessionLocal importCrlSession) throws ServiceExecutionFailedException {
+        checkedCrlKeys.add(getCrlKey(caInfo, crlPartitionIndex));
         try {
             final String issuerDn = CertTools.getSubjectDN(caCertificate);
             final boolean ignoreNextUpdate = PropertyTools.get(properties, PROP_IGNORE_NEXT_UPDATE, false);
             // Get last known CRL (if any) and check when the next update will be
-            final X509CRL lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, crlPartitionIndex, false));
-            final X509CRL newestFullCrl;
-            if (!ignoreNextUpdate && lastFullCrl != null && now.before(lastFullCrl.getNextUpdate())) {
+            final StreamingCrlReader lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, crlPartitionIndex, false));
+            final StreamingCrlReader newestFullCrl;
+            if (!ignoreNextUpdate && lastFullCrl != null && lastFullCrl.getNextUpdate() != null && now.before(lastFullCrl.getNextUpdate())) {
                 log.info("Next full CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastFullCrl.getNextUpdate(), null) + ". Skipping download.");
                 newestFullCrl = lastFullCrl;
             } else {
-                final X509CRL downloadedFullCrl = getAndProcessCrl(url, caCertificate, caInfo, importCrlSession, crlPartitionIndex);
+                final StreamingCrlReader downloadedFullCrl = getAndProcessCrl(url, caCertificate, caInfo, crlStoreSession, importCrlSession, crlPartitionIndex);
                 if (downloadedFullCrl == null) {
                     newestFullCrl = lastFullCrl;
                 } else {
@@ -168,15 +191,15 @@ public class CRLDownloadWorker extends BaseWorker {
                 }
             }
             if (newestFullCrl != null) {
-                final List<String> freshestCdps = CrlExtensions.extractFreshestCrlDistributionPoints(newestFullCrl);
+                final List<String> freshestCdps = CrlExtensions.extractFreshestCrlDistributionPoints(newestFullCrl.getExtensionValue(Extension.freshestCRL));
                 if (!freshestCdps.isEmpty()) {
                     // Delta CRLs are used and we might already have a valid one stored
-                    X509CRL lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, crlPartitionIndex, true));
+                    StreamingCrlReader lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, crlPartitionIndex, true));
                     if (lastDeltaCrl != null && lastDeltaCrl.getThisUpdate().before(newestFullCrl.getThisUpdate())) {
                         // The last known delta CRL info is already included in the latest full CRL, so treat the last delta as non-existent
                         lastDeltaCrl = null;
                     }
-                    if (!ignoreNextUpdate && lastDeltaCrl != null && now.before(lastDeltaCrl.getNextUpdate())) {
+                    if (!ignoreNextUpdate && lastDeltaCrl != null && lastDeltaCrl.getNextUpdate() != null && now.before(lastDeltaCrl.getNextUpdate())) {
                         log.info("Next delta CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastDeltaCrl.getNextUpdate(), null) + ". Skipping download.");
                     } else {
                         // Check for and process first delta CRL that can be reached over HTTP (if any)
@@ -186,15 +209,14 @@ public class CRLDownloadWorker extends BaseWorker {
                                 log.info("Unusable Freshest CDP HTTP URL '" + freshestCdp + "' in CRL. Skipping download.");
                                 continue;
                             }
-                            final X509CRL newDeltaCrl = getAndProcessCrl(freshestCdpUrl, caCertificate, caInfo, importCrlSession, crlPartitionIndex);
-                            if (newDeltaCrl != null) {
-                                break;
-                            }
+                            // A failed download throws, so the delta CRL has been processed or was unchanged
+                            getAndProcessCrl(freshestCdpUrl, caCertificate, caInfo, crlStoreSession, importCrlSession, crlPartitionIndex);
+                            break;
                         }
                     }
                 }
             }
-        } catch (CRLException e) {
+        } catch (IOException e) {
             log.error("Last known CRL read from the database for CA Id " + caInfo.getCAId() + " has encoding problems.", e);
         } catch (CrlStoreException e) {
             log.error("Failed to store the downloaded CRL in the database for CA Id " + caInfo.getCAId() + ".", e);
@@ -203,25 +225,72 @@ public class CRLDownloadWorker extends BaseWorker {
         } 
     }
 
-    private X509CRL getCRLFromBytes(final byte[] crlBytes) throws CRLException {
+    private StreamingCrlReader getCRLFromBytes(final byte[] crlBytes) throws IOException {
         if (crlBytes != null) {
-            return CertTools.getCRLfromByteArray(crlBytes);
+            return new StreamingCrlReader(crlBytes);
         }
         return null;
     }
 
-    private X509CRL getAndProcessCrl(final URL cdpUrl, final X509Certificate caCertificate, final CAInfo caInfo,
+    /**
+     * Downloads a CRL, with a conditional request if it has been downloaded before, and imports it unless its CRL number is not newer than
+     * the last stored CRL of the same type.
+     * 
+     * @return the downloaded CRL, or null if it has not been modified since the last download or could not be imported
+     * @throws ServiceExecutionFailedException if the CRL failed to download or decode
+     */
+    private StreamingCrlReader getAndProcessCrl(final URL cdpUrl, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
                                      final ImportCrlSessionLocal importCrlSession, final int crlPartitionIndex) throws CrlStoreException, CrlImportException, ServiceExecutionFailedException {
         final int maxSize = PropertyTools.get(properties, PROP_MAX_DOWNLOAD_SIZE, DEFAULT_MAX_DOWNLOAD_SIZE);
-        X509CRL newCrl = null;
-        final byte[] crlBytesNew = NetworkTools.downloadDataFromUrl(cdpUrl, maxSize);
-        if (crlBytesNew == null) {
-            String msg = "Unable to download CRL for " + CertTools.getSubjectDN(caCertificate) + "  with url: " + cdpUrl;
-            log.warn(msg);
-            throw new ServiceExecutionFailedException(msg);
+        final String issuerDn = CertTools.getSubjectDN(caCertificate);
+        final String crlKey = getCrlKey(caInfo, crlPartitionIndex);
+        final String downloadStateKey = crlKey + ";" + cdpUrl;
+        DownloadState downloadState = downloadStates.get(downloadStateKey);
+        if (downloadState != null && crlStoreSession.getLastCRLNumber(issuerDn, crlPartitionIndex, downloadState.isDeltaCrl()) < downloadState.getCrlNumber()) {
+            // The CRL from the last download is not stored (any longer), so it has to be downloaded again
+            downloadState = null;
+        }
+        final byte[] crlBytesNew;
+        final HttpValidators validators;
+        File crlFile = null;
+        try {
+            // Large CRLs are not buffered in memory while they are downloaded
+            crlFile = File.createTempFile("crldownload", ".crl");
+            validators = NetworkTools.downloadToFileIfModified(cdpUrl, maxSize, downloadState == null ? null : downloadState.getValidators(), crlFile);
+            if (validators == null) {
+                log.info("CRL for CA '" + caInfo.getName() + "' at " + cdpUrl + " has not been modified since the last download.");
+                return null;
+            }
+            // The CRL is read into memory once, since ImportCrlSession stores the whole encoding in CRLData and StreamingCrlReader
+            // locates the entries in the encoding. Unlike the download buffer, the array is allocated with the exact size.
+            crlBytesNew = Files.readAllBytes(crlFile.toPath());
+        } catch (IOException e) {
+            String msg = "Unable to download CRL for " + issuerDn + "  with url: " + cdpUrl;
+            log.warn(msg + ": " + e.getMessage());
+            if (log.isDebugEnabled()) {
+                log.debug(msg, e);
+            }
+            throw new ServiceExecutionFailedException(msg, e);
+        } finally {
+            if (crlFile != null && !crlFile.delete()) {
+                log.warn("Unable to delete temporary file " + crlFile);
+            }
+        }
+        final StreamingCrlReader newCrl;
+        try {
+            // The CRL may also be published in PEM format
+            newCrl = new StreamingCrlReader(crlBytesNew.length > 0 && crlBytesNew[0] != 0x30 ? CertTools.getCRLfromByteArray(crlBytesNew).getEncoded() : crlBytesNew);
+        } catch (IOException | CRLException e) {
+            String msg = "Unable to decode downloaded CRL for '" + caInfo.getSubjectDN() + "'.";
+            log.warn(msg, e);
+            throw new ServiceExecutionFailedException(msg, e);
+        }
+        final boolean isDeltaCrl = newCrl.getDeltaCrlIndicator().signum() >= 0;
+        final int crlNumber = newCrl.getCrlNumber().intValue();
+        if (crlNumber > 0 && crlNumber <= crlStoreSession.getLastCRLNumber(issuerDn, crlPartitionIndex, isDeltaCrl)) {
+            log.info((isDeltaCrl ? "Delta" : "Full") + " CRL number " + crlNumber + " for CA '" + caInfo.getName() + "' has already been imported. Skipping import.");
         } else {
             try {
-                newCrl = CertTools.getCRLfromByteArray(crlBytesNew);
                 importCrlSession.importCrl(admin, caInfo, crlBytesNew, crlPartitionIndex);
             } catch (CRLException e) {
                 String msg = "Unable to decode downloaded CRL for '" + caInfo.getSubjectDN() + "'.";
@@ -232,8 +301,56 @@ public class CRLDownloadWorker extends BaseWorker {
                 return null;
             }
         }
+        // The URL of a CRL may have changed since the last download
+        downloadStates.values().removeIf(state -> state.getCrlKey().equals(crlKey) && state.isDeltaCrl() == isDeltaCrl);
+        downloadStates.put(downloadStateKey, new DownloadState(serviceName, crlKey, validators, crlNumber, isDeltaCrl));
         return newCrl;
     }
 
+    /** @return a key for the CRLs of a CA or CRL partition checked by this service */
+    private String getCrlKey(final CAInfo caInfo, final int crlPartitionIndex) {
+        return serviceName + ";" + caInfo.getCAId() + ";" + crlPartitionIndex;
+    }
+
+    /** Removes the download states of the CAs and CRL partitions that this service no longer checks */
+    private void pruneDownloadStates() {
+        downloadStates.values().removeIf(state -> state.getServiceName().equals(serviceName) && !checkedCrlKeys.contains(state.getCrlKey()));
+    }
+
+    /** The HTTP validators of the last download of a CRL, and the number of the downloaded CRL */
+    private static final class DownloadState {
+        private final String serviceName;
+        private final String crlKey;
+        private final HttpValidators validators;
+        private final int crlNumber;
+        private final boolean deltaCrl;
+
+        private DownloadState(final String serviceName, final String crlKey, final HttpValidators validators, final int crlNumber, final boolean deltaCrl) {
+            this.serviceName = serviceName;
+            this.crlKey = crlKey;
+            this.validators = validators;
+            this.crlNumber = crlNumber;
+            this.deltaCrl = deltaCrl;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
 
+        public String getCrlKey() {
+            return crlKey;
+        }
+
+        public HttpValidators getValidators() {
+            return validators;
+        }
+
+        public int getCrlNumber() {
+            return crlNumber;
+        }
+
+        public boolean isDeltaCrl() {
+            return deltaCrl;
+        }
+    }
 }
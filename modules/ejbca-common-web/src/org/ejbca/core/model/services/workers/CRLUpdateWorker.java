@@ -19,7 +19,10 @@ import org.cesecore.certificates.ca.CAConstants;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
+import org.ejbca.core.ejb.crl.CrlCreationJobResult;
 import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.services.BaseWorker;
@@ -33,6 +36,7 @@ import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -102,21 +106,39 @@ public class CRLUpdateWorker extends BaseWorker {
         CaSessionLocal caSession = (CaSessionLocal) ejbs.get(CaSessionLocal.class);
 
         // A semaphore used to not run parallel CRL generation jobs if it is slow in generating CRLs, and this job runs very often
-        Set<Integer> updatedCas = new HashSet<>();
-        Set<Integer> updatedCasDelta = new HashSet<>();
+        Set<Integer> updatedCas = new LinkedHashSet<>();
+        Set<Integer> updatedCasDelta = new LinkedHashSet<>();
+        final List<CrlCreationJobResult> jobResults = new ArrayList<>();
         Set<Integer> caids = new HashSet<>(getAllCAIdsToCheck(caSession, true));
         if (lock(caids)) {
             try {
                 long polltime = getNextInterval();
                 // Use true here so the service works the same as before upgrade from 3.9.0 when this function of
                 // selecting CAs did not exist, no CA = Any CA.
-                updatedCas.addAll(publishingCrlSession.createCRLs(getAdmin(), caids, polltime*1000));
-                updatedCasDelta.addAll(publishingCrlSession.createDeltaCRLs(getAdmin(), caids, polltime*1000));
+                if (CesecoreConfiguration.getCrlGenerationThreads() > 1) {
+                    // Each CA and CRL partition is a separate job, so the time taken by each of them can be reported
+                    jobResults.addAll(publishingCrlSession.createCrlJobs(getAdmin(), caids, polltime*1000, false));
+                    jobResults.addAll(publishingCrlSession.createCrlJobs(getAdmin(), caids, polltime*1000, true));
+                } else {
+                    updatedCas.addAll(publishingCrlSession.createCRLs(getAdmin(), caids, polltime*1000));
+                    updatedCasDelta.addAll(publishingCrlSession.createDeltaCRLs(getAdmin(), caids, polltime*1000));
+                }
             } catch (AuthorizationDeniedException e) {
                 log.error("Internal authentication token was denied access to importing CRLs or revoking certificates.", e);
             } finally {
                 releaseLock(caids);
             }
+            // Failures have been logged for each CA and CRL partition. Like when CRLs are created one CA at a time, they don't fail
+            // the service, but failed jobs are listed in the result message.
+            final List<CrlCreationJobResult> reportedJobs = new ArrayList<>();
+            for (final CrlCreationJobResult jobResult : jobResults) {
+                if (jobResult.isCreated()) {
+                    (jobResult.isDelta() ? updatedCasDelta : updatedCas).add(jobResult.getCaId());
+                }
+                if (jobResult.isCreated() || jobResult.isFailed()) {
+                    reportedJobs.add(jobResult);
+                }
+            }
             if (updatedCas.isEmpty() && updatedCasDelta.isEmpty()) {
                 return new ServiceExecutionResult(Result.NO_ACTION, "CRL Update Worker " + serviceName + " ran, but no CAs needed updating.");
             } else {
@@ -136,6 +158,13 @@ public class CRLUpdateWorker extends BaseWorker {
                     }
                     stringBuilder.append(" The following CA generated new delta CRLs: " + constructNameList(deltaCaNames) + ".");
                 }
+                if (!reportedJobs.isEmpty()) {
+                    final List<String> jobDescriptions = new ArrayList<>();
+                    for (final CrlCreationJobResult jobResult : reportedJobs) {
+                        jobDescriptions.add(describeJob(jobResult, caNameMap));
+                    }
+                    stringBuilder.append(" Jobs: " + constructNameList(jobDescriptions) + ".");
+                }
                 return new ServiceExecutionResult(Result.SUCCESS, stringBuilder.toString());
 
             }
@@ -146,6 +175,22 @@ public class CRLUpdateWorker extends BaseWorker {
         }
 	}
 
+    /** @return a description of the job with the CA name, CRL partition, duration and error, e.g. "MyCA partition 2 delta CRL (1234 ms)" */
+    private static String describeJob(final CrlCreationJobResult jobResult, final Map<Integer, String> caNameMap) {
+        final StringBuilder sb = new StringBuilder();
+        final String caName = caNameMap.get(jobResult.getCaId());
+        sb.append(caName != null ? caName : String.valueOf(jobResult.getCaId()));
+        if (jobResult.getCrlPartitionIndex() != CertificateConstants.NO_CRL_PARTITION) {
+            sb.append(" partition ").append(jobResult.getCrlPartitionIndex());
+        }
+        sb.append(jobResult.isDelta() ? " delta CRL" : " CRL");
+        sb.append(" (").append(jobResult.getDurationMillis()).append(" ms)");
+        if (jobResult.isFailed()) {
+            sb.append(" failed: ").append(jobResult.getErrorMessage());
+        }
+        return sb.toString();
+    }
+
     /**
      * Mark a set of CAs for CRL generation.
      *
@@ -0,0 +1,193 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.ocsp.cache.OcspResponseFileTree;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.oscp.OcspResponseData;
+import org.cesecore.util.PropertyTools;
+import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
+import org.ejbca.core.model.services.BaseWorker;
+import org.ejbca.core.model.services.ServiceExecutionFailedException;
+import org.ejbca.core.model.services.ServiceExecutionResult;
+import org.ejbca.core.model.services.ServiceExecutionResult.Result;
+
+/**
+ * Worker that exports the pre-produced OCSP responses of the selected CAs to a directory tree, see {@link OcspResponseFileTree}, that can be
+ * served by a plain web server or CDN, or by the OCSP servlet of a VA configured with ocsp.staticresponses.dir.
+ * <p>
+ * Stored responses that are valid for less than the refresh margin are produced again before they are exported. All other responses are
+ * exported as stored, and responses that have not changed since the previous export are not written again.
+ * <p>
+ * With {@link #PROP_PRE_PRODUCE_ALL}, responses for all certificates of each CA are pre-produced before the export, also for
+ * certificates that have no stored response yet. This is the bulk pre-production job for a whole CA, e.g. after the OCSP key binding
+ * has been renewed. Progress and throughput are logged while it runs.
+ * <p>
+ * Only CAs with pre-production of OCSP responses enabled are exported.
+ *
+ * @version $Id$
+ */
+public class OcspResponseExportWorker extends BaseWorker {
+
+    private static final Logger log = Logger.getLogger(OcspResponseExportWorker.class);
+
+    /** Directory holding the exported snapshots, see {@link OcspResponseFileTree} */
+    public static final String PROP_EXPORT_DIRECTORY = "exportDirectory";
+    /** Stored responses with nextUpdate closer than this number of seconds are produced again before they are exported */
+    public static final String PROP_REFRESH_MARGIN = "refreshMargin";
+    public static final long DEFAULT_REFRESH_MARGIN = 3600;
+    /** Whether responses for all certificates of each CA should be pre-produced before they are exported */
+    public static final String PROP_PRE_PRODUCE_ALL = "preProduceAll";
+
+    @Override
+    public void canWorkerRun(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+        //This service worker has no other error states than misconfiguration, so can technically always run.
+    }
+
+    @Override
+    public ServiceExecutionResult work(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+        final CaSessionLocal caSession = (CaSessionLocal) ejbs.get(CaSessionLocal.class);
+        final OcspDataSessionLocal ocspDataSession = (OcspDataSessionLocal) ejbs.get(OcspDataSessionLocal.class);
+        final OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession = (OcspResponseGeneratorSessionLocal) ejbs
+                .get(OcspResponseGeneratorSessionLocal.class);
+        final String exportDirectory = properties.getProperty(PROP_EXPORT_DIRECTORY);
+        if (StringUtils.isBlank(exportDirectory)) {
+            return new ServiceExecutionResult(Result.NO_ACTION, "OCSP Response Export Worker " + serviceName + " ran, but has no export directory configured.");
+        }
+        final long refreshMargin = getRefreshMargin() * 1000L;
+        final boolean preProduceAll = PropertyTools.get(properties, PROP_PRE_PRODUCE_ALL, false);
+        final List<String> exportedCas = new ArrayList<>();
+        int refreshedCount = 0;
+        int preProducedCount = 0;
+        long preProductionTime = 0;
+        try (final OcspResponseFileTree.Writer writer = new OcspResponseFileTree(exportDirectory).newWriter()) {
+            for (final int caId : getAllCAIdsToCheck(caSession, true)) {
+                final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+                if (!(caInfo instanceof X509CAInfo) || !((X509CAInfo) caInfo).isDoPreProduceOcspResponses()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("'" + (caInfo != null ? caInfo.getName() : caId) + "' does not pre-produce OCSP responses. Ignoring.");
+                    }
+                    continue;
+                }
+                final List<Certificate> certificateChain = caInfo.getCertificateChain();
+                if (certificateChain == null || certificateChain.isEmpty() || !(certificateChain.get(0) instanceof X509Certificate)) {
+                    continue;
+                }
+                if (preProduceAll) {
+                    final long startTime = System.currentTimeMillis();
+                    preProducedCount += ocspResponseGeneratorSession.preSignOcspResponses((X509Certificate) certificateChain.get(0), false, false,
+                            CertificateConstants.DEFAULT_CERTID_HASH_ALGORITHM);
+                    preProductionTime += System.currentTimeMillis() - startTime;
+                }
+                refreshedCount += exportCa(caId, (X509Certificate) certificateChain.get(0), refreshMargin, writer, ocspDataSession,
+                        ocspResponseGeneratorSession);
+                exportedCas.add(caInfo.getName());
+            }
+            if (exportedCas.isEmpty()) {
+                return new ServiceExecutionResult(Result.NO_ACTION, "OCSP Response Export Worker " + serviceName
+                        + " ran, but none of the CAs pre-produce OCSP responses.");
+            }
+            writer.commit();
+            final String preProduced = preProduceAll ? " Pre-produced " + preProducedCount + " OCSP responses for all certificates in "
+                    + preProductionTime + " ms (" + preProducedCount * 1000L / Math.max(1, preProductionTime) + " responses/s)." : "";
+            return new ServiceExecutionResult(Result.SUCCESS, "OCSP Response Export Worker " + serviceName + " exported " + writer.getSize()
+                    + " OCSP responses of " + constructNameList(exportedCas) + ", of which " + refreshedCount + " were produced again and "
+                    + writer.getWrittenCount() + " were new or changed." + preProduced);
+        } catch (IOException e) {
+            log.error("Could not export OCSP responses to '" + exportDirectory + "'.", e);
+            throw new ServiceExecutionFailedException("Could not export OCSP responses to '" + exportDirectory + "': " + e.getMessage(), e);
+        }
+    }
+
+    /** @return the number of responses that were produced again */
+    private int exportCa(final int caId, final X509Certificate caCertificate, final long refreshMargin, final OcspResponseFileTree.Writer writer,
+            final OcspDataSessionLocal ocspDataSession, final OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession) throws IOException {
+        final int batchSize = OcspConfiguration.getPreSigningBatchSize();
+        int refreshedCount = 0;
+        String lastSerialNumber = null;
+        List<OcspResponseData> page;
+        do {
+            page = ocspDataSession.findOcspDataByCaIdAfterSerialNumber(caId, lastSerialNumber, batchSize);
+            final long now = System.currentTimeMillis();
+            final List<OcspResponseData> toExport = new ArrayList<>(page.size());
+            final Map<BigInteger, OcspResponseData> toRefresh = new HashMap<>();
+            String previousSerialNumber = lastSerialNumber;
+            for (final OcspResponseData responseData : page) {
+                // The latest response of each serial number comes first
+                if (responseData.getSerialNumber().equals(previousSerialNumber)) {
+                    continue;
+                }
+                previousSerialNumber = responseData.getSerialNumber();
+                if (responseData.getNextUpdate() == null) {
+                    continue;
+                }
+                if (responseData.getNextUpdate() - now < refreshMargin) {
+                    toRefresh.put(new BigInteger(responseData.getSerialNumber()), responseData);
+                } else {
+                    toExport.add(responseData);
+                }
+            }
+            if (!toRefresh.isEmpty()) {
+                final Collection<OcspResponseData> refreshed = ocspResponseGeneratorSession.preSignOcspResponses(caCertificate, toRefresh.keySet(), false,
+                        false, CertificateConstants.DEFAULT_CERTID_HASH_ALGORITHM);
+                for (final OcspResponseData responseData : refreshed) {
+                    toRefresh.remove(new BigInteger(responseData.getSerialNumber()));
+                }
+                refreshedCount += refreshed.size();
+                toExport.addAll(refreshed);
+                // Responses that could not be produced again, e.g. for expired certificates, are exported as long as they are valid
+                toExport.addAll(toRefresh.values());
+            }
+            for (final OcspResponseData responseData : toExport) {
+                if (responseData.getNextUpdate() != null && responseData.getNextUpdate() > now) {
+                    writer.add(caId, responseData.getSerialNumber(), responseData.getProducedAt(), responseData.getNextUpdate(),
+                            responseData.getOcspResponse());
+                }
+            }
+            if (!page.isEmpty()) {
+                lastSerialNumber = page.get(page.size() - 1).getSerialNumber();
+            }
+        } while (page.size() == batchSize);
+        return refreshedCount;
+    }
+
+    private long getRefreshMargin() {
+        final String value = properties.getProperty(PROP_REFRESH_MARGIN);
+        if (StringUtils.isBlank(value)) {
+            return DEFAULT_REFRESH_MARGIN;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn(PROP_REFRESH_MARGIN + " of service " + serviceName + " is not a decimal integer. Using default " + DEFAULT_REFRESH_MARGIN + ".");
+            return DEFAULT_REFRESH_MARGIN;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
+import org.ejbca.core.model.services.BaseWorker;
+import org.ejbca.core.model.services.ServiceExecutionFailedException;
+import org.ejbca.core.model.services.ServiceExecutionResult;
+import org.ejbca.core.model.services.ServiceExecutionResult.Result;
+
+/**
+ * Worker that indexes the existing certificates and end entities in the search index, in batches. Certificates and end entities are
+ * indexed when they are stored, so this only has to run until the backfill has completed, after which the index is used for searches.
+ */
+public class SearchIndexBackfillWorker extends BaseWorker {
+
+    private static final Logger log = Logger.getLogger(SearchIndexBackfillWorker.class);
+
+    /** Number of rows indexed in each transaction */
+    private static final int BATCH_SIZE = 1000;
+    /** Maximum time of each execution, so that the service doesn't run past its next interval */
+    private static final long MAX_EXECUTION_TIME = 5 * 60 * 1000L;
+
+    @Override
+    public void canWorkerRun(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+        // The backfill only reads and writes the database, and does nothing if the search index is disabled
+    }
+
+    @Override
+    public ServiceExecutionResult work(Map<Class<?>, Object> ejbs) {
+        if (!CesecoreConfiguration.isSearchIndexEnabled()) {
+            return new ServiceExecutionResult(Result.NO_ACTION, "The search index is not enabled with searchindex.enabled.");
+        }
+        final SearchIndexSessionLocal searchIndexSession = (SearchIndexSessionLocal) ejbs.get(SearchIndexSessionLocal.class);
+        final long deadline = System.currentTimeMillis() + MAX_EXECUTION_TIME;
+        final int certificates = backfill(searchIndexSession, true, deadline);
+        final int endEntities = backfill(searchIndexSession, false, deadline);
+        if (certificates == 0 && endEntities == 0) {
+            return new ServiceExecutionResult(Result.NO_ACTION, "The search index backfill has completed.");
+        }
+        return new ServiceExecutionResult(Result.SUCCESS,
+                "Indexed " + certificates + " certificates and " + endEntities + " end entities in the search index.");
+    }
+
+    private int backfill(final SearchIndexSessionLocal searchIndexSession, final boolean certificates, final long deadline) {
+        int total = 0;
+        int count;
+        do {
+            count = certificates ? searchIndexSession.backfillCertificates(BATCH_SIZE) : searchIndexSession.backfillEndEntities(BATCH_SIZE);
+            total += count;
+        } while (count == BATCH_SIZE && System.currentTimeMillis() < deadline);
+        if (log.isDebugEnabled()) {
+            log.debug("Indexed " + total + (certificates ? " certificates" : " end entities") + " in the search index.");
+        }
+        return total;
+    }
+}
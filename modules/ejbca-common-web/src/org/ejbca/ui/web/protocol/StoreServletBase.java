@@ -214,9 +214,16 @@ public abstract class StoreServletBase extends HttpServlet {
             throw new IllegalStateException("Could not send error response", e);
         }
 		log.info("Reloading certificate and CRL caches due to request from "+req.getRemoteAddr());
+		reloadCache();
+		return true;
+	}
+
+	/**
+	 * Reloads the caches used by the servlet. Called when a reload is requested from localhost.
+	 */
+	protected void reloadCache() {
 		// Reload CA certificates
 		certificateStoreSession.reloadCaCertificateCache();
-		return true;
 	}
 	
 	/**
@@ -0,0 +1,205 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
+import org.junit.Test;
+
+/**
+ * Unit tests for OcspRequestReader
+ *
+ * @version $Id$
+ */
+public class OcspRequestReaderTest {
+
+    private static final AlgorithmIdentifier SHA1 = new AlgorithmIdentifier(CertificateID.HASH_SHA1.getAlgorithm());
+
+    @Test
+    public void testReadPostRequest() throws Exception {
+        final byte[] request = createRequest(1, false);
+        assertArrayEquals(request, OcspRequestReader.readPostRequest(new ByteArrayInputStream(request), request.length));
+        assertArrayEquals("Content length of a defined length request should not matter.", request,
+                OcspRequestReader.readPostRequest(new ByteArrayInputStream(request), -1));
+        final byte[] withTrailingData = Arrays.copyOf(request, request.length + 10);
+        assertArrayEquals("Only the first ASN.1 object should be read.", request,
+                OcspRequestReader.readPostRequest(new ByteArrayInputStream(withTrailingData), withTrailingData.length));
+        final byte[] largeRequest = createRequest(OcspRequestReader.MAX_REQUESTS, true);
+        assertTrue("Test request should use the long form of the length.", largeRequest[1] == (byte) 0x82);
+        assertArrayEquals(largeRequest, OcspRequestReader.readPostRequest(new ByteArrayInputStream(largeRequest), largeRequest.length));
+        assertEquals(0, OcspRequestReader.readPostRequest(new ByteArrayInputStream(new byte[0]), 0).length);
+    }
+
+    @Test
+    public void testReadPostRequestOfUndefinedLength() throws Exception {
+        final byte[] request = { 0x30, (byte) 0x80, 0x02, 0x01, 0x01, 0x00, 0x00 };
+        assertArrayEquals(request, OcspRequestReader.readPostRequest(new ByteArrayInputStream(request), -1));
+        assertArrayEquals(request, OcspRequestReader.readPostRequest(new ByteArrayInputStream(request), request.length));
+        final byte[] largeRequest = new byte[OcspRequestReader.POOLED_BUFFER_SIZE * 3];
+        System.arraycopy(request, 0, largeRequest, 0, 2);
+        assertArrayEquals(largeRequest, OcspRequestReader.readPostRequest(new ByteArrayInputStream(largeRequest), -1));
+        assertPostRequestRejected("Stream shorter than the content length should be rejected.", request, request.length + 1);
+        assertPostRequestRejected("Content length above the limit should be rejected.", request, LimitLengthASN1Reader.MAX_REQUEST_SIZE + 1);
+    }
+
+    @Test
+    public void testReadPostRequestRejected() throws Exception {
+        final byte[] request = createRequest(1, false);
+        assertPostRequestRejected("Request shorter than its length should be rejected.", Arrays.copyOf(request, request.length - 1), -1);
+        final byte[] notSequence = request.clone();
+        notSequence[0] = 0x02;
+        assertPostRequestRejected("Request that is not a sequence should be rejected.", notSequence, -1);
+        // The length is checked before anything is read or allocated
+        assertPostRequestRejected("Request too large should be rejected.", new byte[] { 0x30, (byte) 0x83, 0x01, (byte) 0x86, (byte) 0xa1 }, -1);
+        assertPostRequestRejected("Request too large should be rejected.", new byte[] { 0x30, (byte) 0x88, 0x7f, 0, 0, 0, 0, 0, 0, 0 }, -1);
+        assertPostRequestRejected("Request ending in the length should be rejected.", new byte[] { 0x30, (byte) 0x82, 0x01 }, -1);
+    }
+
+    @Test
+    public void testDecodeGetRequest() throws Exception {
+        final byte[] request = createRequest(1, false);
+        final String base64 = Base64.getEncoder().encodeToString(request);
+        final String prefix = "/ejbca/publicweb/status/ocsp/";
+        assertArrayEquals(request, OcspRequestReader.decodeGetRequest(prefix + base64, prefix.length()));
+        final String urlEncoded = base64.replace("+", "%2B").replace("/", "%2f").replace("=", "%3D");
+        assertArrayEquals(request, OcspRequestReader.decodeGetRequest(prefix + urlEncoded, prefix.length()));
+        assertArrayEquals("Space should be decoded as '+'.", request, OcspRequestReader.decodeGetRequest(base64.replace("+", "%20"), 0));
+        assertArrayEquals("Line breaks should be ignored.", request,
+                OcspRequestReader.decodeGetRequest(base64.substring(0, 10) + "%0D%0A" + base64.substring(10), 0));
+        assertArrayEquals("Padding should be optional.", request, OcspRequestReader.decodeGetRequest(base64.replace("=", ""), 0));
+        assertEquals(0, OcspRequestReader.decodeGetRequest(prefix, prefix.length()).length);
+        final byte[] largeRequest = createRequest(2 * OcspRequestReader.MAX_REQUESTS, false);
+        assertTrue("Test request should not fit in the pooled buffer.", largeRequest.length > OcspRequestReader.POOLED_BUFFER_SIZE);
+        assertArrayEquals(largeRequest, OcspRequestReader.decodeGetRequest(Base64.getEncoder().encodeToString(largeRequest), 0));
+        // The pooled buffer is reused, so results must not be affected by earlier requests
+        assertArrayEquals(request, OcspRequestReader.decodeGetRequest(base64, 0));
+        for (final String invalid : new String[] { base64 + "%", base64 + "%4", base64 + "%zz", base64.substring(0, 8) + "=" + base64.substring(8),
+                base64.substring(0, 8) + "*", base64.substring(0, 8) + "%C3%A5", "A" }) {
+            try {
+                OcspRequestReader.decodeGetRequest(invalid, 0);
+                fail("Invalid encoding should be rejected: " + invalid);
+            } catch (MalformedRequestException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testCheckRequest() throws Exception {
+        assertTrue("Single unsigned request should be plain.", OcspRequestReader.checkRequest(createRequest(1, false)));
+        assertFalse("Request with nonce should not be plain.", OcspRequestReader.checkRequest(createRequest(1, true)));
+        assertFalse("Request for several certificates should not be plain.", OcspRequestReader.checkRequest(createRequest(2, false)));
+        assertFalse("Request for the maximum number of certificates should be accepted.",
+                OcspRequestReader.checkRequest(createRequest(OcspRequestReader.MAX_REQUESTS, false)));
+        final OCSPReqBuilder builder = new OCSPReqBuilder();
+        builder.addRequest(createCertificateId(1),
+                new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_service_locator, false, new byte[] { 0x30, 0x00 })));
+        builder.setRequestorName(new GeneralName(new X500Name("CN=Requestor")));
+        assertFalse("Request with single request extensions should not be plain.", OcspRequestReader.checkRequest(builder.build().getEncoded()));
+        assertFalse("Signed request should not be plain.", OcspRequestReader.checkRequest(builder.build(new DummySigner(), null).getEncoded()));
+        assertFalse("Request of undefined length should be left to the full parser.",
+                OcspRequestReader.checkRequest(new byte[] { 0x30, (byte) 0x80, 0x30, (byte) 0x80, 0x00, 0x00, 0x00, 0x00 }));
+    }
+
+    @Test
+    public void testCheckRequestRejected() throws Exception {
+        final byte[] request = createRequest(1, false);
+        assertCheckRejected("Trailing data should be rejected.", Arrays.copyOf(request, request.length + 1));
+        assertCheckRejected("Truncated request should be rejected.", Arrays.copyOf(request, request.length - 1));
+        assertCheckRejected("Too many certificates should be rejected.", createRequest(OcspRequestReader.MAX_REQUESTS + 1, false));
+        assertCheckRejected("Empty request list should be rejected.", new byte[] { 0x30, 0x04, 0x30, 0x02, 0x30, 0x00 });
+        assertCheckRejected("Request that is not a sequence should be rejected.", new byte[] { 0x02, 0x01, 0x00 });
+        final byte[] brokenCertId = request.clone();
+        // Serial number tag of the CertID in the single Request
+        brokenCertId[request.length - 3] = 0x04;
+        assertCheckRejected("CertID without serial number should be rejected.", brokenCertId);
+    }
+
+    private static byte[] createRequest(final int certificateCount, final boolean nonce) throws Exception {
+        final OCSPReqBuilder builder = new OCSPReqBuilder();
+        for (int i = 0; i < certificateCount; i++) {
+            builder.addRequest(createCertificateId(i + 1));
+        }
+        if (nonce) {
+            builder.setRequestExtensions(new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                    new DEROctetString(new byte[16]).getEncoded())));
+        }
+        return builder.build().getEncoded();
+    }
+
+    private static CertificateID createCertificateId(final long serialNumber) {
+        return new CertificateID(new CertID(SHA1, new DEROctetString(new byte[20]), new DEROctetString(new byte[20]), new ASN1Integer(serialNumber)));
+    }
+
+    private static void assertPostRequestRejected(final String message, final byte[] request, final int contentLength) throws Exception {
+        try {
+            OcspRequestReader.readPostRequest(new ByteArrayInputStream(request), contentLength);
+            fail(message);
+        } catch (MalformedRequestException e) {
+            // Expected
+        }
+    }
+
+    private static void assertCheckRejected(final String message, final byte[] request) {
+        try {
+            OcspRequestReader.checkRequest(request);
+            fail(message);
+        } catch (MalformedRequestException e) {
+            // Expected
+        }
+    }
+
+    /** Signer producing an empty signature, the signature is not checked */
+    private static class DummySigner implements ContentSigner {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return new byte[0];
+        }
+    }
+}
@@ -302,6 +302,16 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return true if read-only searches should be sent to all RA back ends in parallel instead of sequentially. */
+    public static boolean isRaSearchParallelEnabled() {
+        return getBooleanProperty("ra.search.parallel.enabled", true);
+    }
+
+    /** @return the time in milliseconds to wait for each RA back end during a parallel search, or 0 to wait without limit. */
+    public static long getRaSearchBackendTimeoutMillis() {
+        return Math.max(0L, getLongProperty("ra.search.backendtimeout", 60000L));
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
@@ -0,0 +1,337 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.bouncycastle.asn1.BERTags;
+import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
+import org.ejbca.core.model.InternalEjbcaResources;
+
+/**
+ * Reads OCSP requests from HTTP requests with as few temporary objects as possible, and checks their structure before they are
+ * parsed by BouncyCastle.
+ * <ul>
+ * <li>POST requests are read with a single allocation of the exact size, after the ASN.1 tag and length have been checked.
+ * <li>GET requests are URL and Base64 decoded in one pass, into a buffer that is reused by the thread.
+ * <li>{@link #checkRequest(byte[])} walks the DER encoding without creating any objects, so malformed requests, and requests for
+ * too many certificates, are rejected early.
+ * </ul>
+ * Requests are never larger than {@link LimitLengthASN1Reader#MAX_REQUEST_SIZE} bytes.
+ *
+ * @version $Id$
+ */
+public final class OcspRequestReader {
+
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+
+    /** Max number of certificates in one OCSP request, same as in OcspResponseGeneratorSessionBean */
+    public static final int MAX_REQUESTS = 100;
+    /** Size of the decoding buffer kept by each thread. Larger requests, which are rare, get a buffer of their own. */
+    static final int POOLED_BUFFER_SIZE = 8192;
+
+    private static final int SEQUENCE = BERTags.SEQUENCE | BERTags.CONSTRUCTED;
+    private static final int TAGGED_0 = BERTags.TAGGED | BERTags.CONSTRUCTED;
+    private static final int TAGGED_1 = TAGGED_0 | 1;
+    private static final int TAGGED_2 = TAGGED_0 | 2;
+
+    /** Only byte arrays are stored, so no class loader is kept alive by the container threads after a redeploy */
+    private static final ThreadLocal<byte[]> pooledBuffer = ThreadLocal.withInitial(() -> new byte[POOLED_BUFFER_SIZE]);
+    /** The value of each Base64 character, or -1 */
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private OcspRequestReader() {}
+
+    /**
+     * Reads the first ASN.1 object of a POST request, like {@link LimitLengthASN1Reader#readFirstASN1Object()}. For requests of defined
+     * length, which is almost all of them, the size is checked before anything is read and the bytes are read straight into the
+     * returned array.
+     *
+     * @param in the stream of the HTTP request body
+     * @param contentLength the content length of the HTTP request, or -1 if unknown. Only used for requests of undefined length.
+     * @return the bytes of the first ASN.1 object, or an empty array if the stream is empty
+     * @throws MalformedRequestException if the request is not a sequence, is too large or is shorter than its length says
+     */
+    public static byte[] readPostRequest(final InputStream in, final int contentLength) throws IOException, MalformedRequestException {
+        final int tag = in.read();
+        if (tag == -1) {
+            return new byte[0];
+        }
+        if ((tag & 0x1f) != BERTags.SEQUENCE) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("request.notasequence", Integer.valueOf(tag & 0x1f)));
+        }
+        final int firstLengthByte = readByte(in);
+        if (firstLengthByte == 0x80) {
+            return readUndefinedLengthRequest(in, tag, contentLength);
+        }
+        final int lengthByteCount = firstLengthByte > 0x80 ? firstLengthByte & 0x7f : 0;
+        if (lengthByteCount > 4) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("request.toolarge", Integer.valueOf(LimitLengthASN1Reader.MAX_REQUEST_SIZE),
+                    "more than " + Integer.MAX_VALUE));
+        }
+        long length = lengthByteCount == 0 ? firstLengthByte : 0;
+        for (int i = 0; i < lengthByteCount; i++) {
+            length = length << 8 | readByte(in);
+        }
+        if (length > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("request.toolarge", Integer.valueOf(LimitLengthASN1Reader.MAX_REQUEST_SIZE),
+                    Long.valueOf(length)));
+        }
+        final int headerLength = 2 + lengthByteCount;
+        final byte[] ret = new byte[headerLength + (int) length];
+        ret[0] = (byte) tag;
+        ret[1] = (byte) firstLengthByte;
+        for (int i = 0; i < lengthByteCount; i++) {
+            ret[2 + i] = (byte) (length >>> (8 * (lengthByteCount - 1 - i)));
+        }
+        int position = headerLength;
+        while (position < ret.length) {
+            final int n = in.read(ret, position, ret.length - position);
+            if (n == -1) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("request.notcorrectasn1length", Long.valueOf(length),
+                        Integer.valueOf(position - headerLength)));
+            }
+            position += n;
+        }
+        return ret;
+    }
+
+    /**
+     * URL and Base64 decodes the request of a GET request, see RFC 6960 A.1. Like URL decoding, '+' and ' ' both mean '+', since
+     * some clients do not URL encode the Base64 encoded request. Line breaks are ignored.
+     *
+     * @param url the request URI
+     * @param offset the index of the first character of the encoded request in url
+     * @return the decoded request, which is empty if there is nothing after offset
+     * @throws MalformedRequestException if the URL or Base64 encoding is invalid
+     */
+    public static byte[] decodeGetRequest(final String url, final int offset) throws MalformedRequestException {
+        final int length = Math.max(url.length() - offset, 0);
+        final int maxDecodedLength = (length / 4 + 1) * 3;
+        final byte[] buffer = maxDecodedLength <= POOLED_BUFFER_SIZE ? pooledBuffer.get() : new byte[maxDecodedLength];
+        int size = 0;
+        int bits = 0;
+        int bitCount = 0;
+        boolean padding = false;
+        for (int i = offset; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '%') {
+                final int high = i + 2 < url.length() ? Character.digit(url.charAt(i + 1), 16) : -1;
+                final int low = high != -1 ? Character.digit(url.charAt(i + 2), 16) : -1;
+                if (low == -1) {
+                    throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.badurlenc"));
+                }
+                c = (char) (high << 4 | low);
+                i += 2;
+            }
+            if (c == '\r' || c == '\n') {
+                continue;
+            }
+            if (c == '=') {
+                padding = true;
+                continue;
+            }
+            final int value = c == ' ' ? 62 : c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+            if (value == -1 || padding) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.badurlenc"));
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                buffer[size++] = (byte) (bits >>> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+        if (bitCount == 6) {
+            // A single character in the last group of four can not be decoded
+            throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.badurlenc"));
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Checks that a request is a DER encoded OCSPRequest (RFC 6960 4.1.1) without parsing it into objects. Requests with BER encoded
+     * elements of undefined length are not checked, they are left to the full parser.
+     *
+     * @param request the request bytes
+     * @return true if the request is of the common shape: one certificate, no signature and no extensions. Such requests are
+     *      encoded in the same way by all clients asking about the same certificate.
+     * @throws MalformedRequestException if the request is not an OCSPRequest, or asks about no or more than {@link #MAX_REQUESTS}
+     *      certificates
+     */
+    public static boolean checkRequest(final byte[] request) throws MalformedRequestException {
+        final DerReader der = new DerReader(request);
+        try {
+            final int ocspRequestEnd = der.enter(SEQUENCE, request.length, "OCSPRequest");
+            final int tbsRequestEnd = der.enter(SEQUENCE, ocspRequestEnd, "tbsRequest");
+            if (der.peekTag(tbsRequestEnd) == TAGGED_0) {
+                der.skip(TAGGED_0, tbsRequestEnd, "version");
+            }
+            if (der.peekTag(tbsRequestEnd) == TAGGED_1) {
+                der.skip(TAGGED_1, tbsRequestEnd, "requestorName");
+            }
+            final int requestListEnd = der.enter(SEQUENCE, tbsRequestEnd, "requestList");
+            int requestCount = 0;
+            boolean hasExtensions = false;
+            while (der.peekTag(requestListEnd) != -1) {
+                if (++requestCount > MAX_REQUESTS) {
+                    throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.errortoomanyreqentities", MAX_REQUESTS));
+                }
+                final int requestEnd = der.enter(SEQUENCE, requestListEnd, "Request");
+                final int certIdEnd = der.enter(SEQUENCE, requestEnd, "CertID");
+                der.skip(SEQUENCE, certIdEnd, "hashAlgorithm");
+                der.skip(BERTags.OCTET_STRING, certIdEnd, "issuerNameHash");
+                der.skip(BERTags.OCTET_STRING, certIdEnd, "issuerKeyHash");
+                der.skip(BERTags.INTEGER, certIdEnd, "serialNumber");
+                der.expectEnd(certIdEnd, "CertID");
+                if (der.peekTag(requestEnd) == TAGGED_0) {
+                    der.skip(TAGGED_0, requestEnd, "singleRequestExtensions");
+                    hasExtensions = true;
+                }
+                der.expectEnd(requestEnd, "Request");
+            }
+            if (requestCount == 0) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.errornoreqentities"));
+            }
+            if (der.peekTag(tbsRequestEnd) == TAGGED_2) {
+                der.skip(TAGGED_2, tbsRequestEnd, "requestExtensions");
+                hasExtensions = true;
+            }
+            der.expectEnd(tbsRequestEnd, "tbsRequest");
+            final boolean isSigned = der.peekTag(ocspRequestEnd) == TAGGED_0;
+            if (isSigned) {
+                der.skip(TAGGED_0, ocspRequestEnd, "optionalSignature");
+            }
+            der.expectEnd(ocspRequestEnd, "OCSPRequest");
+            der.expectEnd(request.length, "request");
+            return requestCount == 1 && !isSigned && !hasExtensions;
+        } catch (UndefinedLengthException e) {
+            return false;
+        }
+    }
+
+    private static int readByte(final InputStream in) throws IOException, MalformedRequestException {
+        final int b = in.read();
+        if (b == -1) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", "the request ends within the ASN.1 length"));
+        }
+        return b;
+    }
+
+    /** Reads a BER encoded request of undefined length, limited by the content length if given, or else MAX_REQUEST_SIZE */
+    private static byte[] readUndefinedLengthRequest(final InputStream in, final int tag, final int contentLength)
+            throws IOException, MalformedRequestException {
+        if (contentLength > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("request.toolarge", Integer.valueOf(LimitLengthASN1Reader.MAX_REQUEST_SIZE),
+                    Integer.valueOf(contentLength)));
+        }
+        final int limit = contentLength > 2 ? contentLength : LimitLengthASN1Reader.MAX_REQUEST_SIZE;
+        byte[] buffer = pooledBuffer.get();
+        buffer[0] = (byte) tag;
+        buffer[1] = (byte) 0x80;
+        int size = 2;
+        while (size < limit) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(limit, buffer.length * 2));
+            }
+            final int n = in.read(buffer, size, Math.min(buffer.length, limit) - size);
+            if (n == -1) {
+                break;
+            }
+            size += n;
+        }
+        if (contentLength > 2 && size < contentLength) {
+            throw new MalformedRequestException(intres.getLocalizedMessage("request.notcorrectasn1length", Integer.valueOf(contentLength - 2),
+                    Integer.valueOf(size - 2)));
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /** Thrown when a BER encoded element of undefined length is found, which is left to the full parser */
+    private static final class UndefinedLengthException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UndefinedLengthException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Reads the tags and lengths of DER encoded elements */
+    private static final class DerReader {
+        private static final UndefinedLengthException UNDEFINED_LENGTH = new UndefinedLengthException();
+
+        private final byte[] der;
+        private int position = 0;
+
+        private DerReader(final byte[] der) {
+            this.der = der;
+        }
+
+        /** @return the tag of the next element, or -1 if there are no more elements before end */
+        private int peekTag(final int end) {
+            return position < end ? der[position] & 0xff : -1;
+        }
+
+        /**
+         * Reads the tag and length of the next element, which must have the given tag and end before end.
+         * @return the end of the contents of the element, the position is at the start of the contents
+         */
+        private int enter(final int tag, final int end, final String name) throws MalformedRequestException, UndefinedLengthException {
+            if (position >= end || (der[position] & 0xff) != tag) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", name + " is missing"));
+            }
+            if (++position >= end) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", "the length of " + name + " is missing"));
+            }
+            int length = der[position++] & 0xff;
+            if (length == 0x80) {
+                throw UNDEFINED_LENGTH;
+            }
+            if (length > 0x80) {
+                final int lengthByteCount = length & 0x7f;
+                if (lengthByteCount > 3 || lengthByteCount > end - position) {
+                    throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", "invalid length of " + name));
+                }
+                length = 0;
+                for (int i = 0; i < lengthByteCount; i++) {
+                    length = length << 8 | der[position++] & 0xff;
+                }
+            }
+            if (length > end - position) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", name + " is longer than the enclosing element"));
+            }
+            return position + length;
+        }
+
+        /** Skips the next element, which must have the given tag and end before end */
+        private void skip(final int tag, final int end, final String name) throws MalformedRequestException, UndefinedLengthException {
+            position = enter(tag, end, name);
+        }
+
+        private void expectEnd(final int end, final String name) throws MalformedRequestException {
+            if (position != end) {
+                throw new MalformedRequestException(intres.getLocalizedMessage("ocsp.malformedreq", "unexpected data at the end of " + name));
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@ import java.io.File;
 import java.security.cert.X509Certificate;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,6 +31,9 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStoreItem;
+import org.cesecore.certificates.certificate.CertificateStoreOutcome;
+import org.cesecore.certificates.certificate.CertificateStoreSessionRemote;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionRemote;
 import org.cesecore.certificates.crl.RevocationReasons;
@@ -70,6 +75,9 @@ public class CaImportCertDirCommand extends BaseCaAdminCommand {
     private static final String ACTIVE = "ACTIVE";
     private static final String REVOKED = "REVOKED";
 
+    /** Number of certificates stored in each call to the server */
+    private static final int STORE_BATCH_SIZE = 500;
+
     {
         registerParameter(new Parameter(USERNAME_FILTER_KEY, "Filter", MandatoryMode.MANDATORY, StandaloneMode.ALLOW, ParameterMode.ARGUMENT,
                 "\"DN\" means use certificate's SubjectDN as username, \"CN\" means use certificate subject's common name as username and \"FILE\" means user the file's name as username"));
@@ -201,7 +209,9 @@ public class CaImportCertDirCommand extends BaseCaAdminCommand {
                 return CommandResult.CLI_FAILURE;
             }
 
+            final Queue<CertificateImporter> importers = new LinkedList<>();
             final Queue<Future<CertificateImporter.Result>> futures = new LinkedList<>();
+            final List<CertificateImporter> importersToStore = new ArrayList<>();
             final List<CertificateImporter.Result> results = new LinkedList<>();
             int redundant = 0;
             int caMismatch = 0;
@@ -214,7 +224,7 @@ public class CaImportCertDirCommand extends BaseCaAdminCommand {
 
 
             for (final File file : files) {
-                futures.add(executorService.submit(new CertificateImporter()
+                final CertificateImporter importer = new CertificateImporter()
                         .setAuthenticationToken(getAuthenticationToken())
                         .setCaCertificate(cacert)
                         .setCaInfo(caInfo)
@@ -226,16 +236,19 @@ public class CaImportCertDirCommand extends BaseCaAdminCommand {
                         .setRevocationReason(revocationReason)
                         .setRevocationTime(revocationTime)
                         .setStatus(status)
-                        .setUsernameFilter(usernameFilter)));
+                        .setUsernameFilter(usernameFilter);
+                importers.add(importer);
+                futures.add(executorService.submit(importer));
                 // Process completed tasks
                 while (futures.peek() != null && futures.peek().isDone()) {
-                    results.add(futures.remove().get());
+                    addResult(importers.remove(), futures.remove().get(), importersToStore, results);
                 }
             }
 
-            for (final Future<CertificateImporter.Result> future : futures) {
-                results.add(future.get());
+            while (!futures.isEmpty()) {
+                addResult(importers.remove(), futures.remove().get(), importersToStore, results);
             }
+            results.addAll(storeCertificates(importersToStore));
 
             for (final CertificateImporter.Result result : results) {
                 if (result == CertificateImporter.Result.REDUNDANT) {
@@ -285,6 +298,55 @@ public class CaImportCertDirCommand extends BaseCaAdminCommand {
         return CommandResult.SUCCESS;
     }
 
+    /** Adds the result of a checked certificate, and stores the certificates waiting to be stored when there are enough of them. */
+    private void addResult(final CertificateImporter importer, final CertificateImporter.Result result, final List<CertificateImporter> importersToStore,
+            final List<CertificateImporter.Result> results) throws Exception {
+        if (result == CertificateImporter.Result.READY_TO_STORE) {
+            importersToStore.add(importer);
+            if (importersToStore.size() >= STORE_BATCH_SIZE) {
+                results.addAll(storeCertificates(importersToStore));
+                importersToStore.clear();
+            }
+        } else {
+            results.add(result);
+        }
+    }
+
+    /**
+     * Stores the certificates of the importers in one call to the server, and completes their imports. If the call fails, e.g. because
+     * a database constraint was violated when the batch was flushed, nothing of the batch is stored, and the certificates are stored
+     * again one at a time, so only the offending certificates fail.
+     */
+    private List<CertificateImporter.Result> storeCertificates(final List<CertificateImporter> importers) throws Exception {
+        final List<CertificateImporter.Result> results = new ArrayList<>();
+        if (importers.isEmpty()) {
+            return results;
+        }
+        final List<CertificateStoreItem> items = new ArrayList<>();
+        for (final CertificateImporter importer : importers) {
+            items.add(importer.getCertificateStoreItem());
+        }
+        final List<CertificateStoreOutcome> outcomes;
+        try {
+            outcomes = EjbRemoteHelper.INSTANCE.getRemoteSession(CertificateStoreSessionRemote.class)
+                    .storeCertificatesRemote(getAuthenticationToken(), items);
+        } catch (Exception e) {
+            if (importers.size() == 1) {
+                results.add(importers.get(0).failImport(e));
+                return results;
+            }
+            log.info("Storing " + importers.size() + " certificates at once failed, storing them one at a time. " + e.getMessage());
+            for (final CertificateImporter importer : importers) {
+                results.addAll(storeCertificates(Collections.singletonList(importer)));
+            }
+            return results;
+        }
+        for (int i = 0; i < importers.size(); i++) {
+            results.add(importers.get(i).completeImport(outcomes.get(i)));
+        }
+        return results;
+    }
+
     @Override
     public String getCommandDescription() {
         return "Imports a directory with PEM encoded certficate file(s) to the database, creating an End Entity (with random pwd and status 'generated') to map the each certificate to.";
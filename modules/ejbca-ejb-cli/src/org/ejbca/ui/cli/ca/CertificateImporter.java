@@ -27,6 +27,8 @@ import org.apache.log4j.Logger;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStoreItem;
+import org.cesecore.certificates.certificate.CertificateStoreOutcome;
 import org.cesecore.certificates.certificate.CertificateStoreSessionRemote;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.endentity.EndEntityConstants;
@@ -42,12 +44,13 @@ import org.ejbca.util.passgen.IPasswordGenerator;
 import org.ejbca.util.passgen.PasswordGeneratorFactory;
 
 import com.keyfactor.util.CertTools;
-import com.keyfactor.util.EJBTools;
 import com.keyfactor.util.FileTools;
 import com.keyfactor.util.StringTools;
 
 /**
- * Class implementing logic for importing a certificate from file.
+ * Class implementing logic for importing a certificate from file. The certificate is checked and its end entity is added or
+ * updated by {@link #call()}, and the certificate is then stored together with other certificates by the caller, which
+ * passes the outcome to {@link #completeImport(CertificateStoreOutcome)}.
  * @version $Id$
  */
 class CertificateImporter implements Callable<CertificateImporter.Result> {
@@ -70,6 +73,8 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
     private X509Certificate caCertificate;
     private AuthenticationToken authenticationToken;
     private CAInfo caInfo;
+    private X509Certificate certificate;
+    private CertificateStoreItem certificateStoreItem;
 
     public enum Result {
         REDUNDANT,
@@ -78,6 +83,8 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
         CONSTRAINT_VIOLATION,
         GENERAL_IMPORT_ERROR,
         IMPORT_OK,
+        /** The certificate has been checked and can be stored with {@link CertificateImporter#getCertificateStoreItem()} */
+        READY_TO_STORE,
     }
 
     public CertificateImporter setFileToImport(final File file) {
@@ -140,6 +147,11 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
         return this;
     }
 
+    /** @return the certificate to store, after {@link #call()} has returned {@link Result#READY_TO_STORE} */
+    public CertificateStoreItem getCertificateStoreItem() {
+        return certificateStoreItem;
+    }
+
     private Certificate loadCertificateFromFile(final String filename) throws IOException, CertificateParsingException {
         final byte[] bytes = FileTools.getBytesFromPEM(FileTools.readFiletoBuffer(filename), "-----BEGIN CERTIFICATE-----",
                 "-----END CERTIFICATE-----");
@@ -220,7 +232,7 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
     public CertificateImporter.Result call() throws Exception {
         try {
             // TODO Support for CVC certificates?
-            final X509Certificate certificate = (X509Certificate) loadCertificateFromFile(file.getCanonicalPath());
+            certificate = (X509Certificate) loadCertificateFromFile(file.getCanonicalPath());
             final String fingerprint = CertTools.getFingerprintAsString(certificate);
 
             if (certificateAlreadyExists(fingerprint)) {
@@ -261,21 +273,11 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
             endEntityManagementSession.changeUser(authenticationToken, userdata, false);
             log.info("User '" + username + "' has been updated.");
 
-            // Finally import the certificate and revoke it if necessary
-            CertificateStoreSessionRemote certificateStoreSession = EjbRemoteHelper.INSTANCE.getRemoteSession(CertificateStoreSessionRemote.class);
-            certificateStoreSession.storeCertificateRemote(authenticationToken, EJBTools.wrap(certificate), username,
-                    CertTools.getFingerprintAsString(caCertificate), CertificateConstants.CERT_ACTIVE, CertificateConstants.CERTTYPE_ENDENTITY,
-                    certificateProfileId, endEntityProfileId, crlPartitionIndex, null, now.getTime(), null);
-
-            if (status == CertificateConstants.CERT_REVOKED) {
-                endEntityManagementSession.revokeCert(authenticationToken, certificate.getSerialNumber(), revocationTime, /*invalidityDate*/null, issuer,
-                        revocationReason.getDatabaseValue(), false);
-                log.info("Certificate with serial '" + CertTools.getSerialNumberAsString(certificate) + "' has been revoked.");
-            }
-
-            log.info("Certificate with serial '" + CertTools.getSerialNumberAsString(certificate) + "' has been added.");
-
-            return Result.IMPORT_OK;
+            // The certificate is stored by the caller together with other certificates, see completeImport()
+            certificateStoreItem = new CertificateStoreItem(certificate, username, CertTools.getFingerprintAsString(caCertificate), null,
+                    CertificateConstants.CERT_ACTIVE, CertificateConstants.CERTTYPE_ENDENTITY, certificateProfileId, endEntityProfileId,
+                    crlPartitionIndex, null, now.getTime(), null);
+            return Result.READY_TO_STORE;
         } catch (IOException | CertificateParsingException e) {
             log.error("ERROR: A problem was encountered while reading the certificate, file: " + file.getName());
             if (!resumeOnError) {
@@ -302,4 +304,52 @@ class CertificateImporter implements Callable<CertificateImporter.Result> {
             }
         }
     }
+
+    /**
+     * Completes the import of a certificate that has been stored, and revokes it if necessary.
+     *
+     * @param outcome the outcome of storing {@link #getCertificateStoreItem()}
+     * @return the result of the import
+     */
+    public CertificateImporter.Result completeImport(final CertificateStoreOutcome outcome) throws Exception {
+        try {
+            if (outcome.getStatus() == CertificateStoreOutcome.Status.ALREADY_STORED) {
+                log.info("SKIP: Certificate with serial '" + CertTools.getSerialNumberAsString(certificate) + "' is already present, file: "
+                        + file.getName());
+                return Result.REDUNDANT;
+            }
+            if (!outcome.isStored()) {
+                throw new IllegalStateException(outcome.getMessage());
+            }
+
+            if (status == CertificateConstants.CERT_REVOKED) {
+                EjbRemoteHelper.INSTANCE.getRemoteSession(EndEntityManagementSessionRemote.class).revokeCert(authenticationToken,
+                        certificate.getSerialNumber(), revocationTime, /*invalidityDate*/null, issuer, revocationReason.getDatabaseValue(), false);
+                log.info("Certificate with serial '" + CertTools.getSerialNumberAsString(certificate) + "' has been revoked.");
+            }
+
+            log.info("Certificate with serial '" + CertTools.getSerialNumberAsString(certificate) + "' has been added.");
+
+            return Result.IMPORT_OK;
+        } catch (Exception e) {
+            return failImport(e);
+        }
+    }
+
+    /**
+     * Fails the import of a certificate that could not be stored or completed.
+     *
+     * @param e the reason
+     * @return {@link Result#GENERAL_IMPORT_ERROR} if the import should resume on errors
+     * @throws Exception e, if the import should not resume on errors
+     */
+    public CertificateImporter.Result failImport(final Exception e) throws Exception {
+        log.error("ERROR: Unclassified general import error has occurred, file: " + file.getName() + System.lineSeparator() + "  "
+                + e.getMessage());
+        if (!resumeOnError) {
+            throw e;
+        } else {
+            return Result.GENERAL_IMPORT_ERROR;
+        }
+    }
 }
@@ -0,0 +1,91 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import java.io.Serializable;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+
+/**
+ * Result of checking, and if needed creating, the CRL or delta CRL of one CA and CRL partition.
+ *
+ * @see PublishingCrlSessionLocal#createCrlJobs
+ * @version $Id$
+ */
+public final class CrlCreationJobResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int caId;
+    private final int crlPartitionIndex;
+    private final boolean delta;
+    private final boolean created;
+    private final long durationMillis;
+    private final String errorMessage;
+
+    /**
+     * @param caId the CA the job was run for
+     * @param crlPartitionIndex CRL partition index, or {@link CertificateConstants#NO_CRL_PARTITION} for the main CRL
+     * @param delta true if the job was for a delta CRL
+     * @param created true if a CRL was created
+     * @param durationMillis time the job took, in milliseconds
+     * @param errorMessage error message if the job failed, or null
+     */
+    public CrlCreationJobResult(final int caId, final int crlPartitionIndex, final boolean delta, final boolean created, final long durationMillis,
+            final String errorMessage) {
+        this.caId = caId;
+        this.crlPartitionIndex = crlPartitionIndex;
+        this.delta = delta;
+        this.created = created;
+        this.durationMillis = durationMillis;
+        this.errorMessage = errorMessage;
+    }
+
+    public int getCaId() {
+        return caId;
+    }
+
+    /** @return the CRL partition index, or {@link CertificateConstants#NO_CRL_PARTITION} for the main CRL */
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /** @return true if a CRL was created */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /** @return true if the job failed. No CRL was created in this case. */
+    public boolean isFailed() {
+        return errorMessage != null;
+    }
+
+    /** @return the error message if the job failed, or null */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Override
+    public String toString() {
+        return "caId=" + caId + (crlPartitionIndex != CertificateConstants.NO_CRL_PARTITION ? ", partition=" + crlPartitionIndex : "") + ", delta=" + delta
+                + ", created=" + created + ", duration=" + durationMillis + " ms" + (errorMessage != null ? ", error=" + errorMessage : "");
+    }
+}
@@ -12,9 +12,32 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.crl.CrlImportException;
+import org.cesecore.certificates.crl.StreamingCrlReader;
+
 @Local
 public interface ImportCrlSessionLocal extends ImportCrlSession {
 
+    /**
+     * Updates the status of the certificates in a chunk of new or changed CRL entries, in a new transaction. Used internally by
+     * {@link #importCrl}.
+     * 
+     * @param authenticationToken The administrator performing the operation
+     * @param cainfo of the CA that issued the CRL
+     * @param issuerDn subject DN of the CA certificate
+     * @param caFingerprint fingerprint of the CA certificate
+     * @param entries the CRL entries to process. The status of all certificates is read with a single query.
+     * @return the number of certificates whose status was updated. The others already had the status of the entry.
+     * @throws CrlImportException If a certificate could not be revoked
+     * @throws AuthorizationDeniedException If the administrator is not authorized to perform the required operations
+     */
+    int importCrlEntries(AuthenticationToken authenticationToken, CAInfo cainfo, String issuerDn, String caFingerprint,
+            List<StreamingCrlReader.Entry> entries) throws CrlImportException, AuthorizationDeniedException;
 }
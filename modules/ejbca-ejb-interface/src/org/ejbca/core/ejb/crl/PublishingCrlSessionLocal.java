@@ -14,6 +14,7 @@ package org.ejbca.core.ejb.crl;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -83,6 +84,29 @@ public interface PublishingCrlSessionLocal extends PublishingCrlSession {
     boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long crloverlaptime)
             throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException;
 
+    /**
+     * Checks if CRLs or delta CRLs need to be created for the given CAs, and creates them, in the same way as
+     * {@link #createCRLs(AuthenticationToken, Collection, long)} and {@link #createDeltaCRLs(AuthenticationToken, Collection, long)}.
+     * There is one job for each CA and CRL partition. Up to crlgen.threads jobs run concurrently, with at most crlgen.threadspercryptotoken
+     * jobs for CAs using the same crypto token. A job that fails does not affect the other jobs.
+     *
+     * @param admin administrator performing the task
+     * @param caids list of CA ids that will be checked, or null in which case ALL CAs will be checked
+     * @param addToCrlOverlapTime given in milliseconds and added to the CRL overlap time, see {@link #createCRLs(AuthenticationToken, Collection, long)}
+     * @param delta true to create delta CRLs, false to create CRLs
+     * @return the result of each job, with the time it took
+     */
+    List<CrlCreationJobResult> createCrlJobs(AuthenticationToken admin, Collection<Integer> caids, long addToCrlOverlapTime, boolean delta);
+
+    /**
+     * Checks if the CRL or delta CRL of a CRL partition needs to be created, and creates it. 
+     * Internal method, do not use. Needs to be here for running CRL creation jobs in separate threads.
+     *
+     * @return true if a CRL was created
+     */
+    boolean createCrlConditioned(AuthenticationToken admin, int caId, int crlPartitionIndex, long addToCrlOverlapTime, boolean delta)
+            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException;
+
     /** Internal method, do not use. Needs to be here for transaction management. */
     String internalCreateCRL(AuthenticationToken admin, CA ca, int crlPartitionIndex, CRLInfo lastBaseCrlInfo, final Date validFrom)
             throws CAOfflineException, CryptoTokenOfflineException, AuthorizationDeniedException;
@@ -12,6 +12,9 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.oscp.OcspResponseData;
@@ -36,12 +39,31 @@ public interface OcspDataSessionLocal extends OcspDataSession {
      * @param ocspResponseData
      */
     void storeOcspData(final OcspResponseData ocspResponseData);
+
+    /**
+     * Saves OCSP data in the table in a single transaction, so the inserts can be sent to the database in JDBC batches
+     * when database.jdbc.batchsize is set.
+     * Unlike {@link #storeOcspData(OcspResponseData)} this method runs synchronously.
+     * @param ocspResponseDatas the OCSP data to store
+     */
+    void storeOcspDataBatch(final Collection<OcspResponseData> ocspResponseDatas);
     
     /**
      * Deletes all the OCSP data from table corresponding to serialNumber.
      * @param serialNumber of the certificate which the OCSP response represents
      */
     void deleteOcspDataBySerialNumber(final String serialNumber);
+
+    /**
+     * Returns OCSP data of a CA ordered by serial number, with the latest response for each serial number first. Used to page through
+     * all stored responses of a CA by passing the last serial number of the previous page, which stays fast for large tables unlike an offset.
+     * 
+     * @param caId of the CA which signed the OCSP responses
+     * @param lastSerialNumber the last serial number of the previous page, or null to start from the beginning
+     * @param maxResults the maximum number of responses to return
+     * @return a list of OCSP data, empty list if there is no more data.
+     */
+    List<OcspResponseData> findOcspDataByCaIdAfterSerialNumber(final Integer caId, final String lastSerialNumber, final int maxResults);
     
     /**
      * Deletes all the OCSP data from table corresponding to caId and serialNumber.
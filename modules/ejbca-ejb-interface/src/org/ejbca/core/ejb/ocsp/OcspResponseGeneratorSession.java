@@ -49,7 +49,23 @@ public interface OcspResponseGeneratorSession {
     
     /** Reloads the cache of OCSP signers. */
     void reloadOcspSigningCache();
-    
+
+    /**
+     * Rebuilds the OCSP signer entries of a single CA, e.g. after the CA has been edited, renewed or changed status, leaving
+     * all other entries untouched.
+     *
+     * @param caId the ID of the CA
+     */
+    void reloadOcspSigningCacheEntriesForCa(int caId);
+
+    /**
+     * Rebuilds the OCSP signer entry of a single OcspKeyBinding, e.g. after the key binding has been renewed, enabled, disabled
+     * or deleted, leaving all other entries untouched.
+     *
+     * @param internalKeyBindingId the ID of the OcspKeyBinding
+     */
+    void reloadOcspSigningCacheEntryForKeyBinding(int internalKeyBindingId);
+
     /** Reloads the cache of OCSP extensions (including extension specific caches, e.g. the CT OCSP response extensions cache). */
     void reloadOcspExtensionsCache();
 
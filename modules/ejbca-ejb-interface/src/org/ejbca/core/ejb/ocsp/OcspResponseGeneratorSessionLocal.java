@@ -14,9 +14,13 @@ package org.ejbca.core.ejb.ocsp;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
 
 import javax.ejb.Local;
 
+import org.cesecore.oscp.OcspResponseData;
+
 
 /**
  * Local interface for OcspResponseGeneratorSession
@@ -53,6 +57,9 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
     /** @see org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache#flush() */
     void clearOcspRequestSignerRevocationStatusCache();
 
+    /** @see org.cesecore.certificates.ocsp.cache.OcspResponseCache#flush() */
+    void clearOcspResponseCache();
+
     /**
      * Pre-produces an OCSP response for the provided CA and serial number. The response will
      * be signed according to current OCSP Key Binding settings and OCSP config if applicable.
@@ -67,4 +74,46 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
      * @param certIDHashAlgorithm of the certId
      */
     void preSignOcspResponse(X509Certificate cacert, BigInteger serialNr, boolean issueFinalResponse, boolean includeExpiredCertificates, String certIDHashAlgorithm);
+
+    /**
+     * Pre-produces OCSP responses for all certificates issued by the provided CA, e.g. after the OCSP key binding has been renewed
+     * or to refresh all stored responses before their nextUpdate. Responses are produced in parallel by ocsp.presigning.threads
+     * threads, and stored ocsp.presigning.batchsize at a time. Progress and throughput is logged. Run by the OCSP Response Export
+     * service when pre-production of responses for all certificates is selected.
+     *
+     * @param cacert of the CA which signs the OCSP responses
+     * @param issueFinalResponse to issue final responses (EN 319 411-2)
+     * @param includeExpiredCertificates to include expired certificates in presigned OCSP responses
+     * @param certIDHashAlgorithm of the certIds
+     * @return the number of responses stored
+     */
+    int preSignOcspResponses(X509Certificate cacert, boolean issueFinalResponse, boolean includeExpiredCertificates, String certIDHashAlgorithm);
+
+    /**
+     * Pre-produces OCSP responses for the given certificates issued by the provided CA, e.g. to refresh stored responses that are
+     * close to their nextUpdate. Responses are produced in parallel and stored in a single batch.
+     *
+     * @param cacert of the CA which signs the OCSP responses
+     * @param serialNrs of the certificates to produce responses for. Keep the collection small, at most ocsp.presigning.batchsize.
+     * @param issueFinalResponse to issue final responses (EN 319 411-2)
+     * @param includeExpiredCertificates to include expired certificates in presigned OCSP responses
+     * @param certIDHashAlgorithm of the certIds
+     * @return the responses that were stored
+     */
+    List<OcspResponseData> preSignOcspResponses(X509Certificate cacert, Collection<BigInteger> serialNrs, boolean issueFinalResponse,
+            boolean includeExpiredCertificates, String certIDHashAlgorithm);
+
+    /**
+     * Produces OCSP responses for the given certificates without storing them. Used by the pre-signing tasks, which each
+     * invoke it through the business interface so that they run on separate bean instances.
+     *
+     * @param cacert of the CA which signs the OCSP responses
+     * @param serialNrs of the certificates to produce responses for
+     * @param issueFinalResponse to issue final responses (EN 319 411-2)
+     * @param includeExpiredCertificates to include expired certificates in presigned OCSP responses
+     * @param certIDHashAlgorithm of the certIds
+     * @return the produced responses, which are not yet stored or published
+     */
+    List<OcspResponseData> preProduceOcspResponses(X509Certificate cacert, List<BigInteger> serialNrs, boolean issueFinalResponse,
+            boolean includeExpiredCertificates, String certIDHashAlgorithm);
 }
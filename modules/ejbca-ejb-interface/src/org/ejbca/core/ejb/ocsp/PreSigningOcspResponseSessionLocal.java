@@ -37,6 +37,15 @@ public interface PreSigningOcspResponseSessionLocal {
 	 */
 	void deleteOcspDataByCaIdSerialNumber(final int caId, final String serialNumber);
 
+	/**
+	 * Removes the responses for a certificate from the directory of exported OCSP responses (ocsp.staticresponses.dir),
+	 * if configured. Does nothing otherwise.
+	 *
+	 * @param ca the Certificate Authority that issued the certificate.
+	 * @param certData base certificate information.
+	 */
+	void deleteExportedOcspResponses(CA ca, BaseCertificateData certData);
+
 	/**
 	 * Pre-signs an OCSP response having a certificate chain passed.
 	 *
@@ -0,0 +1,164 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.era;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
+
+/**
+ * Position in a certificate search with keyset pagination. Results are ordered by update time or expire date, and then by fingerprint,
+ * so the next page can be found with an index range scan from the last certificate of the previous page, instead of skipping all
+ * earlier rows like with offset pagination.
+ * <p>
+ * The position is handed to clients as an opaque continuation token. Certificates without update time are ordered as if their update
+ * time was 0.
+ */
+public final class RaCertificateSearchContinuation {
+
+    /** Order property of keyset pagination by update time, which is the default */
+    public static final String ORDER_UPDATE_TIME = "UPDATE_TIME";
+    /** Order property of keyset pagination by expire date */
+    public static final String ORDER_EXPIRE_DATE = "EXPIRE_DATE";
+
+    private static final String SEPARATOR = ";";
+
+    private final String orderProperty;
+    private final boolean descending;
+    private final long value;
+    private final String fingerprint;
+
+    private RaCertificateSearchContinuation(final String orderProperty, final boolean descending, final long value, final String fingerprint) {
+        this.orderProperty = orderProperty;
+        this.descending = descending;
+        this.value = value;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @param orderProperty order property of a search request, or an empty string for the default
+     * @return true if keyset pagination can be used with the order property
+     */
+    public static boolean isSupportedOrderProperty(final String orderProperty) {
+        return StringUtils.isBlank(orderProperty) || ORDER_UPDATE_TIME.equals(orderProperty.trim()) || ORDER_EXPIRE_DATE.equals(orderProperty.trim());
+    }
+
+    /** @return {@link #ORDER_EXPIRE_DATE} if the request is ordered by expire date, and {@link #ORDER_UPDATE_TIME} otherwise */
+    public static String getOrderProperty(final RaCertificateSearchRequestV2 request) {
+        return request.getOrderProperty() != null && ORDER_EXPIRE_DATE.equals(request.getOrderProperty().trim()) ? ORDER_EXPIRE_DATE : ORDER_UPDATE_TIME;
+    }
+
+    /** @return true if the request is in descending order */
+    public static boolean isDescending(final RaCertificateSearchRequestV2 request) {
+        return request.getOrderOperation() != null && "DESC".equalsIgnoreCase(request.getOrderOperation().trim());
+    }
+
+    /**
+     * @param request search request with keyset pagination
+     * @param last last certificate of a page
+     * @return the position after the certificate, in the order of the request
+     */
+    public static RaCertificateSearchContinuation after(final RaCertificateSearchRequestV2 request, final CertificateData last) {
+        final String orderProperty = getOrderProperty(request);
+        return new RaCertificateSearchContinuation(orderProperty, isDescending(request), getValue(orderProperty, last), last.getFingerprint());
+    }
+
+    /**
+     * @param token continuation token, as returned by {@link #encode()}
+     * @return the decoded position
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static RaCertificateSearchContinuation decode(final String token) {
+        final String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed continuation token.", e);
+        }
+        if (parts.length != 4 || !isSupportedOrderProperty(parts[0]) || StringUtils.isBlank(parts[0]) || StringUtils.isEmpty(parts[3])) {
+            throw new IllegalArgumentException("Malformed continuation token.");
+        }
+        try {
+            return new RaCertificateSearchContinuation(parts[0], Boolean.parseBoolean(parts[1]), Long.parseLong(parts[2]), parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed continuation token.", e);
+        }
+    }
+
+    /** @return the position as an opaque, URL safe token */
+    public String encode() {
+        final String plain = orderProperty + SEPARATOR + descending + SEPARATOR + value + SEPARATOR + fingerprint;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return true if the position was created for a request with the same order as the given request */
+    public boolean matches(final RaCertificateSearchRequestV2 request) {
+        return orderProperty.equals(getOrderProperty(request)) && descending == isDescending(request);
+    }
+
+    public String getOrderProperty() {
+        return orderProperty;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /** @return update time or expire date of the last certificate before the position */
+    public long getValue() {
+        return value;
+    }
+
+    /** @return fingerprint of the last certificate before the position */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /** @return true if the certificate comes after this position in the search order */
+    public boolean isBefore(final CertificateData certificateData) {
+        final int cmp = compare(value, fingerprint, getValue(orderProperty, certificateData), certificateData.getFingerprint());
+        return descending ? cmp > 0 : cmp < 0;
+    }
+
+    /** @return true if this position comes before the other position in the search order */
+    public boolean isBefore(final RaCertificateSearchContinuation other) {
+        final int cmp = compare(value, fingerprint, other.value, other.fingerprint);
+        return descending ? cmp > 0 : cmp < 0;
+    }
+
+    /** @return a comparator ordering certificates like a search with keyset pagination */
+    public static Comparator<CertificateDataWrapper> getComparator(final RaCertificateSearchRequestV2 request) {
+        final String orderProperty = getOrderProperty(request);
+        final Comparator<CertificateDataWrapper> ascending = (a, b) -> compare(getValue(orderProperty, a.getCertificateData()),
+                a.getCertificateData().getFingerprint(), getValue(orderProperty, b.getCertificateData()), b.getCertificateData().getFingerprint());
+        return isDescending(request) ? ascending.reversed() : ascending;
+    }
+
+    private static int compare(final long value1, final String fingerprint1, final long value2, final String fingerprint2) {
+        final int cmp = Long.compare(value1, value2);
+        return cmp != 0 ? cmp : fingerprint1.compareTo(fingerprint2);
+    }
+
+    private static long getValue(final String orderProperty, final CertificateData certificateData) {
+        if (ORDER_EXPIRE_DATE.equals(orderProperty)) {
+            return certificateData.getExpireDate();
+        }
+        // Same as COALESCE(a.updateTime, 0) in the search query
+        final Long updateTime = certificateData.getUpdateTime();
+        return updateTime == null ? 0L : updateTime;
+    }
+}
@@ -57,6 +57,8 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
     private long updatedBefore = Long.MAX_VALUE;
     private List<Integer> statuses = new ArrayList<>();
     private List<Integer> revocationReasons = new ArrayList<>();
+    /** Continuation token for keyset pagination, an empty string for the first page, or null for offset pagination */
+    private String continuationToken = null;
 
     /**
      * Default constructor
@@ -95,6 +97,7 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
         updatedBefore = request.updatedBefore;
         statuses.addAll(request.statuses);
         revocationReasons.addAll(request.revocationReasons);
+        continuationToken = request.continuationToken;
     }
 
     /**
@@ -435,6 +438,27 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
         this.revocationReasons = revocationReasons;
     }
 
+    /** @return continuation token for keyset pagination, an empty string for the first page, or null for offset pagination */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Enables keyset pagination, where the page number is not used. Results are ordered by update time, or by expire date if that is the
+     * order property, and then by fingerprint.
+     * 
+     * @param continuationToken token from {@link RaCertificateSearchResponseV2#getContinuationToken()} of the previous page, an empty string
+     *     for the first page, or null for offset pagination
+     */
+    public void setContinuationToken(final String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    /** @return true if keyset pagination is used instead of page numbers */
+    public boolean isKeysetPagination() {
+        return continuationToken != null;
+    }
+
     @Override
     public int hashCode() {
         return HashCodeBuilder.reflectionHashCode(this);
@@ -446,7 +470,8 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
             return false;
         }
         final RaCertificateSearchRequestV2 request = (RaCertificateSearchRequestV2) object;
-        return compareTo(request) == 0 && request.getPageNumber() == this.pageNumber;
+        return compareTo(request) == 0 && request.getPageNumber() == this.pageNumber
+                && StringUtils.equals(request.getContinuationToken(), this.continuationToken);
     }
 
     // negative = this object is less (more narrow) than other. E.g. only when other contains this and more.
@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.ejbca.core.model.era;
 
+import org.apache.commons.lang3.StringUtils;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
 
 import java.io.Serializable;
@@ -36,6 +37,7 @@ public class RaCertificateSearchResponseV2 implements Serializable {
     private Status status = Status.IN_PROGRESS;
     private List<CertificateDataWrapper> cdws = new ArrayList<>();
     private long totalCount = 0;
+    private String continuationToken = null;
 
     public List<CertificateDataWrapper> getCdws() {
         return cdws;
@@ -53,6 +55,15 @@ public class RaCertificateSearchResponseV2 implements Serializable {
         totalCount = count;
     }
 
+    /** @return token for the next page with keyset pagination, or null if there are no more results or offset pagination is used */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(final String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     public void merge(final RaCertificateSearchResponseV2 other) {
         final LinkedHashMap<String, CertificateDataWrapper> cdwMap = new LinkedHashMap<>();
         for (final CertificateDataWrapper cdw : cdws) {
@@ -64,12 +75,61 @@ public class RaCertificateSearchResponseV2 implements Serializable {
         this.cdws.clear();
         this.cdws.addAll(cdwMap.values());
         setTotalCount(totalCount + other.totalCount);
+        // With keyset pagination, a back end that has more results limits how far the merged page may extend, see limitToKeysetPage
+        if (other.continuationToken != null) {
+            if (continuationToken == null || RaCertificateSearchContinuation.decode(other.continuationToken).isBefore(
+                    RaCertificateSearchContinuation.decode(continuationToken))) {
+                continuationToken = other.continuationToken;
+            }
+        }
         // When merging with a reponse with fail status, fail status takes precedence
         if (other.getStatus() == Status.ERROR || other.getStatus() == Status.TIMEOUT) {
             this.setStatus(other.getStatus());
         }
     }
 
+    /**
+     * Limits merged results from several back ends to one page of a search with keyset pagination. Results that are not part of the
+     * page are removed: those at or before the continuation token of the request, in case a back end did not apply it. The results are sorted, and those after the earliest continuation token of
+     * the back ends are removed, since a back end with more results may have more certificates before them. The page is then limited
+     * to the maximum number of results.
+     * 
+     * @param request the search request
+     */
+    public void limitToKeysetPage(final RaCertificateSearchRequestV2 request) {
+        final RaCertificateSearchContinuation previous = getRequestContinuation(request);
+        if (previous != null) {
+            cdws.removeIf(cdw -> !previous.isBefore(cdw.getCertificateData()));
+        }
+        cdws.sort(RaCertificateSearchContinuation.getComparator(request));
+        // Some back end has more results
+        boolean moreResults = continuationToken != null;
+        if (moreResults) {
+            final RaCertificateSearchContinuation continuation = RaCertificateSearchContinuation.decode(continuationToken);
+            cdws.removeIf(cdw -> continuation.isBefore(cdw.getCertificateData()));
+        }
+        if (request.getMaxResults() > 0 && cdws.size() > request.getMaxResults()) {
+            cdws.subList(request.getMaxResults(), cdws.size()).clear();
+            moreResults = true;
+        }
+        continuationToken = moreResults && !cdws.isEmpty()
+                ? RaCertificateSearchContinuation.after(request, cdws.get(cdws.size() - 1).getCertificateData()).encode() : null;
+    }
+
+    /** @return the position of the request, or null on the first page or if the token is not valid for the request */
+    private static RaCertificateSearchContinuation getRequestContinuation(final RaCertificateSearchRequestV2 request) {
+        if (StringUtils.isEmpty(request.getContinuationToken())) {
+            return null;
+        }
+        try {
+            final RaCertificateSearchContinuation continuation = RaCertificateSearchContinuation.decode(request.getContinuationToken());
+            // The back ends report an invalid token as an error
+            return continuation.matches(request) ? continuation : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     public void setStatus(final Status newStatus) {
         this.status = newStatus;
     }
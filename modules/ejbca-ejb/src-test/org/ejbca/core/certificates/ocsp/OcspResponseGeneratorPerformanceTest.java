@@ -0,0 +1,333 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.certificates.ocsp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ejb.TimerService;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.internal.CaCertificateCache;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.logging.AuditLogger;
+import org.cesecore.certificates.ocsp.logging.GuidHolder;
+import org.cesecore.certificates.ocsp.logging.TransactionCounter;
+import org.cesecore.certificates.ocsp.logging.TransactionLogger;
+import org.cesecore.certificates.ocsp.metrics.OcspMetrics;
+import org.cesecore.config.GlobalOcspConfiguration;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.keybind.InternalKeyBindingDataSessionLocal;
+import org.cesecore.keybind.impl.OcspKeyBinding.ResponderIdType;
+import org.cesecore.keys.token.CryptoTokenSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionBean;
+import org.ejbca.core.ejb.ocsp.OcspResponseInformation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Throughput and allocation rate of {@link OcspResponseGeneratorSessionBean#getOcspResponse}, end to end from request bytes to
+ * encoded response, with soft RSA and EC CA keys and the database replaced by stubs.
+ * <p>
+ * Each scenario is run for a warm up period and then measured with a number of threads calling the session bean. Allocation is
+ * counted for all threads, including the OCSP signing threads. The duration and number of threads can be set with the system
+ * properties ocsp.performance.warmup and ocsp.performance.measurement (milliseconds) and ocsp.performance.threads.
+ * <p>
+ * Note that the bean logs each request on level info, so the log configuration affects the results.
+ *
+ * @version $Id$
+ */
+@Ignore //Set to ignore as to not be run on a regular basis
+public class OcspResponseGeneratorPerformanceTest {
+
+    private static final Logger log = Logger.getLogger(OcspResponseGeneratorPerformanceTest.class);
+
+    private static final long WARMUP_MILLIS = Long.getLong("ocsp.performance.warmup", 5000L);
+    private static final long MEASUREMENT_MILLIS = Long.getLong("ocsp.performance.measurement", 10000L);
+    private static final int THREADS = Integer.getInteger("ocsp.performance.threads", Runtime.getRuntime().availableProcessors());
+    /** Number of different requests of each scenario, so the response cache only sees a few repeated questions */
+    private static final int DISTINCT_REQUESTS = 1000;
+    private static final int CERTIFICATES_PER_MULTI_REQUEST = 10;
+    private static final String REMOTE_ADDRESS = "192.0.2.1";
+
+    private static final OcspResponseGeneratorSessionBean ocspResponseGeneratorSession = new PerformanceTestOcspResponseGeneratorSessionBean();
+    private static final GlobalOcspConfiguration ocspConfiguration = new GlobalOcspConfiguration();
+    private static final SecureRandom random = new SecureRandom();
+    private static X509Certificate rsaCaCertificate;
+    private static X509Certificate ecCaCertificate;
+    private static KeyPair requestorKeys;
+    private static X509Certificate requestorCertificate;
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair rsaKeys = KeyTools.genKeys("2048", AlgorithmConstants.KEYALGORITHM_RSA);
+        final KeyPair ecKeys = KeyTools.genKeys("secp256r1", AlgorithmConstants.KEYALGORITHM_EC);
+        rsaCaCertificate = CertTools.genSelfCert("CN=OCSP Performance Test RSA CA", 365, null, rsaKeys.getPrivate(), rsaKeys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        ecCaCertificate = CertTools.genSelfCert("CN=OCSP Performance Test EC CA", 365, null, ecKeys.getPrivate(), ecKeys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_ECDSA, true);
+        requestorKeys = KeyTools.genKeys("2048", AlgorithmConstants.KEYALGORITHM_RSA);
+        final JcaX509v3CertificateBuilder requestorCertificateBuilder = new JcaX509v3CertificateBuilder(
+                X500Name.getInstance(rsaCaCertificate.getSubjectX500Principal().getEncoded()), BigInteger.valueOf(random.nextLong() & Long.MAX_VALUE),
+                new Date(System.currentTimeMillis() - 3600000L), new Date(System.currentTimeMillis() + 86400000L),
+                new X500Name("CN=OCSP Performance Test Requestor"), requestorKeys.getPublic());
+        requestorCertificate = new JcaX509CertificateConverter().getCertificate(requestorCertificateBuilder.build(
+                new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(rsaKeys.getPrivate())));
+        CaCertificateCache.INSTANCE.loadCertificates(Arrays.<Certificate>asList(rsaCaCertificate, ecCaCertificate));
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingAdd(createCaEntry(rsaCaCertificate, rsaKeys, AlgorithmConstants.SIGALG_SHA256_WITH_RSA));
+            OcspSigningCache.INSTANCE.stagingAdd(createCaEntry(ecCaCertificate, ecKeys, AlgorithmConstants.SIGALG_SHA256_WITH_ECDSA));
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+        // Threads are kept for the whole test, so their allocations can be counted
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+    }
+
+    @Test
+    public void singleRequest() throws Exception {
+        runScenario("single request, RSA", createRequests(rsaCaCertificate, 1, false, false));
+        runScenario("single request, EC", createRequests(ecCaCertificate, 1, false, false));
+    }
+
+    @Test
+    public void singleRequestWithNonce() throws Exception {
+        runScenario("single request with nonce, RSA", createRequests(rsaCaCertificate, 1, true, false));
+        runScenario("single request with nonce, EC", createRequests(ecCaCertificate, 1, true, false));
+    }
+
+    @Test
+    public void multiRequest() throws Exception {
+        runScenario(CERTIFICATES_PER_MULTI_REQUEST + " requests, RSA", createRequests(rsaCaCertificate, CERTIFICATES_PER_MULTI_REQUEST, true, false));
+        runScenario(CERTIFICATES_PER_MULTI_REQUEST + " requests, EC", createRequests(ecCaCertificate, CERTIFICATES_PER_MULTI_REQUEST, true, false));
+    }
+
+    @Test
+    public void signedRequest() throws Exception {
+        runScenario("signed request, RSA", createRequests(rsaCaCertificate, 1, true, true));
+        runScenario("signed request, EC", createRequests(ecCaCertificate, 1, true, true));
+    }
+
+    private void runScenario(final String name, final List<byte[]> requests) throws Exception {
+        OcspResponseCache.INSTANCE.flush();
+        runFor(requests, WARMUP_MILLIS);
+        OcspMetrics.INSTANCE.resetLatencies();
+        final long allocatedBefore = getAllocatedBytes();
+        final long startTime = System.nanoTime();
+        final long responses = runFor(requests, MEASUREMENT_MILLIS);
+        final long elapsedNanos = System.nanoTime() - startTime;
+        final long allocated = getAllocatedBytes() - allocatedBefore;
+        log.info(String.format("%s: %d responses/s with %d threads, %d bytes allocated per response, latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms",
+                name, responses * 1000000000L / elapsedNanos, THREADS, allocated / Math.max(responses, 1),
+                OcspMetrics.INSTANCE.getLatencyP50Millis().get(OcspMetrics.Phase.TOTAL.getLabel()),
+                OcspMetrics.INSTANCE.getLatencyP99Millis().get(OcspMetrics.Phase.TOTAL.getLabel()),
+                OcspMetrics.INSTANCE.getLatencyP999Millis().get(OcspMetrics.Phase.TOTAL.getLabel())));
+        log.info(name + ": p99 in ms by phase " + OcspMetrics.INSTANCE.getLatencyP99Millis());
+    }
+
+    /** @return the number of responses */
+    private long runFor(final List<byte[]> requests, final long millis) throws Exception {
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int offset = i * (DISTINCT_REQUESTS / THREADS);
+            futures.add(executor.submit(() -> {
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    respond(requests.get((int) ((offset + count) % requests.size())));
+                    count++;
+                }
+                return count;
+            }));
+        }
+        long responses = 0;
+        for (final Future<Long> future : futures) {
+            responses += future.get();
+        }
+        return responses;
+    }
+
+    private void respond(final byte[] request) throws Exception {
+        // Like the OCSP servlet, create new loggers for each request
+        final int transactionId = TransactionCounter.INSTANCE.getTransactionNumber();
+        final TransactionLogger transactionLogger = new TransactionLogger(transactionId, GuidHolder.INSTANCE.getGlobalUid(), REMOTE_ADDRESS,
+                ocspConfiguration);
+        final AuditLogger auditLogger = new AuditLogger("", transactionId, GuidHolder.INSTANCE.getGlobalUid(), REMOTE_ADDRESS, ocspConfiguration);
+        final OcspResponseInformation responseInformation = ocspResponseGeneratorSession.getOcspResponse(request, null, REMOTE_ADDRESS, null, null,
+                auditLogger, transactionLogger, false, false, false);
+        assertEquals("Benchmark request was not answered successfully.", OCSPResp.SUCCESSFUL, responseInformation.getStatus());
+    }
+
+    private static List<byte[]> createRequests(final X509Certificate caCertificate, final int certificatesPerRequest, final boolean nonce,
+            final boolean signed) throws Exception {
+        final X509CertificateHolder caCertificateHolder = new JcaX509CertificateHolder(caCertificate);
+        final ContentSigner requestSigner = signed ? new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA)
+                .build(requestorKeys.getPrivate()) : null;
+        final List<byte[]> requests = new ArrayList<>(DISTINCT_REQUESTS);
+        for (int i = 0; i < DISTINCT_REQUESTS; i++) {
+            final OCSPReqBuilder builder = new OCSPReqBuilder();
+            for (int j = 0; j < certificatesPerRequest; j++) {
+                builder.addRequest(new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                        caCertificateHolder, new BigInteger(64, random)));
+            }
+            if (nonce) {
+                final byte[] nonceBytes = new byte[16];
+                random.nextBytes(nonceBytes);
+                builder.setRequestExtensions(new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                        new DEROctetString(nonceBytes).getEncoded())));
+            }
+            if (signed) {
+                builder.setRequestorName(new GeneralName(X500Name.getInstance(requestorCertificate.getSubjectX500Principal().getEncoded())));
+                requests.add(builder.build(requestSigner, new X509CertificateHolder[] { new JcaX509CertificateHolder(requestorCertificate) })
+                        .getEncoded());
+            } else {
+                requests.add(builder.build().getEncoded());
+            }
+        }
+        return requests;
+    }
+
+    private static OcspSigningCacheEntry createCaEntry(final X509Certificate caCertificate, final KeyPair keys, final String signatureAlgorithm) {
+        final OcspSigningCacheEntry entry = new OcspSigningCacheEntry(caCertificate, CertificateStatus.OK, Collections.singletonList(caCertificate),
+                null, keys.getPrivate(), BouncyCastleProvider.PROVIDER_NAME, null, ResponderIdType.KEYHASH);
+        entry.setCrlSigningAlgorithm(signatureAlgorithm);
+        return entry;
+    }
+
+    /** @return the number of bytes allocated by all live threads of the JVM */
+    private static long getAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (final long bytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (bytes > 0) {
+                allocated += bytes;
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @return a stub that answers methods not handled by the handler with null, an empty list, zero or false. Unlike EasyMock mocks, the
+     * stubs do not record calls or synchronize, so they don't affect throughput or allocation much.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T newStub(final Class<T> type, final Map<String, InvocationHandler> handlers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            final InvocationHandler handler = handlers.get(method.getName());
+            if (handler != null) {
+                return handler.invoke(proxy, method, args);
+            }
+            final Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            } else if (returnType == int.class) {
+                return 0;
+            } else if (returnType == long.class) {
+                return 0L;
+            } else if (returnType == List.class || returnType == Collection.class) {
+                return Collections.emptyList();
+            }
+            return null;
+        });
+    }
+
+    /** All certificates are good and there are no pre-produced responses */
+    private static class PerformanceTestOcspResponseGeneratorSessionBean extends OcspResponseGeneratorSessionBean {
+        private PerformanceTestOcspResponseGeneratorSessionBean() {
+            final Map<String, InvocationHandler> certificateStoreHandlers = new HashMap<>();
+            certificateStoreHandlers.put("getStatus", (proxy, method, args) -> CertificateStatus.OK);
+            certificateStoreHandlers.put("getStatuses", (proxy, method, args) -> {
+                final Map<BigInteger, CertificateStatus> statuses = new HashMap<>();
+                for (final Object serialNumber : (Collection<?>) args[1]) {
+                    statuses.put((BigInteger) serialNumber, CertificateStatus.OK);
+                }
+                return statuses;
+            });
+            final Map<String, InvocationHandler> globalConfigurationHandlers = new HashMap<>();
+            globalConfigurationHandlers.put("getCachedConfiguration", (proxy, method, args) -> ocspConfiguration);
+            setMockedCaSession(newStub(CaSessionLocal.class, Collections.emptyMap()));
+            setMockedCertificateStoreSession(newStub(CertificateStoreSessionLocal.class, certificateStoreHandlers));
+            setMockedCryptoTokenSession(newStub(CryptoTokenSessionLocal.class, Collections.emptyMap()));
+            setMockedInternalKeyBindingDataSession(newStub(InternalKeyBindingDataSessionLocal.class, Collections.emptyMap()));
+            setMockedGlobalConfigurationSession(newStub(GlobalConfigurationSessionLocal.class, globalConfigurationHandlers));
+            setMockedTimerService(newStub(TimerService.class, Collections.emptyMap()));
+            setOcspDataSessionLocal(newStub(OcspDataSessionLocal.class, Collections.emptyMap()));
+        }
+    }
+}
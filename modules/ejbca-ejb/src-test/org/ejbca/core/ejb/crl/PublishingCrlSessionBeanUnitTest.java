@@ -0,0 +1,177 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.easymock.EasyMock.anyBoolean;
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.makeThreadSafe;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.easymock.EasyMockRunner;
+import org.easymock.IAnswer;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of the scheduling of CRL creation jobs in {@link PublishingCrlSessionBean}.
+ */
+@RunWith(EasyMockRunner.class)
+public class PublishingCrlSessionBeanUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublishingCrlSessionBeanUnitTest"));
+
+    @Mock
+    private PublishingCrlSessionLocal publishingCrlSession;
+    @Mock(type = MockType.NICE)
+    private SecurityEventsLoggerSessionLocal logSession;
+
+    @TestSubject
+    private final PublishingCrlSessionBean testInstance = new PublishingCrlSessionBean();
+
+    private ExecutorService executorService;
+
+    @Before
+    public void before() {
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testLimitPerCryptoToken() throws Exception {
+        final Map<Integer, AtomicInteger> runningPerCryptoToken = new ConcurrentHashMap<>();
+        final Map<Integer, AtomicInteger> maxPerCryptoToken = new ConcurrentHashMap<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        expectCrlCreation(caId -> {
+            final int cryptoTokenId = caId / 100;
+            final int runningForToken = runningPerCryptoToken.computeIfAbsent(cryptoTokenId, k -> new AtomicInteger()).incrementAndGet();
+            maxPerCryptoToken.computeIfAbsent(cryptoTokenId, k -> new AtomicInteger()).accumulateAndGet(runningForToken, Math::max);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            runningPerCryptoToken.get(cryptoTokenId).decrementAndGet();
+        });
+        final List<PublishingCrlSessionBean.CrlCreationJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            jobs.add(newJob(1, i));
+            jobs.add(newJob(2, i));
+            jobs.add(newJob(3, i));
+        }
+        testInstance.runCrlCreationJobsInParallel(executorService, jobs, 4, 1);
+        for (final PublishingCrlSessionBean.CrlCreationJob job : jobs) {
+            assertTrue("All jobs should have created a CRL.", job.getResult().isCreated());
+        }
+        for (final int cryptoTokenId : Arrays.asList(1, 2, 3)) {
+            assertEquals("Only one job at a time should run for crypto token " + cryptoTokenId + ".", 1, maxPerCryptoToken.get(cryptoTokenId).get());
+        }
+        assertTrue("Jobs for different crypto tokens should run in parallel.", maxRunning.get() > 1);
+        assertTrue("No more than the crypto token count should run with one thread per crypto token.", maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testCryptoTokensTakeTurns() throws Exception {
+        final List<Integer> startOrder = Collections.synchronizedList(new ArrayList<>());
+        expectCrlCreation(caId -> startOrder.add(caId / 100));
+        final List<PublishingCrlSessionBean.CrlCreationJob> jobs = Arrays.asList(newJob(1, 0), newJob(1, 1), newJob(1, 2), newJob(2, 0), newJob(2, 1),
+                newJob(3, 0));
+        testInstance.runCrlCreationJobsInParallel(executorService, jobs, 1, 1);
+        assertEquals("Crypto tokens should take turns.", Arrays.asList(1, 2, 3, 1, 2, 1), startOrder);
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        expectCrlCreation(caId -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+        });
+        final List<PublishingCrlSessionBean.CrlCreationJob> jobs = Arrays.asList(newJob(1, 0), newJob(1, 1), newJob(2, 0));
+        final AtomicBoolean interruptedFlagKept = new AtomicBoolean();
+        final Thread scheduler = new Thread(() -> {
+            testInstance.runCrlCreationJobsInParallel(executorService, jobs, 1, 1);
+            interruptedFlagKept.set(Thread.currentThread().isInterrupted());
+        });
+        scheduler.start();
+        assertTrue("First job should have started.", started.await(10, TimeUnit.SECONDS));
+        scheduler.interrupt();
+        scheduler.join(10000);
+        assertFalse("Scheduler should return when interrupted.", scheduler.isAlive());
+        assertTrue("Interrupted status should be kept.", interruptedFlagKept.get());
+        assertEquals("Interrupted before the job completed.", jobs.get(0).getResult().getErrorMessage());
+        assertEquals("Interrupted before the job was started.", jobs.get(1).getResult().getErrorMessage());
+        assertEquals("Interrupted before the job was started.", jobs.get(2).getResult().getErrorMessage());
+        // The running job completes in the background, but its result has already been reported
+        release.countDown();
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(jobs.get(0).getResult().isCreated());
+    }
+
+    private PublishingCrlSessionBean.CrlCreationJob newJob(final int cryptoTokenId, final int index) {
+        return testInstance.new CrlCreationJob(admin, cryptoTokenId * 100 + index, CertificateConstants.NO_CRL_PARTITION, cryptoTokenId, 0, false);
+    }
+
+    private interface CrlCreation {
+        void create(int caId) throws Exception;
+    }
+
+    /** Expects any number of CRLs to be created, running the given action for each */
+    private void expectCrlCreation(final CrlCreation crlCreation) throws Exception {
+        // Let the jobs run in parallel, thread safe mocks are called one at a time
+        makeThreadSafe(publishingCrlSession, false);
+        expect(publishingCrlSession.createCrlConditioned(anyObject(AuthenticationToken.class), anyInt(), anyInt(), anyLong(), anyBoolean()))
+                .andAnswer(new IAnswer<Boolean>() {
+                    @Override
+                    public Boolean answer() throws Throwable {
+                        crlCreation.create((Integer) getCurrentArguments()[1]);
+                        return true;
+                    }
+                }).anyTimes();
+        replay(publishingCrlSession, logSession);
+    }
+}
@@ -0,0 +1,142 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA: The OpenSource Certificate Authority                          *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.era;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.easymock.EasyMock;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of how {@link RaMasterApiProxyBean} merges searches over several back ends
+ */
+public class RaMasterApiProxyBeanUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("RaMasterApiProxyBeanUnitTest"));
+
+    /** Released when a test ends, so that blocked back ends don't keep running */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        EjbcaConfigurationHolder.restoreConfiguration();
+    }
+
+    @Test
+    public void testParallelSearchMergesAllBackEnds() {
+        final RaMasterApiProxyBean proxy = createProxy(backEnd("user1"), backEnd("user2"));
+        final RaEndEntitySearchResponse response = proxy.searchForEndEntities(admin, request(10));
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2")), getUsernames(response));
+        assertFalse(response.isMightHaveMoreResults());
+    }
+
+    @Test
+    public void testSequentialSearchMergesAllBackEnds() {
+        EjbcaConfigurationHolder.updateConfiguration("ra.search.parallel.enabled", "false");
+        final RaMasterApiProxyBean proxy = createProxy(backEnd("user1"), backEnd("user2"));
+        final RaEndEntitySearchResponse response = proxy.searchForEndEntities(admin, request(10));
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2")), getUsernames(response));
+        assertFalse(response.isMightHaveMoreResults());
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelSearchSkipsLaterBackEndsWhenMaxResultsIsReached() {
+        // The proxy invokes the back ends in reverse order, i.e. local first
+        final RaMasterApiProxyBean proxy = createProxy(blockedBackEnd(), backEnd("user1", "user2"));
+        final RaEndEntitySearchResponse response = proxy.searchForEndEntities(admin, request(2));
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2")), getUsernames(response));
+        assertTrue("Skipped back ends might have had more results", response.isMightHaveMoreResults());
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelSearchTimesOutSlowBackEnd() {
+        EjbcaConfigurationHolder.updateConfiguration("ra.search.backendtimeout", "200");
+        final RaMasterApiProxyBean proxy = createProxy(blockedBackEnd(), backEnd("user1"));
+        final RaEndEntitySearchResponse response = proxy.searchForEndEntities(admin, request(10));
+        assertEquals(new HashSet<>(Arrays.asList("user1")), getUsernames(response));
+        assertTrue("Back end that timed out might have had more results", response.isMightHaveMoreResults());
+    }
+
+    @Test
+    public void testParallelSearchWithUnavailableBackEnd() {
+        final RaMasterApi unavailable = EasyMock.createNiceMock(RaMasterApi.class);
+        expect(unavailable.isBackendAvailable()).andReturn(true).anyTimes();
+        expect(unavailable.searchForEndEntities(anyObject(), anyObject())).andThrow(new RaMasterBackendUnavailableException());
+        replay(unavailable);
+        final RaMasterApiProxyBean proxy = createProxy(unavailable, backEnd("user1"));
+        final RaEndEntitySearchResponse response = proxy.searchForEndEntities(admin, request(10));
+        assertEquals(new HashSet<>(Arrays.asList("user1")), getUsernames(response));
+        assertTrue("Unavailable back end might have had more results", response.isMightHaveMoreResults());
+    }
+
+    private RaMasterApiProxyBean createProxy(final RaMasterApi... raMasterApis) {
+        return new RaMasterApiProxyBean(null, null, null, raMasterApis);
+    }
+
+    private RaEndEntitySearchRequest request(final int maxResults) {
+        final RaEndEntitySearchRequest request = new RaEndEntitySearchRequest();
+        request.setMaxResults(maxResults);
+        return request;
+    }
+
+    private RaMasterApi backEnd(final String... usernames) {
+        final RaEndEntitySearchResponse response = new RaEndEntitySearchResponse();
+        for (final String username : usernames) {
+            final EndEntityInformation endEntity = new EndEntityInformation();
+            endEntity.setUsername(username);
+            response.getEndEntities().add(endEntity);
+        }
+        final RaMasterApi raMasterApi = EasyMock.createNiceMock(RaMasterApi.class);
+        expect(raMasterApi.isBackendAvailable()).andReturn(true).anyTimes();
+        expect(raMasterApi.searchForEndEntities(anyObject(), anyObject())).andReturn(response);
+        replay(raMasterApi);
+        return raMasterApi;
+    }
+
+    /** @return a back end that doesn't respond until the test has ended */
+    private RaMasterApi blockedBackEnd() {
+        final RaMasterApi raMasterApi = EasyMock.createNiceMock(RaMasterApi.class);
+        expect(raMasterApi.isBackendAvailable()).andReturn(true).anyTimes();
+        expect(raMasterApi.searchForEndEntities(anyObject(), anyObject())).andAnswer(() -> {
+            release.await(30, TimeUnit.SECONDS);
+            return backEnd("blocked").searchForEndEntities(admin, null);
+        });
+        replay(raMasterApi);
+        return raMasterApi;
+    }
+
+    private HashSet<String> getUsernames(final RaEndEntitySearchResponse response) {
+        final HashSet<String> ret = new HashSet<>();
+        for (final EndEntityInformation endEntity : response.getEndEntities()) {
+            ret.add(endEntity.getUsername());
+        }
+        return ret;
+    }
+}
@@ -19,27 +19,42 @@ import static org.easymock.EasyMock.isNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.same;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.ca.IllegalNameException;
 import org.cesecore.certificates.certificate.exception.CertificateSerialNumberException;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.ExtendedInformation;
+import org.cesecore.config.GlobalCesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.searchindex.SearchIndexData;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.ca.sign.SignSessionLocal;
@@ -48,6 +63,7 @@ import org.ejbca.core.ejb.ra.EndEntityExistsException;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.KeyStoreCreateSessionLocal;
 import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.model.authorization.AccessRulesConstants;
 import org.ejbca.core.model.approval.ApprovalException;
 import org.ejbca.core.model.approval.WaitingForApprovalException;
 import org.ejbca.core.model.ra.CustomFieldException;
@@ -220,6 +236,101 @@ public class RaMasterApiSessionUnitTest {
         verify(allMocks);
     }
 
+    /** Substring searches of certificates find their candidates in the search index, using only tokens without DN separators */
+    @Test
+    public void searchCertificatesWithSearchIndex() throws Exception {
+        final Capture<String> sql = EasyMock.newCapture();
+        final Capture<Object> tokens = EasyMock.newCapture();
+        final RaMasterApiSessionBean bean = createSearchBean(true, sql, tokens, false);
+        final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+        request.setPageNumber(1);
+        request.setSubjectDnSearchString("user,o=exam");
+        bean.searchForCertificatesV2(adminMock, request);
+        assertTrue("Substring search should use the search index: " + sql.getValue(), sql.getValue().contains("FROM SearchIndexData s"));
+        assertEquals("Tokens with DN separators should not be searched for.", Arrays.asList("USE", "SER", "EXA", "XAM"), tokens.getValue());
+    }
+
+    /** Searches that the search index can't answer, and searches before the backfill has completed, don't use the search index */
+    @Test
+    public void searchCertificatesWithoutSearchIndex() throws Exception {
+        final String[] searchStrings = { "a%b_c", "foo\\bar", "CN=" };
+        for (final String searchString : searchStrings) {
+            final Capture<String> sql = EasyMock.newCapture();
+            final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+            request.setPageNumber(1);
+            request.setSubjectDnSearchString(searchString);
+            createSearchBean(true, sql, EasyMock.newCapture(), false).searchForCertificatesV2(adminMock, request);
+            assertFalse("Search for '" + searchString + "' should not use the search index.", sql.getValue().contains("SearchIndexData"));
+        }
+        final Capture<String> sql = EasyMock.newCapture();
+        final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+        request.setPageNumber(1);
+        request.setSubjectDnSearchString("Example");
+        createSearchBean(false, sql, EasyMock.newCapture(), false).searchForCertificatesV2(adminMock, request);
+        assertFalse("Search index should not be used before the backfill has completed.", sql.getValue().contains("SearchIndexData"));
+        request.setSubjectDnSearchExact(true);
+        createSearchBean(true, sql, EasyMock.newCapture(), false).searchForCertificatesV2(adminMock, request);
+        assertFalse("Exact search should not use the search index.", sql.getValue().contains("SearchIndexData"));
+    }
+
+    /** Substring searches of end entities find their candidates in the search index */
+    @Test
+    public void searchEndEntitiesWithSearchIndex() throws Exception {
+        final Capture<String> jpql = EasyMock.newCapture();
+        final Capture<Object> tokens = EasyMock.newCapture();
+        final RaEndEntitySearchRequest request = new RaEndEntitySearchRequest();
+        request.setUsernameSearchString("tester");
+        createSearchBean(true, jpql, tokens, true).searchForEndEntities(adminMock, request);
+        assertTrue("Substring search should use the search index: " + jpql.getValue(), jpql.getValue().contains("FROM SearchIndexData s"));
+        assertEquals(Arrays.asList("TES", "EST", "STE", "TER"), tokens.getValue());
+        request.setUsernameSearchString("test_er");
+        createSearchBean(true, jpql, EasyMock.newCapture(), true).searchForEndEntities(adminMock, request);
+        assertFalse("Search with LIKE wildcards should not use the search index.", jpql.getValue().contains("SearchIndexData"));
+    }
+
+    /**
+     * Creates a session bean that is authorized to search everything, and captures the query of a search
+     *
+     * @param searchable true if the backfill of the search index has completed
+     * @param query captures the query
+     * @param tokens captures the search index tokens of the subject DN or username, if any
+     * @param endEntities true for a search of end entities, false for certificates
+     */
+    private RaMasterApiSessionBean createSearchBean(final boolean searchable, final Capture<String> query, final Capture<Object> tokens,
+            final boolean endEntities) throws ReflectiveOperationException {
+        final CaSessionLocal caSession = EasyMock.createNiceMock(CaSessionLocal.class);
+        expect(caSession.getAuthorizedCaIds(adminMock)).andReturn(Arrays.asList(MOCKED_CAID));
+        final CertificateProfileSessionLocal certificateProfileSession = EasyMock.createNiceMock(CertificateProfileSessionLocal.class);
+        expect(certificateProfileSession.getAuthorizedCertificateProfileIds(adminMock, 0)).andReturn(Arrays.asList(1));
+        expect(certificateProfileSession.getCertificateProfileIdToNameMap()).andReturn(Collections.singletonMap(1, "Profile"));
+        final EndEntityProfileSessionLocal endEntityProfileSession = EasyMock.createNiceMock(EndEntityProfileSessionLocal.class);
+        expect(endEntityProfileSession.getAuthorizedEndEntityProfileIds(adminMock, AccessRulesConstants.VIEW_END_ENTITY)).andReturn(Arrays.asList(1));
+        expect(endEntityProfileSession.getEndEntityProfileIdToNameMap()).andReturn(Collections.singletonMap(1, "Profile"));
+        final GlobalConfigurationSessionLocal globalConfigurationSession = EasyMock.createNiceMock(GlobalConfigurationSessionLocal.class);
+        expect(globalConfigurationSession.getCachedConfiguration(GlobalCesecoreConfiguration.CESECORE_CONFIGURATION_ID))
+                .andReturn(new GlobalCesecoreConfiguration()).anyTimes();
+        final SearchIndexSessionLocal searchIndexSession = EasyMock.createNiceMock(SearchIndexSessionLocal.class);
+        expect(searchIndexSession.isSearchable(endEntities ? SearchIndexData.BACKFILL_END_ENTITIES : SearchIndexData.BACKFILL_CERTIFICATES))
+                .andReturn(searchable);
+        final Query queryMock = EasyMock.createNiceMock(Query.class);
+        expect(queryMock.setParameter(EasyMock.matches("(subjectDN|username)Tokens"), EasyMock.capture(tokens))).andReturn(queryMock);
+        expect(queryMock.getResultList()).andReturn(Collections.emptyList());
+        final EntityManager entityManager = EasyMock.createNiceMock(EntityManager.class);
+        if (endEntities) {
+            expect(entityManager.createQuery(EasyMock.capture(query))).andReturn(queryMock);
+        } else {
+            expect(entityManager.createNativeQuery(EasyMock.capture(query))).andReturn(queryMock);
+        }
+        replay(caSession, certificateProfileSession, endEntityProfileSession, globalConfigurationSession, searchIndexSession, queryMock, entityManager);
+        final EjbMocker<RaMasterApiSessionBean> mocker = new EjbMocker<>(RaMasterApiSessionBean.class);
+        mocker.addMockedInjections(caSession, certificateProfileSession, endEntityProfileSession, globalConfigurationSession, searchIndexSession);
+        final RaMasterApiSessionBean bean = mocker.construct();
+        final Field entityManagerField = RaMasterApiSessionBean.class.getDeclaredField("entityManager");
+        entityManagerField.setAccessible(true);
+        entityManagerField.set(bean, entityManager);
+        return bean;
+    }
+
     private KeyStore getDummyKeyStore() {
         try {
             final KeyStore ks = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
@@ -13,6 +13,7 @@
 package org.ejbca.core.ejb;
 
 import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
@@ -28,6 +29,7 @@ import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
 
 import org.apache.log4j.Logger;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
 import org.cesecore.util.LogRedactionUtils;
 import org.ejbca.core.ejb.ra.UserData;
 
@@ -49,6 +51,9 @@ public class ApplicationManagedTransactionsBean {
     @Resource
     private UserTransaction userTransaction;
 
+    @EJB
+    private SearchIndexSessionLocal searchIndexSession;
+
     /**
      * Edits/adds an end entity in a separate transaction, and ignores any transaction conflicts.
      * <p>
@@ -63,6 +68,9 @@ public class ApplicationManagedTransactionsBean {
             userTransaction.begin();
             if (isNew) {
                 em.persist(newUserData);
+                // New end entities are indexed together with the insert, since the insertion may be skipped
+                searchIndexSession.indexEndEntity(newUserData.getUsername(), newUserData.getSubjectDnNeverNull(), newUserData.getSubjectAltName(),
+                        false);
             } else {
                 em.merge(newUserData);
             }
@@ -12,8 +12,6 @@
  *************************************************************************/
 package org.ejbca.core.ejb.authentication.web;
 
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.base.Preconditions;
 import com.keyfactor.util.CertTools;
 import com.keyfactor.util.StringTools;
@@ -71,7 +69,6 @@ import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.security.Key;
 import java.security.cert.X509Certificate;
 import java.text.ParseException;
@@ -81,9 +78,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -110,8 +105,6 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
     @EJB
     private CryptoTokenManagementSessionLocal cryptoToken;
 
-    private LoadingCache<CertificateStatusCacheKey, Integer> cache;
-
     private boolean allowBlankAudience = false;
 
     public WebAuthenticationProviderSessionBean() { }
@@ -128,7 +121,6 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
     @PostConstruct
     public void initialize() {
         initializeAudienceCheck();
-        initializeCache();
     }
 
     /**
@@ -145,15 +137,6 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
         }
     }
 
-    private void initializeCache() {
-        cache = Caffeine.newBuilder()
-                .maximumSize(10_000)
-                .refreshAfterWrite(12, TimeUnit.SECONDS)
-                .expireAfterAccess(60, TimeUnit.SECONDS)
-                .build(key -> certificateStoreSession.getFirstStatusByIssuerAndSerno(
-                        key.getSubjectDn(), key.getSerialNumber()));
-    }
-
     @Override
     public X509CertificateAuthenticationToken authenticateUsingClientCertificate(final X509Certificate x509Certificate) {
         return (X509CertificateAuthenticationToken) authenticate(new AuthenticationSubject(null, new HashSet<>(List.of(x509Certificate))));
@@ -437,8 +420,8 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
             return null;
         }
         // Find out if this is a certificate present in the local database (even if we don't require a cert to be present there we still want to allow a mix)
-        // Database integrity protection verification not performed running this query
-        final int status = getCachedStatus(certificate);
+        // Database integrity protection verification not performed running this query. The status is cached in CertificateStoreSession.
+        final int status = certificateStoreSession.getFirstStatusByIssuerAndSerno(CertTools.getIssuerDN(certificate), CertTools.getSerialNumber(certificate));
         if (status != -1) {
             // The certificate is present in the database.
             if (!(status == CertificateConstants.CERT_ACTIVE || status == CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION)) {
@@ -457,11 +440,6 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
         return new X509CertificateAuthenticationToken(certificate);
     }
 
-    private int getCachedStatus(X509Certificate certificate) {
-        return cache.get(new CertificateStatusCacheKey(CertTools.getIssuerDN(certificate),
-                CertTools.getSerialNumber(certificate)));
-    }
-
     private void logAuthenticationFailure(final String msg) {
         LOG.info(msg);
         final Map<String, Object> details = new LinkedHashMap<>();
@@ -481,40 +459,4 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
     public boolean isAllowBlankAudience() {
         return allowBlankAudience;
     }
-
-    private static class CertificateStatusCacheKey {
-
-        private final String subjectDn;
-        private final BigInteger serialNumber;
-
-        public CertificateStatusCacheKey(String subjectDn, BigInteger serialNumber) {
-            this.subjectDn = subjectDn;
-            this.serialNumber = serialNumber;
-        }
-
-        public String getSubjectDn() {
-            return subjectDn;
-        }
-
-        public BigInteger getSerialNumber() {
-            return serialNumber;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
-            }
-            CertificateStatusCacheKey that = (CertificateStatusCacheKey) obj;
-            return Objects.equals(subjectDn, that.subjectDn) && Objects.equals(serialNumber, that.serialNumber);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(subjectDn, serialNumber);
-        }
-    }
 }
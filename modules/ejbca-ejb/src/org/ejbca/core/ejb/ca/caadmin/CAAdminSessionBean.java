@@ -60,6 +60,9 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.xml.bind.DatatypeConverter;
 
 import org.apache.commons.collections4.CollectionUtils;
@@ -182,6 +185,7 @@ import org.ejbca.core.ejb.audit.enums.EjbcaServiceTypes;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 import org.ejbca.core.ejb.ca.revoke.RevocationSessionLocal;
 import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
@@ -267,6 +271,8 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
     @EJB
     private InternalKeyBindingMgmtSessionLocal keyBindMgmtSession;
     @EJB
+    private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
+    @EJB
     private PublisherSessionLocal publisherSession;
     @EJB
     private PublishingCrlSessionLocal publishingCrlSession;
@@ -285,6 +291,8 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
 
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
     // Myself needs to be looked up in postConstruct
     private CAAdminSessionLocal caAdminSession;
 
@@ -918,6 +926,29 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
                 new EndEntityType(EndEntityTypes.INVALID), 0, cainfo.getCertificateProfileId(), null, null, 0, extendedinfo);
     }
 
+    /**
+     * Rebuilds the OCSP signing cache entries of the CA once the changes of the current transaction are visible, so that
+     * OCSP responses are signed with the new CA state without reloading the entries of all CAs.
+     */
+    private void reloadOcspSigningCacheAfterCommit(final int caid) {
+        if (registry.getTransactionKey() == null) {
+            ocspResponseGeneratorSession.reloadOcspSigningCacheEntriesForCa(caid);
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    ocspResponseGeneratorSession.reloadOcspSigningCacheEntriesForCa(caid);
+                }
+            }
+        });
+    }
+
     @Override
     public void editCA(AuthenticationToken admin, CAInfo cainfo) throws AuthorizationDeniedException, CmsCertificatePathMissingException, InternalKeyBindingNonceConflictException, CaMsCompatibilityIrreversibleException {
         final int caid = cainfo.getCAId();
@@ -944,6 +975,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
         try {
             caSession.editCA(admin, cainfo);
             // Log Action was done by caSession
+            reloadOcspSigningCacheAfterCommit(cainfo.getCAId());
         } catch (AuthorizationDeniedException e) {
             final String msg = intres.getLocalizedMessage("caadmin.erroreditca", cainfo.getName());
             log.error(msg, e);
@@ -2182,6 +2214,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
         if (log.isTraceEnabled()) {
             log.trace(">CAAdminSession, renewCA(), caid=" + caid);
         }
+        reloadOcspSigningCacheAfterCommit(caid);
         List<Certificate> cachain = null;
         Certificate cacertificate = null;
         // check authorization
@@ -2432,6 +2465,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
         if (log.isTraceEnabled()) {
             log.trace(">CAAdminSession, rolloverCA(), caid=" + caid);
         }
+        reloadOcspSigningCacheAfterCommit(caid);
         // check authorization. we require RENEWCA access for this
         if (!authorizationSession.isAuthorizedNoLogging(authenticationToken, StandardRules.CARENEW.resource())) {
             final String detailsMsg = intres.getLocalizedMessage("caadmin.notauthorizedtorollover", caid);
@@ -2514,6 +2548,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
 
     @Override
     public void revokeCA(AuthenticationToken admin, int caid, int reason) throws CADoesntExistsException, AuthorizationDeniedException {
+        reloadOcspSigningCacheAfterCommit(caid);
         // check authorization
         if (!authorizationSession.isAuthorizedNoLogging(admin, StandardRules.ROLE_ROOT.resource())) {
             final String detailsMsg = intres.getLocalizedMessage("caadmin.notauthorizedtorevoke", caid);
@@ -3249,6 +3284,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
     @Override
     public void activateCAService(AuthenticationToken admin, int caid)
             throws AuthorizationDeniedException, ApprovalException, WaitingForApprovalException, CADoesntExistsException {
+        reloadOcspSigningCacheAfterCommit(caid);
         // Authorize
         if (!authorizationSession.isAuthorizedNoLogging(admin, AccessRulesConstants.REGULAR_ACTIVATECA)) {
             final String detailsMsg = intres.getLocalizedMessage("caadmin.notauthorizedtoactivatetoken", caid);
@@ -3302,6 +3338,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
 
     @Override
     public void deactivateCAService(AuthenticationToken admin, int caid) throws AuthorizationDeniedException, CADoesntExistsException {
+        reloadOcspSigningCacheAfterCommit(caid);
         // Authorize
         if (!authorizationSession.isAuthorizedNoLogging(admin, AccessRulesConstants.REGULAR_ACTIVATECA)) {
             final String detailsMsg = intres.getLocalizedMessage("caadmin.notauthorizedtodeactivatetoken",
@@ -225,6 +225,7 @@ public class RevocationSessionBean implements RevocationSessionLocal, Revocation
         Optional.ofNullable(revokedCertWrapper)
                 .ifPresent(revokedCdw -> {
                     deleteOcspIfExists(caId, revokedCdw.getBaseCertificateData());
+                    ocspResponseSigningSession.deleteExportedOcspResponses(cAuthority, revokedCdw.getBaseCertificateData());
                     ocspResponseSigningSession.preSignOcspResponse(cAuthority, revokedCdw.getBaseCertificateData());
                 });
     }
@@ -162,10 +162,18 @@ public class ClearCacheSessionBean implements ClearCacheSessionLocal {
         if (log.isDebugEnabled()) {
             log.debug("OCSP request signer revocation status cache cleared.");
         }
+        ocspResponseGeneratorSession.clearOcspResponseCache();
+        if (log.isDebugEnabled()) {
+            log.debug("OCSP response cache cleared.");
+        }
         certificateStoreSession.reloadCaCertificateCache(); 
         if(log.isDebugEnabled()) {
             log.debug("Certificate Store cache cleared and reloaded.");
         }
+        certificateStoreSession.clearCertificateStatusCache();
+        if(log.isDebugEnabled()) {
+            log.debug("Certificate status cache cleared.");
+        }
         roleDataSession.forceCacheExpire();
         if(log.isDebugEnabled()) {
             log.debug("Role cache cleared.");
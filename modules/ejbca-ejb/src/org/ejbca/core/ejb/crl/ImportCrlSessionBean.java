@@ -12,37 +12,41 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.io.IOException;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.SignatureException;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.x500.X500Name;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
+import org.cesecore.certificates.certificate.CertificateStatus;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
-import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamingCrlReader;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.jndi.JndiConstants;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
@@ -65,22 +69,33 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
     private CrlStoreSessionLocal crlStoreSession;
     @EJB
     private EndEntityManagementSessionLocal endentityManagementSession;
-    
+    @Resource
+    private SessionContext sessionContext;
+
+    private ImportCrlSessionLocal importCrlSession;
+
+    @PostConstruct
+    public void postConstruct() {
+        importCrlSession = sessionContext.getBusinessObject(ImportCrlSessionLocal.class);
+    }
+
     @Override
     public void importCrl(final AuthenticationToken authenticationToken, final CAInfo cainfo, final byte[] crlbytes, final int crlPartitionIndex)
             throws CrlImportException, CrlStoreException, CRLException, AuthorizationDeniedException {
 
-        X509CRL x509crl = CertTools.getCRLfromByteArray(crlbytes);
+        // The CRL is read without decoding all entries, but it has to be DER encoded
+        final byte[] encodedCrl = crlbytes != null && crlbytes.length > 0 && crlbytes[0] != 0x30 ? CertTools.getCRLfromByteArray(crlbytes).getEncoded() : crlbytes;
+        final StreamingCrlReader crl = readCrl(encodedCrl);
         
         X509Certificate cacert = (X509Certificate) cainfo.getCertificateChain().iterator().next();
         final String caFingerprint = CertTools.getFingerprintAsString(cacert);
         final String issuerDn = CertTools.getSubjectDN(cacert);
         
-        verifyCrlIssuer(x509crl, issuerDn, cacert);
+        verifyCrlIssuer(crl, issuerDn, cacert);
         
         // Check if the CRL is already stored locally
-        final boolean isDeltaCrl = CrlExtensions.getDeltaCRLIndicator(x509crl).intValue() != -1;
-        final int downloadedCrlNumber = CrlExtensions.getCrlNumber(x509crl).intValue();
+        final boolean isDeltaCrl = crl.getDeltaCrlIndicator().intValue() != -1;
+        final int downloadedCrlNumber = crl.getCrlNumber().intValue();
         if (log.isTraceEnabled()) {
             log.trace("Delta CRL:  " + isDeltaCrl);
             log.trace("IssuerDn:   " + issuerDn);
@@ -90,71 +105,52 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             }
         }
         
-        X509CRL lastCrlOfSameType = getLastCrlOfSameType(x509crl, isDeltaCrl, issuerDn, crlPartitionIndex);
-        if (lastCrlOfSameType != null && !x509crl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
+        final StreamingCrlReader lastCrlOfSameType = getLastCrlOfSameType(isDeltaCrl, issuerDn, crlPartitionIndex);
+        if (lastCrlOfSameType != null && !crl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
             log.info((isDeltaCrl ? "Delta" : "Full") + " CRL number " + downloadedCrlNumber + " for CA '" + cainfo.getName() +
                     "' is not newer than last known " + (isDeltaCrl ? "delta" : "full") + " CRL. Ignoring download.");
             return;
         }
         
         // If the CRL is newer than the last known or there wasn't any old one, loop through it
-        if (x509crl.getRevokedCertificates()==null) {
+        final List<StreamingCrlReader.Entry> crlEntries = getSortedEntries(crl);
+        if (crlEntries.isEmpty()) {
             log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + cainfo.getName() + "'");
         } else {
-            final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-            crlEntries.addAll(x509crl.getRevokedCertificates());
             if (log.isDebugEnabled()) {
                 log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
             }
-            
-            if(lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
+            List<StreamingCrlReader.Entry> newEntries = crlEntries;
+            if (lastCrlOfSameType != null) {
+                List<StreamingCrlReader.Entry> lastCrlEntries;
+                try {
+                    lastCrlEntries = lastCrlOfSameType.getSortedEntries();
+                } catch (IOException e) {
+                    log.warn("Could not read the entries of the older CRL issued by " + issuerDn, e);
+                    lastCrlEntries = Collections.emptyList();
+                }
                 if (log.isDebugEnabled()) {
-                    log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
+                    log.debug("Last known CRL contains " + lastCrlEntries.size() + " entries.");
                 }
-                // Remove all entries that were processed last time
-                crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
+                // Skip all entries that were processed last time, by walking through both CRLs in serial number order
+                newEntries = StreamingCrlReader.getNewOrChangedEntries(crlEntries, lastCrlEntries);
             }
         
-            log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
-            // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-            for (final X509CRLEntry crlEntry : crlEntries) {
-                final Date revocationDate = crlEntry.getRevocationDate();
-                final BigInteger serialNumber = crlEntry.getSerialNumber();
-                Date invalidityDate = null;
-                ASN1GeneralizedTime asn1GeneralizedTime = CrlExtensions.extractInvalidityDate(crlEntry);
-                if (asn1GeneralizedTime != null) {
-                    try {
-                        invalidityDate = asn1GeneralizedTime.getDate();
-                    } catch (ParseException e) {
-                        log.info("Failed to parse invalidityDate for crl entry with serial number " + serialNumber);
-                    }
-                }
-                final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                if (crlEntry.getCertificateIssuer()!=null) {
-                    final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                    if (!issuerDn.equals(entryIssuerDn)) {
-                        log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                    }
-                }
-                
-                final CertificateDataWrapper cdw = certStoreSession.getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
-                if(isLimitedCertificate(issuerDn, serialNumber, cdw)) {
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint, invalidityDate);
-                } else {
-                    final String serialHex = serialNumber.toString(16).toUpperCase();
-                    log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
-                    try {
-                        //log.info("Reason code: " + reason);
-                        endentityManagementSession.revokeCert(authenticationToken, serialNumber, crlEntry.getRevocationDate(), invalidityDate, issuerDn, reasonCode, false);
-                    } catch (AlreadyRevokedException e) {
-                        log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
-                    } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
-                        throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
-                    }
-                    
+            log.info("Found " + newEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
+            // Create/update database entries with the new status, in one transaction per chunk so that large CRLs can be imported
+            final int batchSize = CesecoreConfiguration.getCrlImportBatchSize();
+            int updated = 0;
+            for (int i = 0; i < newEntries.size(); i += batchSize) {
+                final List<StreamingCrlReader.Entry> chunk = newEntries.subList(i, Math.min(i + batchSize, newEntries.size()));
+                updated += importCrlSession.importCrlEntries(authenticationToken, cainfo, issuerDn, caFingerprint, chunk);
+                if (newEntries.size() > batchSize) {
+                    log.info("Processed " + (i + chunk.size()) + " of " + newEntries.size() + " new entries in CRL number " + downloadedCrlNumber
+                            + " issued by '" + issuerDn + "'.");
                 }
             }
+            if (log.isDebugEnabled()) {
+                log.debug("Updated the status of " + updated + " certificates. The other " + (newEntries.size() - updated) + " were already up to date.");
+            }
         }
         // Calculate (make up) the CRL Number if the number was not present
         final int newCrlNumber;
@@ -165,31 +161,110 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             newCrlNumber = downloadedCrlNumber;
         }
         // Last of all, store the CRL if there were no errors during creation of database entries
-        crlStoreSession.storeCRL(authenticationToken, x509crl.getEncoded(), caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, x509crl.getThisUpdate(), x509crl.getNextUpdate(), isDeltaCrl?1:-1);
+        crlStoreSession.storeCRL(authenticationToken, encodedCrl, caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, crl.getThisUpdate(), crl.getNextUpdate(), isDeltaCrl?1:-1);
     
     }
-    
-    private void verifyCrlIssuer(final X509CRL crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int importCrlEntries(final AuthenticationToken authenticationToken, final CAInfo cainfo, final String issuerDn, final String caFingerprint,
+            final List<StreamingCrlReader.Entry> entries) throws CrlImportException, AuthorizationDeniedException {
+        final List<BigInteger> serialNumbers = new ArrayList<>(entries.size());
+        for (final StreamingCrlReader.Entry entry : entries) {
+            serialNumbers.add(entry.getSerialNumber());
+        }
+        // Read the current status of all certificates in the chunk at once
+        final Map<BigInteger, CertificateStatus> statuses = certStoreSession.getStatuses(issuerDn, serialNumbers);
+        int updated = 0;
+        for (final StreamingCrlReader.Entry crlEntry : entries) {
+            final BigInteger serialNumber = crlEntry.getSerialNumber();
+            final RevokedCertInfo revokedCertInfo;
+            final X500Name certificateIssuer;
+            try {
+                revokedCertInfo = crlEntry.toRevokedCertInfo();
+                certificateIssuer = crlEntry.getCertificateIssuer();
+            } catch (IOException e) {
+                throw new CrlImportException("Failed to parse CRL entry with serial number " + serialNumber.toString(16).toUpperCase(), e);
+            }
+            final Date revocationDate = revokedCertInfo.getRevocationDate();
+            final Date invalidityDate = revokedCertInfo.getInvalidityDate();
+            final int reasonCode = revokedCertInfo.getReason();
+            if (certificateIssuer != null) {
+                final String entryIssuerDn = CertTools.stringToBCDNString(certificateIssuer.toString());
+                if (!issuerDn.equals(entryIssuerDn)) {
+                    log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
+                }
+            }
+            final CertificateStatus status = statuses.get(serialNumber);
+            if (status != null && CertificateStatus.REVOKED.equals(status) && status.revocationReason == reasonCode
+                    && status.revocationDate.equals(revocationDate) && Objects.equals(status.invalidityDate, invalidityDate)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Certificate with serial number " + serialNumber.toString(16).toUpperCase()
+                            + " is already revoked with the same reason, date and invalidity date.");
+                }
+                continue;
+            }
+            updated++;
+            // Certificates that are not in the database are stored as limited entries, without looking them up again
+            final CertificateDataWrapper cdw = status == null ? null : certStoreSession.getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
+            if(isLimitedCertificate(issuerDn, serialNumber, cdw)) {
+                // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
+                certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint, invalidityDate);
+            } else {
+                final String serialHex = serialNumber.toString(16).toUpperCase();
+                log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
+                try {
+                    endentityManagementSession.revokeCert(authenticationToken, serialNumber, revocationDate, invalidityDate, issuerDn, reasonCode, false);
+                } catch (AlreadyRevokedException e) {
+                    log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
+                } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
+                    throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
+                }
+            }
+        }
+        return updated;
+    }
+
+    private StreamingCrlReader readCrl(final byte[] encodedCrl) throws CRLException {
+        if (encodedCrl == null) {
+            throw new CRLException("No content in crl byte array");
+        }
+        try {
+            return new StreamingCrlReader(encodedCrl);
+        } catch (IOException e) {
+            throw new CRLException(e.getMessage(), e);
+        }
+    }
+
+    private List<StreamingCrlReader.Entry> getSortedEntries(final StreamingCrlReader crl) throws CRLException {
+        try {
+            return crl.getSortedEntries();
+        } catch (IOException e) {
+            throw new CRLException(e.getMessage(), e);
+        }
+    }
+
+    private void verifyCrlIssuer(final StreamingCrlReader crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
         log.info("CA: " + issuerDN);
         // Read the supplied CRL and verify that it is issued by the specified CA
-        if (!crl.getIssuerX500Principal().equals(cacert.getSubjectX500Principal())) {
+        if (!crl.getIssuer().equals(X500Name.getInstance(cacert.getSubjectX500Principal().getEncoded()))) {
             throw new CrlImportException("CRL wasn't issued by " + issuerDN);
         }
         
         try {
             crl.verify(cacert.getPublicKey());
-        } catch (InvalidKeyException | CRLException | NoSuchAlgorithmException | NoSuchProviderException | SignatureException e) {
+        } catch (SignatureException e) {
             throw new CrlImportException("Failed to verify CRL signature.", e);
         }
     }
     
-    private X509CRL getLastCrlOfSameType(final X509CRL crl, final boolean isDeltaCrl, final String issuerDN, final int crlPartitionIndex) {
-        X509CRL lastCrlOfSameType = null;
+    private StreamingCrlReader getLastCrlOfSameType(final boolean isDeltaCrl, final String issuerDN, final int crlPartitionIndex) {
+        StreamingCrlReader lastCrlOfSameType = null;
         final byte[] lastCrl = crlStoreSession.getLastCRL(issuerDN, crlPartitionIndex, isDeltaCrl);
         if(lastCrl != null) {
             try {
-                lastCrlOfSameType = CertTools.getCRLfromByteArray(lastCrl);
-            } catch (CRLException e) {
+                lastCrlOfSameType = new StreamingCrlReader(lastCrl);
+            } catch (IOException e) {
                 log.warn("Could not retrieve an older CRL issued by " + issuerDN, e);
             }
         }
@@ -18,14 +18,23 @@ import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -36,6 +45,7 @@ import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 
 import org.apache.commons.lang.math.IntRange;
 import org.apache.log4j.Logger;
@@ -63,12 +73,16 @@ import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateData;
 import org.cesecore.certificates.certificate.CertificateDataSessionLocal;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.certificate.NoConflictCertificateDataSessionLocal;
 import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlCreateSessionLocal;
+import org.cesecore.certificates.crl.CrlEntryMerger;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.CompressedCollection;
@@ -94,6 +108,9 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Resource
     private SessionContext sessionContext;
+    /** Container managed threads used to create CRLs for several CAs and CRL partitions in parallel */
+    @Resource
+    private ManagedExecutorService managedExecutorService;
 
     @EJB
     private CaSessionLocal caSession;
@@ -106,10 +123,14 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
     @EJB
     private CrlStoreSessionLocal crlSession;
     @EJB
+    private NoConflictCertificateDataSessionLocal noConflictCertificateDataSession;
+    @EJB
     private NoConflictCertificateStoreSessionLocal noConflictCertificateStoreSession;
     @EJB
     private PublisherSessionLocal publisherSession;
     @EJB
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal logSession;
 
     private PublishingCrlSessionLocal publishingCrlSession;
@@ -133,12 +154,10 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public Set<Integer> createCRLs(final AuthenticationToken admin, final Collection<Integer> caids, final long addtocrloverlaptime) throws AuthorizationDeniedException {
-        final Collection<Integer> caIdsToProcess;
-        if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
-            caIdsToProcess = caSession.getAllCaIds();
-        } else {
-            caIdsToProcess = caids;
+        if (CesecoreConfiguration.getCrlGenerationThreads() > 1) {
+            return getCaIdsWithCreatedCrls(createCrlJobs(admin, caids, addtocrloverlaptime, false));
         }
+        final Collection<Integer> caIdsToProcess = getCaIdsToProcess(caids);
         Set<Integer> createdcrls = new HashSet<>();
         for (final int caid : caIdsToProcess) {
             if (log.isDebugEnabled()) {
@@ -161,12 +180,10 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public Set<Integer> createDeltaCRLs(final AuthenticationToken admin, final Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException {
-        final Collection<Integer> caIdsToProcess;
-        if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
-            caIdsToProcess = caSession.getAllCaIds();
-        } else {
-            caIdsToProcess = caids;
+        if (CesecoreConfiguration.getCrlGenerationThreads() > 1) {
+            return getCaIdsWithCreatedCrls(createCrlJobs(admin, caids, crloverlaptime, true));
         }
+        final Collection<Integer> caIdsToProcess = getCaIdsToProcess(caids);
         Set<Integer> createddeltacrls = new HashSet<>();
         for (final int caid : caIdsToProcess) {
             if (log.isDebugEnabled()) {
@@ -179,72 +196,308 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             } catch (CesecoreException e) {
                 // Don't fail all generation just because one of the CAs had token offline or similar.
                 // Continue working with the others, but log a warning message in system logs.
-                final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
-                log.error(msg, e);
-                final Map<String, Object> details = new LinkedHashMap<>();
-                details.put("msg", msg);
-                logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+                logCrlCreationFailure(admin, caid, e);
             }
         }
         return createddeltacrls;
     }
 
+    private Collection<Integer> getCaIdsToProcess(final Collection<Integer> caids) {
+        if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
+            return caSession.getAllCaIds();
+        }
+        return caids;
+    }
+
+    /** @return the CAs for which CRLs were created for the main CRL and all CRL partitions, like {@link #createCRLNewConditioned} reports it */
+    private Set<Integer> getCaIdsWithCreatedCrls(final List<CrlCreationJobResult> jobResults) {
+        final Map<Integer, Boolean> created = new LinkedHashMap<>();
+        for (final CrlCreationJobResult jobResult : jobResults) {
+            final Boolean previous = created.get(jobResult.getCaId());
+            created.put(jobResult.getCaId(), jobResult.isCreated() && (previous == null || previous));
+        }
+        final Set<Integer> ret = new HashSet<>();
+        for (final Map.Entry<Integer, Boolean> entry : created.entrySet()) {
+            if (entry.getValue()) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    private void logCrlCreationFailure(final AuthenticationToken admin, final int caid, final Exception e) {
+        final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
+        log.error(msg, e);
+        final Map<String, Object> details = new LinkedHashMap<>();
+        details.put("msg", msg);
+        logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+    }
+
     @Override
-    public boolean createCRLNewConditioned(AuthenticationToken admin, int caId, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CADoesntExistsException, AuthorizationDeniedException, CAOfflineException {
+    public List<CrlCreationJobResult> createCrlJobs(final AuthenticationToken admin, final Collection<Integer> caids, final long addToCrlOverlapTime,
+            final boolean delta) {
         final Date now = new Date();
-        // Get CA checks authorization to the CA
-        final CA ca = (CA) caSession.getCA(admin, caId);
-        final CAInfo cainfo = ca.getCAInfo();
-        try {
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for external CA "+cainfo.getName());
+        final List<CrlCreationJob> jobs = new ArrayList<>();
+        final List<CrlCreationJobResult> failedCas = new ArrayList<>();
+        for (final int caid : getCaIdsToProcess(caids)) {
+            try {
+                // Get CA checks authorization to the CA
+                final CA ca = (CA) caSession.getCA(admin, caid);
+                if (ca == null) {
+                    throw new CADoesntExistsException("CA with ID " + caid + " does not exist.");
                 }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" awaiting certificate response.");
+                final CAInfo cainfo = ca.getCAInfo();
+                if (getCaCertificateIfCrlShouldBeCreated(cainfo, now, delta) == null) {
+                    continue;
                 }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is uninitialized.");
+                final int cryptoTokenId = cainfo.getCAToken().getCryptoTokenId();
+                jobs.add(new CrlCreationJob(admin, caid, CertificateConstants.NO_CRL_PARTITION, cryptoTokenId, addToCrlOverlapTime, delta));
+                final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+                if (crlPartitions != null) {
+                    for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+                        jobs.add(new CrlCreationJob(admin, caid, crlPartitionIndex, cryptoTokenId, addToCrlOverlapTime, delta));
+                    }
                 }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getStatus() == CAConstants.CA_OFFLINE )  {
-                            // Normal event to not create CRLs for CAs that are deliberately set off line
-                            String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                            log.info(msg);
-                        } else {
-                            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                            final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                            if (crlPartitions != null) {
-                                for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                    result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                }
-                            }
-                            return result;
-                        }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating CRL for CA without CA certificate: "+cainfo.getName());
+            } catch (CADoesntExistsException | AuthorizationDeniedException | RuntimeException e) {
+                logCrlCreationFailure(admin, caid, e);
+                failedCas.add(new CrlCreationJobResult(caid, CertificateConstants.NO_CRL_PARTITION, delta, false, 0, String.valueOf(e.getMessage())));
+            }
+        }
+        final int threads = CesecoreConfiguration.getCrlGenerationThreads();
+        final int threadsPerCryptoToken = CesecoreConfiguration.getCrlGenerationThreadsPerCryptoToken();
+        if (log.isDebugEnabled()) {
+            log.debug("Running " + jobs.size() + (delta ? " delta" : "") + " CRL creation jobs with " + threads + " threads, and at most "
+                    + threadsPerCryptoToken + " threads per crypto token.");
+        }
+        if (threads > 1 && jobs.size() > 1) {
+            runCrlCreationJobsInParallel(managedExecutorService, jobs, threads, threadsPerCryptoToken);
+        } else {
+            for (final CrlCreationJob job : jobs) {
+                job.call();
+            }
+        }
+        final List<CrlCreationJobResult> ret = new ArrayList<>(failedCas);
+        for (final CrlCreationJob job : jobs) {
+            ret.add(job.getResult());
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the jobs in a thread pool, with at most the given number of jobs running at the same time in total and for each crypto token.
+     * Jobs for different crypto tokens are started in turn, so that a crypto token with many CAs or CRL partitions does not delay the others.
+     * Waits until all jobs have finished. If the calling thread is interrupted, the jobs that have not been started are marked as failed.
+     */
+    void runCrlCreationJobsInParallel(final ExecutorService executorService, final List<CrlCreationJob> jobs, final int threads,
+            final int threadsPerCryptoToken) {
+        final Map<Integer, Deque<CrlCreationJob>> pendingJobs = new LinkedHashMap<>();
+        for (final CrlCreationJob job : jobs) {
+            Deque<CrlCreationJob> tokenJobs = pendingJobs.get(job.cryptoTokenId);
+            if (tokenJobs == null) {
+                tokenJobs = new ArrayDeque<>();
+                pendingJobs.put(job.cryptoTokenId, tokenJobs);
+            }
+            tokenJobs.add(job);
+        }
+        // Crypto tokens with pending jobs, in the order they get their turn
+        final Deque<Integer> turns = new ArrayDeque<>(pendingJobs.keySet());
+        final Map<Integer, Integer> runningJobsPerCryptoToken = new HashMap<>();
+        final Map<Future<CrlCreationJob>, CrlCreationJob> runningJobs = new HashMap<>();
+        final CompletionService<CrlCreationJob> completionService = new ExecutorCompletionService<>(executorService);
+        try {
+            while (!turns.isEmpty() || !runningJobs.isEmpty()) {
+                while (runningJobs.size() < threads) {
+                    final CrlCreationJob job = pollNextJob(turns, pendingJobs, runningJobsPerCryptoToken, threadsPerCryptoToken);
+                    if (job == null) {
+                        break;
                     }
+                    runningJobs.put(completionService.submit(job), job);
+                    runningJobsPerCryptoToken.merge(job.cryptoTokenId, 1, Integer::sum);
+                }
+                final Future<CrlCreationJob> done = completionService.take();
+                final CrlCreationJob job = runningJobs.remove(done);
+                runningJobsPerCryptoToken.put(job.cryptoTokenId, runningJobsPerCryptoToken.get(job.cryptoTokenId) - 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Interrupted while waiting for CRL creation jobs. " + runningJobs.size() + " running jobs will complete in the background.");
+            for (final Deque<CrlCreationJob> tokenJobs : pendingJobs.values()) {
+                for (final CrlCreationJob job : tokenJobs) {
+                    job.setResult(new CrlCreationJobResult(job.caId, job.crlPartitionIndex, job.delta, false, 0, "Interrupted before the job was started."));
                 }
             }
+            for (final CrlCreationJob job : runningJobs.values()) {
+                job.setResult(new CrlCreationJobResult(job.caId, job.crlPartitionIndex, job.delta, false, 0, "Interrupted before the job completed."));
+            }
+        }
+    }
+
+    /**
+     * @return the next job of the first crypto token in turn that runs less than threadsPerCryptoToken jobs, or null if there is none.
+     * The crypto token goes last in turn, or is removed if it has no more pending jobs.
+     */
+    private CrlCreationJob pollNextJob(final Deque<Integer> turns, final Map<Integer, Deque<CrlCreationJob>> pendingJobs,
+            final Map<Integer, Integer> runningJobsPerCryptoToken, final int threadsPerCryptoToken) {
+        for (final Integer cryptoTokenId : turns) {
+            if (runningJobsPerCryptoToken.getOrDefault(cryptoTokenId, 0) < threadsPerCryptoToken) {
+                turns.remove(cryptoTokenId);
+                final Deque<CrlCreationJob> tokenJobs = pendingJobs.get(cryptoTokenId);
+                final CrlCreationJob job = tokenJobs.poll();
+                if (!tokenJobs.isEmpty()) {
+                    turns.addLast(cryptoTokenId);
+                }
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /** Checks, and if needed creates, the CRL or delta CRL for one CA and CRL partition, and records the result and the time it took */
+    class CrlCreationJob implements Callable<CrlCreationJob> {
+        private final AuthenticationToken admin;
+        private final int caId;
+        private final int crlPartitionIndex;
+        private final int cryptoTokenId;
+        private final long addToCrlOverlapTime;
+        private final boolean delta;
+        private volatile CrlCreationJobResult result;
+
+        CrlCreationJob(final AuthenticationToken admin, final int caId, final int crlPartitionIndex, final int cryptoTokenId,
+                final long addToCrlOverlapTime, final boolean delta) {
+            this.admin = admin;
+            this.caId = caId;
+            this.crlPartitionIndex = crlPartitionIndex;
+            this.cryptoTokenId = cryptoTokenId;
+            this.addToCrlOverlapTime = addToCrlOverlapTime;
+            this.delta = delta;
+        }
+
+        @Override
+        public CrlCreationJob call() {
+            final long startTime = System.currentTimeMillis();
+            boolean created = false;
+            String errorMessage = null;
+            try {
+                created = publishingCrlSession.createCrlConditioned(admin, caId, crlPartitionIndex, addToCrlOverlapTime, delta);
+            } catch (Exception e) { // NOPMD: Don't fail the other jobs because of this one, whatever the reason
+                logCrlCreationFailure(admin, caId, e);
+                errorMessage = String.valueOf(e.getMessage());
+            }
+            final CrlCreationJobResult jobResult = new CrlCreationJobResult(caId, crlPartitionIndex, delta, created, System.currentTimeMillis() - startTime,
+                    errorMessage);
+            if (log.isDebugEnabled()) {
+                log.debug("CRL creation job completed: " + jobResult);
+            }
+            setResult(jobResult);
+            return this;
+        }
+
+        private synchronized void setResult(final CrlCreationJobResult result) {
+            // The result of an interrupted job is kept if the job completes later
+            if (this.result == null) {
+                this.result = result;
+            }
+        }
+
+        CrlCreationJobResult getResult() {
+            return result;
+        }
+    }
+
+    @Override
+    public boolean createCrlConditioned(final AuthenticationToken admin, final int caId, final int crlPartitionIndex, final long addToCrlOverlapTime,
+            final boolean delta) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
+        final Date now = new Date();
+        final CA ca = (CA) caSession.getCA(admin, caId);
+        if (ca == null) {
+            throw new CADoesntExistsException("CA with ID " + caId + " does not exist.");
+        }
+        final Certificate cacert = getCaCertificateIfCrlShouldBeCreated(ca.getCAInfo(), now, delta);
+        if (cacert == null) {
+            return false;
+        }
+        try {
+            if (delta) {
+                return createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
+            }
+            return createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
+        } catch (CryptoTokenOfflineException e) {
+            log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean createCRLNewConditioned(AuthenticationToken admin, int caId, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CADoesntExistsException, AuthorizationDeniedException, CAOfflineException {
+        final Date now = new Date();
+        // Get CA checks authorization to the CA
+        final CA ca = (CA) caSession.getCA(admin, caId);
+        final CAInfo cainfo = ca.getCAInfo();
+        final Certificate cacert = getCaCertificateIfCrlShouldBeCreated(cainfo, now, false);
+        if (cacert == null) {
             return false;
+        }
+        try {
+            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
+            final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+            if (crlPartitions != null) {
+                for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+                    result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
+                }
+            }
+            return result;
         } catch (CryptoTokenOfflineException e) {
             log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
             throw e;
         }
     }
 
+    /**
+     * Checks the CA status, the CA certificate and, for delta CRLs, the delta CRL period.
+     *
+     * @return the CA certificate if CRLs or delta CRLs should be created for the CA, or null if not.
+     */
+    private Certificate getCaCertificateIfCrlShouldBeCreated(final CAInfo cainfo, final Date now, final boolean delta) {
+        final String crlType = delta ? "delta CRL" : "CRL";
+        if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for external CA "+cainfo.getName());
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" awaiting certificate response.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" that is revoked.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" that is uninitialized.");
+            }
+        } else if (cainfo instanceof X509CAInfo) {
+            final Certificate cacert = getCaCertificate(cainfo);
+            // Don't create CRLs if the CA has expired
+            if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
+                if (delta && cainfo.getDeltaCRLPeriod() <= 0) {
+                    return null;
+                }
+                if (cainfo.getStatus() == CAConstants.CA_OFFLINE) {
+                    // Normal event to not create CRLs for CAs that are deliberately set off line
+                    String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
+                    log.info(msg);
+                    return null;
+                }
+                return cacert;
+            } else if (log.isDebugEnabled() && cacert != null) {
+                log.debug("Not creating "+crlType+" for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
+            } else if (log.isDebugEnabled()) {
+                log.debug("Not creating "+crlType+" for CA without CA certificate: "+cainfo.getName());
+            }
+        }
+        return null;
+    }
+
     /** Creates a CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
     private boolean createCrlForActiveCa(final AuthenticationToken admin, final CA ca, final Certificate cacert, final int crlPartitionIndex,
             final Date now, final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
@@ -315,60 +568,26 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
     @Override
     public boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long addToCrlOverlapTime)
             throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
-        boolean ret = false;
         final Date now = new Date();
         final CA ca = (CA) caSession.getCA(admin, caid);
         final CAInfo cainfo = ca.getCAInfo();
-        try{
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for external CA "+cainfo.getName());
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" awaiting certificate response.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is uninitialized.");
-                }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getDeltaCRLPeriod() > 0) {
-                            if (cainfo.getStatus() == CAConstants.CA_OFFLINE) {
-                                // Normal event to not create CRLs for CAs that are deliberately set off line
-                                String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                                log.info(msg);
-                            } else {
-                                boolean result = createDeltaCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                                final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                                if (crlPartitions != null) {
-                                    for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                        result &= createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                    }
-                                }
-                                return result;
-                            }
-                        }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating delta CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating delta CRL for CA without CA certificate: "+cainfo.getName());
-                    }
+        final Certificate cacert = getCaCertificateIfCrlShouldBeCreated(cainfo, now, true);
+        if (cacert == null) {
+            return false;
+        }
+        try {
+            boolean result = createDeltaCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
+            final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+            if (crlPartitions != null) {
+                for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+                    result &= createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
                 }
             }
+            return result;
         } catch (CryptoTokenOfflineException e) {
             log.warn("Crypto token is offline for CA "+caid+" generating CRL.");
             throw e;
         }
-        return ret;
     }
 
     /** Creates a Delta CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
@@ -485,42 +704,53 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             }
             // We can not create a CRL for a CA that is waiting for certificate response
             if ( caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE )  {
-                // Find all revoked certificates for a complete CRL
-                if (log.isDebugEnabled()) {
-                    final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                    log.debug("Listing revoked certificates. Free memory=" + freeMemory);
+                final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
+                final boolean nameChanged = ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged();
+                final List<String> expiredFingerprints = new ArrayList<>();
+                // Only used when the entry of a revoked certificate can not change, other than when a certificate on hold is revoked or reactivated
+                if (lastBaseCrlInfo != null && !nameChanged && CesecoreConfiguration.isCrlIncrementalGeneration()
+                        && !cainfo.isAllowChangingRevocationReason() && !getAllowInvalidityDate(cainfo)) {
+                    revokedCertificates = listRevokedCertInfoIncrementally(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo, keepExpiredCertsOnCrl,
+                            expiredFingerprints);
                 }
-                revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
-                        crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
+                if (revokedCertificates == null) {
+                    // Find all revoked certificates for a complete CRL
+                    if (log.isDebugEnabled()) {
+                        final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
+                        log.debug("Listing revoked certificates. Free memory=" + freeMemory);
+                    }
+                    revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
+                            crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
 
-                //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
-                if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
-                    log.info("The CA with SubjectDN " + ca.getSubjectDN() + " has been gone through ICAO Name Change. Collecting all revocation information published by this CA with previous names has started.");
-                    Collection<Certificate> renewedCertificateChain = ca.getRenewedCertificateChain();
-                    Collection<RevokedCertInfo> revokedCertificatesBeforeLastCANameChange = new ArrayList<>();
-                    if(renewedCertificateChain != null){
-                        Collection<String> differentSubjectDNs = new HashSet<>();
-                        differentSubjectDNs.add(caCertSubjectDN);
-                        for(Certificate renewedCertificate : renewedCertificateChain){
-                            String renewedCertificateSubjectDN = CertTools.getSubjectDN(renewedCertificate);
-                            if(!differentSubjectDNs.contains(renewedCertificateSubjectDN)){
-                                log.info("Collecting revocation information for " + LogRedactionUtils.getSubjectDnLogSafe(renewedCertificateSubjectDN) + " and merging them with ones for " + caCertSubjectDN);
-                                differentSubjectDNs.add(renewedCertificateSubjectDN);
-                                Collection<RevokedCertInfo> revokedCertInfo = noConflictCertificateStoreSession.listRevokedCertInfo(renewedCertificateSubjectDN,
-                                        false, crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
-                                for(RevokedCertInfo tmp : revokedCertInfo){ //for loop is necessary because revokedCertInfo.toArray is not supported...
-                                    revokedCertificatesBeforeLastCANameChange.add(tmp);
+                    //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
+                    if(nameChanged){
+                        log.info("The CA with SubjectDN " + ca.getSubjectDN() + " has been gone through ICAO Name Change. Collecting all revocation information published by this CA with previous names has started.");
+                        Collection<Certificate> renewedCertificateChain = ca.getRenewedCertificateChain();
+                        Collection<RevokedCertInfo> revokedCertificatesBeforeLastCANameChange = new ArrayList<>();
+                        if(renewedCertificateChain != null){
+                            Collection<String> differentSubjectDNs = new HashSet<>();
+                            differentSubjectDNs.add(caCertSubjectDN);
+                            for(Certificate renewedCertificate : renewedCertificateChain){
+                                String renewedCertificateSubjectDN = CertTools.getSubjectDN(renewedCertificate);
+                                if(!differentSubjectDNs.contains(renewedCertificateSubjectDN)){
+                                    log.info("Collecting revocation information for " + LogRedactionUtils.getSubjectDnLogSafe(renewedCertificateSubjectDN) + " and merging them with ones for " + caCertSubjectDN);
+                                    differentSubjectDNs.add(renewedCertificateSubjectDN);
+                                    Collection<RevokedCertInfo> revokedCertInfo = noConflictCertificateStoreSession.listRevokedCertInfo(renewedCertificateSubjectDN,
+                                            false, crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
+                                    for(RevokedCertInfo tmp : revokedCertInfo){ //for loop is necessary because revokedCertInfo.toArray is not supported...
+                                        revokedCertificatesBeforeLastCANameChange.add(tmp);
+                                    }
                                 }
                             }
                         }
+                        //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
+                        Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
+                        revokedCertificates = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
+                        if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
+                            revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
+                        }
+                        revokedCertificates.addAll(revokedCertificatesAfterLastCANameChange);
                     }
-                    //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
-                    Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
-                    revokedCertificates = new CompressedCollection<>(RevokedCertInfo.class);
-                    if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
-                        revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
-                    }
-                    revokedCertificates.addAll(revokedCertificatesAfterLastCANameChange);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -539,18 +769,16 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                 //  the revocation notice MUST be included in all subsequent delta CRLs
                 //  until the revocation notice is included on at least one explicitly
                 //  issued complete CRL for this scope
-                final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
                 for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
                     // We want to include certificates that were revoked after the last CRL was issued, but before this one
                     // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
                     // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
                     if ( !keepExpiredCertsOnCrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastBaseCrlCreationDate) ) {
-                        // Certificate has expired, set status to archived in the database
-                        if (log.isDebugEnabled()) {
-                            final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                            log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
+                        // Certificate has expired, set status to archived in the database (below, in chunks)
+                        if (log.isTraceEnabled()) {
+                            log.trace("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+".");
                         }
-                        noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+                        expiredFingerprints.add(revokedCertInfo.getCertificateFingerprint());
                     } else {
                         if (!revokedCertInfo.isRevocationDateSet()) {
                             revokedCertInfo.setRevocationDate(now);
@@ -569,10 +797,25 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                         }
                     }
                 }
+                // Expired certificates are archived with bulk updates, optionally in separate transactions once the CRL has been stored
+                final boolean archiveAfterStore = CesecoreConfiguration.isCrlArchiveAfterStore();
+                if (!archiveAfterStore) {
+                    archiveExpiredCertificates(archiveAdmin, caCertSubjectDN, expiredFingerprints, false);
+                }
                 // a full CRL
                 final byte[] crlBytes = generateAndStoreCRL(admin, ca, crlPartitionIndex, revokedCertificates, lastBaseCrlInfo, false, validFrom);
+                if (archiveAfterStore) {
+                    archiveExpiredCertificates(archiveAdmin, caCertSubjectDN, expiredFingerprints, true);
+                }
                 if (crlBytes != null) {
                     ret = CertTools.getFingerprintAsString(crlBytes);
+                    if (CesecoreConfiguration.isRevocationJournalEnabled()) {
+                        final CRLInfo newBaseCrlInfo = crlSession.getLastCRLInfoLightWeight(caCertSubjectDN, crlPartitionIndex, false);
+                        if (newBaseCrlInfo != null) {
+                            revocationEventDataSession.fullCrlCreated(caCertSubjectDN, crlPartitionIndex, newBaseCrlInfo.getCreateDate().getTime(),
+                                    lastBaseCrlInfo == null ? -1 : lastBaseCrlInfo.getCreateDate().getTime());
+                        }
+                    }
                 }
                 // This debug logging is very, very heavy if you have large CRLs. Please don't use it :-)
                 //              if (log.isDebugEnabled()) {
@@ -643,9 +886,21 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             final String caCertSubjectDN = cacert==null ? null : CertTools.getSubjectDN(cacert);
             // We can not create a CRL for a CA that is waiting for certificate response
             if ( caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE ) {
-                // Find all revoked certificates
-                revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, true, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime(), 
-                        true, getAllowInvalidityDate(cainfo));
+                // Find all certificates that have been revoked or reactivated since the base CRL, from the revocation journal if possible
+                revcertinfos = revocationEventDataSession.getRevokedCertInfosSinceFullCrl(caCertSubjectDN, crlPartitionIndex,
+                        lastBaseCrlInfo.getCreateDate().getTime(), getAllowInvalidityDate(cainfo));
+                if (revcertinfos != null) {
+                    // The journal is read with an overlap before the base CRL, so some of the changes may already be on it
+                    try {
+                        revcertinfos = CrlEntryMerger.removeUnchanged(lastBaseCrlInfo.getEncoded(), revcertinfos);
+                    } catch (IOException e) {
+                        log.warn("Failed to read the entries of CRL number " + lastBaseCrlInfo.getLastCRLNumber()
+                                + ", including all changes in the delta CRL: " + e.getMessage());
+                    }
+                } else {
+                    revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, true, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime(), 
+                            true, getAllowInvalidityDate(cainfo));
+                }
 
                 // If invalidity date is considered when generating delta CRL then additional filtering must be applied to the collection of RevokedCertInfos
                 if (getAllowInvalidityDate(cainfo)) {
@@ -710,7 +965,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revcertinfos;
-                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.class);
+                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revcertinfos.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -721,7 +976,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, i.e. add to cert list to be included in CRL
-                certs = new CompressedCollection<>(RevokedCertInfo.class);
+                certs = new CompressedCollection<>(RevokedCertInfo.COMPRESSED_COLLECTION_CODEC);
                 for (final RevokedCertInfo ci : revcertinfos) {
                     final boolean certificateIsReleasedFromHold = ci.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue();
                     final boolean certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
@@ -770,6 +1025,79 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return crlBytes;
     }
 
+    /**
+     * Lists the revoked certificates for a full CRL from the entries of the previous full CRL and the revocation status changes since it was
+     * issued, see {@link CrlEntryMerger}. Expired certificates are removed from the list.
+     *
+     * @param expiredFingerprints list where the fingerprints of expired certificates that should be archived are added
+     * @return the revoked certificates to include in the CRL, or null if all revoked certificates have to be listed from the database.
+     */
+    private Collection<RevokedCertInfo> listRevokedCertInfoIncrementally(final String caCertSubjectDN, final int crlPartitionIndex,
+            final CRLInfo lastBaseCrlInfo, final boolean keepExpiredCertsOnCrl, final List<String> expiredFingerprints) {
+        final long lastBaseCrlDate = lastBaseCrlInfo.getCreateDate().getTime();
+        if (log.isDebugEnabled()) {
+            log.debug("Listing revoked certificates changed since CRL number " + lastBaseCrlInfo.getLastCRLNumber() + ".");
+        }
+        Collection<RevokedCertInfo> changed = null;
+        Collection<RevokedCertInfo> expiredInCertificateData = null;
+        try {
+            changed = revocationEventDataSession.getRevokedCertInfosSinceFullCrl(caCertSubjectDN, crlPartitionIndex, lastBaseCrlDate, false);
+            if (changed == null) {
+                // Select by update time rather than revocation date, to find backdated revocations, with an overlap for late commits
+                changed = noConflictCertificateStoreSession.listRevokedCertInfoUpdatedAfter(caCertSubjectDN, crlPartitionIndex,
+                        lastBaseCrlDate - CesecoreConfiguration.getCrlIncrementalOverlap());
+            }
+            final List<RevokedCertInfo> expired = new ArrayList<>();
+            if (keepExpiredCertsOnCrl) {
+                expiredInCertificateData = Collections.emptyList();
+            } else {
+                expiredInCertificateData = certificateDataSession.getExpiredRevokedCertInfos(caCertSubjectDN, crlPartitionIndex, lastBaseCrlDate);
+                expired.addAll(expiredInCertificateData);
+                expired.addAll(noConflictCertificateDataSession.getExpiredRevokedCertInfos(caCertSubjectDN, crlPartitionIndex, lastBaseCrlDate));
+            }
+            final Collection<RevokedCertInfo> ret;
+            try {
+                ret = CrlEntryMerger.merge(lastBaseCrlInfo.getEncoded(), changed, expired);
+            } catch (IOException e) {
+                log.warn("Failed to read the entries of CRL number " + lastBaseCrlInfo.getLastCRLNumber() + ", listing all revoked certificates: " + e.getMessage());
+                return null;
+            }
+            if (ret == null) {
+                log.debug("The CRL can not be built from the previous CRL, listing all revoked certificates.");
+                return null;
+            }
+            for (final RevokedCertInfo revokedCertInfo : expiredInCertificateData) {
+                expiredFingerprints.add(revokedCertInfo.getCertificateFingerprint());
+            }
+            return ret;
+        } finally {
+            // Special treatment of our CompressedCollections to ensure that we release all resources
+            if (changed != null) {
+                changed.clear();
+            }
+            if (expiredInCertificateData != null && !expiredInCertificateData.isEmpty()) {
+                expiredInCertificateData.clear();
+            }
+        }
+    }
+
+    /** Sets the status of expired certificates to archived, with one bulk update and audit log record per chunk. */
+    private void archiveExpiredCertificates(final AuthenticationToken archiveAdmin, final String caCertSubjectDN, final List<String> fingerprints,
+            final boolean separateTransactions) throws AuthorizationDeniedException {
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+        final int archived;
+        if (separateTransactions) {
+            archived = certificateStoreSession.archiveRevokedCertificatesInSeparateTransactions(archiveAdmin, caCertSubjectDN, fingerprints);
+        } else {
+            archived = certificateStoreSession.archiveRevokedCertificates(archiveAdmin, caCertSubjectDN, fingerprints);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Archived " + archived + " of " + fingerprints.size() + " expired certificates issued by '" + caCertSubjectDN + "'.");
+        }
+    }
+
     private byte[] generateAndStoreCRL(final AuthenticationToken admin, final CA ca, final int crlPartitionIndex,
             final Collection<RevokedCertInfo> certs, final CRLInfo lastBaseCrlInfo, final boolean delta, final Date validFrom)
             throws CryptoTokenOfflineException, AuthorizationDeniedException {
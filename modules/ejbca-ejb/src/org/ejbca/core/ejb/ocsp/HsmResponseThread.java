@@ -22,17 +22,16 @@ import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.OCSPException;
-import org.bouncycastle.operator.BufferingContentSigner;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
 import org.cesecore.util.LogRedactionUtils;
 
 import com.keyfactor.util.CertTools;
 
 /**
- * This internal class exists for the sole purpose of catching deadlocks in the HSM hardware.
+ * This internal class exists for the sole purpose of catching deadlocks in the HSM hardware. Instances are
+ * executed by {@link OcspSigningExecutor}.
  * 
  * @version $Id$
  */
@@ -61,22 +60,23 @@ public class HsmResponseThread implements Callable<BasicOCSPResp> {
         }
     }
 
+    /**
+     * Must be run by a thread of {@link OcspSigningExecutor}, since the signer is reused by the executing thread.
+     */
     @Override
     public BasicOCSPResp call() throws OCSPException {
+        boolean signed = false;
         try {
-            /*
-             * BufferingContentSigner defaults to allocating a 4096 bytes buffer. Since a rather large OCSP response (e.g. signed with 4K
-             * RSA key, nonce and a one level chain) is less then 2KiB, this is generally a waste of allocation and garbage collection.
-             * 
-             * In high performance environments, the full OCSP response should in general be smaller than 1492 bytes to fit in a single
-             * Ethernet frame.
-             * 
-             * Lowering this allocation from 20480 to 4096 bytes under ECA-4084 which should still be plenty.
-             */
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(signingAlgorithm).setProvider(provider).build(signerKey), 20480);
-            return basicRes.build(signer, chain, producedAt!=null? producedAt : new Date());
+            final ContentSigner signer = OcspSigningExecutor.INSTANCE.getContentSigner(signingAlgorithm, provider, signerKey);
+            final BasicOCSPResp basicOcspResp = basicRes.build(signer, chain, producedAt!=null? producedAt : new Date());
+            signed = true;
+            return basicOcspResp;
         } catch (OperatorCreationException e) {
             throw new OcspFailureException(e);
+        } finally {
+            if (!signed) {
+                OcspSigningExecutor.INSTANCE.discardContentSigner(signingAlgorithm, signerKey);
+            }
         }
     }
 }
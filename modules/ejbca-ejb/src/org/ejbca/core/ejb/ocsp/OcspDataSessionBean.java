@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -51,6 +52,21 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
         log.trace("<persistOcspData");
     }
 
+    @Override
+    public void storeOcspDataBatch(final Collection<OcspResponseData> responseDatas) {
+        log.trace(">storeOcspDataBatch");
+        for (final OcspResponseData responseData : responseDatas) {
+            this.entityManager.persist(responseData);
+        }
+        // Flush here so the inserts are batched before the transaction commits, and detach the entities since they are not used again
+        this.entityManager.flush();
+        this.entityManager.clear();
+        if (log.isDebugEnabled()) {
+            log.debug("Stored " + responseDatas.size() + " OCSP responses.");
+        }
+        log.trace("<storeOcspDataBatch");
+    }
+
     @Override
     public List<OcspResponseData> findOcspDataByCaId(final Integer caId) {
         log.trace(">findOcspDataByCaId");
@@ -88,6 +104,21 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
         return result;
     }
 
+    @Override
+    public List<OcspResponseData> findOcspDataByCaIdAfterSerialNumber(final Integer caId, final String lastSerialNumber, final int maxResults) {
+        log.trace(">findOcspDataByCaIdAfterSerialNumber");
+        final TypedQuery<OcspResponseData> query = this.entityManager.createNamedQuery("findOcspDataByCaIdAfterSerialNumber", OcspResponseData.class);
+        query.setParameter("caId", caId);
+        query.setParameter("serialNumber", lastSerialNumber == null ? "" : lastSerialNumber);
+        query.setMaxResults(maxResults);
+        final List<OcspResponseData> result = query.getResultList();
+        if (log.isTraceEnabled()) {
+            log.trace("findOcspDataByCaIdAfterSerialNumber(" + caId + ", " + lastSerialNumber + ") yielded " + result.size() + " results.");
+        }
+        log.trace("<findOcspDataByCaIdAfterSerialNumber");
+        return result;
+    }
+
     @Override
     public OcspResponseData findOcspDataById(final String id) {
         log.trace(">findOcspDataById");
@@ -256,7 +256,7 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
          * Replace the alias and the chain at this step. If anything bad happened prior to this step the old alias and 
          * chain are still active, and no harm done. 
          */
-        ocspResponseGeneratorSession.reloadOcspSigningCache();
+        ocspResponseGeneratorSession.reloadOcspSigningCacheEntryForKeyBinding(internalKeyBindingId);
     }
 
     /**
@@ -58,6 +58,7 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.Req;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
 import org.bouncycastle.cert.ocsp.UnknownStatus;
 import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -79,7 +80,6 @@ import org.cesecore.certificates.ca.X509CAInfo;
 import org.cesecore.certificates.ca.catoken.CAToken;
 import org.cesecore.certificates.ca.catoken.CATokenConstants;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
-import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.CertificateInfo;
 import org.cesecore.certificates.certificate.CertificateStatus;
 import org.cesecore.certificates.certificate.CertificateStatusHolder;
@@ -89,17 +89,21 @@ import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
 import org.cesecore.certificates.ocsp.cache.OcspConfigurationCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspExtensionsCache;
 import org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache.CachedOcspResponse;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
 import org.cesecore.certificates.ocsp.exception.CryptoProviderException;
 import org.cesecore.certificates.ocsp.exception.IllegalNonceException;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
+import org.cesecore.certificates.ocsp.exception.OcspSigningQueueFullException;
 import org.cesecore.certificates.ocsp.extension.OCSPExtension;
 import org.cesecore.certificates.ocsp.extension.OCSPExtensionType;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
@@ -107,6 +111,7 @@ import org.cesecore.certificates.ocsp.logging.GuidHolder;
 import org.cesecore.certificates.ocsp.logging.PatternLogger;
 import org.cesecore.certificates.ocsp.logging.TransactionCounter;
 import org.cesecore.certificates.ocsp.logging.TransactionLogger;
+import org.cesecore.certificates.ocsp.metrics.OcspMetrics;
 import org.cesecore.certificates.util.cert.CertificateUtils;
 import org.cesecore.config.AvailableExtendedKeyUsagesConfiguration;
 import org.cesecore.config.ConfigurationHolder;
@@ -150,6 +155,7 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -193,12 +199,12 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This SSB generates OCSP responses. 
@@ -211,15 +217,27 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private static final int MAX_REQUEST_SIZE = 100000;
     /** Timer identifiers */
     private static final int TIMERID_OCSPSIGNINGCACHE = 1;
+    private static final int TIMERID_CERTIFICATESTATUSINDEX = 2;
+    /** Delay before the certificate status index is first built, so startup is not held up by it */
+    private static final long CERTIFICATESTATUSINDEX_INITIAL_DELAY = 10000;
+    /** Minimum time between full reloads of the OCSP signing cache caused by requests for unknown issuers */
+    private static final long REQUEST_TRIGGERED_RELOAD_INTERVAL = 10000;
+    private static final AtomicLong lastRequestTriggeredReload = new AtomicLong();
+    /** Time of the last reload of a single MS compatible CA caused by a request, by CA ID */
+    private static final Map<Integer, Long> lastRequestTriggeredCaReload = new ConcurrentHashMap<>();
+    /** Minimum time between progress messages when pre-producing OCSP responses for a whole CA */
+    private static final long PRESIGNING_PROGRESS_INTERVAL = 10000;
 
     private static final Logger log = Logger.getLogger(OcspResponseGeneratorSessionBean.class);
 
     private static final InternalResources intres = InternalResources.getInstance();
     
-    private static volatile ExecutorService service = Executors.newCachedThreadPool();
     
     @Resource
     private SessionContext sessionContext;
+    /** Container managed threads used to pre-produce OCSP responses for many certificates in parallel */
+    @Resource
+    private ManagedExecutorService managedExecutorService;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining. 
      */
@@ -270,6 +288,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         } else {
             log.info("Not initing OCSP reload timers, there are already some.");
         }
+        if (CertificateStatusIndex.INSTANCE.isEnabled() && getTimerCount(TIMERID_CERTIFICATESTATUSINDEX)==0) {
+            addTimer(CERTIFICATESTATUSINDEX_INITIAL_DELAY, TIMERID_CERTIFICATESTATUSINDEX);
+        }
+        OcspMetrics.INSTANCE.setSigningQueueDepth(OcspSigningExecutor.INSTANCE::getQueueDepth);
+        OcspMetrics.INSTANCE.registerMBean();
     }
     
     @Override
@@ -293,6 +316,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         OcspRequestSignerStatusCache.INSTANCE.flush();
     }
 
+    @Override
+    public void clearOcspResponseCache() {
+        OcspResponseCache.INSTANCE.flush();
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void reloadOcspSigningCache() {
@@ -312,188 +340,29 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 // Populate OcspSigningCache
                 // Add all potential CA's as OCSP responders to the staging area
                 for (final Integer caId : caSession.getAllCaIds()) {
-                    final List<X509Certificate> caCertificateChain = new ArrayList<>();
-
-                    final CAInfo caInfo = caSession.getCAInfoInternal(caId);
-                    if (caInfo == null || caInfo.getCAType() == CAInfo.CATYPE_CVC
-                            || caInfo.getCAType() == CAInfo.CATYPE_CITS || caInfo.getCAType() == CAInfo.CATYPE_PROXY) {
-                        // Bravely ignore OCSP for CVC CAs and PROXY CAs
-                        continue;
+                    final List<OcspSigningCacheEntry> ocspSigningCacheEntries = new ArrayList<>();
+                    final List<OcspDataConfigCacheEntry> ocspDataConfigCacheEntries = new ArrayList<>();
+                    if (makeCaCacheEntries(caId, ocspConfiguration, ocspSigningCacheEntries, ocspDataConfigCacheEntries)) {
+                        OcspDataConfigCache.INSTANCE.setCaModeCompatiblePresent(true);
                     }
-
-                    boolean preProduceOcspResponse = false;
-                    boolean storeOcspResponseOnDemand = false;
-                    boolean isMsCaCompatible = false;
-                    // Should always be true since CVCAs are ignored here. Better safe than sorry though.
-                    if (caInfo instanceof X509CAInfo) {
-                        preProduceOcspResponse = ((X509CAInfo) caInfo).isDoPreProduceOcspResponses();
-                        storeOcspResponseOnDemand = ((X509CAInfo) caInfo).isDoStoreOcspResponsesOnDemand();
-                        isMsCaCompatible = ((X509CAInfo) caInfo).isMsCaCompatible();
+                    for (final OcspSigningCacheEntry ocspSigningCacheEntry : ocspSigningCacheEntries) {
+                        OcspSigningCache.INSTANCE.stagingAdd(caId, ocspSigningCacheEntry);
                     }
-
-                    if (caInfo.getStatus() == CAConstants.CA_ACTIVE) {
-                        //Cache active CAs as signers
-                        if (log.isDebugEnabled()) {
-                            log.debug("Processing X509 CA " + caInfo.getName() + " (" + caInfo.getCAId() + ").");
-                        }
-                        final CAToken caToken = caInfo.getCAToken();
-                        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(caToken.getCryptoTokenId());
-                        if (cryptoToken == null) {
-                            log.info("Excluding CA with id " + caId + " for OCSP signing consideration due to missing CryptoToken.");
-                            continue;
-                        }
-                        
-                        for (final Certificate certificate : caInfo.getCertificateChain()) {
-                            caCertificateChain.add((X509Certificate) certificate);
-                        }
-                        
-                        if (isMsCaCompatible) {
-                            OcspDataConfigCache.INSTANCE.setCaModeCompatiblePresent(true);
-                            List<Certificate> activeCaCertificates = certificateStoreSession.findCertificatesBySubjectAndIssuer(caInfo.getSubjectDN(),
-                                    caInfo.getLatestSubjectDN(), true);
-
-                            for (Certificate cert : activeCaCertificates) {
-                                final PrivateKey privateKey;
-                                String signKeyAlias=null;
-                                try {
-                                    signKeyAlias = getSignKeyAliasFromSubjectKeyId(cryptoToken, getAuthorityKeyIdentifier((X509Certificate) cert));
-                                    privateKey = cryptoToken.getPrivateKey(signKeyAlias);
-                                    if (privateKey == null) {
-                                        log.warn(
-                                                "Referenced private key with alias " + signKeyAlias + " does not exist. Ignoring CA with id " + caId);
-                                        continue;
-                                    }
-                                } catch (CryptoTokenOfflineException e) {
-                                    log.warn("Referenced private key with alias " + signKeyAlias
-                                            + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
-                                    continue;
-                                }
-
-                                // Replace the current leaf certificate in the ca chain with the corresponding one from DB!
-                                caCertificateChain.remove(0);
-                                caCertificateChain.add((X509Certificate) cert);
-                                
-                                final String signatureProviderName = cryptoToken.getSignProviderName();
-                                if (!caCertificateChain.isEmpty()) {
-                                    generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken);
-                                } else {
-                                    log.warn("CA with ID " + caId
-                                            + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
-                                }
-                            }
-                        } else {
-                            final String keyPairAlias;
-                            try {
-                                keyPairAlias = caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN);
-                            } catch (CryptoTokenOfflineException e) {
-                                log.warn("Referenced private key with purpose " + CATokenConstants.CAKEYPURPOSE_CERTSIGN
-                                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
-                                continue;
-                            }
-                            final PrivateKey privateKey;
-                            try {
-                                privateKey = cryptoToken.getPrivateKey(keyPairAlias);
-                            } catch (CryptoTokenOfflineException e) {
-                                log.warn("Referenced private key with alias " + keyPairAlias
-                                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
-                                continue;
-                            }
-                            if (privateKey == null) {
-                                log.warn("Referenced private key with alias " + keyPairAlias + " does not exist. Ignoring CA with id " + caId);
-                                continue;
-                            }
-                            final String signatureProviderName = cryptoToken.getSignProviderName();
-                            if (!caCertificateChain.isEmpty()) {
-                                generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken);
-                                generateOcspConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible);
-
-                            } else {
-                                log.warn("CA with ID " + caId
-                                        + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
-                            }
-                            
-                            
-                        }
-                    } else if (caInfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                        // If set, all external CA's without a keybinding (set below) will be responded to by the default responder. 
-                        for (final Certificate certificate : caInfo.getCertificateChain()) {
-                            caCertificateChain.add((X509Certificate) certificate);
-                        }
-                        final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificateChain.get(0),
-                                false);
-                        // Check if CA cert has been revoked (only key compromise as returned above). Always make this check, even if this CA has an OCSP signing certificate, because
-                        // signing will still fail even if the signing cert is valid. 
-                        if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
-                            log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
-                                    + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has a revoked certificate with reason "
-                                    + caCertificateStatus.revocationReason + ".");
-                        }
-                        //Check if CA cert is expired
-                        if (!CertTools.isCertificateValid(caCertificateChain.get(0), false, 0)) {
-                            log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
-                                    + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has an expired certificate with expiration date "
-                                    + CertTools.getNotAfter(caCertificateChain.get(0)) + ".");
-                        }
-                        //Add an entry with just a chain and nothing else
-                        OcspSigningCache.INSTANCE.stagingAdd(new OcspSigningCacheEntry(caCertificateChain.get(0), caCertificateStatus, null, null,
-                                null, null, null, ocspConfiguration.getOcspResponderIdType()));
-                        OcspDataConfigCache.INSTANCE.stagingAdd(new OcspDataConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse,
-                                storeOcspResponseOnDemand, isMsCaCompatible));
-                    } else if (caInfo.getStatus() == CAConstants.CA_EXPIRED && preProduceOcspResponse) {
-                        // We need this entry to respond with stored "Final OCSP Response" for expired CA (eIDAS specific: EN 319 411-2)
-                        for (final Certificate certificate : caInfo.getCertificateChain()) {
-                            caCertificateChain.add((X509Certificate) certificate);
-                        }
-                        if (!caCertificateChain.isEmpty()) {
-                            OcspDataConfigCache.INSTANCE.stagingAdd(new OcspDataConfigCacheEntry(caCertificateChain.get(0), caId,
-                                    preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible));
-                        } else {
-                            log.warn("Expired CA with ID " + caId
-                                    + " appears to lack a certificate in the database. This will prevent serving of Final OCSP Responses");
-                        }
+                    for (final OcspDataConfigCacheEntry ocspDataConfigCacheEntry : ocspDataConfigCacheEntries) {
+                        OcspDataConfigCache.INSTANCE.stagingAdd(ocspDataConfigCacheEntry);
                     }
                 }
                 // Add all potential InternalKeyBindings as OCSP responders to the staging area, overwriting CA entries from before
                 for (final int internalKeyBindingId : internalKeyBindingDataSession.getIds(OcspKeyBinding.IMPLEMENTATION_ALIAS)) {
-                    final OcspKeyBinding ocspKeyBinding = (OcspKeyBinding) internalKeyBindingDataSession.getInternalKeyBinding(internalKeyBindingId);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Processing " + ocspKeyBinding.getName() + " (" + ocspKeyBinding.getId() + ")");
-                    }
-                    if (!ocspKeyBinding.getStatus().equals(InternalKeyBindingStatus.ACTIVE)) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Ignoring OcspKeyBinding since it is not active.");
-                        }
-                        continue;
-                    }
-                    final X509Certificate ocspSigningCertificate = (X509Certificate) certificateStoreSession
-                            .findCertificateByFingerprint(ocspKeyBinding.getCertificateId());
-                    if (ocspSigningCertificate == null) {
-                        log.warn("OCSP signing certificate with referenced fingerprint " + ocspKeyBinding.getCertificateId()
-                                + " does not exist. Ignoring internalKeyBinding with id " + ocspKeyBinding.getId());
-                        continue;
-                    }
-                    //Make the same check as above 
-                    if (certificateStoreSession
-                            .getStatus(CertTools.getIssuerDN(ocspSigningCertificate), CertTools.getSerialNumber(ocspSigningCertificate))
-                            .equals(CertificateStatus.REVOKED)) {
-                        log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate)
-                                + "' and serial number " + CertTools.getSerialNumber(ocspSigningCertificate) + " is revoked.");
-                    }
-                    final long warnBeforeExpirationTime = OcspConfiguration.getWarningBeforeExpirationTime();
-                    //Check if signing cert is expired
-                    if (!CertTools.isCertificateValid(ocspSigningCertificate, true, warnBeforeExpirationTime)) {
-                        log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate)
-                                + "' and serial number " + CertTools.getSerialNumber(ocspSigningCertificate) + " is expired.");
-                    }
-
-                    OcspSigningCacheEntry ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspSigningCertificate, ocspKeyBinding);
+                    final OcspSigningCacheEntry ocspSigningCacheEntry = makeKeyBindingCacheEntry(internalKeyBindingId);
                     if (ocspSigningCacheEntry != null) {
-                        addSignResponseOnBehalfCasToCacheEntry(ocspSigningCacheEntry, ocspKeyBinding);
                         OcspSigningCache.INSTANCE.stagingAdd(ocspSigningCacheEntry);
                     }
                 }
                 OcspSigningCache.INSTANCE.stagingCommit(ocspConfiguration.getOcspDefaultResponderReference());
                 OcspDataConfigCache.INSTANCE.stagingCommit();
+                // Signers or CA status may have changed, so responses signed with the previous cache content can no longer be served
+                OcspResponseCache.INSTANCE.flush();
             } finally {
                 OcspSigningCache.INSTANCE.stagingRelease();
             }
@@ -503,6 +372,381 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
     }
     
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void reloadOcspSigningCacheEntriesForCa(final int caId) {
+        if (log.isTraceEnabled()) {
+            log.trace(">reloadOcspSigningCacheEntriesForCa: " + caId);
+        }
+        reloadCaCacheEntries(caId, false);
+        if (log.isTraceEnabled()) {
+            log.trace("<reloadOcspSigningCacheEntriesForCa: " + caId);
+        }
+    }
+
+    /**
+     * Rebuilds the OCSP signing cache and OCSP data configuration cache entries of a CA, and removes the cached responses for
+     * certificates issued by the CA.
+     *
+     * @param caId the ID of the CA
+     * @param onlyIfSignersChanged if true, nothing is updated unless the CA or signing certificates of the CA differ from the cached ones
+     * @return true if the caches were updated
+     */
+    private boolean reloadCaCacheEntries(final int caId, final boolean onlyIfSignersChanged) {
+        final GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
+                .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+        final List<OcspSigningCacheEntry> ocspSigningCacheEntries = new ArrayList<>();
+        final List<OcspDataConfigCacheEntry> ocspDataConfigCacheEntries = new ArrayList<>();
+        final boolean isMsCaCompatible = makeCaCacheEntries(caId, ocspConfiguration, ocspSigningCacheEntries, ocspDataConfigCacheEntries);
+        final List<OcspSigningCacheEntry> previousEntries = OcspSigningCache.INSTANCE.getCaEntries(caId);
+        if (onlyIfSignersChanged && hasSameSigners(previousEntries, ocspSigningCacheEntries)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Certificates of CA with ID " + caId + " are unchanged. Not updating the OCSP signing cache.");
+            }
+            return false;
+        }
+        OcspSigningCache.INSTANCE.updateCaEntries(caId, ocspSigningCacheEntries);
+        OcspDataConfigCache.INSTANCE.updateCaEntries(caId, ocspDataConfigCacheEntries, isMsCaCompatible);
+        // Responses for certificates of the CA may no longer be valid
+        final X509Certificate caCertificate = !previousEntries.isEmpty() ? previousEntries.get(0).getIssuerCaCertificate()
+                : !ocspSigningCacheEntries.isEmpty() ? ocspSigningCacheEntries.get(0).getIssuerCaCertificate() : null;
+        if (caCertificate != null) {
+            OcspResponseCache.INSTANCE.invalidateIssuer(caCertificate);
+        } else {
+            OcspResponseCache.INSTANCE.flush();
+        }
+        return true;
+    }
+
+    /** @return true if both lists have entries for the same CA and signing certificates, in the same order */
+    private static boolean hasSameSigners(final List<OcspSigningCacheEntry> entries, final List<OcspSigningCacheEntry> otherEntries) {
+        if (entries.size() != otherEntries.size()) {
+            return false;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (!Objects.equals(entries.get(i).getIssuerCaCertificate(), otherEntries.get(i).getIssuerCaCertificate())
+                    || !Objects.equals(entries.get(i).getSigningCertificate(), otherEntries.get(i).getSigningCertificate())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void reloadOcspSigningCacheEntryForKeyBinding(final int internalKeyBindingId) {
+        if (log.isTraceEnabled()) {
+            log.trace(">reloadOcspSigningCacheEntryForKeyBinding: " + internalKeyBindingId);
+        }
+        OcspSigningCache.INSTANCE.updateKeyBindingEntry(internalKeyBindingId, makeKeyBindingCacheEntry(internalKeyBindingId));
+        // Responses signed by the key binding may no longer be valid
+        OcspResponseCache.INSTANCE.flush();
+        if (log.isTraceEnabled()) {
+            log.trace("<reloadOcspSigningCacheEntryForKeyBinding: " + internalKeyBindingId);
+        }
+    }
+
+    /**
+     * Creates the OCSP signing cache entries and OCSP data configuration cache entries of a CA. Nothing is added if the CA does not
+     * exist, is not used for OCSP, or cannot be used for signing.
+     *
+     * @param caId the ID of the CA
+     * @param ocspConfiguration the global OCSP configuration
+     * @param ocspSigningCacheEntries list that the OCSP signing cache entries are added to
+     * @param ocspDataConfigCacheEntries list that the OCSP data configuration cache entries are added to
+     * @return true if the CA is an active MS compatible CA
+     */
+    private boolean makeCaCacheEntries(final int caId, final GlobalOcspConfiguration ocspConfiguration, final List<OcspSigningCacheEntry> ocspSigningCacheEntries,
+            final List<OcspDataConfigCacheEntry> ocspDataConfigCacheEntries) {
+        final List<X509Certificate> caCertificateChain = new ArrayList<>();
+
+        final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+        if (caInfo == null || caInfo.getCAType() == CAInfo.CATYPE_CVC
+                || caInfo.getCAType() == CAInfo.CATYPE_CITS || caInfo.getCAType() == CAInfo.CATYPE_PROXY) {
+            // Bravely ignore OCSP for CVC CAs and PROXY CAs
+            return false;
+        }
+
+        boolean preProduceOcspResponse = false;
+        boolean storeOcspResponseOnDemand = false;
+        boolean isMsCaCompatible = false;
+        // Should always be true since CVCAs are ignored here. Better safe than sorry though.
+        if (caInfo instanceof X509CAInfo) {
+            preProduceOcspResponse = ((X509CAInfo) caInfo).isDoPreProduceOcspResponses();
+            storeOcspResponseOnDemand = ((X509CAInfo) caInfo).isDoStoreOcspResponsesOnDemand();
+            isMsCaCompatible = ((X509CAInfo) caInfo).isMsCaCompatible();
+        }
+
+        if (caInfo.getStatus() == CAConstants.CA_ACTIVE) {
+            //Cache active CAs as signers
+            if (log.isDebugEnabled()) {
+                log.debug("Processing X509 CA " + caInfo.getName() + " (" + caInfo.getCAId() + ").");
+            }
+            final CAToken caToken = caInfo.getCAToken();
+            final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(caToken.getCryptoTokenId());
+            if (cryptoToken == null) {
+                log.info("Excluding CA with id " + caId + " for OCSP signing consideration due to missing CryptoToken.");
+                return false;
+            }
+            
+            for (final Certificate certificate : caInfo.getCertificateChain()) {
+                caCertificateChain.add((X509Certificate) certificate);
+            }
+            
+            if (isMsCaCompatible) {
+                List<Certificate> activeCaCertificates = certificateStoreSession.findCertificatesBySubjectAndIssuer(caInfo.getSubjectDN(),
+                        caInfo.getLatestSubjectDN(), true);
+
+                for (Certificate cert : activeCaCertificates) {
+                    final PrivateKey privateKey;
+                    String signKeyAlias=null;
+                    try {
+                        signKeyAlias = getSignKeyAliasFromSubjectKeyId(cryptoToken, getAuthorityKeyIdentifier((X509Certificate) cert));
+                        privateKey = cryptoToken.getPrivateKey(signKeyAlias);
+                        if (privateKey == null) {
+                            log.warn(
+                                    "Referenced private key with alias " + signKeyAlias + " does not exist. Ignoring CA with id " + caId);
+                            continue;
+                        }
+                    } catch (CryptoTokenOfflineException e) {
+                        log.warn("Referenced private key with alias " + signKeyAlias
+                                + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
+                        continue;
+                    }
+
+                    // Replace the current leaf certificate in the ca chain with the corresponding one from DB!
+                    caCertificateChain.remove(0);
+                    caCertificateChain.add((X509Certificate) cert);
+                    
+                    final String signatureProviderName = cryptoToken.getSignProviderName();
+                    if (!caCertificateChain.isEmpty()) {
+                        generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken,
+                                ocspSigningCacheEntries);
+                    } else {
+                        log.warn("CA with ID " + caId
+                                + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
+                    }
+                }
+            } else {
+                final String keyPairAlias;
+                try {
+                    keyPairAlias = caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN);
+                } catch (CryptoTokenOfflineException e) {
+                    log.warn("Referenced private key with purpose " + CATokenConstants.CAKEYPURPOSE_CERTSIGN
+                            + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
+                    return false;
+                }
+                final PrivateKey privateKey;
+                try {
+                    privateKey = cryptoToken.getPrivateKey(keyPairAlias);
+                } catch (CryptoTokenOfflineException e) {
+                    log.warn("Referenced private key with alias " + keyPairAlias
+                            + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
+                    return false;
+                }
+                if (privateKey == null) {
+                    log.warn("Referenced private key with alias " + keyPairAlias + " does not exist. Ignoring CA with id " + caId);
+                    return false;
+                }
+                final String signatureProviderName = cryptoToken.getSignProviderName();
+                if (!caCertificateChain.isEmpty()) {
+                    generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken, ocspSigningCacheEntries);
+                    generateOcspConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible,
+                            ocspDataConfigCacheEntries);
+
+                } else {
+                    log.warn("CA with ID " + caId
+                            + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
+                }
+                
+                
+            }
+        } else if (caInfo.getStatus() == CAConstants.CA_EXTERNAL) {
+            // If set, all external CA's without a keybinding (set below) will be responded to by the default responder. 
+            for (final Certificate certificate : caInfo.getCertificateChain()) {
+                caCertificateChain.add((X509Certificate) certificate);
+            }
+            final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificateChain.get(0),
+                    false);
+            // Check if CA cert has been revoked (only key compromise as returned above). Always make this check, even if this CA has an OCSP signing certificate, because
+            // signing will still fail even if the signing cert is valid. 
+            if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
+                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has a revoked certificate with reason "
+                        + caCertificateStatus.revocationReason + ".");
+            }
+            //Check if CA cert is expired
+            if (!CertTools.isCertificateValid(caCertificateChain.get(0), false, 0)) {
+                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has an expired certificate with expiration date "
+                        + CertTools.getNotAfter(caCertificateChain.get(0)) + ".");
+            }
+            //Add an entry with just a chain and nothing else
+            ocspSigningCacheEntries.add(new OcspSigningCacheEntry(caCertificateChain.get(0), caCertificateStatus, null, null,
+                    null, null, null, ocspConfiguration.getOcspResponderIdType()));
+            ocspDataConfigCacheEntries.add(new OcspDataConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse,
+                    storeOcspResponseOnDemand, isMsCaCompatible));
+        } else if (caInfo.getStatus() == CAConstants.CA_EXPIRED && preProduceOcspResponse) {
+            // We need this entry to respond with stored "Final OCSP Response" for expired CA (eIDAS specific: EN 319 411-2)
+            for (final Certificate certificate : caInfo.getCertificateChain()) {
+                caCertificateChain.add((X509Certificate) certificate);
+            }
+            if (!caCertificateChain.isEmpty()) {
+                ocspDataConfigCacheEntries.add(new OcspDataConfigCacheEntry(caCertificateChain.get(0), caId,
+                        preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible));
+            } else {
+                log.warn("Expired CA with ID " + caId
+                        + " appears to lack a certificate in the database. This will prevent serving of Final OCSP Responses");
+            }
+        }
+        return isMsCaCompatible && caInfo.getStatus() == CAConstants.CA_ACTIVE;
+    }
+
+    /**
+     * Creates the OCSP signing cache entry of an OcspKeyBinding.
+     *
+     * @param internalKeyBindingId the ID of the OcspKeyBinding
+     * @return the cache entry, or null if the key binding does not exist, is not active or cannot be used for signing
+     */
+    private OcspSigningCacheEntry makeKeyBindingCacheEntry(final int internalKeyBindingId) {
+        final OcspKeyBinding ocspKeyBinding = (OcspKeyBinding) internalKeyBindingDataSession.getInternalKeyBinding(internalKeyBindingId);
+        if (ocspKeyBinding == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("OcspKeyBinding with id " + internalKeyBindingId + " does not exist.");
+            }
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Processing " + ocspKeyBinding.getName() + " (" + ocspKeyBinding.getId() + ")");
+        }
+        if (!ocspKeyBinding.getStatus().equals(InternalKeyBindingStatus.ACTIVE)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Ignoring OcspKeyBinding since it is not active.");
+            }
+            return null;
+        }
+        final X509Certificate ocspSigningCertificate = (X509Certificate) certificateStoreSession
+                .findCertificateByFingerprint(ocspKeyBinding.getCertificateId());
+        if (ocspSigningCertificate == null) {
+            log.warn("OCSP signing certificate with referenced fingerprint " + ocspKeyBinding.getCertificateId()
+                    + " does not exist. Ignoring internalKeyBinding with id " + ocspKeyBinding.getId());
+            return null;
+        }
+        //Make the same check as above 
+        if (certificateStoreSession
+                .getStatus(CertTools.getIssuerDN(ocspSigningCertificate), CertTools.getSerialNumber(ocspSigningCertificate))
+                .equals(CertificateStatus.REVOKED)) {
+            log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate)
+                    + "' and serial number " + CertTools.getSerialNumber(ocspSigningCertificate) + " is revoked.");
+        }
+        final long warnBeforeExpirationTime = OcspConfiguration.getWarningBeforeExpirationTime();
+        //Check if signing cert is expired
+        if (!CertTools.isCertificateValid(ocspSigningCertificate, true, warnBeforeExpirationTime)) {
+            log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate)
+                    + "' and serial number " + CertTools.getSerialNumber(ocspSigningCertificate) + " is expired.");
+        }
+
+        final OcspSigningCacheEntry ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspSigningCertificate, ocspKeyBinding);
+        if (ocspSigningCacheEntry != null) {
+            addSignResponseOnBehalfCasToCacheEntry(ocspSigningCacheEntry, ocspKeyBinding);
+        }
+        return ocspSigningCacheEntry;
+    }
+
+    /** @return true if a full reload of the OCSP signing cache caused by a request is allowed now, at most once per interval. */
+    private static boolean isRequestTriggeredReloadAllowed() {
+        final long now = System.currentTimeMillis();
+        final long last = lastRequestTriggeredReload.get();
+        return now - last >= REQUEST_TRIGGERED_RELOAD_INTERVAL && lastRequestTriggeredReload.compareAndSet(last, now);
+    }
+
+    /** @return true if a request may trigger a reload of the given MS compatible CA, limited to once per REQUEST_TRIGGERED_RELOAD_INTERVAL */
+    private static boolean isRequestTriggeredCaReloadAllowed(final int caId) {
+        final long now = System.currentTimeMillis();
+        final Long last = lastRequestTriggeredCaReload.get(caId);
+        if (last == null) {
+            return lastRequestTriggeredCaReload.putIfAbsent(caId, now) == null;
+        }
+        return now - last >= REQUEST_TRIGGERED_RELOAD_INTERVAL && lastRequestTriggeredCaReload.replace(caId, last, now);
+    }
+
+    /** Certificate statuses and issuers for the single requests of one OCSP request, read up front with one query per issuer. */
+    private static final class PrefetchedStatuses {
+        /** Statuses of the serial numbers that were looked up, NOT_AVAILABLE for those that were looked up but not found */
+        private final Map<String, Map<BigInteger, CertificateStatus>> statusesByIssuerDn = new HashMap<>();
+        private final Map<BigInteger, List<String>> issuerDnsBySerialNumber = new HashMap<>();
+
+        private void putStatuses(final String issuerDn, final Set<BigInteger> queriedSerialNumbers, final Map<BigInteger, CertificateStatus> found) {
+            final Map<BigInteger, CertificateStatus> statuses = new HashMap<>();
+            for (final BigInteger serialNumber : queriedSerialNumbers) {
+                final CertificateStatus status = found.get(serialNumber);
+                statuses.put(serialNumber, status != null ? status : CertificateStatus.NOT_AVAILABLE);
+            }
+            statusesByIssuerDn.put(issuerDn, statuses);
+        }
+
+        /**
+         * @return the status, NOT_AVAILABLE if the certificate was looked up but not found, or null if this serial number of the issuer was not
+         * looked up, e.g. because the status index had it when the statuses were prefetched
+         */
+        private CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+            final Map<BigInteger, CertificateStatus> statuses = statusesByIssuerDn.get(issuerDn);
+            return statuses != null ? statuses.get(serialNumber) : null;
+        }
+
+        /** @return the issuer DNs of the certificates with the serial number, or null if the serial number was not looked up */
+        private List<String> getIssuerDns(final BigInteger serialNumber) {
+            return issuerDnsBySerialNumber.get(serialNumber);
+        }
+    }
+
+    /**
+     * Reads the statuses of all certificates in a multi-request OCSP request, instead of one query per certificate. Single requests
+     * that need the full certificate (OCSP extensions), that are answered from the certificate status index, or whose issuer is not
+     * in the OCSP signing cache yet are left out and looked up one by one as before.
+     */
+    private PrefetchedStatuses prefetchStatuses(final Req[] ocspRequests, final boolean isPreSigning) {
+        final PrefetchedStatuses prefetched = new PrefetchedStatuses();
+        final Map<String, Set<BigInteger>> serialNumbersByIssuerDn = new HashMap<>();
+        final Map<BigInteger, OcspSigningCacheEntry> signOnBehalfRequests = new HashMap<>();
+        final boolean useStatusIndex = !isPreSigning && CertificateStatusIndex.INSTANCE.isEnabled();
+        for (final Req ocspRequest : ocspRequests) {
+            final CertificateID certId = ocspRequest.getCertID();
+            final OcspSigningCacheEntry entry = OcspSigningCache.INSTANCE.getEntry(certId);
+            if (entry == null || entry.getIssuerCaCertificate() == null || CertificateStatus.REVOKED.equals(entry.getIssuerCaCertificateStatus())
+                    || (entry.getOcspKeyBinding() != null && !entry.getOcspKeyBinding().getOcspExtensions().isEmpty())) {
+                continue;
+            }
+            if (!entry.getSignedBehalfOfCaIds().isEmpty()) {
+                signOnBehalfRequests.put(certId.getSerialNumber(), entry);
+                continue;
+            }
+            final String issuerDn = CertTools.getSubjectDN(entry.getIssuerCaCertificate());
+            if (useStatusIndex && CertificateStatusIndex.INSTANCE.getStatus(issuerDn, certId.getSerialNumber()) != null) {
+                continue;
+            }
+            serialNumbersByIssuerDn.computeIfAbsent(issuerDn, dn -> new HashSet<>()).add(certId.getSerialNumber());
+        }
+        if (!signOnBehalfRequests.isEmpty()) {
+            // The issuer has to be known to tell if the response is signed on behalf of another CA
+            prefetched.issuerDnsBySerialNumber.putAll(certificateStoreSession.findIssuerDNsBySernos(signOnBehalfRequests.keySet()));
+            for (final Map.Entry<BigInteger, OcspSigningCacheEntry> request : signOnBehalfRequests.entrySet()) {
+                final List<String> issuerDns = prefetched.issuerDnsBySerialNumber.computeIfAbsent(request.getKey(), serno -> new ArrayList<>());
+                for (final String issuerDn : issuerDns) {
+                    serialNumbersByIssuerDn.computeIfAbsent(issuerDn, dn -> new HashSet<>()).add(request.getKey());
+                }
+                if (issuerDns.isEmpty()) {
+                    final String issuerDn = CertTools.getSubjectDN(request.getValue().getIssuerCaCertificate());
+                    serialNumbersByIssuerDn.computeIfAbsent(issuerDn, dn -> new HashSet<>()).add(request.getKey());
+                }
+            }
+        }
+        for (final Map.Entry<String, Set<BigInteger>> issuer : serialNumbersByIssuerDn.entrySet()) {
+            prefetched.putStatuses(issuer.getKey(), issuer.getValue(), certificateStoreSession.getStatuses(issuer.getKey(), issuer.getValue()));
+        }
+        return prefetched;
+    }
+
     private void addSignResponseOnBehalfCasToCacheEntry(OcspSigningCacheEntry ocspSigningCacheEntry, 
                                                                             OcspKeyBinding ocspKeyBinding) {
         Set<CertificateID> signedBehalfOfCaIds = ocspSigningCacheEntry.getSignedBehalfOfCaIds();
@@ -575,22 +819,24 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     }
     
     private void generateOcspSigningCacheEntries(List<X509Certificate> caCertificateChain, String signatureProviderName, PrivateKey privateKey,
-            GlobalOcspConfiguration ocspConfiguration, CAToken caToken) {
+            GlobalOcspConfiguration ocspConfiguration, CAToken caToken, List<OcspSigningCacheEntry> ocspSigningCacheEntries) {
         X509Certificate caCertificate = caCertificateChain.get(0);
         final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificate, false);
 
         OcspSigningCacheEntry signingCacheEntry = new OcspSigningCacheEntry(caCertificate, caCertificateStatus, caCertificateChain, null, privateKey,
                 signatureProviderName, null, ocspConfiguration.getOcspResponderIdType());
         signingCacheEntry.setCrlSigningAlgorithm(caToken.getSignatureAlgorithm());
+        signingCacheEntry.setCaCryptoTokenId(caToken.getCryptoTokenId());
         
-        OcspSigningCache.INSTANCE.stagingAdd(signingCacheEntry);
+        ocspSigningCacheEntries.add(signingCacheEntry);
         checkWarnings(caCertificateStatus, caCertificate);
     }
 
-    private void generateOcspConfigCacheEntry(X509Certificate caCertificate, int caId, boolean preProduceOcspResponse, boolean storeOcspResponseOnDemand, boolean isMsCaCompatible) {
+    private void generateOcspConfigCacheEntry(X509Certificate caCertificate, int caId, boolean preProduceOcspResponse, boolean storeOcspResponseOnDemand, boolean isMsCaCompatible,
+            List<OcspDataConfigCacheEntry> ocspDataConfigCacheEntries) {
 
         // Build OcspPreProductionConfigCache
-        OcspDataConfigCache.INSTANCE.stagingAdd(new OcspDataConfigCacheEntry(caCertificate, caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible));
+        ocspDataConfigCacheEntries.add(new OcspDataConfigCacheEntry(caCertificate, caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible));
 
     }
     
@@ -1244,13 +1490,61 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         if (log.isTraceEnabled()) {
             log.trace(">timeoutHandler: " + timer.getInfo().toString());
         }
-        // reloadTokenAndChainCache cancels old timers and adds a new timer
-        reloadOcspSigningCache();
+        if (Integer.valueOf(TIMERID_CERTIFICATESTATUSINDEX).equals(timer.getInfo())) {
+            // reconcileCertificateStatusIndex adds a new timer
+            reconcileCertificateStatusIndex();
+        } else {
+            // reloadTokenAndChainCache cancels old timers and adds a new timer
+            reloadOcspSigningCache();
+        }
         if (log.isTraceEnabled()) {
             log.trace("<timeoutHandler");
         }
     }
 
+    /**
+     * Builds or rebuilds the certificate status index of every CA that this responder answers for, and reads the
+     * revocations made by other nodes into it. Schedules the next run unless the index has been disabled.
+     */
+    private void reconcileCertificateStatusIndex() {
+        cancelTimers(TIMERID_CERTIFICATESTATUSINDEX);
+        if (!CertificateStatusIndex.INSTANCE.isEnabled()) {
+            CertificateStatusIndex.INSTANCE.flush();
+            return;
+        }
+        try {
+            final Set<String> issuerDns = new HashSet<>();
+            for (final OcspSigningCacheEntry entry : OcspSigningCache.INSTANCE.getEntries()) {
+                if (entry.getIssuerCaCertificate() != null) {
+                    issuerDns.add(CertTools.getSubjectDN(entry.getIssuerCaCertificate()));
+                }
+                for (final X509Certificate signedBehalfOfCaCertificate : entry.getSignedBehalfOfCaCerticates().values()) {
+                    issuerDns.add(CertTools.getSubjectDN(signedBehalfOfCaCertificate));
+                }
+            }
+            CertificateStatusIndex.INSTANCE.retainIssuers(issuerDns);
+            final long rebuildInterval = OcspConfiguration.getCertificateStatusIndexRebuildIntervalMs();
+            for (final String issuerDn : issuerDns) {
+                try {
+                    if (CertificateStatusIndex.INSTANCE.needsRebuild(issuerDn, rebuildInterval)) {
+                        certificateStoreSession.rebuildCertificateStatusIndex(issuerDn);
+                    } else {
+                        certificateStoreSession.reconcileCertificateStatusIndex(issuerDn);
+                    }
+                } catch (RuntimeException e) {
+                    // Lookups for this issuer go to the database until the next successful rebuild
+                    CertificateStatusIndex.INSTANCE.remove(issuerDn);
+                    log.warn("Failed to update certificate status index for '" + issuerDn + "': " + e.getMessage());
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to update certificate status index.", e);
+                    }
+                }
+            }
+        } finally {
+            addTimer(OcspConfiguration.getCertificateStatusIndexReconcileIntervalMs(), TIMERID_CERTIFICATESTATUSINDEX);
+        }
+    }
+
     /**
      * This method cancels all timers associated with this bean.
      */
@@ -1352,6 +1646,37 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger,
             boolean isPreSigning, boolean issueFinalResponse, boolean includeExpiredCertificates)
             throws MalformedRequestException, OCSPException {
+        final OcspMetrics.Sample sample = OcspMetrics.INSTANCE.newSample();
+        final OcspResponseInformation responseInformation;
+        try {
+            responseInformation = getOcspResponse(request, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger,
+                    transactionLogger, isPreSigning, issueFinalResponse, includeExpiredCertificates, null, sample);
+        } catch (MalformedRequestException e) {
+            if (!isPreSigning) {
+                OcspMetrics.INSTANCE.record(sample, OCSPRespBuilder.MALFORMED_REQUEST);
+            }
+            throw e;
+        } catch (OCSPException | RuntimeException e) {
+            if (!isPreSigning) {
+                OcspMetrics.INSTANCE.record(sample, OCSPRespBuilder.INTERNAL_ERROR);
+            }
+            throw e;
+        }
+        if (!isPreSigning) {
+            OcspMetrics.INSTANCE.record(sample, responseInformation.getStatus());
+        }
+        return responseInformation;
+    }
+
+    /**
+     * @param preProducedResponses if not null, a response that should be stored is added to this list instead of being stored and published
+     * @param sample measurements of this request, only published by the caller
+     * @see #getOcspResponse(byte[], X509Certificate[], String, String, StringBuffer, AuditLogger, TransactionLogger, boolean, boolean, boolean)
+     */
+    private OcspResponseInformation getOcspResponse(final byte[] request, final X509Certificate[] requestCertificates, String remoteAddress,
+            String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger,
+            boolean isPreSigning, boolean issueFinalResponse, boolean includeExpiredCertificates, final List<OcspResponseData> preProducedResponses,
+            final OcspMetrics.Sample sample) throws MalformedRequestException, OCSPException {
         //Check parameters
         if (auditLogger == null) {
             throw new InvalidParameterException("Illegal to pass a null audit logger to OcspResponseSession.getOcspResponse");
@@ -1381,6 +1706,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         X509Certificate signerCert = null;
         String serialNrForResponseStore = null;
         int caIdForResponseStore = 0;
+        CertificateID certIdForResponseCache = null;
+        int ocspKeyBindingIdForResponseCache = 0;
+        final long responseCacheInvalidationCount = OcspResponseCache.INSTANCE.getInvalidationCount();
         try {
             req = translateRequestFromByteArray(request, remoteAddress, transactionLogger);
             // Get the certificate status requests that are inside this OCSP req
@@ -1399,6 +1727,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (log.isDebugEnabled()) {
                 log.debug("The OCSP request contains " + ocspRequests.length + " simpleRequests.");
             }
+            sample.mark(OcspMetrics.Phase.PARSE);
+            // Only responses to unsigned single requests are cached, since they can be served to any client asking the same question
+            final boolean useResponseCache = !isPreSigning && ocspRequests.length == 1 && !req.isSigned() && OcspResponseCache.INSTANCE.isEnabled();
             if (!isPreSigning && transactionLogger.isEnabled()) {
                 transactionLogger.paramPut(TransactionLogger.NUM_CERT_ID, ocspRequests.length);
                 transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.SUCCESSFUL);
@@ -1415,6 +1746,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             // If the Extended Revoked Definition should be added for certificates that we can not find in the database, see RFC6960 4.4.8
             boolean addExtendedRevokedExtension = false;
             Date producedAt = null;
+            // Look up the statuses of all certificates at once, instead of one database query per certificate
+            final PrefetchedStatuses prefetchedStatuses = ocspRequests.length > 1 ? prefetchStatuses(ocspRequests, isPreSigning) : null;
             
             for (Req ocspRequest : ocspRequests) {
                 CertificateID certId = ocspRequest.getCertID();
@@ -1442,6 +1775,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     log.info(intres.getLocalizedMessage("ocsp.inforeceivedrequestwxff", certId.getSerialNumber().toString(16), hash, remoteAddress, xForwardedFor));
                 }
                 
+                sample.restart();
                 ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
                 OcspDataConfigCacheEntry ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
                 // Locate the CA which gave out the certificate
@@ -1450,9 +1784,15 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
                             .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
 
-                    // An extra cache reload in case we are on an MS compatible CA
-                    if (Objects.isNull(ocspDataConfig) && OcspDataConfigCache.INSTANCE.getCaModeCompatiblePresent() ||
-                            !Objects.isNull(ocspDataConfig) && ocspDataConfig.isMsCaCompatible()) {
+                    // An extra cache reload in case we are on an MS compatible CA, which may have been renewed with a new key.
+                    // Limit how often requests can cause this, and only touch the caches if the CA certificates changed.
+                    if (!Objects.isNull(ocspDataConfig) && ocspDataConfig.isMsCaCompatible()) {
+                        if (isRequestTriggeredCaReloadAllowed(ocspDataConfig.getCaId())) {
+                            reloadCaCacheEntries(ocspDataConfig.getCaId(), true);
+                        }
+                    } else if (Objects.isNull(ocspDataConfig) && OcspDataConfigCache.INSTANCE.getCaModeCompatiblePresent()
+                            && isRequestTriggeredReloadAllowed()) {
+                        // The issuer is unknown, so all CAs have to be reloaded. Limit how often requests can cause this.
                         reloadOcspSigningCache();
                     }
                     ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
@@ -1470,7 +1810,25 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
                     }
                 }
-                                
+                sample.mark(OcspMetrics.Phase.SIGNER_LOOKUP);
+                sample.addCa(ocspSigningCacheEntry == null ? null : ocspSigningCacheEntry.getIssuerCaCertificateSubjectDn());
+
+                final boolean responseCacheable = useResponseCache && ocspSigningCacheEntry != null
+                        && (ocspSigningCacheEntry.getOcspKeyBinding() == null || ocspSigningCacheEntry.getOcspKeyBinding().getOcspExtensions().isEmpty())
+                        && reqHasExtensionsOkToStoreResponse(req, ocspSigningCacheEntry);
+                if (responseCacheable) {
+                    final int ocspKeyBindingId = ocspSigningCacheEntry.getOcspKeyBinding() == null ? 0 : ocspSigningCacheEntry.getOcspKeyBinding().getId();
+                    final CachedOcspResponse cachedResponse = OcspResponseCache.INSTANCE.getResponse(certId, ocspKeyBindingId);
+                    sample.responseCacheLookup(cachedResponse != null);
+                    if (cachedResponse != null) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Returning cached OCSP response for cert serial " + certId.getSerialNumber().toString(16));
+                        }
+                        logCachedOcspResponse(cachedResponse.getOcspResponse(), ocspSigningCacheEntry, auditLogger, transactionLogger);
+                        return new OcspResponseInformation(cachedResponse.getOcspResponse(), cachedResponse.getMaxAge(), cachedResponse.getSignerCert());
+                    }
+                }
+
                 // We only store pre-produced single responses
                 if (ocspRequests.length == 1 && ocspDataConfig != null && ocspDataConfig.isPreProductionEnabled()) {
                     
@@ -1629,7 +1987,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 // Check if the cacert (or the default responderid) is revoked
                 X509Certificate caCertificate = ocspSigningCacheEntry.getIssuerCaCertificate();
                 final CertificateStatus signerIssuerCertStatus = ocspSigningCacheEntry.getIssuerCaCertificateStatus();
-                final String caCertificateSubjectDn = CertTools.getSubjectDN(caCertificate);
+                final String caCertificateSubjectDn = ocspSigningCacheEntry.getIssuerCaCertificateSubjectDn();
                 String signedBehalfOfCaSubjectDn = null;
                 CertificateStatus onBehalfOfCaStatus = CertificateStatus.OK; // placeholder
                 CertificateStatusHolder certificateStatusHolder = null;
@@ -1639,16 +1997,18 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 
                 // only necessary if sign on behalf entries are present for corresponding cache entry
                 if(!ocspSigningCacheEntry.getSignedBehalfOfCaIds().isEmpty()) {
-                    List<CertificateDataWrapper> certificateWrappers = 
-                            certificateStoreSession.getCertificateDataBySerno(certId.getSerialNumber());
+                    List<String> certificateIssuerDns = prefetchedStatuses != null ? prefetchedStatuses.getIssuerDns(certId.getSerialNumber()) : null;
+                    if (certificateIssuerDns == null) {
+                        certificateIssuerDns = certificateStoreSession.findIssuerDNsBySernos(Collections.singletonList(certId.getSerialNumber()))
+                                .getOrDefault(certId.getSerialNumber(), Collections.emptyList());
+                    }
                     
-                    for(CertificateDataWrapper certificateWrapper: certificateWrappers) {
+                    for(String certificateIssuerDn: certificateIssuerDns) {
 
-                        if(certificateWrapper.getCertificateData().getIssuerDN().equals(caCertificateSubjectDn)) {
+                        if(certificateIssuerDn.equals(caCertificateSubjectDn)) {
                             break;
                         } else {
-                            CertificateID issuerCertId = ocspSigningCacheEntry.getSignBehalfOfCaCertId(
-                                                        certificateWrapper.getCertificateData().getIssuerDN());
+                            CertificateID issuerCertId = ocspSigningCacheEntry.getSignBehalfOfCaCertId(certificateIssuerDn);
     
                             if(issuerCertId!=null) {
                                 shouldSignOnBehalfCaCert = ocspSigningCacheEntry.getSignBehalfOfCaCertificate(issuerCertId);
@@ -1721,18 +2081,39 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         issuerDnOcspRequest = signedBehalfOfCaSubjectDn;
                         // we will also use certificate profile settings for issuing certificate
                     }
+                    sample.restart();
                     if (extensionOids.isEmpty()) {
-                        status = certificateStoreSession.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        // Pre-produced responses are stored for a long time, so they are always built from the database
+                        final CertificateStatus indexedStatus = isPreSigning || !CertificateStatusIndex.INSTANCE.isEnabled() ? null
+                                : CertificateStatusIndex.INSTANCE.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        if (!isPreSigning && CertificateStatusIndex.INSTANCE.isEnabled()) {
+                            sample.statusIndexLookup(indexedStatus != null);
+                        }
+                        final CertificateStatus prefetchedStatus = indexedStatus != null || prefetchedStatuses == null ? null
+                                : prefetchedStatuses.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        if (indexedStatus != null) {
+                            status = indexedStatus;
+                        } else if (prefetchedStatus != null) {
+                            status = prefetchedStatus;
+                        } else {
+                            status = certificateStoreSession.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        }
                     } else {
                         certificateStatusHolder = certificateStoreSession.getCertificateAndStatus(issuerDnOcspRequest, certId.getSerialNumber());
                         status = certificateStatusHolder.getCertificateStatus();
                     }
+                    sample.mark(OcspMetrics.Phase.STATUS_LOOKUP);
                     if(status.getExpirationDate()<System.currentTimeMillis() && isPreSigning && !includeExpiredCertificates) {
                         return null; // do not store response for expired certificates
                     }
                     if (!isPreSigning && transactionLogger.isEnabled()) {
                         transactionLogger.paramPut(TransactionLogger.CERT_PROFILE_ID, String.valueOf(status.certificateProfileId));
                     }
+                    // The response for a certificate not found in the database may depend on the request URL, so it is not cached
+                    if (responseCacheable && !status.equals(CertificateStatus.NOT_AVAILABLE)) {
+                        certIdForResponseCache = certId;
+                        ocspKeyBindingIdForResponseCache = ocspSigningCacheEntry.getOcspKeyBinding() == null ? 0 : ocspSigningCacheEntry.getOcspKeyBinding().getId();
+                    }
                     // If we have an OcspKeyBinding configured for this request, we override the default value
                     if (ocspSigningCacheEntry.isUsingSeparateOcspSigningCertificate()) {
                         nextUpdate = ocspSigningCacheEntry.getOcspKeyBinding().getUntilNextUpdate()*1000L;
@@ -1923,8 +2304,15 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 
                 // Add responseExtensions
                 Extensions exts = new Extensions(responseExtensions.values().toArray(new Extension[0]));
+                for (final OCSPResponseItem responseItem : responseList) {
+                    sample.addCertificateStatus(responseItem.getCertStatus());
+                }
+                sample.setResponder(ocspSigningCacheEntry.getOcspKeyBinding() != null ? ocspSigningCacheEntry.getOcspKeyBinding().getName()
+                        : ocspSigningCacheEntry.getIssuerCaCertificateSubjectDn());
                 // generate the signed response object
+                sample.restart();
                 BasicOCSPResp basicresp = signOcspResponse(req, responseList, exts, ocspSigningCacheEntry, producedAt);
+                sample.mark(OcspMetrics.Phase.SIGN);
                 signerCert = ocspSigningCacheEntry.getSigningCertificate();
                 ocspResponse = responseGenerator.build(OCSPRespBuilder.SUCCESSFUL, basicresp);
                 if (!isPreSigning && auditLogger.isEnabled()) {
@@ -2014,11 +2402,29 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
             }
+        } catch (OcspSigningQueueFullException e) {
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            log.info(intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage())); // No need to log the full exception here
+            // RFC 2560: responseBytes are not set on error.
+            ocspResponse = responseGenerator.build(OCSPRespBuilder.TRY_LATER, null);
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
         } catch (NoSuchAlgorithmException | CertificateException | CryptoTokenOfflineException e) {
             ocspResponse = processDefaultError(isPreSigning, responseGenerator, transactionLogger, auditLogger, e);
         }
         try {
+            sample.restart();
             respBytes = ocspResponse.getEncoded();
+            sample.mark(OcspMetrics.Phase.SERIALIZE);
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(respBytes));
                 auditLogger.writeln();
@@ -2052,15 +2458,59 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         if (serialNrForResponseStore != null && caIdForResponseStore != 0 && 
                 ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) { 
             try {
-                storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                if (preProducedResponses != null) {
+                    final OcspResponseData responseData = createOcspResponseData(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                    if (responseData != null) {
+                        preProducedResponses.add(responseData);
+                    }
+                } else {
+                    storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                }
             } catch (OCSPException | IOException e) {
                 // Log the error and reply anyway
                 log.warn("Error storing OCSP response for certificate with serialNr '" + serialNrForResponseStore);
             }
         }
+        if (certIdForResponseCache != null && ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) {
+            try {
+                final SingleResp singleResponse = ((BasicOCSPResp) ocspResponse.getResponseObject()).getResponses()[0];
+                final long thisUpdate = singleResponse.getThisUpdate().getTime();
+                final long nextUpdateTime = singleResponse.getNextUpdate() == null ? 0 : singleResponse.getNextUpdate().getTime();
+                OcspResponseCache.INSTANCE.putResponse(certIdForResponseCache, ocspKeyBindingIdForResponseCache, ocspResponse, maxAge, signerCert,
+                        thisUpdate, nextUpdateTime, responseCacheInvalidationCount);
+            } catch (OCSPException e) {
+                // Log the error and reply anyway
+                log.warn("Error caching OCSP response for certificate with serialNr '" + certIdForResponseCache.getSerialNumber().toString(16) + "'.");
+            }
+        }
         return new OcspResponseInformation(ocspResponse, maxAge, signerCert);
     }
 
+    /** Writes the audit and transaction log entries for a response served from {@link OcspResponseCache}. */
+    private void logCachedOcspResponse(final OCSPResp ocspResponse, final OcspSigningCacheEntry ocspSigningCacheEntry, final AuditLogger auditLogger,
+            final TransactionLogger transactionLogger) throws OCSPException {
+        if (auditLogger.isEnabled()) {
+            try {
+                auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(ocspResponse.getEncoded()));
+            } catch (IOException e) {
+                log.error("Unexpected IOException caught.", LogRedactionUtils.getRedactedException(e));
+            }
+            auditLogger.writeln();
+            auditLogger.flush();
+        }
+        if (transactionLogger.isEnabled()) {
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN, ocspSigningCacheEntry.getSigningCertificateIssuerDn());
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN_RAW, ocspSigningCacheEntry.getSigningCertificateIssuerDnRaw());
+            final org.bouncycastle.cert.ocsp.CertificateStatus status = ((BasicOCSPResp) ocspResponse.getResponseObject()).getResponses()[0].getCertStatus();
+            transactionLogger.paramPut(TransactionLogger.CERT_STATUS, fetchCertStatus(status));
+            if (status instanceof RevokedStatus && ((RevokedStatus) status).hasRevocationReason()) {
+                transactionLogger.paramPut(TransactionLogger.REV_REASON, ((RevokedStatus) status).getRevocationReason());
+            }
+            transactionLogger.writeln();
+            transactionLogger.flush();
+        }
+    }
+
     private int fetchCertStatus(org.bouncycastle.cert.ocsp.CertificateStatus certStatus) {
         if (Objects.isNull(certStatus)) {
             return OCSPResponseItem.OCSP_GOOD;
@@ -2072,6 +2522,16 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     }
 
     private void storeOcspResponse(final int caId, final String serialNr, final OCSPResp ocspResponse) throws OCSPException, IOException {
+        final OcspResponseData responseData = createOcspResponseData(caId, serialNr, ocspResponse);
+        if (responseData == null) {
+            return;
+        }
+        ocspDataSession.storeOcspData(responseData);
+        publishOcspResponses(caId, Collections.singletonList(responseData));
+    }
+
+    /** @return the entity to store for the response, or null if the response should not be stored */
+    private OcspResponseData createOcspResponseData(final int caId, final String serialNr, final OCSPResp ocspResponse) throws OCSPException, IOException {
         // Redundantly storing producedAt and nextUpdate, next to the canned response itself for faster querying. 
         // Assuming this is a single response (we don't store it otherwise), we can safely pick nextUpdate from first index.
         long producedAt = ((BasicOCSPResp)ocspResponse.getResponseObject()).getProducedAt().getTime();
@@ -2079,15 +2539,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         final Date nextUpdateDate = ((BasicOCSPResp)ocspResponse.getResponseObject()).getResponses()[0].getNextUpdate();
         if (nextUpdateDate == null) {
             log.debug("Not persisting OCSP Response. nextUpdate is set to null");
-            return;
+            return null;
         }
         nextUpdate = nextUpdateDate.getTime();
-        final OcspResponseData responseData = new OcspResponseData(UUID.randomUUID().toString(), caId, serialNr, producedAt, nextUpdate, ocspResponse.getEncoded());
-        ocspDataSession.storeOcspData(responseData);
-        publishOcspResponse(caId, responseData);
+        return new OcspResponseData(UUID.randomUUID().toString(), caId, serialNr, producedAt, nextUpdate, ocspResponse.getEncoded());
     }
     
-    private void publishOcspResponse(final int caId, final OcspResponseData responseData) {
+    private void publishOcspResponses(final int caId, final Collection<OcspResponseData> responseDatas) {
         AuthenticationToken authenticationToken = new AlwaysAllowLocalAuthenticationToken(
                 new UsernamePrincipal(OcspResponseGeneratorSessionBean.class.getSimpleName()));
         CAInfo caInfo = caSession.getCAInfoInternal(caId);
@@ -2098,11 +2556,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         
         CompletableFuture.runAsync(() -> {
-            try {
-                publisherSession.storeOcspResponses(authenticationToken, cAPublishers, responseData);
-            } catch (PublisherException | AuthorizationDeniedException e) {
-                log.warn("Error publishing OCSP response data for certificate with caId '" + caId, e);
-            } 
+            for (final OcspResponseData responseData : responseDatas) {
+                try {
+                    publisherSession.storeOcspResponses(authenticationToken, cAPublishers, responseData);
+                } catch (PublisherException | AuthorizationDeniedException e) {
+                    log.warn("Error publishing OCSP response data for certificate with caId '" + caId, e);
+                }
+            }
         });
     }
 
@@ -2303,6 +2763,129 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     
     @Override
     public void preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, boolean issueFinalResponse, boolean includeExpiredCertificates, String certIDHashAlgorithm) {
+        preSignOcspResponse(cacert, serialNr, issueFinalResponse, includeExpiredCertificates, certIDHashAlgorithm, null);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int preSignOcspResponses(final X509Certificate cacert, final boolean issueFinalResponse, final boolean includeExpiredCertificates,
+            final String certIDHashAlgorithm) {
+        final String issuerDn = CertTools.getSubjectDN(cacert);
+        final int threads = OcspConfiguration.getPreSigningThreads();
+        final int batchSize = OcspConfiguration.getPreSigningBatchSize();
+        final long expireDate = includeExpiredCertificates ? 0 : System.currentTimeMillis();
+        log.info("Pre-producing OCSP responses for all certificates issued by '" + issuerDn + "' using " + threads + " threads.");
+        final long startTime = System.currentTimeMillis();
+        long lastProgressTime = startTime;
+        int certificateCount = 0;
+        int responseCount = 0;
+        try {
+            String lastSerialNumber = null;
+            List<String> serialNumbers;
+            do {
+                serialNumbers = certificateStoreSession.findSerialNrByIssuerAndExpireDateAfterSerialNr(issuerDn, expireDate, lastSerialNumber, batchSize);
+                final List<BigInteger> serialNrs = new ArrayList<>(serialNumbers.size());
+                for (final String serialNumber : serialNumbers) {
+                    serialNrs.add(new BigInteger(serialNumber));
+                }
+                final List<OcspResponseData> responses = preSignAndStore(threads, cacert, serialNrs, issueFinalResponse, includeExpiredCertificates,
+                        certIDHashAlgorithm);
+                certificateCount += serialNumbers.size();
+                responseCount += responses.size();
+                if (!serialNumbers.isEmpty()) {
+                    lastSerialNumber = serialNumbers.get(serialNumbers.size() - 1);
+                }
+                final long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= PRESIGNING_PROGRESS_INTERVAL) {
+                    lastProgressTime = now;
+                    log.info("Pre-produced " + responseCount + " OCSP responses for " + certificateCount + " certificates issued by '" + issuerDn + "' ("
+                            + responseCount * 1000L / (now - startTime) + " responses/s).");
+                }
+            } while (serialNumbers.size() == batchSize);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Pre-production of OCSP responses for '" + issuerDn + "' was interrupted.");
+        } catch (ExecutionException e) {
+            // Should not happen since failures to produce a single response are logged and ignored
+            log.warn("Pre-production of OCSP responses for '" + issuerDn + "' failed: " + e.getMessage(), e);
+        }
+        final long duration = Math.max(1, System.currentTimeMillis() - startTime);
+        log.info("Pre-produced " + responseCount + " OCSP responses for " + certificateCount + " certificates issued by '" + issuerDn + "' in " + duration
+                + " ms (" + responseCount * 1000L / duration + " responses/s).");
+        return responseCount;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<OcspResponseData> preSignOcspResponses(final X509Certificate cacert, final Collection<BigInteger> serialNrs, final boolean issueFinalResponse,
+            final boolean includeExpiredCertificates, final String certIDHashAlgorithm) {
+        if (serialNrs.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return preSignAndStore(OcspConfiguration.getPreSigningThreads(), cacert, serialNrs, issueFinalResponse, includeExpiredCertificates,
+                    certIDHashAlgorithm);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Pre-production of OCSP responses for '" + CertTools.getSubjectDN(cacert) + "' was interrupted.");
+        } catch (ExecutionException e) {
+            // Should not happen since failures to produce a single response are logged and ignored
+            log.warn("Pre-production of OCSP responses for '" + CertTools.getSubjectDN(cacert) + "' failed: " + e.getMessage(), e);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<OcspResponseData> preProduceOcspResponses(final X509Certificate cacert, final List<BigInteger> serialNrs, final boolean issueFinalResponse,
+            final boolean includeExpiredCertificates, final String certIDHashAlgorithm) {
+        final List<OcspResponseData> responses = new ArrayList<>(serialNrs.size());
+        for (final BigInteger serialNr : serialNrs) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            preSignOcspResponse(cacert, serialNr, issueFinalResponse, includeExpiredCertificates, certIDHashAlgorithm, responses);
+        }
+        return responses;
+    }
+
+    /**
+     * Produces the responses in parallel on container managed threads, and stores and publishes them in one batch. The serial numbers are
+     * split into one task per thread, so at most the given number of managed threads are used. Each task invokes the bean through its
+     * business interface, so that it runs on its own bean instance and in its own transaction.
+     */
+    private List<OcspResponseData> preSignAndStore(final int threads, final X509Certificate cacert, final Collection<BigInteger> serialNrs,
+            final boolean issueFinalResponse, final boolean includeExpiredCertificates, final String certIDHashAlgorithm)
+            throws InterruptedException, ExecutionException {
+        final List<OcspResponseData> responses = new ArrayList<>(serialNrs.size());
+        final List<BigInteger> serialNrList = new ArrayList<>(serialNrs);
+        final int taskCount = Math.max(1, Math.min(threads, serialNrList.size()));
+        final List<Future<List<OcspResponseData>>> tasks = new ArrayList<>(taskCount);
+        final OcspResponseGeneratorSessionLocal self = sessionContext.getBusinessObject(OcspResponseGeneratorSessionLocal.class);
+        try {
+            for (int i = 0; i < taskCount; i++) {
+                final List<BigInteger> slice = new ArrayList<>(
+                        serialNrList.subList(i * serialNrList.size() / taskCount, (i + 1) * serialNrList.size() / taskCount));
+                tasks.add(managedExecutorService.submit(
+                        () -> self.preProduceOcspResponses(cacert, slice, issueFinalResponse, includeExpiredCertificates, certIDHashAlgorithm)));
+            }
+            for (final Future<List<OcspResponseData>> task : tasks) {
+                responses.addAll(task.get());
+            }
+        } finally {
+            // Only has an effect if waiting was interrupted or a task failed
+            for (final Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        if (!responses.isEmpty()) {
+            ocspDataSession.storeOcspDataBatch(responses);
+            publishOcspResponses(responses.get(0).getCaId(), responses);
+        }
+        return responses;
+    }
+
+    private void preSignOcspResponse(final X509Certificate cacert, final BigInteger serialNr, final boolean issueFinalResponse,
+            final boolean includeExpiredCertificates, final String certIDHashAlgorithm, final List<OcspResponseData> preProducedResponses) {
         final OCSPReq req;
         final OCSPReqBuilder gen = new OCSPReqBuilder();
         final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
@@ -2325,7 +2908,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
             gen.addRequest(certId);
             req = gen.build();
-            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse, includeExpiredCertificates);
+            // Pre-produced responses are not measured, so the sample is never published
+            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse, includeExpiredCertificates,
+                    preProducedResponses, OcspMetrics.INSTANCE.newSample());
         } catch (Throwable e) {
             final String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", LogRedactionUtils.getRedactedMessage(e.getMessage()));
             log.info(errMsg);
@@ -2392,14 +2977,15 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             log.debug("The response certificate chain contains " + chain.length + " certificates");
         }
         /*
-         * The below code breaks the EJB standard by creating its own thread pool and creating a single thread (of the HsmResponseThread 
+         * The below code breaks the EJB standard by using its own thread pool (OcspSigningExecutor) to run the signing (of the HsmResponseThread 
          * type). The reason for this is that the HSM may deadlock when requesting an OCSP response, which we need to guard against. Since 
-         * there is no way of performing this action within the EJB3.0 standard, we are consciously creating threads here. 
+         * there is no way of performing this action within the EJB3.0 standard, we are consciously using threads here. 
          * 
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
          */
-        final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
+        final Future<BasicOCSPResp> task = OcspSigningExecutor.INSTANCE.submit(ocspSigningCacheEntry.getCryptoTokenId(),
+                new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
         try {
             returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
@@ -2409,7 +2995,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             task.cancel(true);
             throw new OcspFailureException("Failure encountered while retrieving OCSP response.", e);
         } catch (TimeoutException e) {
-            task.cancel(true);
+            OcspSigningExecutor.INSTANCE.abandon(task);
             throw new CryptoTokenOfflineException("HSM timed out while trying to get OCSP response", e);
         }
         if (log.isDebugEnabled()) {
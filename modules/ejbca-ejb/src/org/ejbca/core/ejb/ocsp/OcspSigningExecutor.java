@@ -0,0 +1,245 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.security.PrivateKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.operator.BufferingContentSigner;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.ocsp.exception.OcspSigningQueueFullException;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Bounded thread pools used to sign OCSP responses, one per crypto token. Signing is done in separate threads so that a
+ * deadlocked HSM can be detected with a timeout, see {@link HsmResponseThread}.
+ * <p>
+ * Each pool has a fixed number of threads (ocsp.signing.threads) and a bounded queue (ocsp.signing.queuesize). When the
+ * queue is full, no new threads are created, instead {@link OcspSigningQueueFullException} is thrown so the request can
+ * be answered with tryLater.
+ * <p>
+ * A thread that is stuck in a call to the HSM can not be interrupted. When a signing task is abandoned after a timeout, the
+ * pool is temporarily given an extra thread, so the stuck thread does not reduce the signing capacity of the crypto token.
+ * At most ocsp.signing.threads stuck threads are replaced per crypto token.
+ * <p>
+ * Signing threads keep their {@link ContentSigner} instances, including the signature buffer, between responses.
+ *
+ * @version $Id$
+ */
+public enum OcspSigningExecutor {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspSigningExecutor.class);
+
+    /**
+     * Size of the signature buffer of each reusable signer. A single response (e.g. signed with 4K RSA key, nonce and a one
+     * level chain) is less than 2KiB, but a response to a request with many Req entries, or one that includes a longer
+     * certificate chain, can be several times larger. When the buffer is too small, BufferingContentSigner passes the data to
+     * the provider in several calls, which for an HSM means several round trips. Since the buffer is only allocated once per
+     * signing thread and key, the same 20480 bytes as used when signing certificates and CRLs in X509CAImpl is used.
+     */
+    private static final int SIGNER_BUFFER_SIZE = 20480;
+    /** Number of signers kept by each thread, so keys that are no longer used are eventually released. */
+    private static final int MAX_SIGNERS_PER_THREAD = 8;
+
+    /** Identifies a reusable signer. Keys are compared by identity, since they are the same objects as long as the signing cache is unchanged. */
+    private static class SignerKey {
+        private final String signingAlgorithm;
+        private final PrivateKey privateKey;
+
+        private SignerKey(final String signingAlgorithm, final PrivateKey privateKey) {
+            this.signingAlgorithm = signingAlgorithm;
+            this.privateKey = privateKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return signingAlgorithm.hashCode() * 31 + System.identityHashCode(privateKey);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof SignerKey)) {
+                return false;
+            }
+            final SignerKey other = (SignerKey) obj;
+            return privateKey == other.privateKey && signingAlgorithm.equals(other.signingAlgorithm);
+        }
+    }
+
+    private static final ThreadLocal<Map<SignerKey, ContentSigner>> signers = ThreadLocal.withInitial(() -> new LinkedHashMap<SignerKey, ContentSigner>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<SignerKey, ContentSigner> eldest) {
+            return size() > MAX_SIGNERS_PER_THREAD;
+        }
+    });
+
+    /** A signing task that keeps track of the thread running it, so the thread can be replaced if it gets stuck. */
+    private static class SigningTask extends FutureTask<BasicOCSPResp> {
+        private final int cryptoTokenId;
+        private final ThreadPoolExecutor executor;
+        private Thread runner;
+        private boolean replaced;
+
+        private SigningTask(final int cryptoTokenId, final ThreadPoolExecutor executor, final HsmResponseThread task) {
+            super(task);
+            this.cryptoTokenId = cryptoTokenId;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    if (replaced) {
+                        INSTANCE.releaseReplacementThread(cryptoTokenId, executor);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Map<Integer, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * Submit a signing task to the pool of the given crypto token.
+     *
+     * @param cryptoTokenId the id of the crypto token that holds the signing key
+     * @param task the signing task
+     * @return the Future to wait for, using a timeout. Pass it to {@link #abandon(Future)} if the wait times out.
+     * @throws OcspSigningQueueFullException if all signing threads are busy and the queue is full
+     */
+    public Future<BasicOCSPResp> submit(final int cryptoTokenId, final HsmResponseThread task) {
+        final ThreadPoolExecutor executor = executors.computeIfAbsent(cryptoTokenId, this::createExecutor);
+        final SigningTask signingTask = new SigningTask(cryptoTokenId, executor, task);
+        try {
+            executor.execute(signingTask);
+        } catch (RejectedExecutionException e) {
+            throw new OcspSigningQueueFullException("The OCSP signing queue for crypto token " + cryptoTokenId + " is full.", e);
+        }
+        return signingTask;
+    }
+
+    /**
+     * Cancel a signing task that did not complete in time. If the task is still running, its thread is most likely stuck in a
+     * call to the HSM which can not be interrupted, so another thread is added to the pool until the stuck thread returns.
+     *
+     * @param task a Future returned by {@link #submit(int, HsmResponseThread)}
+     */
+    public void abandon(final Future<BasicOCSPResp> task) {
+        task.cancel(true);
+        if (!(task instanceof SigningTask)) {
+            return;
+        }
+        final SigningTask signingTask = (SigningTask) task;
+        synchronized (signingTask) {
+            if (signingTask.runner != null && !signingTask.replaced) {
+                signingTask.replaced = addReplacementThread(signingTask.cryptoTokenId, signingTask.executor, signingTask.runner);
+            }
+        }
+    }
+
+    /** @return the number of signing tasks waiting for a free signing thread, summed over all signature providers */
+    public int getQueueDepth() {
+        int queueDepth = 0;
+        for (final ThreadPoolExecutor executor : executors.values()) {
+            queueDepth += executor.getQueue().size();
+        }
+        return queueDepth;
+    }
+
+    /**
+     * Returns a signer owned by the current thread, creating it if this thread has not used the key with the algorithm before.
+     * The returned signer must not be shared with other threads.
+     */
+    ContentSigner getContentSigner(final String signingAlgorithm, final String provider, final PrivateKey signerKey) throws OperatorCreationException {
+        final Map<SignerKey, ContentSigner> threadSigners = signers.get();
+        final SignerKey key = new SignerKey(signingAlgorithm, signerKey);
+        ContentSigner signer = threadSigners.get(key);
+        if (signer == null) {
+            signer = new BufferingContentSigner(new JcaContentSignerBuilder(signingAlgorithm).setProvider(provider).build(signerKey), SIGNER_BUFFER_SIZE);
+            threadSigners.put(key, signer);
+        }
+        return signer;
+    }
+
+    /** Forget the signer, since it may be left in an undefined state after a failed signature. */
+    void discardContentSigner(final String signingAlgorithm, final PrivateKey signerKey) {
+        signers.get().remove(new SignerKey(signingAlgorithm, signerKey));
+    }
+
+    private ThreadPoolExecutor createExecutor(final int cryptoTokenId) {
+        final int threads = OcspConfiguration.getSigningThreads();
+        final int queueSize = OcspConfiguration.getSigningQueueSize();
+        log.info("Creating OCSP signing thread pool for crypto token " + cryptoTokenId + " with " + threads + " threads and a queue size of " + queueSize + ".");
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "OcspSigner-" + cryptoTokenId + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** @return true if the pool was grown by one thread, false if the limit of replaced threads has been reached */
+    private boolean addReplacementThread(final int cryptoTokenId, final ThreadPoolExecutor executor, final Thread stuckThread) {
+        synchronized (executor) {
+            final int threads = OcspConfiguration.getSigningThreads();
+            if (executor.getMaximumPoolSize() >= 2 * threads) {
+                log.error("OCSP signing thread " + stuckThread.getName() + " is stuck, and " + threads
+                        + " stuck threads have already been replaced for crypto token " + cryptoTokenId + ". The thread will not be replaced.");
+                return false;
+            }
+            log.warn("OCSP signing thread " + stuckThread.getName() + " is stuck. Adding a thread to the pool of crypto token " + cryptoTokenId + ".");
+            // The maximum pool size may not be less than the core pool size, so grow it first
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+            executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+            return true;
+        }
+    }
+
+    private void releaseReplacementThread(final int cryptoTokenId, final ThreadPoolExecutor executor) {
+        synchronized (executor) {
+            if (log.isDebugEnabled()) {
+                log.debug("Stuck OCSP signing thread of crypto token " + cryptoTokenId + " returned. Removing the replacement thread.");
+            }
+            executor.setCorePoolSize(executor.getCorePoolSize() - 1);
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() - 1);
+        }
+    }
+}
@@ -12,13 +12,17 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.CA;
 import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.certificates.ocsp.cache.OcspResponseFileTree;
+import org.cesecore.config.OcspConfiguration;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
@@ -34,6 +38,8 @@ import static org.ejbca.util.CAUtils.isDoPreProduceOcspResponses;
 @TransactionAttribute(TransactionAttributeType.REQUIRED)
 public class PreSigningOcspResponseSessionBean implements PreSigningOcspResponseSessionLocal {
 
+	private static final Logger log = Logger.getLogger(PreSigningOcspResponseSessionBean.class);
+
 	@EJB
 	private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
 
@@ -47,6 +53,20 @@ public class PreSigningOcspResponseSessionBean implements PreSigningOcspResponse
 		ocspResponseGeneratorSession.deleteOcspDataByCaIdSerialNumber(caId, serialNumber);
 	}
 
+	@Override
+	public void deleteExportedOcspResponses(CA ca, BaseCertificateData certData) {
+		final String directory = OcspConfiguration.getStaticResponsesDirectory();
+		if (directory == null || !(ca.getCACertificate() instanceof X509Certificate)) {
+			return;
+		}
+		try {
+			new OcspResponseFileTree(directory).removeResponses((X509Certificate) ca.getCACertificate(), new BigInteger(certData.getSerialNumber()));
+		} catch (IOException e) {
+			log.warn("Could not remove exported OCSP responses for certificate with serial number " + certData.getSerialNumber() + " from '"
+					+ directory + "': " + e.getMessage());
+		}
+	}
+
 	@Override
 	public void preSignOcspResponse(CA ca, BaseCertificateData certData) {
 		if (isDoPreProduceOcspResponses(ca) && isDoPreProduceOcspResponsesUponIssuanceAndRevocation(ca)) {
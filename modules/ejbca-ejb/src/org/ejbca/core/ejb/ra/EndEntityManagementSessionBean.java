@@ -101,6 +101,7 @@ import org.cesecore.keys.validation.KeyValidatorSessionLocal;
 import org.cesecore.keys.validation.ValidationException;
 import org.cesecore.keys.validation.ValidationResult;
 import org.cesecore.roles.member.RoleMemberData;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
 import org.cesecore.util.LogRedactionUtils;
 import org.cesecore.util.PrintableStringNameStyle;
 import org.cesecore.util.ValidityDate;
@@ -202,6 +203,8 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
     @EJB
     private RevocationSessionLocal revocationSession;
     @EJB
+    private SearchIndexSessionLocal searchIndexSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal auditSession;
     @EJB
     private AuthorizationSessionLocal authorizationSession;
@@ -523,6 +526,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
                 }
                 if (!perTransactionData.couldSuppressUserDataModification(username)) {
                     entityManager.persist(userData);
+                    searchIndexSession.indexEndEntity(username, userData.getSubjectDnNeverNull(), userData.getSubjectAltName(), false);
                 } else {
                     // Instead of calling entityManager.persist() here, we use a beforeCompletion callback
                     // that gets called at the end of the transaction.
@@ -536,6 +540,8 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
                             if (user != null) {
                                 log.debug("Adding end-entity in beforeCompletion of transaction");
                                 entityManager.persist(userData);
+                                // Indexed here, since the end entity may be removed from the transaction, see suppressUnwantedUserDataChanges()
+                                searchIndexSession.indexEndEntity(username, userData.getSubjectDnNeverNull(), userData.getSubjectAltName(), false);
                                 entityManager.flush();
                             } else {
                                 log.debug("Not adding end-entity in beforeCompletion of transaction");
@@ -685,6 +691,8 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         userDataClone.setTimeModified(now);
         entityManager.persist(userDataClone);
         entityManager.remove(currentUserData);
+        searchIndexSession.removeEndEntity(currentUsername);
+        searchIndexSession.indexEndEntity(newUsername, userDataClone.getSubjectDnNeverNull(), userDataClone.getSubjectAltName(), false);
         // Find all entities and update the username (we cant just do UPDATE ... SET username.. WHERE username since rowProtection might be enabled)
         final List<CertificateData> certificateDatas = entityManager.createQuery(
                 "SELECT a FROM CertificateData a WHERE a.username=:username", CertificateData.class).setParameter("username", currentUsername).getResultList();
@@ -693,6 +701,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
             final String fingerprint = certificateData.getFingerprint();
             certificateData.setUsername(newUsername);
             certificateData.setUpdateTime(now);
+            searchIndexSession.indexCertificate(fingerprint, certificateData.getSubjectDN(), certificateData.getSubjectAltName(), newUsername, true);
             // Find all publisher queue data where PublisherQueueData.fingerprint matches CertificateData.fingerprint for this user
             final List<PublisherQueueData> publisherQueueDatas = PublisherQueueData.findDataByFingerprint(entityManager, fingerprint);
             for (final PublisherQueueData publisherQueueData : publisherQueueDatas) {
@@ -1059,8 +1068,13 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
 
         try {
+            final boolean searchIndexChanged = !StringUtils.equals(userData.getSubjectDnNeverNull(), dn)
+                    || !StringUtils.equals(userData.getSubjectAltName(), altName);
             userData.setDN(dn);
             userData.setSubjectAltName(altName);
+            if (searchIndexChanged) {
+                searchIndexSession.indexEndEntity(username, userData.getSubjectDnNeverNull(), userData.getSubjectAltName(), true);
+            }
             userData.setSubjectEmail(endEntityInformation.getEmail());
             userData.setCaId(caId);
             userData.setType(type.getHexValue());
@@ -1236,6 +1250,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
         try {
             entityManager.remove(data1);
+            searchIndexSession.removeEndEntity(trimmedUsername);
             logAuditEvent(
                     EjbcaEventTypes.RA_DELETEENDENTITY, EventStatus.SUCCESS,
                     authenticationToken, caId, null, trimmedUsername,
@@ -31,6 +31,7 @@ import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keybind.InternalKeyBindingMgmtSessionLocal;
 import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
 import org.cesecore.util.ProfileID;
 import org.ejbca.core.ejb.approval.ApprovalProfileSessionLocal;
 import org.ejbca.core.ejb.approval.ApprovalSessionLocal;
@@ -190,6 +191,8 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
     private OcspDataSessionLocal ocspDataSessionLocal;
     @EJB
     private RevocationSessionLocal revocationSession;
+    @EJB
+    private SearchIndexSessionLocal searchIndexSession;
 
 
     /** Maps timer IDs to next run timestamp. Used to prevent repeated scheduling of the same timer. */
@@ -595,6 +598,7 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
         ejbs.put(OcspResponseGeneratorSessionLocal.class, ocspGeneratorResponseSessionLocal);
         ejbs.put(OcspDataSessionLocal.class, ocspDataSessionLocal);
         ejbs.put(RevocationSessionLocal.class, revocationSession);
+        ejbs.put(SearchIndexSessionLocal.class, searchIndexSession);
         try {
             if (worker != null) {
                 worker.canWorkerRun(ejbs);
@@ -798,6 +802,7 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
             ejbs.put(OcspResponseGeneratorSessionLocal.class, ocspGeneratorResponseSessionLocal);
             ejbs.put(OcspDataSessionLocal.class, ocspDataSessionLocal);
             ejbs.put(RevocationSessionLocal.class, revocationSession);
+            ejbs.put(SearchIndexSessionLocal.class, searchIndexSession);
             ServiceExecutionResult result = worker.work(ejbs);
             final String msg = intres.getLocalizedMessage("services.serviceexecuted", serviceName, result.getResult().getOutput(), result.getMessage());
             log.info(msg);
@@ -846,6 +851,7 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
             ejbs.put(OcspResponseGeneratorSessionLocal.class, ocspGeneratorResponseSessionLocal);
             ejbs.put(OcspDataSessionLocal.class, ocspDataSessionLocal);
             ejbs.put(RevocationSessionLocal.class, revocationSession);
+            ejbs.put(SearchIndexSessionLocal.class, searchIndexSession);
             ServiceExecutionResult result = worker.work(ejbs);            
             final String msg = intres.getLocalizedMessage("services.serviceexecuted", serviceName, result.getResult().getOutput(), result.getMessage());
             log.info(msg);
@@ -47,8 +47,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.DependsOn;
@@ -104,6 +112,7 @@ import org.cesecore.roles.Role;
 import org.cesecore.roles.RoleExistsException;
 import org.cesecore.roles.member.RoleMember;
 import org.cesecore.util.LogRedactionUtils;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.EjbcaException;
 import org.ejbca.core.ejb.dto.CertRevocationDto;
@@ -207,6 +216,28 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     private RaMasterApi[] savedRaMasterApisLocalFirstBeforeTest;
     private List<String> functionTraceForTest;
 
+    /** Thread pool for searches that are sent to all back ends in parallel, see {@link #invokeBackends} */
+    private volatile ExecutorService executorService = null;
+    private final ReentrantLock executorServiceLock = new ReentrantLock(false);
+
+    /** Read-only call to a single back end. Returns null if the back end does not support the call. */
+    @FunctionalInterface
+    private interface BackendCall<T> {
+        T invoke(RaMasterApi raMasterApi);
+    }
+
+    /** Merges the results of a call to several back ends. Only invoked from the calling thread, in the order of the back ends. */
+    private interface BackendResultMerger<T> {
+        /**
+         * @param result result of a back end
+         * @return true if the merged result is complete, so that the remaining back ends can be skipped
+         */
+        boolean merge(T result);
+
+        /** Invoked when a back end was unavailable or did not respond in time, so that the merged result might be incomplete */
+        default void unavailable() { }
+    }
+
     /** Default constructor */
     public RaMasterApiProxyBean() {
     }
@@ -252,6 +283,126 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
         this.raMasterApisLocalFirst = implementations.toArray(new RaMasterApi[0]);
     }
 
+    @PreDestroy
+    private void preDestroy() {
+        executorServiceLock.lock();
+        try {
+            if (executorService != null) {
+                executorService.shutdown();
+                executorService = null;
+            }
+        } finally {
+            executorServiceLock.unlock();
+        }
+    }
+
+    /** @return a reference to the "CachedThreadPool" executor service used for parallel searches (creating one if needed). */
+    private ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorServiceLock.lock();
+            try {
+                if (executorService == null) {
+                    executorService = Executors.newCachedThreadPool();
+                }
+            } finally {
+                executorServiceLock.unlock();
+            }
+        }
+        return executorService;
+    }
+
+    /**
+     * Invokes a read-only call on all available back ends, and merges the results in the order of the back ends, so that the merged
+     * result is the same as if the back ends were invoked one at a time. The back ends are invoked in parallel, with a timeout of
+     * ra.search.backendtimeout for each, unless ra.search.parallel.enabled is false or there is only one back end.
+     * <p>
+     * Once the merger reports that the merged result is complete, the back ends that come later in the order are skipped. Their calls
+     * are not interrupted, since they may be in a database transaction, but their results are discarded.
+     *
+     * @param apis the back ends, in the order of precedence
+     * @param call the call to invoke on each back end
+     * @param merger merger of the results
+     * @return true if any back ends were skipped because the merged result was complete
+     */
+    private <T> boolean invokeBackends(final RaMasterApi[] apis, final BackendCall<T> call, final BackendResultMerger<T> merger) {
+        if (apis.length < 2 || !EjbcaConfiguration.isRaSearchParallelEnabled()) {
+            for (final RaMasterApi raMasterApi : apis) {
+                if (raMasterApi.isBackendAvailable()) {
+                    try {
+                        final T result = call.invoke(raMasterApi);
+                        if (result != null) {
+                            merger.merge(result);
+                        }
+                    } catch (UnsupportedOperationException e) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Trouble during back end invocation: " + e.getMessage());
+                        }
+                        // Just try next implementation
+                    } catch (RaMasterBackendUnavailableException e) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Timeout during back end invocation.", e);
+                        }
+                        merger.unavailable();
+                    }
+                }
+            }
+            return false;
+        }
+        final List<Future<T>> futures = new ArrayList<>(apis.length);
+        for (final RaMasterApi raMasterApi : apis) {
+            futures.add(getExecutorService().submit(() -> raMasterApi.isBackendAvailable() ? call.invoke(raMasterApi) : null));
+        }
+        final long timeout = EjbcaConfiguration.getRaSearchBackendTimeoutMillis();
+        final long deadline = System.currentTimeMillis() + timeout;
+        boolean skipped = false;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<T> future = futures.get(i);
+                if (skipped) {
+                    future.cancel(false);
+                    continue;
+                }
+                try {
+                    final T result = timeout == 0 ? future.get() : future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (result != null && merger.merge(result) && i < futures.size() - 1) {
+                        skipped = true;
+                    }
+                } catch (TimeoutException e) {
+                    future.cancel(false);
+                    log.info("Back end " + apis[i].getClass().getSimpleName() + " did not respond within " + timeout + " ms during a search.");
+                    merger.unavailable();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof UnsupportedOperationException) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Trouble during back end invocation: " + cause.getMessage());
+                        }
+                        // Just try next implementation
+                    } else if (cause instanceof RaMasterBackendUnavailableException) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Timeout during back end invocation.", cause);
+                        }
+                        merger.unavailable();
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            merger.unavailable();
+        } finally {
+            for (final Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return skipped;
+    }
+
     // Use in tests only!
     @Override
     public void deferLocalForTest() {
@@ -807,15 +958,11 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRequestsSearchResponse searchForApprovalRequests(AuthenticationToken authenticationToken,
             RaRequestsSearchRequest raRequestsSearchRequest) {
         final RaRequestsSearchResponse searchResponse = new RaRequestsSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    searchResponse.merge(raMasterApi.searchForApprovalRequests(authenticationToken, raRequestsSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
-        }
+        invokeBackends(raMasterApisLocalFirst, raMasterApi -> raMasterApi.searchForApprovalRequests(authenticationToken, raRequestsSearchRequest),
+                result -> {
+                    searchResponse.merge(result);
+                    return false;
+                });
         return searchResponse;
     }
 
@@ -930,23 +1077,22 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaCertificateSearchResponse searchForCertificates(AuthenticationToken authenticationToken,
             RaCertificateSearchRequest raCertificateSearchRequest) {
         final RaCertificateSearchResponse ret = new RaCertificateSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForCertificates(authenticationToken, raCertificateSearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
+        final boolean skipped = invokeBackends(raMasterApisLocalFirst,
+                raMasterApi -> raMasterApi.searchForCertificates(authenticationToken, raCertificateSearchRequest),
+                new BackendResultMerger<RaCertificateSearchResponse>() {
+                    @Override
+                    public boolean merge(final RaCertificateSearchResponse result) {
+                        ret.merge(result);
+                        return ret.getCdws().size() >= raCertificateSearchRequest.getMaxResults();
                     }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
+                    @Override
+                    public void unavailable() {
+                        // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+                        ret.setMightHaveMoreResults(true);
                     }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    ret.setMightHaveMoreResults(true);
-                }
-            }
+                });
+        if (skipped) {
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -955,21 +1101,14 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaCertificateSearchResponseV2 searchForCertificatesV2(AuthenticationToken authenticationToken,
             RaCertificateSearchRequestV2 raCertificateSearchRequest) {
         final RaCertificateSearchResponseV2 ret = new RaCertificateSearchResponseV2();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForCertificatesV2(authenticationToken, raCertificateSearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
-                    }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
-                    }
-                }
-            }
+        // Pages are sorted over the results of all back ends, so every back end is needed
+        invokeBackends(raMasterApisLocalFirst, raMasterApi -> raMasterApi.searchForCertificatesV2(authenticationToken, raCertificateSearchRequest),
+                result -> {
+                    ret.merge(result);
+                    return false;
+                });
+        if (raCertificateSearchRequest.isKeysetPagination() && raCertificateSearchRequest.getPageNumber() != -1) {
+            ret.limitToKeysetPage(raCertificateSearchRequest);
         }
         return ret;
     }
@@ -987,15 +1126,11 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRoleSearchResponse searchForRoles(AuthenticationToken authenticationToken,
             RaRoleSearchRequest raRoleSearchRequest) {
         final RaRoleSearchResponse ret = new RaRoleSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    ret.merge(raMasterApi.searchForRoles(authenticationToken, raRoleSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
-        }
+        invokeBackends(raMasterApisLocalFirst, raMasterApi -> raMasterApi.getApiVersion() >= 1 ? raMasterApi.searchForRoles(authenticationToken, raRoleSearchRequest) : null,
+                result -> {
+                    ret.merge(result);
+                    return false;
+                });
         return ret;
     }
 
@@ -1003,15 +1138,11 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRoleMemberSearchResponse searchForRoleMembers(AuthenticationToken authenticationToken,
             RaRoleMemberSearchRequest raRoleMemberSearchRequest) {
         final RaRoleMemberSearchResponse ret = new RaRoleMemberSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    ret.merge(raMasterApi.searchForRoleMembers(authenticationToken, raRoleMemberSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
-        }
+        invokeBackends(raMasterApisLocalFirst, raMasterApi -> raMasterApi.getApiVersion() >= 1 ? raMasterApi.searchForRoleMembers(authenticationToken, raRoleMemberSearchRequest) : null,
+                result -> {
+                    ret.merge(result);
+                    return false;
+                });
         return ret;
     }
 
@@ -1019,23 +1150,22 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaEndEntitySearchResponse searchForEndEntities(AuthenticationToken authenticationToken,
             RaEndEntitySearchRequest raEndEntitySearchRequest) {
         final RaEndEntitySearchResponse ret = new RaEndEntitySearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForEndEntities(authenticationToken, raEndEntitySearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
+        final boolean skipped = invokeBackends(raMasterApisLocalFirst,
+                raMasterApi -> raMasterApi.searchForEndEntities(authenticationToken, raEndEntitySearchRequest),
+                new BackendResultMerger<RaEndEntitySearchResponse>() {
+                    @Override
+                    public boolean merge(final RaEndEntitySearchResponse result) {
+                        ret.merge(result);
+                        return ret.getEndEntities().size() >= raEndEntitySearchRequest.getMaxResults();
                     }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
+                    @Override
+                    public void unavailable() {
+                        // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+                        ret.setMightHaveMoreResults(true);
                     }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    ret.setMightHaveMoreResults(true);
-                }
-            }
+                });
+        if (skipped) {
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -1044,26 +1174,22 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaEndEntitySearchResponseV2 searchForEndEntitiesV2(AuthenticationToken authenticationToken, 
             RaEndEntitySearchRequestV2 raEndEntitySearchRequestV2) {
         final RaEndEntitySearchResponseV2 retMerged = new RaEndEntitySearchResponseV2();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 14) {
-                try {
-                    RaEndEntitySearchResponseV2 retNode = raMasterApi.searchForEndEntitiesV2(authenticationToken, raEndEntitySearchRequestV2);
-                    retMerged.merge(retNode);
-                    retMerged.setSearchSummary(retNode.getSearchSummary());
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
+        // The merged results are sorted, so every back end is needed
+        invokeBackends(raMasterApisLocalFirst,
+                raMasterApi -> raMasterApi.getApiVersion() >= 14 ? raMasterApi.searchForEndEntitiesV2(authenticationToken, raEndEntitySearchRequestV2) : null,
+                new BackendResultMerger<RaEndEntitySearchResponseV2>() {
+                    @Override
+                    public boolean merge(final RaEndEntitySearchResponseV2 retNode) {
+                        retMerged.merge(retNode);
+                        retMerged.setSearchSummary(retNode.getSearchSummary());
+                        return false;
                     }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
+                    @Override
+                    public void unavailable() {
+                        // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+                        retMerged.setMightHaveMoreResults(true);
                     }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    retMerged.setMightHaveMoreResults(true);
-                }
-            }
-        }
+                });
         retMerged.sortMergedMembers();
         return retMerged;
     }
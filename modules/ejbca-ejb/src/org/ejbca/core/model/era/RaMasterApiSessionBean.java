@@ -109,6 +109,9 @@ import org.cesecore.roles.management.RoleSessionLocal;
 import org.cesecore.roles.member.RoleMember;
 import org.cesecore.roles.member.RoleMemberData;
 import org.cesecore.roles.member.RoleMemberSessionLocal;
+import org.cesecore.searchindex.SearchIndexData;
+import org.cesecore.searchindex.SearchIndexSessionLocal;
+import org.cesecore.searchindex.SearchIndexTokens;
 import org.cesecore.util.LogRedactionUtils;
 import org.cesecore.util.ValidityDate;
 import org.cesecore.util.ValueExtractor;
@@ -325,6 +328,8 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
     @EJB
     private RoleSessionLocal roleSession;
     @EJB
+    private SearchIndexSessionLocal searchIndexSession;
+    @EJB
     private RoleMemberSessionLocal roleMemberSession;
     @EJB
     private KeyValidatorSessionLocal keyValidatorSession;
@@ -1301,14 +1306,34 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                                                                        final Collection<Integer> authorizedEepIds, final boolean accessAnyEepAvailable) {
         final RaCertificateSearchResponseV2 response = new RaCertificateSearchResponseV2();
         final boolean countOnly = request.getPageNumber() == -1;
-        final Query query = createQuery(request, countOnly, issuerDns, authorizedCpIds, accessAnyCpAvailable, authorizedEepIds, accessAnyEepAvailable);
+        final boolean keysetPagination = !countOnly && request.isKeysetPagination();
+        RaCertificateSearchContinuation continuation = null;
+        if (keysetPagination && !request.getContinuationToken().isEmpty()) {
+            try {
+                continuation = RaCertificateSearchContinuation.decode(request.getContinuationToken());
+            } catch (IllegalArgumentException e) {
+                log.info("Requested search query by " + authenticationToken + " has an invalid continuation token. " + e.getMessage());
+                response.setStatus(RaCertificateSearchResponseV2.Status.ERROR);
+                return response;
+            }
+            if (!continuation.matches(request)) {
+                log.info("Requested search query by " + authenticationToken + " has a continuation token for another order of the results.");
+                response.setStatus(RaCertificateSearchResponseV2.Status.ERROR);
+                return response;
+            }
+        }
+        final Query query = createQuery(request, countOnly, keysetPagination, continuation, issuerDns, authorizedCpIds, accessAnyCpAvailable,
+                authorizedEepIds, accessAnyEepAvailable);
         int maxResults = -1;
         int offset = -1;
         if (!countOnly) {
             maxResults = Math.min(getGlobalCesecoreConfiguration().getMaximumQueryCount(), request.getMaxResults());
-            offset = (request.getPageNumber() - 1) * maxResults;
             query.setMaxResults(maxResults);
-            query.setFirstResult(offset);
+            // With keyset pagination, the query starts after the last result of the previous page instead
+            if (!keysetPagination) {
+                offset = (request.getPageNumber() - 1) * maxResults;
+                query.setFirstResult(offset);
+            }
         }
 
         /* Try to use the non-portable hint (depends on DB and JDBC driver) to specify how long in milliseconds the query may run. Possible behaviors:
@@ -1330,9 +1355,17 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 }
             } else {
                 final List<?> resultList = query.getResultList();
+                CertificateDataWrapper last = null;
                 for (final Object fingerprintRecord : resultList) {
                     final String fingerprint = ValueExtractor.extractStringValue(fingerprintRecord);
-                    response.getCdws().add(certificateStoreSession.getCertificateData(fingerprint));
+                    final CertificateDataWrapper cdw = certificateStoreSession.getCertificateData(fingerprint);
+                    response.getCdws().add(cdw);
+                    if (cdw != null) {
+                        last = cdw;
+                    }
+                }
+                if (keysetPagination && resultList.size() == maxResults && last != null) {
+                    response.setContinuationToken(RaCertificateSearchContinuation.after(request, last.getCertificateData()).encode());
                 }
                 response.setStatus(RaCertificateSearchResponseV2.Status.SUCCESSFUL);
                 if (log.isDebugEnabled()) {
@@ -1365,6 +1398,8 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
 
     private Query createQuery(final RaCertificateSearchRequestV2 request,
                               final boolean countOnly,
+                              final boolean keysetPagination,
+                              final RaCertificateSearchContinuation continuation,
                               final List<String> issuerDns,
                               final List<Integer> authorizedCpIds,
                               final boolean accessAnyCpAvailable,
@@ -1376,6 +1411,14 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         final String externalAccountIdSearchString = request.getExternalAccountIdSearchString();
         final String serialNumberSearchStringFromDec = request.getSerialNumberSearchStringFromDec();
         final String serialNumberSearchStringFromHex = request.getSerialNumberSearchStringFromHex();
+        // Substring searches use the search index to find their candidates, if it is available
+        final boolean searchIndexAvailable = (!request.isSubjectDnSearchExact() && StringUtils.isNotEmpty(subjectDnSearchString))
+                || (!request.isSubjectAnSearchExact() && StringUtils.isNotEmpty(subjectAnSearchString))
+                || (!request.isUsernameSearchExact() && StringUtils.isNotEmpty(usernameSearchString))
+                ? searchIndexSession.isSearchable(SearchIndexData.BACKFILL_CERTIFICATES) : false;
+        final List<String> subjectDnTokens = getSearchIndexTokens(subjectDnSearchString, request.isSubjectDnSearchExact(), searchIndexAvailable);
+        final List<String> subjectAnTokens = getSearchIndexTokens(subjectAnSearchString, request.isSubjectAnSearchExact(), searchIndexAvailable);
+        final List<String> usernameTokens = getSearchIndexTokens(usernameSearchString, request.isUsernameSearchExact(), searchIndexAvailable);
         final StringBuilder sb = new StringBuilder("SELECT ");
         if (countOnly) {
             sb.append("count(*)");
@@ -1389,7 +1432,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             sb.append(" INNER JOIN (");
             boolean firstAppended = false;
             if (StringUtils.isNotEmpty(subjectDnSearchString)) {
-                sb.append("SELECT fingerprint FROM CertificateData WHERE UPPER(subjectDN) LIKE :subjectDN");
+                sb.append("SELECT fingerprint FROM CertificateData WHERE ");
+                appendSearchIndexCondition(sb, "fingerprint", SearchIndexData.TYPE_CERTIFICATE_SUBJECT_DN, "subjectDNTokens", subjectDnTokens);
+                sb.append("UPPER(subjectDN) LIKE :subjectDN");
                 firstAppended = true;
             }
             if (StringUtils.isNotEmpty(subjectAnSearchString)) {
@@ -1398,7 +1443,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 } else {
                     firstAppended = true;
                 }
-                sb.append("SELECT fingerprint FROM CertificateData WHERE subjectAltName LIKE :subjectAltName");
+                sb.append("SELECT fingerprint FROM CertificateData WHERE ");
+                appendSearchIndexCondition(sb, "fingerprint", SearchIndexData.TYPE_CERTIFICATE_SUBJECT_ALT_NAME, "subjectAltNameTokens", subjectAnTokens);
+                sb.append("subjectAltName LIKE :subjectAltName");
             }
             if (StringUtils.isNotEmpty(usernameSearchString)) {
                 if (firstAppended) {
@@ -1406,7 +1453,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 } else {
                     firstAppended = true;
                 }
-                sb.append("SELECT fingerprint FROM CertificateData WHERE UPPER(username) LIKE :username");
+                sb.append("SELECT fingerprint FROM CertificateData WHERE ");
+                appendSearchIndexCondition(sb, "fingerprint", SearchIndexData.TYPE_CERTIFICATE_USERNAME, "usernameTokens", usernameTokens);
+                sb.append("UPPER(username) LIKE :username");
             }
             if (StringUtils.isNotEmpty(serialNumberSearchStringFromDec)) {
                 if (firstAppended) {
@@ -1476,9 +1525,20 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             sb.append(" AND (a.endEntityProfileId IN (:endEntityProfileId))");
         }
 
+        // Keyset pagination orders by a date column and the fingerprint, and continues after the last result of the previous page
+        final String keysetColumn = keysetPagination ? getKeysetColumn(request) : null;
+        final String keysetOperator = RaCertificateSearchContinuation.isDescending(request) ? "<" : ">";
+        if (continuation != null) {
+            sb.append(" AND (").append(keysetColumn).append(" ").append(keysetOperator).append(" :keysetValue OR (").append(keysetColumn)
+                    .append(" = :keysetValue AND a.fingerprint ").append(keysetOperator).append(" :keysetFingerprint))");
+        }
+
         String orderProperty = request.getOrderProperty();
         String orderOperation = request.getOrderOperation();
-        if (!countOnly && StringUtils.isNotBlank(orderProperty) && StringUtils.isNotBlank(orderOperation)) {
+        if (keysetPagination) {
+            final String keysetDirection = RaCertificateSearchContinuation.isDescending(request) ? "DESC" : "ASC";
+            sb.append(" ORDER BY ").append(keysetColumn).append(" ").append(keysetDirection).append(", a.fingerprint ").append(keysetDirection);
+        } else if (!countOnly && StringUtils.isNotBlank(orderProperty) && StringUtils.isNotBlank(orderOperation)) {
             orderOperation = orderOperation.trim();
             if("ASC".equalsIgnoreCase(orderOperation) || "DESC".equalsIgnoreCase(orderOperation)) {
                 orderProperty = mapOrderColumn(orderProperty);
@@ -1517,6 +1577,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("subjectDN", "%" + subjectDnSearchString.toUpperCase() + "%");
             }
+            setSearchIndexParameter(query, "subjectDNTokens", subjectDnTokens);
         }
         if (StringUtils.isNotEmpty(subjectAnSearchString)) {
             if (request.isSubjectAnSearchExact()) {
@@ -1524,6 +1585,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("subjectAltName", "%" + subjectAnSearchString + "%");
             }
+            setSearchIndexParameter(query, "subjectAltNameTokens", subjectAnTokens);
         }
         if (StringUtils.isNotEmpty(usernameSearchString)) {
             if (request.isUsernameSearchExact()) {
@@ -1531,6 +1593,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("username", "%" + usernameSearchString.toUpperCase() + "%");
             }
+            setSearchIndexParameter(query, "usernameTokens", usernameTokens);
         }
         if (StringUtils.isNotEmpty(serialNumberSearchStringFromDec)) {
             query.setParameter("serialNumberDec", serialNumberSearchStringFromDec);
@@ -1575,6 +1638,10 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         if (request.isUpdatedBeforeUsed()) {
             query.setParameter("updatedBefore", request.getUpdatedBefore());
         }
+        if (continuation != null) {
+            query.setParameter("keysetValue", continuation.getValue());
+            query.setParameter("keysetFingerprint", continuation.getFingerprint());
+        }
         if (!request.getStatuses().isEmpty()) {
             query.setParameter("status", request.getStatuses());
             if ((request.getStatuses().contains(CertificateConstants.CERT_REVOKED) || request.getStatuses().contains(CertificateConstants.CERT_ARCHIVED)) &&
@@ -1585,6 +1652,50 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         return query;
     }
 
+    /**
+     * @param searchString the search string, or null
+     * @param exact true if the search is for an exact match
+     * @param searchIndexAvailable true if the search index can be used
+     * @return the tokens to find the candidates of a substring search in the search index, or an empty list if all rows must be searched
+     */
+    private List<String> getSearchIndexTokens(final String searchString, final boolean exact, final boolean searchIndexAvailable) {
+        if (!searchIndexAvailable || exact || StringUtils.isEmpty(searchString)) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(SearchIndexTokens.getSearchTokens(searchString));
+    }
+
+    /**
+     * Appends a condition that limits a substring search to the rows that have all tokens of the search string in the search index,
+     * followed by AND. The condition is valid both in JPQL and native SQL. Nothing is appended if there are no tokens.
+     */
+    private void appendSearchIndexCondition(final StringBuilder sb, final String keyColumn, final int indexType, final String parameterName,
+            final List<String> tokens) {
+        if (!tokens.isEmpty()) {
+            sb.append(keyColumn).append(" IN (SELECT s.sourceKey FROM SearchIndexData s WHERE s.indexType=").append(indexType)
+                    .append(" AND s.token IN (:").append(parameterName).append(") GROUP BY s.sourceKey HAVING COUNT(DISTINCT s.token)=")
+                    .append(tokens.size()).append(") AND ");
+        }
+    }
+
+    private void setSearchIndexParameter(final Query query, final String parameterName, final List<String> tokens) {
+        if (!tokens.isEmpty()) {
+            query.setParameter(parameterName, tokens);
+        }
+    }
+
+    /**
+     * @return the expression that keyset pagination orders and compares by. Rows without update time (NULL) are ordered as 0, the
+     * same value as used in the continuation token, so they are paged like any other row.
+     */
+    private String getKeysetColumn(final RaCertificateSearchRequestV2 request) {
+        final String orderProperty = RaCertificateSearchContinuation.getOrderProperty(request);
+        if (RaCertificateSearchContinuation.ORDER_UPDATE_TIME.equals(orderProperty)) {
+            return "COALESCE(a.updateTime, 0)";
+        }
+        return "a." + mapOrderColumn(orderProperty);
+    }
+
     private final String mapOrderColumn(final String property) {
         if (property != null) {
             switch (property.trim()) {
@@ -1721,12 +1832,22 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         final String subjectDnSearchString = request.getSubjectDnSearchString();
         final String subjectAnSearchString = request.getSubjectAnSearchString();
         final String usernameSearchString = request.getUsernameSearchString();
+        // Substring searches use the search index to find their candidates, if it is available
+        final boolean searchIndexAvailable = (!request.isSubjectDnSearchExact() && !subjectDnSearchString.isEmpty())
+                || (!request.isSubjectAnSearchExact() && !subjectAnSearchString.isEmpty())
+                || (!request.isUsernameSearchExact() && !usernameSearchString.isEmpty())
+                ? searchIndexSession.isSearchable(SearchIndexData.BACKFILL_END_ENTITIES) : false;
+        final List<String> subjectDnTokens = getSearchIndexTokens(subjectDnSearchString, request.isSubjectDnSearchExact(), searchIndexAvailable);
+        final List<String> subjectAnTokens = getSearchIndexTokens(subjectAnSearchString, request.isSubjectAnSearchExact(), searchIndexAvailable);
+        final List<String> usernameTokens = getSearchIndexTokens(usernameSearchString, request.isUsernameSearchExact(), searchIndexAvailable);
         final StringBuilder sb = new StringBuilder("SELECT a.username FROM UserData a WHERE (a.caId IN (:caId))");
         if (!subjectDnSearchString.isEmpty() || !subjectAnSearchString.isEmpty() || !usernameSearchString.isEmpty()) {
             sb.append(" AND (");
             boolean firstAppended = false;
             if (!subjectDnSearchString.isEmpty()) {
-                sb.append("UPPER(a.subjectDN) LIKE :subjectDN");
+                sb.append("(");
+                appendSearchIndexCondition(sb, "a.username", SearchIndexData.TYPE_END_ENTITY_SUBJECT_DN, "subjectDNTokens", subjectDnTokens);
+                sb.append("UPPER(a.subjectDN) LIKE :subjectDN)");
                 firstAppended = true;
             }
             if (!subjectAnSearchString.isEmpty()) {
@@ -1735,13 +1856,17 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 } else {
                     firstAppended = true;
                 }
-                sb.append("a.subjectAltName LIKE :subjectAltName");
+                sb.append("(");
+                appendSearchIndexCondition(sb, "a.username", SearchIndexData.TYPE_END_ENTITY_SUBJECT_ALT_NAME, "subjectAltNameTokens", subjectAnTokens);
+                sb.append("a.subjectAltName LIKE :subjectAltName)");
             }
             if (!usernameSearchString.isEmpty()) {
                 if (firstAppended) {
                     sb.append(" OR ");
                 }
-                sb.append("UPPER(a.username) LIKE :username");
+                sb.append("(");
+                appendSearchIndexCondition(sb, "a.username", SearchIndexData.TYPE_END_ENTITY_USERNAME, "usernameTokens", usernameTokens);
+                sb.append("UPPER(a.username) LIKE :username)");
             }
             sb.append(")");
         }
@@ -1793,6 +1918,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("subjectDN", "%" + subjectDnSearchString.toUpperCase() + "%");
             }
+            setSearchIndexParameter(query, "subjectDNTokens", subjectDnTokens);
         }
         if (!subjectAnSearchString.isEmpty()) {
             if (request.isSubjectAnSearchExact()) {
@@ -1800,6 +1926,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("subjectAltName", "%" + subjectAnSearchString + "%");
             }
+            setSearchIndexParameter(query, "subjectAltNameTokens", subjectAnTokens);
         }
         if (!usernameSearchString.isEmpty()) {
             if (request.isUsernameSearchExact()) {
@@ -1807,6 +1934,7 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             } else {
                 query.setParameter("username", "%" + usernameSearchString.toUpperCase() + "%");
             }
+            setSearchIndexParameter(query, "usernameTokens", usernameTokens);
         }
         if (request.isModifiedAfterUsed()) {
             query.setParameter("modifiedAfter", request.getModifiedAfter());
@@ -15,12 +15,14 @@ package org.ejbca.ui.web.rest.api.io.response;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +37,8 @@ import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.certificates.util.dn.DNFieldsUtil;
+import org.ejbca.core.model.era.RaCertificateSearchContinuation;
+import org.ejbca.core.model.era.RaCertificateSearchRequestV2;
 import org.ejbca.core.model.era.RaCertificateSearchResponseV2;
 import org.ejbca.ui.web.rest.api.helpers.CaInfoBuilder;
 import org.ejbca.ui.web.rest.api.io.request.Pagination;
@@ -158,6 +162,107 @@ public class SearchCertificatesRestResponseV2UnitTest {
         assertTrue("Certificates list is not empty.", certificates.isEmpty());
     }
     
+    @Test
+    public void testConvertRaCertificateSearchResponseWithContinuationToken() throws CertificateEncodingException, CertificateParsingException {
+
+        // given
+        final List<CertificateDataWrapper> list = Collections.singletonList(new CertificateDataWrapper(certificate, cd, null));
+        final RaCertificateSearchResponseV2 raResponse = new RaCertificateSearchResponseV2();
+        raResponse.setCdws(list);
+        raResponse.setContinuationToken("next");
+        final Pagination pagination = new Pagination(1, 0);
+        pagination.setContinuationToken("");
+
+        // when
+        final SearchCertificatesRestResponseV2 restResponse =
+                SearchCertificatesRestResponseV2.converter().toRestResponse(raResponse, pagination, availableEndEntityProfiles, availableCertificateProfiles);
+
+        // then
+        final PaginationSummary summary = restResponse.getPaginationSummary();
+        assertNotNull("PaginationSummary must not be null.", summary);
+        assertEquals("Continuation token does not match.", "next", summary.getContinuationToken());
+        assertNull("Total count should not be computed with keyset pagination.", summary.getTotalCerts());
+        assertCertificateResultList(restResponse);
+    }
+
+    @Test
+    public void testMergeKeysetPages() {
+        final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+        request.setMaxResults(2);
+        request.setContinuationToken("");
+        // One back end has more results after its second certificate, the other one has no more results
+        final RaCertificateSearchResponseV2 search1 = createKeysetPage(request, true, createCdw("a", 10L), createCdw("d", 40L));
+        final RaCertificateSearchResponseV2 search2 = createKeysetPage(request, false, createCdw("c", 30L), createCdw("b", 50L));
+        search1.merge(search2);
+        search1.limitToKeysetPage(request);
+        assertEquals("Merged page should be sorted and limited to the page size.", Arrays.asList("a", "c"), getFingerprints(search1));
+        final RaCertificateSearchContinuation continuation = RaCertificateSearchContinuation.decode(search1.getContinuationToken());
+        assertEquals("Next page should start after the last certificate of the merged page.", "c", continuation.getFingerprint());
+        assertEquals(30L, continuation.getValue());
+        // A certificate after the continuation token of another back end must wait for the next page
+        final RaCertificateSearchResponseV2 search3 = createKeysetPage(request, true, createCdw("e", 60L), createCdw("f", 62L));
+        final RaCertificateSearchResponseV2 search4 = createKeysetPage(request, false, createCdw("g", 65L));
+        search4.merge(search3);
+        search4.limitToKeysetPage(request);
+        assertEquals(Arrays.asList("e", "f"), getFingerprints(search4));
+        assertEquals("f", RaCertificateSearchContinuation.decode(search4.getContinuationToken()).getFingerprint());
+        final RaCertificateSearchResponseV2 search5 = createKeysetPage(request, false, createCdw("h", 80L));
+        search5.limitToKeysetPage(request);
+        assertNull("There should be no continuation token after the last page.", search5.getContinuationToken());
+    }
+
+    @Test
+    public void testKeysetPageSkipsEarlierRows() {
+        final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+        request.setMaxResults(2);
+        request.setContinuationToken("");
+        // Certificates without update time are ordered as if the update time was 0 when ordering by update time
+        final CertificateDataWrapper withoutUpdateTime = createCdw("0", 0L);
+        final RaCertificateSearchResponseV2 firstPage = createKeysetPage(request, false, withoutUpdateTime, createCdw("a", 10L), createCdw("b", 20L),
+                createCdw("c", 20L));
+        firstPage.limitToKeysetPage(request);
+        assertEquals("Certificate without update time should be first.", Arrays.asList("0", "a"), getFingerprints(firstPage));
+        assertEquals("a", RaCertificateSearchContinuation.decode(firstPage.getContinuationToken()).getFingerprint());
+        // Rows at or before the continuation token of the request belong to earlier pages
+        request.setContinuationToken(firstPage.getContinuationToken());
+        final RaCertificateSearchResponseV2 secondPage = createKeysetPage(request, false, createCdw("0", 0L), createCdw("a", 10L), createCdw("b", 20L),
+                createCdw("c", 20L), createCdw("d", 30L));
+        secondPage.limitToKeysetPage(request);
+        assertEquals("Rows of the previous page should not be repeated.", Arrays.asList("b", "c"), getFingerprints(secondPage));
+        // A token for another order is rejected by the back ends, and is not used to filter the results
+        request.setOrderProperty(RaCertificateSearchContinuation.ORDER_EXPIRE_DATE);
+        final RaCertificateSearchResponseV2 otherOrder = createKeysetPage(request, false, createCdw("a", 10L));
+        otherOrder.limitToKeysetPage(request);
+        assertEquals(Arrays.asList("a"), getFingerprints(otherOrder));
+        assertNull(otherOrder.getContinuationToken());
+    }
+
+    private static RaCertificateSearchResponseV2 createKeysetPage(final RaCertificateSearchRequestV2 request, final boolean moreResults,
+            final CertificateDataWrapper... cdws) {
+        final RaCertificateSearchResponseV2 ret = new RaCertificateSearchResponseV2();
+        ret.setStatus(RaCertificateSearchResponseV2.Status.SUCCESSFUL);
+        ret.setCdws(new ArrayList<>(Arrays.asList(cdws)));
+        if (moreResults) {
+            ret.setContinuationToken(RaCertificateSearchContinuation.after(request, cdws[cdws.length - 1].getCertificateData()).encode());
+        }
+        return ret;
+    }
+
+    private static CertificateDataWrapper createCdw(final String fingerprint, final long updateTime) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint(fingerprint);
+        certificateData.setUpdateTime(updateTime);
+        return new CertificateDataWrapper(certificateData, null);
+    }
+
+    private static List<String> getFingerprints(final RaCertificateSearchResponseV2 response) {
+        final List<String> ret = new ArrayList<>();
+        for (final CertificateDataWrapper cdw : response.getCdws()) {
+            ret.add(cdw.getCertificateData().getFingerprint());
+        }
+        return ret;
+    }
+
     private final void assertPaginationSummary(final SearchCertificatesRestResponseV2 response, final int listSize) {
         final PaginationSummary summary = response.getPaginationSummary();
         assertNotNull("PaginationSummary must not be null.", summary); 
@@ -18,9 +18,9 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.swagger.annotations.ApiModelProperty;
 
 /**
- * A class representing pagination parameters with a page size and a current page.
+ * A class representing pagination parameters with a page size and a current page, or a continuation token for keyset pagination.
  */
-@JsonPropertyOrder({ "page_size", "current_page" })
+@JsonPropertyOrder({ "page_size", "current_page", "continuation_token" })
 public class Pagination {
 
     @ApiModelProperty(value = "Number of results per page", example = "10")
@@ -33,6 +33,13 @@ public class Pagination {
     @JsonProperty("current_page")
     private int currentPage;
 
+    @ApiModelProperty(value = "Continuation token from the previous page, or an empty string for the first page, for keyset pagination "
+            + "instead of page numbers. Results are then ordered by UPDATE_TIME or EXPIRE_DATE, and deep pages are as fast as the first one.",
+            example = "")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("continuation_token")
+    private String continuationToken;
+
     public Pagination() {
         super();
     }
@@ -58,5 +65,13 @@ public class Pagination {
     public void setCurrentPage(final int currentPage) {
         this.currentPage = currentPage;
     }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(final String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
         
 }
@@ -19,7 +19,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 /**
  * JSON output for pagination summary.
  */
-@JsonPropertyOrder({ "page_size", "current_page", "total_certs" })
+@JsonPropertyOrder({ "page_size", "current_page", "total_certs", "continuation_token" })
 public class PaginationSummary {
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -34,6 +34,10 @@ public class PaginationSummary {
     @JsonProperty("current_page")
     private Integer currentPage;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("continuation_token")
+    private String continuationToken;
+
     public PaginationSummary() {
         super();
     }
@@ -73,6 +77,15 @@ public class PaginationSummary {
         this.currentPage = currentPage;
     }
 
+    /** @return token for the next page with keyset pagination, or null if there are no more results */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(final String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
 //    /**
 //     * Returns the number of pages starting at 1 or null if totalCerts is null.
 //     * 
@@ -19,6 +19,7 @@ import javax.validation.Valid;
 import javax.ws.rs.core.Response;
 
 import org.cesecore.certificates.certificate.CertificateConstants;
+import org.ejbca.core.model.era.RaCertificateSearchContinuation;
 import org.ejbca.core.model.era.RaCertificateSearchRequestV2;
 import org.ejbca.ui.web.rest.api.exception.RestException;
 import org.ejbca.ui.web.rest.api.validator.ValidSearchCertificateCriteriaRestRequestList;
@@ -152,6 +153,24 @@ public class SearchCertificatesRestRequestV2 implements SearchCertificateCriteri
                 raRequest.setOrderProperty(orderBy.getProperty());
                 raRequest.setOrderOperation(orderBy.getOperation());
             }
+            if (pagination != null && pagination.getContinuationToken() != null) {
+                // Keyset pagination, where the page number is not used
+                if (!RaCertificateSearchContinuation.isSupportedOrderProperty(raRequest.getOrderProperty())) {
+                    throw new RestException(Response.Status.BAD_REQUEST.getStatusCode(), "Continuation tokens can only be used when sorting by "
+                            + RaCertificateSearchContinuation.ORDER_UPDATE_TIME + " or " + RaCertificateSearchContinuation.ORDER_EXPIRE_DATE + ".");
+                }
+                if (!pagination.getContinuationToken().isEmpty()) {
+                    try {
+                        if (!RaCertificateSearchContinuation.decode(pagination.getContinuationToken()).matches(raRequest)) {
+                            throw new RestException(Response.Status.BAD_REQUEST.getStatusCode(), "Continuation token is for another sort order.");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        throw new RestException(Response.Status.BAD_REQUEST.getStatusCode(), "Malformed continuation token.");
+                    }
+                }
+                raRequest.setPageNumber(1);
+                raRequest.setContinuationToken(pagination.getContinuationToken());
+            }
             raRequest.setEepIds(new ArrayList<>());
             raRequest.setCpIds(new ArrayList<>());
             raRequest.setCaIds(new ArrayList<>());
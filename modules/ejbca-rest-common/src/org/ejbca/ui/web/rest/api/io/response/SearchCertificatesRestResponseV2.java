@@ -117,7 +117,10 @@ public class SearchCertificatesRestResponseV2 {
             final int count = raCertificateSearchResponse.getCdws().size();
             
             final PaginationSummary summary;
-            if (pagination != null) {
+            if (pagination != null && pagination.getContinuationToken() != null) {
+                summary = new PaginationSummary(pagination.getPageSize(), null);
+                summary.setContinuationToken(raCertificateSearchResponse.getContinuationToken());
+            } else if (pagination != null) {
                 final int pageSize = pagination.getPageSize();
                 final int currentPage = pagination.getCurrentPage();
                 summary = new PaginationSummary(pageSize, currentPage);
@@ -36,6 +36,7 @@ import org.ejbca.ui.web.rest.api.io.request.Pagination;
  *     <li>Not null;</li>
  *     <li>Not less than 1</li>
  * </ul>
+ * The current page is not used with keyset pagination, where a continuation token is given instead.
  */
 @Target({TYPE, FIELD, PARAMETER})
 @Retention(RUNTIME)
@@ -57,7 +58,7 @@ public @interface ValidSearchCertificatePagination {
 
         @Override
         public boolean isValid(final Pagination value, final ConstraintValidatorContext constraintValidatorContext) {
-            if(value != null && (value.getCurrentPage() < -1 || value.getCurrentPage() == 0)) {
+            if(value != null && value.getContinuationToken() == null && (value.getCurrentPage() < -1 || value.getCurrentPage() == 0)) {
                 ValidationHelper.addConstraintViolation(constraintValidatorContext, "{ValidSearchCertificatePaginationCurrentPage.invalid.overflow}");
                 return false;
             }
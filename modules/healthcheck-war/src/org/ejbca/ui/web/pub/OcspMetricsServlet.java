@@ -0,0 +1,64 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ocsp.metrics.OcspMetrics;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * <p>Servlet serving the request counts, latency histograms, cache hit counts and signing queue depth of the OCSP responder
+ * in the Prometheus text format, see {@link OcspMetrics}. The same metrics are available over JMX.</p>
+ *
+ * <p>Example of request and response:</p>
+ * <pre>
+ * curl -s http://localhost:8080/ejbca/publicweb/healthcheck/ocspmetrics
+ * # HELP ejbca_ocsp_requests_total Answered OCSP requests by response status.
+ * # TYPE ejbca_ocsp_requests_total counter
+ * ejbca_ocsp_requests_total{status="successful"} 4711
+ * ...
+ * </pre>
+ *
+ * <p>Authentication to the servlet is controlled by the property <code>healthcheck.authorizedips</code>.
+ *
+ * @version $Id$
+ */
+public class OcspMetricsServlet extends HttpServlet {
+    private static final Logger log = Logger.getLogger(OcspMetricsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+        if (!isAuthorized(request)) {
+            log.error("The IP " + request.getRemoteAddr() + " is not authorized.");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Requests from " + request.getRemoteAddr() + " are not authorized.");
+            return;
+        }
+        response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(OcspMetrics.INSTANCE.toPrometheusText());
+    }
+
+    private boolean isAuthorized(final HttpServletRequest request) {
+        final String[] authorizedIps = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
+        return ArrayUtils.contains(authorizedIps, "ANY") || ArrayUtils.contains(authorizedIps, request.getRemoteAddr());
+    }
+}
@@ -70,6 +70,7 @@ import org.cesecore.keys.token.CryptoTokenTestUtils;
 import org.cesecore.mock.authentication.tokens.TestAlwaysAllowLocalAuthenticationToken;
 import org.cesecore.util.EjbRemoteHelper;
 import org.ejbca.core.ejb.ca.sign.SignSessionRemote;
+import org.ejbca.core.ejb.config.ConfigurationSessionRemote;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -112,6 +113,7 @@ public class PublishingCrlSessionTest extends RoleUsingTestCase {
     private final PublishingCrlProxySessionRemote publishingCrlProxySession = EjbRemoteHelper.INSTANCE.getRemoteSession(
             PublishingCrlProxySessionRemote.class, EjbRemoteHelper.MODULE_TEST);
     private final InternalCertificateStoreSessionRemote internalCertificateStoreSession = EjbRemoteHelper.INSTANCE.getRemoteSession(InternalCertificateStoreSessionRemote.class, EjbRemoteHelper.MODULE_TEST);
+    private final ConfigurationSessionRemote configurationSession = EjbRemoteHelper.INSTANCE.getRemoteSession(ConfigurationSessionRemote.class, EjbRemoteHelper.MODULE_TEST);
     private final NoConflictCertificateStoreSessionRemote noConflictCertificateStoreSession = EjbRemoteHelper.INSTANCE.getRemoteSession(NoConflictCertificateStoreSessionRemote.class);
 
     private final AuthenticationToken alwaysAllowToken = new TestAlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSessionCRLTest"));
@@ -474,6 +476,36 @@ public class PublishingCrlSessionTest extends RoleUsingTestCase {
 
     }
 
+    /**
+     * Tests that a certificate revoked with a revocation date before the previous full CRL is included when the next full CRL is built incrementally.
+     */
+    @Test
+    public void testIncrementalCrlWithBackdatedRevocation() throws Exception {
+        final String incrementalGeneration = configurationSession.getCesecoreProperty("crlgen.incremental");
+        final X509Certificate cert = createCert();
+        try {
+            configurationSession.updateCesecoreProperty("crlgen.incremental", "true");
+            assertTrue(publishingCrlSessionRemote.forceCRL(roleMgmgToken, testx509ca.getCAId()));
+            X509CRL x509crl = CertTools.getCRLfromByteArray(getLastCrl(testx509ca.getSubjectDN(), false));
+            final Set<? extends X509CRLEntry> revokedBefore = x509crl.getRevokedCertificates();
+            assertTrue("Certificate should not be on the CRL before it is revoked.", revokedBefore == null || !isCertificatePresentInCrl(revokedBefore, cert));
+            // Revoke with a revocation date one day before the previous CRL
+            final Date backdated = new Date(x509crl.getThisUpdate().getTime() - 86400000L);
+            internalCertificateStoreSession.setRevokeStatus(roleMgmgToken, cert, backdated, null, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+            assertTrue(publishingCrlSessionRemote.forceCRL(roleMgmgToken, testx509ca.getCAId()));
+            x509crl = CertTools.getCRLfromByteArray(getLastCrl(testx509ca.getSubjectDN(), false));
+            assertNotNull("Incremental CRL should contain the backdated revocation.", x509crl.getRevokedCertificates());
+            assertTrue("Incremental CRL should contain the backdated revocation.", isCertificatePresentInCrl(x509crl.getRevokedCertificates(), cert));
+            // And it should stay on the following CRL
+            assertTrue(publishingCrlSessionRemote.forceCRL(roleMgmgToken, testx509ca.getCAId()));
+            x509crl = CertTools.getCRLfromByteArray(getLastCrl(testx509ca.getSubjectDN(), false));
+            assertTrue("Revoked certificate should be kept on the next incremental CRL.", isCertificatePresentInCrl(x509crl.getRevokedCertificates(), cert));
+        } finally {
+            configurationSession.updateCesecoreProperty("crlgen.incremental", incrementalGeneration == null ? "false" : incrementalGeneration);
+            internalCertificateStoreSession.removeCertificate(cert);
+        }
+    }
+
     /**
      * Test Overflow of CRL Period
      */
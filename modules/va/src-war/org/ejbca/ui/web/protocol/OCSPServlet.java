@@ -15,10 +15,19 @@ package org.ejbca.ui.web.protocol;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
 import org.cesecore.certificates.ocsp.cache.OcspConfigurationCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseFileTree;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
 import org.cesecore.certificates.ocsp.logging.GuidHolder;
@@ -37,10 +46,10 @@ import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspResponseInformation;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.ui.web.LimitLengthASN1Reader;
+import org.ejbca.ui.web.OcspRequestReader;
 import org.ejbca.util.HTMLTools;
 import org.ejbca.util.IPatternLogger;
 
-import com.keyfactor.util.Base64;
 import com.keyfactor.util.StringTools;
 import com.keyfactor.util.keys.token.CryptoTokenOfflineException;
 
@@ -51,7 +60,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.URLDecoder;
+import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.cert.X509Certificate;
 import java.util.Set;
@@ -75,6 +84,8 @@ public class OCSPServlet extends HttpServlet {
     private OcspKeyRenewalSessionLocal ocspKeyRenewalSession;
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
+    @EJB
+    private CertificateStoreSessionLocal certificateStoreSession;
 
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
@@ -249,9 +260,17 @@ public class OCSPServlet extends HttpServlet {
             OcspResponseInformation ocspResponseInformation = null;
             try {
                 byte[] requestBytes = checkAndGetRequestBytes(request, httpMethod);
-                X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
-                ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
-                        requestBytes, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, false, false, false);
+                // Reject malformed requests before they are parsed. Only requests for one certificate without signature or extensions
+                // can have an exported response.
+                final boolean isPlainSingleRequest = OcspRequestReader.checkRequest(requestBytes);
+                if (HttpMethod.GET.equals(httpMethod) && isPlainSingleRequest) {
+                    ocspResponseInformation = getExportedOcspResponse(requestBytes);
+                }
+                if (ocspResponseInformation == null) {
+                    X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+                    ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
+                            requestBytes, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, false, false, false);
+                }
             } catch (MalformedRequestException e) {
                 if (transactionLogger.isEnabled()) {
                     transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
@@ -331,6 +350,78 @@ public class OCSPServlet extends HttpServlet {
         }
     }
     
+    /**
+     * Looks up the response to an RFC 5019 GET request in the directory of exported responses, if ocsp.staticresponses.dir is configured.
+     * Like responses served by a web server or CDN from the same directory, these responses are not transaction or audit logged.
+     * 
+     * @param requestBytes the DER encoded OCSP request
+     * @return the exported response, or null if there is no exported response that is still valid
+     */
+    private OcspResponseInformation getExportedOcspResponse(final byte[] requestBytes) {
+        final String directory = OcspConfiguration.getStaticResponsesDirectory();
+        if (directory == null) {
+            return null;
+        }
+        final byte[] responseBytes = new OcspResponseFileTree(directory).getResponse(requestBytes);
+        if (responseBytes == null) {
+            return null;
+        }
+        try {
+            final OCSPResp ocspResp = new OCSPResp(responseBytes);
+            final OcspResponseInformation ocspResponseInformation = new OcspResponseInformation(ocspResp,
+                    OcspConfiguration.getMaxAge(CertificateProfileConstants.CERTPROFILE_NO_PROFILE), null);
+            if (!ocspResponseInformation.shouldAddCacheHeaders() || ocspResponseInformation.getNextUpdate() <= System.currentTimeMillis()) {
+                return null;
+            }
+            if (isGoodResponseOutdated(ocspResp)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Exported OCSP response in '" + directory + "' may be outdated. Using the OCSP responder instead.");
+                }
+                return null;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Returning exported OCSP response from '" + directory + "'.");
+            }
+            return ocspResponseInformation;
+        } catch (IOException | OCSPException e) {
+            log.info("Ignoring invalid exported OCSP response in '" + directory + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Exported responses are only replaced when the export service runs again, so a response saying good can be outdated if the
+     * certificate has been revoked since. The status is checked with the certificate status index when it is enabled
+     * (ocsp.statusindex.enabled), and with a database lookup otherwise, and the request is left to the OCSP responder unless the
+     * certificate is still good.
+     *
+     * @param ocspResp the exported response
+     * @return true if the response says good for a certificate that is not known to be good
+     */
+    private boolean isGoodResponseOutdated(final OCSPResp ocspResp) throws OCSPException {
+        if (!(ocspResp.getResponseObject() instanceof BasicOCSPResp)) {
+            return true;
+        }
+        for (final SingleResp singleResp : ((BasicOCSPResp) ocspResp.getResponseObject()).getResponses()) {
+            if (singleResp.getCertStatus() != org.bouncycastle.cert.ocsp.CertificateStatus.GOOD) {
+                continue;
+            }
+            final OcspSigningCacheEntry ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(singleResp.getCertID());
+            if (ocspSigningCacheEntry == null || !ocspSigningCacheEntry.getSignedBehalfOfCaIds().isEmpty()) {
+                // The issuer of the certificate is not known without a database lookup
+                return true;
+            }
+            final String issuerDn = ocspSigningCacheEntry.getIssuerCaCertificateSubjectDn();
+            final BigInteger serialNumber = singleResp.getCertID().getSerialNumber();
+            final CertificateStatus status = CertificateStatusIndex.INSTANCE.isEnabled() ? CertificateStatusIndex.INSTANCE.getStatus(issuerDn, serialNumber)
+                    : certificateStoreSession.getStatus(issuerDn, serialNumber);
+            if (!CertificateStatus.OK.equals(status)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void addOcspPostHeaders(HttpServletResponse response, OcspResponseInformation ocspResponseInformation) {
         
         if (!ocspResponseInformation.shouldAddCacheHeaders()) {
@@ -454,53 +545,34 @@ public class OCSPServlet extends HttpServlet {
         // we can not fully trust the sent content length.
         if (HttpMethod.POST.equals(httpMethod)) {
             final ServletInputStream in = request.getInputStream(); // ServletInputStream does not have to be closed, container handles this
-            LimitLengthASN1Reader limitLengthASN1Reader = new LimitLengthASN1Reader(in, n);
-            try {
-                ret = limitLengthASN1Reader.readFirstASN1Object();
-                if (n > ret.length) {
-                    // The client is sending more data than the OCSP request. It might be slightly broken or trying to bog down the server on purpose.
-                    // In the interest of not breaking existing systems that might have slightly broken clients we just log for a warning for now.
-                    String msg = intres.getLocalizedMessage("ocsp.additionaldata", ret.length, n);
-                    log.warn(msg);
-                }
-            } finally {
-                limitLengthASN1Reader.close();
+            ret = OcspRequestReader.readPostRequest(in, n);
+            if (n > ret.length) {
+                // The client is sending more data than the OCSP request. It might be slightly broken or trying to bog down the server on purpose.
+                // In the interest of not breaking existing systems that might have slightly broken clients we just log for a warning for now.
+                String msg = intres.getLocalizedMessage("ocsp.additionaldata", ret.length, n);
+                log.warn(msg);
             }
         } else if (HttpMethod.GET.equals(httpMethod)) {
             // GET request
             final String url = request.getRequestURI();
             // RFC2560 A.1.1 says that request longer than 255 bytes SHOULD be sent by POST, we support GET for longer requests anyway.
             if (url.length() <= LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
-                final String decodedRequest;
-                try {
-                    // We have to extract the pathInfo manually, to avoid multiple slashes being converted to a single
-                    // According to RFC 2396 2.2 chars only have to encoded if they conflict with the purpose, so
-                    // we can for example expect both '/' and "%2F" in the request.
-                    final String fullServletpath = request.getContextPath() + request.getServletPath();
-                    final int paramIx = Math.max(url.indexOf(fullServletpath), 0) + fullServletpath.length() + 1;
-                    final String requestString = paramIx < url.length() ? url.substring(paramIx) : "";
-                    decodedRequest = URLDecoder.decode(requestString, "UTF-8").replaceAll(" ", "+");
-                } catch (Exception e) {
-                    String msg = intres.getLocalizedMessage("ocsp.badurlenc");
-                    log.info(msg);
-                    throw new MalformedRequestException(e);
-                }
-                if (decodedRequest != null && decodedRequest.length() > 0) {
+                // We have to extract the pathInfo manually, to avoid multiple slashes being converted to a single
+                // According to RFC 2396 2.2 chars only have to encoded if they conflict with the purpose, so
+                // we can for example expect both '/' and "%2F" in the request.
+                final String fullServletpath = request.getContextPath() + request.getServletPath();
+                final int paramIx = Math.max(url.indexOf(fullServletpath), 0) + fullServletpath.length() + 1;
+                if (paramIx < url.length()) {
                     if (log.isDebugEnabled()) {
                         // Don't log the request if it's too long, we don't want to cause denial of service by filling log files or buffers.
-                        if (decodedRequest.length() < 2048) {
-                            log.debug("decodedRequest: " + decodedRequest);
+                        if (url.length() - paramIx < 2048) {
+                            log.debug("encodedRequest: " + url.substring(paramIx));
                         } else {
-                            log.debug("decodedRequest too long to log: " + decodedRequest.length());
+                            log.debug("encodedRequest too long to log: " + (url.length() - paramIx));
                         }
                     }
-                    try {
-                        ret = Base64.decode(decodedRequest.getBytes());
-                    } catch (Exception e) {
-                        String msg = intres.getLocalizedMessage("ocsp.badurlenc");
-                        log.info(msg);
-                        throw new MalformedRequestException(e);
-                    }
+                    // URL and Base64 decoding in one pass, without intermediate strings
+                    ret = OcspRequestReader.decodeGetRequest(url, paramIx);
                 } else {
                     String msg = intres.getLocalizedMessage("ocsp.missingreq");
                     log.info(msg);